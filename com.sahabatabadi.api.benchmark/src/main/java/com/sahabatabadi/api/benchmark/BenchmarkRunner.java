@@ -0,0 +1,34 @@
+package com.sahabatabadi.api.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler, so every result comes with its
+ * allocation rate ({@code gc.alloc.rate.norm} is bytes per operation). Takes
+ * the usual JMH command line options, e.g. a benchmark name regex,
+ * {@code -p lines=1000}, or {@code -rf json}.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class BenchmarkRunner {
+    /**
+     * Private constructor, this class only has static members
+     */
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
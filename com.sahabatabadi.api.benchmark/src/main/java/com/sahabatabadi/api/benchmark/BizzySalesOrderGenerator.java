@@ -0,0 +1,98 @@
+package com.sahabatabadi.api.benchmark;
+
+import java.util.Date;
+import java.util.Random;
+
+import com.sahabatabadi.api.salesorder.BizzySalesOrder;
+import com.sahabatabadi.api.salesorder.BizzySalesOrderLine;
+
+/**
+ * Generates synthetic {@link BizzySalesOrder} objects for the benchmarks. Lines
+ * are spread at random over the specified number of principals and discounts,
+ * so one order splits into up to {@code principals * discounts} SAS SOs. The
+ * generator is seeded, so every fork of a benchmark sees the same orders.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class BizzySalesOrderGenerator {
+    /**
+     * Number of distinct discounts the generator can give
+     */
+    public static final int MAX_DISCOUNTS = 10;
+
+    /**
+     * Discounts given by principals, in percent
+     */
+    private static final double[] DISCOUNTS = { 0.0, 2.5, 5.0, 7.5, 10.0, 12.5, 15.0, 17.5, 20.0, 25.0 };
+
+    /**
+     * Org codes of {@link com.sahabatabadi.api.salesorder.SalesOrderUtils#orgMap}
+     */
+    private static final char[] ORG_CODES = { 'A', 'B', 'C', 'D', 'M' };
+
+    private final Random random;
+
+    /**
+     * Default constructor
+     *
+     * @param seed seed of the generated orders
+     */
+    public BizzySalesOrderGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generates one order.
+     *
+     * @param lines      number of SO lines
+     * @param principals number of distinct principals of the lines, at most
+     *                   {@code lines}
+     * @param discounts  number of distinct discounts of the lines, at most
+     *                   {@value #MAX_DISCOUNTS}
+     * @return the generated order
+     */
+    public BizzySalesOrder generate(int lines, int principals, int discounts) {
+        BizzySalesOrder bizzySo = new BizzySalesOrder();
+        bizzySo.soff_code = ORG_CODES[random.nextInt(ORG_CODES.length)];
+        bizzySo.description = "Benchmark SO " + random.nextInt(1000000);
+        bizzySo.dateOrdered = new Date();
+        bizzySo.bpHoldingNo = 1 + random.nextInt(99999);
+        bizzySo.bpLocationName = "Benchmark Location " + random.nextInt(100);
+        bizzySo.orderSource = random.nextBoolean() ? 'B' : 'S';
+        bizzySo.orderLines = new BizzySalesOrderLine[lines];
+
+        int principalCount = Math.max(1, Math.min(principals, lines));
+        int discountCount = Math.max(1, Math.min(discounts, MAX_DISCOUNTS));
+        for (int i = 0; i < lines; i++) {
+            BizzySalesOrderLine line = new BizzySalesOrderLine();
+            line.productId = String.format("PRD%06d", random.nextInt(1000000));
+            line.quantity = 1 + random.nextInt(100);
+            // every principal and discount appears at least once when there are
+            // enough lines
+            int principal = i < principalCount ? i : random.nextInt(principalCount);
+            int discount = i < discountCount ? i : random.nextInt(discountCount);
+            line.principalId = String.format("P%03d", principal);
+            line.discount = DISCOUNTS[discount];
+            bizzySo.orderLines[i] = line;
+        }
+        return bizzySo;
+    }
+
+    /**
+     * Generates several orders.
+     *
+     * @param count      number of orders
+     * @param lines      number of SO lines of each order
+     * @param principals number of distinct principals of each order
+     * @param discounts  number of distinct discounts of each order
+     * @return the generated orders
+     */
+    public BizzySalesOrder[] generate(int count, int lines, int principals, int discounts) {
+        BizzySalesOrder[] bizzySos = new BizzySalesOrder[count];
+        for (int i = 0; i < count; i++) {
+            bizzySos[i] = generate(lines, principals, discounts);
+        }
+        return bizzySos;
+    }
+}
@@ -0,0 +1,105 @@
+package com.sahabatabadi.api.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sahabatabadi.api.InjectionEngine;
+import com.sahabatabadi.api.salesorder.BizzySalesOrder;
+import com.sahabatabadi.api.salesorder.BizzySalesOrderLine;
+import com.sahabatabadi.api.salesorder.InMemoryLookupProvider;
+import com.sahabatabadi.api.salesorder.SASSalesOrder;
+import com.sahabatabadi.api.salesorder.SalesOrderInjector;
+import com.sahabatabadi.api.salesorder.SalesOrderUtils;
+
+/**
+ * Benchmarks enrichment of Bizzy SOs, then splitting and mapping them to
+ * {@link SASSalesOrder}s, against an {@link InMemoryLookupProvider}, so no
+ * database is needed. The provider is filled from the generated orders: every
+ * product, principal, and discount of the orders resolves.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class EnrichmentBenchmark {
+    @Param({ "1", "100" })
+    public int orders;
+
+    @Param({ "10", "1000" })
+    public int lines;
+
+    @Param({ "1", "16" })
+    public int principals;
+
+    @Param({ "3" })
+    public int discounts;
+
+    private InMemoryLookupProvider lookups;
+    private SalesOrderInjector injector;
+    private BizzySalesOrder[] bizzySos;
+    private String[] keys;
+
+    @Setup
+    public void setUp() {
+        bizzySos = new BizzySalesOrderGenerator(42).generate(orders, lines, principals, discounts);
+        keys = new String[orders];
+
+        lookups = new InMemoryLookupProvider();
+        for (BizzySalesOrder bizzySo : bizzySos) {
+            lookups.addBPLocation(bizzySo.bpLocationName, bizzySo.bpHoldingNo % 2 == 0);
+            for (BizzySalesOrderLine soLine : bizzySo.orderLines) {
+                String group1 = soLine.principalId + "-" + soLine.discount;
+                String orgTrx = "TR-" + soLine.principalId;
+                lookups.addProduct(soLine.productId, soLine.principalId, group1);
+                lookups.addOrgTrx(soLine.principalId, InMemoryLookupProvider.ANY_BP, orgTrx);
+                lookups.addDiscount(group1, InMemoryLookupProvider.ANY_BP, orgTrx, (int) (soLine.discount * 10));
+            }
+        }
+
+        injector = new SalesOrderInjector(InjectionEngine.getDefault(), true, lookups);
+    }
+
+    /**
+     * Looks up the principal, discount, tax status, and Org Trx of every order.
+     */
+    @Benchmark
+    public void enrich(Blackhole bh) {
+        bh.consume(injector.enrichSalesOrders(bizzySos, keys));
+    }
+
+    /**
+     * Enriches every order, splits it by principal and discount, and maps every
+     * split to a {@link SASSalesOrder}, without assigning document numbers.
+     */
+    @Benchmark
+    public void enrichSplitAndMap(Blackhole bh) {
+        bh.consume(injector.enrichSalesOrders(bizzySos, keys));
+        for (BizzySalesOrder bizzySo : bizzySos) {
+            String bpCode = SalesOrderUtils.prependZeros(bizzySo.bpHoldingNo, SASSalesOrder.BP_ID_LENGTH);
+            boolean isTax = lookups.getBPLocationIsTax(bizzySo.bpLocationName);
+            for (BizzySalesOrderLine[] soLineGroup : SalesOrderInjector.splitSoLines(bizzySo.orderLines)) {
+                BizzySalesOrder splitBizzySo = new BizzySalesOrder(bizzySo);
+                splitBizzySo.orderLines = soLineGroup;
+                bh.consume(new SASSalesOrder(splitBizzySo, isTax,
+                        lookups.getOrgTrx(bpCode, soLineGroup[0].principalId)));
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.sahabatabadi.api.benchmark;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sahabatabadi.api.ApiInjectable;
+import com.sahabatabadi.api.ColumnSpec;
+import com.sahabatabadi.api.DocumentInjector;
+import com.sahabatabadi.api.FieldMappingPlan;
+
+/**
+ * Benchmarks the part of {@link DocumentInjector}'s {@code processRow} that does
+ * not need a tab: reading the mapped fields of every record of a document and
+ * parsing their column names. Compares reflecting and parsing on every record
+ * against reading through the entries of a compiled {@link FieldMappingPlan},
+ * whose entries are built here without iDempiere metadata.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class FieldMappingBenchmark {
+    @Param({ "1", "10", "100" })
+    public int lines;
+
+    /**
+     * Header and lines of the document, in injection order
+     */
+    private ApiInjectable[] records;
+
+    /**
+     * Plan entries of each record, compiled like
+     * {@link FieldMappingPlan#get(ApiInjectable, org.compiere.model.GridTab)}
+     * without the tab fields and columns
+     */
+    private List<List<FieldMappingPlan.Entry>> plans;
+
+    /**
+     * Column names of every mapped field of each record
+     */
+    private List<String[]> specs;
+
+    @Setup
+    public void setUp() throws IllegalAccessException {
+        StubDocHeader header = new StubDocHeader("SOBENCH0000001", lines);
+        records = new ApiInjectable[lines + 1];
+        records[0] = header;
+        System.arraycopy(header.lines, 0, records, 1, lines);
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType getterType = MethodType.methodType(Object.class, Object.class);
+        plans = new ArrayList<>();
+        specs = new ArrayList<>();
+        for (ApiInjectable so : records) {
+            List<FieldMappingPlan.Entry> entries = new ArrayList<>();
+            List<String> columnSpecs = new ArrayList<>();
+            for (Field soField : so.getClass().getDeclaredFields()) {
+                if (!Modifier.isPublic(soField.getModifiers()) || Modifier.isStatic(soField.getModifiers())) {
+                    continue;
+                }
+
+                String columnSpec = so.getColumnName(soField.getName());
+                if (columnSpec == null) {
+                    continue;
+                }
+
+                entries.add(new FieldMappingPlan.Entry(soField.getName(),
+                        lookup.unreflectGetter(soField).asType(getterType), new ColumnSpec(columnSpec), -1, null,
+                        null));
+                columnSpecs.add(columnSpec);
+            }
+            plans.add(entries);
+            specs.add(columnSpecs.toArray(new String[columnSpecs.size()]));
+        }
+    }
+
+    /**
+     * Reflects over, reads, and parses the column names of every field of every
+     * record, as before plans were compiled.
+     */
+    @Benchmark
+    public void reflectEveryRecord(Blackhole bh) throws IllegalAccessException {
+        for (ApiInjectable so : records) {
+            for (Field soField : so.getClass().getDeclaredFields()) {
+                if (!Modifier.isPublic(soField.getModifiers()) || Modifier.isStatic(soField.getModifiers())) {
+                    continue;
+                }
+
+                String columnSpec = so.getColumnName(soField.getName());
+                if (columnSpec == null) {
+                    continue;
+                }
+
+                Object value = soField.get(so);
+                if (value == null) {
+                    continue;
+                }
+
+                ColumnSpec spec = new ColumnSpec(columnSpec);
+                bh.consume(value);
+                bh.consume(spec.getColumnName());
+                bh.consume(spec.getForeignColumn());
+            }
+        }
+    }
+
+    /**
+     * Reads every field of every record through its compiled plan entry.
+     */
+    @Benchmark
+    public void compiledPlan(Blackhole bh) throws Throwable {
+        for (int i = 0; i < records.length; i++) {
+            for (FieldMappingPlan.Entry entry : plans.get(i)) {
+                Object value = entry.getValue(records[i]);
+                if (value == null) {
+                    continue;
+                }
+
+                ColumnSpec spec = entry.getSpec();
+                bh.consume(value);
+                bh.consume(spec.getColumnName());
+                bh.consume(spec.getForeignColumn());
+            }
+        }
+    }
+
+    /**
+     * Parses the column names of every field of every record.
+     */
+    @Benchmark
+    public void parseColumnSpecs(Blackhole bh) {
+        for (String[] columnSpecs : specs) {
+            for (String columnSpec : columnSpecs) {
+                bh.consume(new ColumnSpec(columnSpec));
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.sahabatabadi.api.benchmark;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.compiere.Adempiere;
+
+import com.sahabatabadi.api.DocumentInjector;
+import com.sahabatabadi.api.DocumentNoAllocator;
+import com.sahabatabadi.api.ErrorLogWriter;
+import com.sahabatabadi.api.InjectionEngine;
+import com.sahabatabadi.api.LoginEmulator;
+import com.sahabatabadi.api.ThreadPoolManager;
+import com.sahabatabadi.api.rmi.Client;
+import com.sahabatabadi.api.salesorder.BizzySalesOrder;
+import com.sahabatabadi.api.salesorder.InMemoryLookupProvider;
+import com.sahabatabadi.api.salesorder.OrderLineBulkLoader;
+import com.sahabatabadi.api.salesorder.SASSalesOrderLine;
+import com.sahabatabadi.api.salesorder.SalesOrderInjector;
+import com.sahabatabadi.api.salesorder.SalesOrderPORules;
+import com.sahabatabadi.api.salesorder.SalesOrderPipeline;
+import com.sahabatabadi.api.salesorder.SalesOrderUtils;
+
+/**
+ * Compares the {@link InjectionEngine}s on the same Bizzy SOs, against a real
+ * iDempiere database. Every engine injects the whole batch once to warm up,
+ * then once per round; rounds of the engines are interleaved so that both see
+ * the same database load. Documents are rolled back, but their document
+ * numbers are consumed, so this harness must only be run against a test
+ * database.
+ *
+ * <p>
+ * Usage: {@code InjectionBenchmark [rounds]}, 10 rounds by default, from a JVM
+ * whose classpath holds the benchmark jar and the iDempiere server jars, and
+ * whose {@code PropertyFile} system property points to the
+ * {@code idempiere.properties} of the test database. The injection services
+ * the plugin activator starts are started here, except the RMI service. If
+ * {@value #LOOKUP_FIXTURE_PROPERTY} is set, Bizzy SOs are enriched from that
+ * fixture, see {@link InMemoryLookupProvider#load(java.io.Reader)}, instead of
+ * the database.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class InjectionBenchmark {
+    /**
+     * Largest number of rounds accepted
+     */
+    public static final int MAX_ROUNDS = 1000;
+
+    /**
+     * System property holding the path of a fixture file of
+     * {@link InMemoryLookupProvider}
+     */
+    public static final String LOOKUP_FIXTURE_PROPERTY = "sas.api.lookupFixture";
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private InjectionBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int rounds = (args.length < 1) ? 10 : Integer.parseInt(args[0]);
+        if (rounds < 0 || rounds > MAX_ROUNDS) {
+            System.err.println("Rounds must be between 0 and " + MAX_ROUNDS);
+            System.exit(1);
+        }
+
+        if (!Adempiere.startupEnvironment(false) || !LoginEmulator.emulateLogin()) {
+            System.err.println("Failed to start iDempiere or to log in");
+            System.exit(1);
+        }
+
+        String fixturePath = System.getProperty(LOOKUP_FIXTURE_PROPERTY);
+        if (fixturePath != null && !fixturePath.trim().isEmpty()) {
+            try {
+                InMemoryLookupProvider lookups = new InMemoryLookupProvider(fixturePath.trim());
+                System.out.println(lookups);
+                SalesOrderUtils.setLookupProvider(lookups);
+            } catch (IOException e) {
+                System.err.println("Failed to load lookup fixture " + fixturePath + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        ThreadPoolManager.reinitialize();
+        SalesOrderPipeline.reinitialize();
+        ErrorLogWriter.reinitialize();
+        DocumentNoAllocator.reinitialize();
+        SalesOrderPORules.register();
+        DocumentInjector.registerBulkLineLoader(SASSalesOrderLine.TABLE_NAME, new OrderLineBulkLoader());
+        try {
+            System.out.println(run(new BizzySalesOrder[] { Client.createTestBizzySo() }, rounds));
+        } finally {
+            SalesOrderPipeline.stop();
+            ThreadPoolManager.stop();
+            ErrorLogWriter.stop();
+            DocumentNoAllocator.stop();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Injects the specified Bizzy SOs with every engine, rolling back the
+     * results, and reports the time taken by each engine.
+     *
+     * @param bizzySos Bizzy SO objects to be injected in every round
+     * @param rounds   number of measured rounds per engine
+     * @return one report line per engine
+     */
+    public static String run(BizzySalesOrder[] bizzySos, int rounds) {
+        InjectionEngine[] engines = InjectionEngine.values();
+        Map<InjectionEngine, Result> results = new EnumMap<>(InjectionEngine.class);
+        for (InjectionEngine engine : engines) {
+            results.put(engine, new Result());
+            new SalesOrderInjector(engine, true).injectSalesOrders(bizzySos); // warm-up
+        }
+
+        for (int round = 0; round < rounds; round++) {
+            for (InjectionEngine engine : engines) {
+                SalesOrderInjector inj = new SalesOrderInjector(engine, true);
+
+                long start = System.nanoTime();
+                String[] docNums = inj.injectSalesOrders(bizzySos);
+                long elapsed = System.nanoTime() - start;
+
+                results.get(engine).add(elapsed, countDocuments(docNums));
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (InjectionEngine engine : engines) {
+            sb.append(engine).append(": ").append(results.get(engine).toString(rounds, bizzySos.length)).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Helper method to count the document numbers returned by
+     * {@link SalesOrderInjector#injectSalesOrders(BizzySalesOrder[])}.
+     *
+     * @param docNums document numbers per Bizzy SO, e.g. {@code "[A, B]"}
+     * @return number of injected documents
+     */
+    private static int countDocuments(String[] docNums) {
+        int count = 0;
+        for (String docNum : docNums) {
+            if (docNum != null && docNum.length() > 2) {
+                count += docNum.split(",").length;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Measurements of one engine.
+     */
+    static class Result {
+        private long totalNanos;
+        private long minNanos = Long.MAX_VALUE;
+        private long maxNanos;
+        private long documents;
+
+        void add(long elapsedNanos, int injectedDocuments) {
+            totalNanos += elapsedNanos;
+            minNanos = Math.min(minNanos, elapsedNanos);
+            maxNanos = Math.max(maxNanos, elapsedNanos);
+            documents += injectedDocuments;
+        }
+
+        String toString(int rounds, int orders) {
+            if (rounds == 0) {
+                return "no rounds";
+            }
+
+            return String.format("rounds=%d, orders/round=%d, documents=%d, min=%.1f ms, avg=%.1f ms, max=%.1f ms, "
+                    + "documents/s=%.1f", rounds, orders, documents, minNanos / 1e6, totalNanos / 1e6 / rounds,
+                    maxNanos / 1e6, totalNanos > 0 ? documents * 1e9 / totalNanos : 0.0);
+        }
+    }
+}
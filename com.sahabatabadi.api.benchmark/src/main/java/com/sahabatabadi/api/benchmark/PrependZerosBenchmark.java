@@ -0,0 +1,42 @@
+package com.sahabatabadi.api.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sahabatabadi.api.salesorder.SalesOrderUtils;
+
+/**
+ * Benchmarks {@link SalesOrderUtils#prependZeros(int, int)}, run for every BP
+ * code of every SO.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class PrependZerosBenchmark {
+    @Param({ "7", "1234", "12345" })
+    public int no;
+
+    @Param({ "5", "10" })
+    public int totalLength;
+
+    @Benchmark
+    public String prependZeros() {
+        return SalesOrderUtils.prependZeros(no, totalLength);
+    }
+}
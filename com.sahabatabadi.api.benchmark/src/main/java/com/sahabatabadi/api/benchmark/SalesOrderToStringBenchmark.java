@@ -0,0 +1,63 @@
+package com.sahabatabadi.api.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sahabatabadi.api.salesorder.SASSalesOrder;
+import com.sahabatabadi.api.salesorder.SASSalesOrderLine;
+
+/**
+ * Benchmarks {@link SASSalesOrder#toString()} and
+ * {@link SASSalesOrderLine#toString()}, which are built by reflection and run
+ * for every logged or failed SO. The SOs are converted without database
+ * lookups, see {@link SASSalesOrder#SASSalesOrder(com.sahabatabadi.api.salesorder.BizzySalesOrder, boolean, String)}.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SalesOrderToStringBenchmark {
+    @Param({ "1", "10", "100", "1000" })
+    public int lines;
+
+    private SASSalesOrder sasSo;
+
+    @Setup
+    public void setUp() {
+        sasSo = new SASSalesOrder(new BizzySalesOrderGenerator(42).generate(lines, 1, 1), true, "Philips");
+        sasSo.documentNo = "SOBENCH0000001";
+        for (SASSalesOrderLine orderLine : sasSo.orderLines) {
+            orderLine.documentNo = sasSo.documentNo;
+        }
+    }
+
+    @Benchmark
+    public String header() {
+        return sasSo.toString();
+    }
+
+    @Benchmark
+    public void headerAndLines(Blackhole bh) {
+        bh.consume(sasSo.toString());
+        for (SASSalesOrderLine orderLine : sasSo.orderLines) {
+            bh.consume(orderLine.toString());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.sahabatabadi.api.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sahabatabadi.api.salesorder.BizzySalesOrderLine;
+import com.sahabatabadi.api.salesorder.SalesOrderInjector;
+
+/**
+ * Benchmarks {@link SalesOrderInjector#splitSoLines(BizzySalesOrderLine[])},
+ * which groups the lines of every Bizzy SO by principal and discount.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SplitSoLinesBenchmark {
+    @Param({ "1", "10", "100", "1000", "10000" })
+    public int lines;
+
+    @Param({ "1", "4", "16" })
+    public int principals;
+
+    @Param({ "1", "3", "10" })
+    public int discounts;
+
+    private BizzySalesOrderLine[] bizzySoLines;
+
+    @Setup
+    public void setUp() {
+        bizzySoLines = new BizzySalesOrderGenerator(42).generate(lines, principals, discounts).orderLines;
+    }
+
+    @Benchmark
+    public ArrayList<BizzySalesOrderLine[]> splitSoLines() {
+        return SalesOrderInjector.splitSoLines(bizzySoLines);
+    }
+}
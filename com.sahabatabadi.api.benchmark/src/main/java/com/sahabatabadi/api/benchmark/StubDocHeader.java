@@ -0,0 +1,97 @@
+package com.sahabatabadi.api.benchmark;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sahabatabadi.api.DocHeader;
+import com.sahabatabadi.api.DocLine;
+
+/**
+ * {@link DocHeader} with a mix of plain, key, and foreign columns, shaped like
+ * an SO header, for benchmarking field mapping without iDempiere.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class StubDocHeader implements DocHeader {
+    public static final String TABLE_NAME = "C_Order";
+
+    public String org = "Sunter";
+    public String documentNo;
+    public String description = "Benchmark header";
+    public String docType = "Sales Order";
+    public Date dateOrdered = new Date();
+    public Date datePromised = dateOrdered;
+    public String bpCode = "01234";
+    public String invoiceBpCode = "01234";
+    public String bpLocation = "Benchmark Location";
+    public String invoiceBpLocation = "Benchmark Location";
+    public String warehouse = "Sunter";
+    public String orgTrx = "Philips";
+    public BigDecimal grandTotal = BigDecimal.ZERO;
+    public String poReference;
+
+    public StubDocLine[] lines;
+
+    /**
+     * Mapping between the field names and column names in iDempiere Template
+     * format
+     */
+    public static final Map<String, String> fieldColumnMap;
+
+    static {
+        HashMap<String, String> tempFieldColumnMap = new HashMap<>();
+        tempFieldColumnMap.put("org", "AD_Org_ID[Name]");
+        tempFieldColumnMap.put("documentNo", "DocumentNo/K");
+        tempFieldColumnMap.put("description", "Description");
+        tempFieldColumnMap.put("docType", "C_DocTypeTarget_ID[Name]");
+        tempFieldColumnMap.put("dateOrdered", "DateOrdered");
+        tempFieldColumnMap.put("datePromised", "DatePromised");
+        tempFieldColumnMap.put("bpCode", "C_BPartner_ID[Value]");
+        tempFieldColumnMap.put("invoiceBpCode", "Bill_BPartner_ID[Value]");
+        tempFieldColumnMap.put("bpLocation", "C_BPartner_Location_ID[Name]");
+        tempFieldColumnMap.put("invoiceBpLocation", "Bill_Location_ID[Name]");
+        tempFieldColumnMap.put("warehouse", "M_Warehouse_ID[Value]");
+        tempFieldColumnMap.put("orgTrx", "AD_OrgTrx_ID[Name]");
+        tempFieldColumnMap.put("grandTotal", "GrandTotal");
+        tempFieldColumnMap.put("poReference", "POReference");
+        fieldColumnMap = Collections.unmodifiableMap(tempFieldColumnMap);
+    }
+
+    /**
+     * Default constructor
+     *
+     * @param documentNo document number of the header and its lines
+     * @param lineCount  number of lines
+     */
+    public StubDocHeader(String documentNo, int lineCount) {
+        this.documentNo = documentNo;
+        this.lines = new StubDocLine[lineCount];
+        for (int i = 0; i < lineCount; i++) {
+            this.lines[i] = new StubDocLine(this, (i + 1) * 10);
+        }
+    }
+
+    @Override
+    public String getColumnName(String fieldName) {
+        return fieldColumnMap.get(fieldName);
+    }
+
+    @Override
+    public String getTableName() {
+        return TABLE_NAME;
+    }
+
+    @Override
+    public String getDocumentNo() {
+        return documentNo;
+    }
+
+    @Override
+    public DocLine[] getLines() {
+        return lines;
+    }
+}
@@ -0,0 +1,80 @@
+package com.sahabatabadi.api.benchmark;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sahabatabadi.api.DocHeader;
+import com.sahabatabadi.api.DocLine;
+
+/**
+ * {@link DocLine} with detail, key, and foreign columns, shaped like an SO
+ * line, for benchmarking field mapping without iDempiere.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class StubDocLine implements DocLine {
+    public static final String TABLE_NAME = "C_OrderLine";
+
+    public String documentNo;
+    public int lineNo;
+    public String productId = "PRD000001";
+    public BigDecimal quantity = BigDecimal.TEN;
+    public Date datePromised;
+    public String description;
+
+    private final StubDocHeader header;
+
+    /**
+     * Mapping between the field names and column names in iDempiere Template
+     * format
+     */
+    public static final Map<String, String> fieldColumnMap;
+
+    static {
+        HashMap<String, String> tempFieldColumnMap = new HashMap<>();
+        tempFieldColumnMap.put("documentNo", "C_OrderLine>C_Order_ID[DocumentNo]/K");
+        tempFieldColumnMap.put("lineNo", "C_OrderLine>Line/K");
+        tempFieldColumnMap.put("productId", "C_OrderLine>M_Product_ID[Value]");
+        tempFieldColumnMap.put("quantity", "C_OrderLine>QtyEntered");
+        tempFieldColumnMap.put("datePromised", "C_OrderLine>DatePromised");
+        tempFieldColumnMap.put("description", "C_OrderLine>Description");
+        fieldColumnMap = Collections.unmodifiableMap(tempFieldColumnMap);
+    }
+
+    /**
+     * Default constructor
+     *
+     * @param header header of the line
+     * @param lineNo line number
+     */
+    public StubDocLine(StubDocHeader header, int lineNo) {
+        this.header = header;
+        this.lineNo = lineNo;
+        this.documentNo = header.documentNo;
+        this.datePromised = header.datePromised;
+    }
+
+    @Override
+    public String getColumnName(String fieldName) {
+        return fieldColumnMap.get(fieldName);
+    }
+
+    @Override
+    public String getTableName() {
+        return TABLE_NAME;
+    }
+
+    @Override
+    public String getDocumentNo() {
+        return documentNo;
+    }
+
+    @Override
+    public DocHeader getHeader() {
+        return header;
+    }
+}
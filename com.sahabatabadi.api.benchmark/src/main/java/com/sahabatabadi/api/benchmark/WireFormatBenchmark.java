@@ -0,0 +1,98 @@
+package com.sahabatabadi.api.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sahabatabadi.api.salesorder.BizzySalesOrder;
+import com.sahabatabadi.api.salesorder.BizzySalesOrderBatch;
+
+/**
+ * Benchmarks sending Bizzy SOs over RMI with default serialization against
+ * the compact encoding of {@link BizzySalesOrderBatch}, both as RMI marshals
+ * them through object streams. The encoded sizes are printed once per fork.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class WireFormatBenchmark {
+    @Param({ "1", "10" })
+    public int orders;
+
+    @Param({ "1", "100", "10000" })
+    public int lines;
+
+    @Param({ "4" })
+    public int principals;
+
+    private BizzySalesOrder[] bizzySos;
+    private byte[] serialized;
+    private byte[] compact;
+
+    @Setup
+    public void setUp() throws IOException {
+        bizzySos = new BizzySalesOrderGenerator(42).generate(orders, lines, principals, 3);
+        serialized = toBytes(bizzySos);
+        compact = toBytes(new BizzySalesOrderBatch(bizzySos));
+        System.out.printf("%nencoded size: serialized=%d bytes, compact=%d bytes%n", serialized.length,
+                compact.length);
+    }
+
+    @Benchmark
+    public byte[] writeSerialized() throws IOException {
+        return toBytes(bizzySos);
+    }
+
+    @Benchmark
+    public byte[] writeCompact() throws IOException {
+        return toBytes(new BizzySalesOrderBatch(bizzySos));
+    }
+
+    @Benchmark
+    public Object readSerialized() throws IOException, ClassNotFoundException {
+        return fromBytes(serialized);
+    }
+
+    @Benchmark
+    public Object readCompact() throws IOException, ClassNotFoundException {
+        return ((BizzySalesOrderBatch) fromBytes(compact)).getSalesOrders();
+    }
+
+    private static byte[] toBytes(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(obj);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object fromBytes(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
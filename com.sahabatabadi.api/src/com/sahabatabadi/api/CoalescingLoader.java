@@ -0,0 +1,280 @@
+package com.sahabatabadi.api;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.compiere.util.CLogger;
+
+/**
+ * Merges lookups issued by different threads within a short window into a
+ * single {@link IBatchLoader#loadAll(Set)} call, then fans the results back
+ * out to every waiting thread. Under burst load, concurrent injections asking
+ * for the same products, BPs, and locations share one {@code IN (...)} query
+ * instead of each sending its own single-row query.
+ * 
+ * <p>
+ * The first thread to request a key opens a batch and becomes its leader. If
+ * no other batch is being loaded, the leader runs its batch at once, so a lone
+ * lookup pays no coalescing delay. Otherwise the batch stays open for other
+ * threads' keys until the batch being loaded completes, the batch reaches
+ * {@link #getMaxBatchSize()} keys, or {@link #getWindowMillis()} elapses,
+ * whichever comes first, and the leader then runs it on its own thread.
+ * Nothing is cached; every batch goes to the database.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ * 
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class CoalescingLoader<K, V> {
+    /**
+     * Default longest time a batch stays open for other threads' keys while
+     * another batch is being loaded, in milliseconds
+     */
+    public static final long DEFAULT_WINDOW_MS = 2;
+
+    /**
+     * Default number of keys at which a batch is closed, kept within the
+     * parameter limits of {@code IN (...)} queries
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+    protected static CLogger log = CLogger.getCLogger(CoalescingLoader.class);
+
+    /**
+     * Loader resolving a whole batch of keys
+     */
+    private final IBatchLoader<K, V> loader;
+
+    /**
+     * Longest time a batch stays open for other threads' keys while another
+     * batch is being loaded, in milliseconds
+     */
+    private final long windowMillis;
+
+    /**
+     * Number of keys at which a batch is closed before its window ends
+     */
+    private final int maxBatchSize;
+
+    /**
+     * Batch currently accepting keys, or null. Guarded by {@link #lock}.
+     */
+    private Batch currentBatch;
+
+    /**
+     * Number of batches being loaded. Guarded by {@link #lock}.
+     */
+    private int loading;
+
+    private final Object lock = new Object();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedKeys = new AtomicLong();
+
+    /**
+     * Default constructor
+     * 
+     * @param loader       loader resolving a whole batch of keys
+     * @param windowMillis longest time a batch stays open for other threads'
+     *                     keys while another batch is being loaded, in
+     *                     milliseconds
+     * @param maxBatchSize number of keys at which a batch is closed before its
+     *                     window ends
+     */
+    public CoalescingLoader(IBatchLoader<K, V> loader, long windowMillis, int maxBatchSize) {
+        this.loader = loader;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Resolves a single key, sharing the database round trip with other threads
+     * resolving keys at the same time.
+     * 
+     * @param key key to be resolved
+     * @return the resolved value, or null if the key could not be resolved
+     */
+    public V load(K key) {
+        return loadAll(Collections.singleton(key)).get(key);
+    }
+
+    /**
+     * Resolves several keys, sharing the database round trip with other threads
+     * resolving keys at the same time. Keys which do not fit in the current
+     * batch are resolved in the following batches.
+     * 
+     * @param keys keys to be resolved
+     * @return mapping between key and resolved value. Keys which could not be
+     *         resolved are absent from the mapping.
+     */
+    public Map<K, V> loadAll(Collection<K> keys) {
+        requests.incrementAndGet();
+
+        HashMap<K, V> results = new HashMap<>();
+        Set<K> requested = new LinkedHashSet<>(keys);
+        Set<K> remaining = new LinkedHashSet<>(requested);
+        while (!remaining.isEmpty()) {
+            Batch batch;
+            boolean isLeader = false;
+            synchronized (lock) {
+                if (currentBatch == null) {
+                    currentBatch = new Batch();
+                    isLeader = true;
+                }
+                batch = currentBatch;
+
+                Iterator<K> it = remaining.iterator();
+                while (it.hasNext() && batch.keys.size() < maxBatchSize) {
+                    batch.keys.add(it.next());
+                    it.remove();
+                }
+
+                if (batch.keys.size() >= maxBatchSize) {
+                    currentBatch = null;
+                    lock.notifyAll();
+                }
+            }
+
+            if (isLeader) {
+                runBatch(batch);
+            } else {
+                batch.await();
+            }
+
+            for (K key : batch.keys) {
+                if (requested.contains(key) && batch.results.containsKey(key)) {
+                    results.put(key, batch.results.get(key));
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Helper method run by the leader of a batch: unless no other batch is being
+     * loaded, waits for the loading batches to complete, the window to end, or
+     * the batch to fill up, then closes the batch and runs it.
+     * 
+     * @param batch batch led by the calling thread
+     */
+    private void runBatch(Batch batch) {
+        synchronized (lock) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+            long remainingNanos;
+            while (currentBatch == batch && loading > 0 && (remainingNanos = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remainingNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            if (currentBatch == batch) {
+                currentBatch = null;
+            }
+            loading++;
+        }
+
+        try {
+            batches.incrementAndGet();
+            batchedKeys.addAndGet(batch.keys.size());
+
+            Map<K, V> loaded = loader.loadAll(batch.keys);
+            if (loaded != null) {
+                batch.results.putAll(loaded);
+            }
+        } catch (RuntimeException e) {
+            log.log(Level.SEVERE, "Failed to load batch of " + batch.keys.size() + " keys", e);
+        } finally {
+            batch.done.countDown();
+
+            synchronized (lock) {
+                loading--;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return number of load requests served
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return number of batches sent to the loader
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * @return total number of keys sent to the loader
+     */
+    public long getBatchedKeyCount() {
+        return batchedKeys.get();
+    }
+
+    /**
+     * A set of keys resolved together by one loader call.
+     */
+    class Batch {
+        /**
+         * Keys of this batch, in insertion order. Only modified under
+         * {@link CoalescingLoader#lock} while the batch is open.
+         */
+        final Set<K> keys = new LinkedHashSet<>();
+
+        /**
+         * Resolved values. Only read after {@link #done} is released.
+         */
+        final Map<K, V> results = new HashMap<>();
+
+        /**
+         * Released once the batch has been run
+         */
+        final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * Waits until the leader has run this batch.
+         */
+        void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.sahabatabadi.api;
+
+/**
+ * Parsed form of a column name in iDempiere Template format, as returned by
+ * {@link ApiInjectable#getColumnName(String)}. For example,
+ * {@code "C_OrderLine>C_Order_ID[DocumentNo]/K"} is a key column of a detail
+ * record, referencing a foreign table through its {@code DocumentNo} column,
+ * whose plain column name is {@code C_Order_ID}.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class ColumnSpec {
+    /**
+     * Column name in iDempiere Template format, as specified
+     */
+    private final String spec;
+
+    /**
+     * Column name after removing the Template annotations
+     */
+    private final String columnName;
+
+    /**
+     * Column name of the value in the foreign table, or null if the column does
+     * not reference a foreign table
+     */
+    private final String foreignColumn;
+
+    /**
+     * Whether the column is a key column
+     */
+    private final boolean isKey;
+
+    /**
+     * Whether the column references a foreign table
+     */
+    private final boolean isForeign;
+
+    /**
+     * Whether the column belongs in a detail record
+     */
+    private final boolean isDetail;
+
+    /**
+     * Parses a column name in iDempiere Template format.
+     * 
+     * @param spec column name in iDempiere Template format
+     */
+    public ColumnSpec(String spec) {
+        this.spec = spec;
+        this.isKey = spec.indexOf("/") > 0;
+        this.isForeign = spec.indexOf("[") > 0 && spec.indexOf("]") > 0;
+        this.isDetail = spec.indexOf(">") > 0;
+        this.foreignColumn = isForeign ? spec.substring(spec.indexOf("[") + 1, spec.indexOf("]")) : null;
+        this.columnName = cleanColumnName(isKey, isForeign, isDetail, spec);
+    }
+
+    /**
+     * Helper method to clean the record name of the extra annotation, returning the
+     * remaining column name.
+     * 
+     * @param isKey     true if the column is a key column
+     * @param isForeign true if the column references a foreign table
+     * @param isDetail  true if the column belongs in a detail record
+     * @param headName  header name
+     * @return column name after cleaning
+     */
+    private static String cleanColumnName(boolean isKey, boolean isForeign, boolean isDetail, String headName) {
+        if (isKey) {
+            if (headName.indexOf("/") > 0 && headName.endsWith("K")) {
+                headName = headName.substring(0, headName.length() - 2);
+            }
+        }
+
+        if (isForeign) {
+            headName = headName.substring(0, headName.indexOf("["));
+        }
+
+        if (isDetail) {
+            headName = headName.substring(headName.indexOf(">") + 1, headName.length());
+            if (headName.indexOf(">") > 0) {
+                headName = headName.substring(headName.indexOf(">") + 1, headName.length());
+            }
+        }
+
+        return headName;
+    }
+
+    public String getSpec() {
+        return spec;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    public String getForeignColumn() {
+        return foreignColumn;
+    }
+
+    public boolean isKey() {
+        return isKey;
+    }
+
+    public boolean isForeign() {
+        return isForeign;
+    }
+
+    public boolean isDetail() {
+        return isDetail;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,161 @@
+package com.sahabatabadi.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the number of injection tasks doing database work at once, so the
+ * number of threads running tasks, see {@link IExecutorStrategy}, can grow past
+ * the size of the database connection pool. A permit is held only around the
+ * database work itself, e.g. a document's transaction or a batch of lookups,
+ * and must be returned before the holder hands work over to another
+ * {@link PipelineStage} or waits for room in a queue: a holder blocked on a
+ * full queue would otherwise keep the permit its consumers need. Entering
+ * again from a thread which already holds a permit, e.g. a nested task run by
+ * its submitting worker, does not take another one.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class DatabaseThrottle {
+    /**
+     * System property holding the maximum number of tasks doing database work at
+     * once
+     */
+    public static final String MAX_CONCURRENCY_PROPERTY = "sas.api.maxDbConcurrency";
+
+    /**
+     * Maximum used if {@value #MAX_CONCURRENCY_PROPERTY} is not set
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY = 4 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maximum number of tasks doing database work at once
+     */
+    private static volatile int maxConcurrency = readMaxConcurrency();
+
+    /**
+     * Permits of the throttle, resized by {@link #reinitialize()}
+     */
+    private static final ResizableSemaphore permits = new ResizableSemaphore(maxConcurrency);
+
+    /**
+     * Permit held by the current thread and how many times the thread entered
+     */
+    private static final ThreadLocal<Hold> holds = new ThreadLocal<>();
+
+    private static final AtomicInteger waiting = new AtomicInteger();
+    private static final AtomicLong entered = new AtomicLong();
+    private static final AtomicLong waited = new AtomicLong();
+    private static final AtomicLong waitNanos = new AtomicLong();
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private DatabaseThrottle() {
+    }
+
+    /**
+     * Resizes the permits to {@value #MAX_CONCURRENCY_PROPERTY}. Permits already
+     * taken count against the new size, so shrinking the throttle holds new
+     * tasks back until enough holders are done.
+     */
+    public static synchronized void reinitialize() {
+        int max = readMaxConcurrency();
+        permits.resize(max);
+        maxConcurrency = max;
+    }
+
+    /**
+     * Changes {@value #MAX_CONCURRENCY_PROPERTY}, then resizes the permits.
+     *
+     * @param max maximum number of tasks doing database work at once, at least 1
+     */
+    public static void setMaxConcurrency(int max) {
+        System.setProperty(MAX_CONCURRENCY_PROPERTY, Integer.toString(Math.max(1, max)));
+        reinitialize();
+    }
+
+    /**
+     * @return value of {@value #MAX_CONCURRENCY_PROPERTY}, at least 1
+     */
+    private static int readMaxConcurrency() {
+        return Math.max(1, Integer.getInteger(MAX_CONCURRENCY_PROPERTY, DEFAULT_MAX_CONCURRENCY));
+    }
+
+    /**
+     * Waits for a permit to do database work. Every call must be followed by a
+     * call to {@link #exit()} in a finally block.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void enter() throws InterruptedException {
+        Hold hold = holds.get();
+        if (hold != null) {
+            hold.depth += 1;
+            return;
+        }
+
+        entered.incrementAndGet();
+        if (!permits.tryAcquire()) {
+            long start = System.nanoTime();
+            waited.incrementAndGet();
+            waiting.incrementAndGet();
+            try {
+                permits.acquire();
+            } finally {
+                waiting.decrementAndGet();
+                waitNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+        holds.set(new Hold());
+    }
+
+    /**
+     * Returns the permit taken by the matching {@link #enter()}.
+     */
+    public static void exit() {
+        Hold hold = holds.get();
+        if (hold == null) {
+            return;
+        }
+
+        hold.depth -= 1;
+        if (hold.depth == 0) {
+            holds.remove();
+            permits.release();
+        }
+    }
+
+    /**
+     * @return number of tasks waiting for a permit
+     */
+    public static int getWaitingCount() {
+        return waiting.get();
+    }
+
+    /**
+     * @return maximum number of tasks doing database work at once
+     */
+    public static int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return number of permits taken, waiters, and wait time, for logging
+     */
+    public static String getStatistics() {
+        long waitedCount = waited.get();
+        return String.format("Database throttle: max=%d, available=%d, waiting=%d, entered=%d, waited=%d, avg wait=%d ms",
+                getMaxConcurrency(), permits.availablePermits(), waiting.get(), entered.get(), waitedCount,
+                waitedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos.get() / waitedCount));
+    }
+
+    /**
+     * Permit held by a thread.
+     */
+    private static class Hold {
+        private int depth = 1;
+    }
+}
@@ -1,16 +1,15 @@
 package com.sahabatabadi.api;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import org.adempiere.base.Core;
@@ -18,8 +17,6 @@ import org.compiere.model.DataStatusEvent;
 import org.compiere.model.DataStatusListener;
 import org.compiere.model.GridField;
 import org.compiere.model.GridTab;
-import org.compiere.model.GridWindow;
-import org.compiere.model.GridWindowVO;
 import org.compiere.model.MColumn;
 import org.compiere.model.MLookup;
 import org.compiere.model.MTable;
@@ -30,15 +27,14 @@ import org.compiere.util.Env;
 import org.compiere.util.Trx;
 import org.compiere.util.ValueNamePair;
 
+import com.sahabatabadi.api.InjectionMetrics.Counter;
+import com.sahabatabadi.api.InjectionMetrics.Stage;
+
 /**
- * A class to inject {@link DocHeader} into iDempiere.
+ * A class to inject {@link DocHeader} into iDempiere through the GridTab model
+ * of an iDempiere window, running the window's callouts as the UI would.
  */
-public class DocumentInjector {
-    /**
-     * iDempiere Menu name for the API Error Log window
-     */
-    private final String API_ERROR_LOG_MENU_NAME = "API Error Log";
-
+public class DocumentInjector implements IDocumentInjector {
     /**
      * Prefix for logger messages
      */
@@ -49,7 +45,33 @@ public class DocumentInjector {
     /**
      * Window number last returned by {@link #getNextWindowNo()}.
      */
-    private static int lastReturnedWindowNo = 1000;
+    private static final AtomicInteger lastReturnedWindowNo = new AtomicInteger(1000);
+
+    /**
+     * Mapping between {@code "<foreign table>.<foreign column>"} and the
+     * {@link IForeignResolver} consulted before querying the foreign table.
+     */
+    private static final Map<String, IForeignResolver> foreignResolvers = new ConcurrentHashMap<>();
+
+    /**
+     * System property setting the minimum number of lines of a document for its
+     * lines to be written by an {@link IBulkLineLoader}
+     */
+    public static final String BULK_LOAD_MIN_LINES_PROPERTY = "sas.api.bulkLoadMinLines";
+
+    /**
+     * Default minimum number of lines of a document for its lines to be written
+     * by an {@link IBulkLineLoader}. 0 disables bulk loading, which bypasses
+     * the business logic of saving lines one by one and has to be enabled
+     * explicitly.
+     */
+    public static final int DEFAULT_BULK_LOAD_MIN_LINES = 0;
+
+    /**
+     * Mapping between line table name and the {@link IBulkLineLoader} writing
+     * lines of large documents.
+     */
+    private static final Map<String, IBulkLineLoader> bulkLineLoaders = new ConcurrentHashMap<>();
 
     /**
      * Menu ID associated with the injecting iDempiere Window
@@ -71,16 +93,33 @@ public class DocumentInjector {
      */
     private List<GridTab> childs;
 
+    /**
+     * Window checked out from {@link GridWindowPool} for the document being
+     * injected
+     */
+    private GridWindowPool.PooledWindow pooledWindow;
+
     /**
      * Whether the header/master record for the error log has been created
      */
     private boolean errorHeaderCreated;
 
+    /**
+     * Error log entries of the document being injected, written by
+     * {@link ErrorLogWriter} once the document's transaction is closed
+     */
+    private List<ErrorLogWriter.Entry> errorLogEntries = new ArrayList<>();
+
     /**
      * Whether the injector failed to inject the documents
      */
     private boolean isError;
 
+    /**
+     * Whether injected documents are rolled back instead of committed
+     */
+    private boolean rollbackOnly;
+
     /**
      * Transaction object representing the insertion operation
      */
@@ -97,6 +136,12 @@ public class DocumentInjector {
      */
     private PO masterRecord;
 
+    /**
+     * Foreign keys already resolved for the document being injected and its
+     * sibling documents, can be null
+     */
+    private final ResolutionContext resolutionContext;
+
     /**
      * Creates a DocumentInjector instance associated with a specific iDempiere
      * Window. The Window determines the resulting record type. For example,
@@ -106,16 +151,125 @@ public class DocumentInjector {
      * @param menuId   window ID associated with the injecting iDempiere Window
      */
     public DocumentInjector(int windowId, int menuId) {
+        this(windowId, menuId, null);
+    }
+
+    /**
+     * Creates a DocumentInjector instance associated with a specific iDempiere
+     * Window, resolving foreign keys from the specified {@link ResolutionContext}
+     * before falling back to {@link ForeignKeyCache} and the database.
+     * 
+     * @param windowId          menu ID associated with the injecting iDempiere
+     *                          Window
+     * @param menuId            window ID associated with the injecting iDempiere
+     *                          Window
+     * @param resolutionContext foreign keys already resolved for the documents to
+     *                          be injected, can be null
+     */
+    public DocumentInjector(int windowId, int menuId, ResolutionContext resolutionContext) {
         this.windowId = windowId;
         this.menuId = menuId;
+        this.resolutionContext = resolutionContext;
+    }
+
+    /**
+     * Registers a resolver to be consulted before querying the database when
+     * resolving values of the specified foreign table and column. Replaces any
+     * resolver previously registered for the same table and column.
+     * 
+     * @param foreignTable  table where the record resides, e.g.
+     *                      {@code "M_Product"}
+     * @param foreignColumn column name of the value specified, e.g.
+     *                      {@code "Value"}
+     * @param resolver      resolver to be registered
+     */
+    public static void registerForeignResolver(String foreignTable, String foreignColumn, IForeignResolver resolver) {
+        foreignResolvers.put(foreignTable + "." + foreignColumn, resolver);
+    }
+
+    /**
+     * Removes the resolver registered for the specified foreign table and column,
+     * if any.
+     * 
+     * @param foreignTable  table where the record resides
+     * @param foreignColumn column name of the value specified
+     */
+    public static void unregisterForeignResolver(String foreignTable, String foreignColumn) {
+        foreignResolvers.remove(foreignTable + "." + foreignColumn);
+    }
+
+    /**
+     * Registers a loader writing the lines of the specified table for documents
+     * with at least {@link #getBulkLoadMinLines()} lines, in place of injecting
+     * them one by one. Replaces any loader previously registered for the table.
+     * 
+     * @param lineTable table name of the lines, e.g. {@code "C_OrderLine"}
+     * @param loader    loader to be registered
+     */
+    public static void registerBulkLineLoader(String lineTable, IBulkLineLoader loader) {
+        bulkLineLoaders.put(lineTable, loader);
+    }
+
+    /**
+     * Removes the loader registered for the specified line table, if any.
+     * 
+     * @param lineTable table name of the lines
+     */
+    public static void unregisterBulkLineLoader(String lineTable) {
+        bulkLineLoaders.remove(lineTable);
+    }
+
+    /**
+     * @return minimum number of lines of a document for its lines to be written
+     *         by an {@link IBulkLineLoader}, from the
+     *         {@value #BULK_LOAD_MIN_LINES_PROPERTY} system property, or 0 if bulk
+     *         loading is disabled
+     */
+    public static int getBulkLoadMinLines() {
+        return Integer.getInteger(BULK_LOAD_MIN_LINES_PROPERTY, DEFAULT_BULK_LOAD_MIN_LINES);
+    }
+
+    /**
+     * Gets the loader to write the lines of the specified document in bulk.
+     * 
+     * @param headerObj header of the document to be injected
+     * @return the loader, or null if bulk loading is disabled, the document
+     *         has fewer than {@link #getBulkLoadMinLines()} lines, has lines of
+     *         several tables, no loader is registered for its line table, or
+     *         the loader would bypass business logic of the line table
+     */
+    static IBulkLineLoader getBulkLineLoader(DocHeader headerObj) {
+        DocLine[] lines = headerObj.getLines();
+        int minLines = getBulkLoadMinLines();
+        if (minLines <= 0 || lines.length < minLines) {
+            return null;
+        }
+
+        String lineTable = lines[0].getTableName();
+        for (DocLine line : lines) {
+            if (!lineTable.equals(line.getTableName())) {
+                return null;
+            }
+        }
+
+        IBulkLineLoader loader = bulkLineLoaders.get(lineTable);
+        return loader != null && loader.getBypassedLogic() == null ? loader : null;
+    }
+
+    @Override
+    public void setRollbackOnly(boolean rollbackOnly) {
+        this.rollbackOnly = rollbackOnly;
     }
 
     /**
-     * Injects a document through the iDempiere window with ID {@link #windowId}
+     * Injects a document through the iDempiere window with ID {@link #windowId}.
+     * The document's database work holds a {@link DatabaseThrottle} permit,
+     * which is returned before its error log entries are submitted.
      * 
      * @param headerObj header of the document to be injected
      * @return true if document is successfully injected, false otherwise
      */
+    @Override
     public boolean injectDocument(DocHeader headerObj) {
         // org.adempiere.impexp.GridTabCSVImporter#fileImport
         errorHeaderCreated = false;
@@ -128,13 +282,68 @@ public class DocumentInjector {
             return false;
         }
 
-        initGridTab();
+        long documentStart = InjectionMetrics.start();
+        try {
+            DatabaseThrottle.enter();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.log(Level.WARNING, "Interrupted while waiting to inject " + headerObj, e);
+            return false;
+        }
+
+        try {
+            return injectDocumentThrottled(headerObj, documentStart);
+        } finally {
+            // returned before the error log stage is fed, which may block on its queue
+            DatabaseThrottle.exit();
 
+            ErrorLogWriter.submit(errorLogEntries);
+            errorLogEntries = new ArrayList<>();
+
+            InjectionMetrics.record(Stage.DOCUMENT, windowId, documentStart);
+        }
+    }
+
+    /**
+     * Injects a document while holding a {@link DatabaseThrottle} permit. Error
+     * log entries are collected in {@link #errorLogEntries} for the caller to
+     * submit.
+     * 
+     * @param headerObj     header of the document to be injected
+     * @param documentStart start of the injection, for the metrics
+     * @return true if document is successfully injected, false otherwise
+     */
+    private boolean injectDocumentThrottled(DocHeader headerObj, long documentStart) {
         try {
+            // inside the try, so a window checked out before its tabs fail to initialize is released
+            initGridTab(headerObj);
+            InjectionMetrics.record(Stage.INIT_GRID_TAB, windowId, documentStart);
+
             createTrx(headerTab);
 
             processRecord(headerTab, false, headerObj); // throws SASApiException upon failure
 
+            IBulkLineLoader bulkLineLoader = getBulkLineLoader(headerObj);
+            if (bulkLineLoader != null) {
+                try {
+                    bulkLineLoader.loadLines(masterRecord, headerObj.getLines(), trx);
+                    InjectionMetrics.count(Counter.RECORDS, headerObj.getLines().length);
+                    InjectionMetrics.count(Counter.LINES, headerObj.getLines().length);
+                } catch (SASApiException e) {
+                    isError = true;
+                    insertErrorLog(new SASApiException(headerObj, headerTab.getAD_Window_ID(),
+                            headerTab.getAD_Tab_ID(), "Failed to load lines in bulk: " + e.getMessage(), e));
+                    return false;
+                } catch (RuntimeException e) {
+                    // e.g. no tax for a product; lines already batched must not commit with the header
+                    isError = true;
+                    insertErrorLog(new SASApiException(headerObj, headerTab.getAD_Window_ID(),
+                            headerTab.getAD_Tab_ID(), "Failed to load lines in bulk: " + e.toString(), e));
+                    return false;
+                }
+                return true;
+            }
+
             GridTab detailTabCache = null;
             for (ApiInjectable lineRecord : headerObj.getLines()) {
                 if (detailTabCache == null || !lineRecord.getTableName().equals(detailTabCache.getTableName())) {
@@ -158,11 +367,8 @@ public class DocumentInjector {
         } finally {
             closeTrx(headerTab);
 
-            headerTab.getTableModel().setImportingMode(false, null);
-            for (GridTab child : childs) {
-                child.getTableModel().setImportingMode(false, null);
-            }
-            headerTab.dataRefreshAll();
+            GridWindowPool.release(pooledWindow);
+            pooledWindow = null;
         }
 
         return true;
@@ -175,7 +381,7 @@ public class DocumentInjector {
      * @param headerObj header of the document to be injected
      * @return true if the header and all its lines are a valid, false otherwise
      */
-    private boolean checkDocumentValid(DocHeader headerObj) {
+    static boolean checkDocumentValid(DocHeader headerObj) {
         if (headerObj.getDocumentNo() == null) {
             return false;
         }
@@ -195,57 +401,35 @@ public class DocumentInjector {
     }
 
     /**
-     * Initializes the GridTab objects {@link #headerTab} and {@link #childs}
-     * associated with iDempiere window with ID {@link #windowId}
+     * Checks out an initialized window associated with iDempiere window with ID
+     * {@link #windowId} from {@link GridWindowPool}, and sets {@link #headerTab}
+     * to its header tab and {@link #childs} to the tabs of the tables the
+     * document's lines are written to. Tabs of other tables are left
+     * uninitialized.
+     * 
+     * @param headerObj header of the document to be injected
      */
-    private void initGridTab() {
-        // org.adempiere.webui.panel.action.FileImportAction::importFile()
-        final int windowNo = getNextWindowNo();
-
-        // org.adempiere.webui.apps.AEnv::getMWindowVO(int, int, int)
-        GridWindowVO gWindowVO = GridWindowVO.create(Env.getCtx(), windowNo, this.windowId, this.menuId);
-
-        // org.adempiere.webui.adwindow.AbstractADWindowContent::initComponents()
-        GridWindow gridWindow = new GridWindow(gWindowVO, true);
-
-        // org.adempiere.webui.adwindow.AbstractADWindowContent::initPanel(MQuery query)
-        Env.setContext(Env.getCtx(), windowNo, "IsSOTrx", gridWindow.isSOTrx());
-
-        // org.adempiere.webui.adwindow.AbstractADWindowContent::initTab(MQuery, int)
-        gridWindow.initTab(0);
-        this.headerTab = gridWindow.getTab(0);
-        new GridTabHolder(headerTab);
-
-        // org.adempiere.webui.panel.action.FileImportAction::importFile()
-        Set<String> tables = new HashSet<String>();
-        this.childs = new ArrayList<GridTab>();
-        for (int i = 1; i < gridWindow.getTabCount(); i++) {
-            // org.adempiere.webui.adwindow.AbstractADWindowContent::initTab(MQuery, int)
-            gridWindow.initTab(i);
-            GridTab gTab = gridWindow.getTab(i);
-            new GridTabHolder(gTab);
-
-            String tableName = gTab.getTableName();
-            if (tables.contains(tableName))
-                continue;
-
-            tables.add(tableName);
-            childs.add(gTab);
+    private void initGridTab(DocHeader headerObj) {
+        Set<String> lineTables = new HashSet<String>();
+        for (ApiInjectable line : headerObj.getLines()) {
+            lineTables.add(line.getTableName());
         }
+
+        this.pooledWindow = GridWindowPool.checkout(this.windowId, this.menuId);
+        this.headerTab = pooledWindow.getHeaderTab();
+        this.childs = pooledWindow.getChilds(lineTables);
     }
 
     /**
      * Gets the next available number for a new iDempiere Window object. This window
      * number is guaranteed to be unique; two different instances of
      * {@link DocumentInjector} calling this method is guaranteed to get a different
-     * window number
+     * window number, including when called concurrently from several threads.
      * 
      * @return next available unique window number
      */
-    private static int getNextWindowNo() {
-        // TODO has to be synchronized in multithreading
-        DocumentInjector.lastReturnedWindowNo += 1;
-        return DocumentInjector.lastReturnedWindowNo;
+    static int getNextWindowNo() {
+        return lastReturnedWindowNo.incrementAndGet();
     }
 
     /**
@@ -275,16 +459,15 @@ public class DocumentInjector {
                         String.format("Failed to create a new record in GridTab [%s]", gridTab.getName()));
             }
 
+            // child tabs are not queried for the new header: it has no lines yet,
+            // and new lines take the header's link column from the window context
             gridTab.navigateCurrent();
-            if (!isDetail) {
-                for (GridTab child : childs) {
-                    child.query(false);
-                }
-            }
 
             processRow(gridTab, trx, so); // throws SASApiException upon failure
 
+            long saveStart = InjectionMetrics.start();
             boolean dataSaveSuccess = gridTab.dataSave(false);
+            InjectionMetrics.record(Stage.DATA_SAVE, gridTab.getAD_Window_ID(), saveStart);
             if (!dataSaveSuccess) {
                 ValueNamePair ppE = CLogger.retrieveWarning();
                 if (ppE == null) {
@@ -301,7 +484,10 @@ public class DocumentInjector {
 
             if (!isDetail) {
                 masterRecord = po;
+            } else {
+                InjectionMetrics.count(Counter.LINES);
             }
+            InjectionMetrics.count(Counter.RECORDS);
 
             if (log.isLoggable(Level.INFO))
                 log.info(PLUGIN_PREFIX + "Inserted " + po.toString());
@@ -326,43 +512,34 @@ public class DocumentInjector {
      */
     private void processRow(GridTab gridTab, Trx trx, ApiInjectable so) throws SASApiException {
         // org.adempiere.impexp.GridTabCSVImporter#proccessRow
-        List<String> parentColumns = new ArrayList<String>();
         try {
-            for (Field soField : so.getClass().getDeclaredFields()) {
-                if (!Modifier.isPublic(soField.getModifiers())) {
-                    continue; // non-public fields
-                }
-
+            for (FieldMappingPlan.Entry entry : FieldMappingPlan.get(so, gridTab).getEntries()) {
                 Object value = null;
                 try {
-                    value = soField.get(so);
-                } catch (IllegalArgumentException | IllegalAccessException e) {
+                    value = entry.getValue(so);
+                } catch (Throwable e) {
                     throw new SASApiException(so, gridTab.getAD_Window_ID(), gridTab.getAD_Tab_ID(),
                             String.format("Java Reflection error when accessing field [%s] in class [%s]!\n%s",
-                                    soField.getName(), so.getClass(), e.getMessage()));
+                                    entry.getFieldName(), so.getClass(), e.getMessage()));
                 }
 
                 if (value == null) {
                     continue;
                 }
 
-                String columnName = so.getColumnName(soField.getName());
-                if (columnName == null) {
-                    continue; // non-SO fields, e.g. constants, logger, etc.
-                }
-
-                boolean isKeyColumn = columnName.indexOf("/") > 0;
-                boolean isForeign = columnName.indexOf("[") > 0 && columnName.indexOf("]") > 0;
-                boolean isDetail = columnName.indexOf(">") > 0;
+                ColumnSpec spec = entry.getSpec();
+                boolean isForeign = spec.isForeign();
+                boolean isDetail = spec.isDetail();
+                String foreignColumn = spec.getForeignColumn();
+                String columnName = spec.getColumnName();
 
-                String foreignColumn = null;
-                if (isForeign) {
-                    foreignColumn = columnName.substring(columnName.indexOf("[") + 1, columnName.indexOf("]"));
+                Object setValue = null;
+                GridField field = entry.getField(gridTab);
+                if (field == null) {
+                    throw new SASApiException(so, gridTab.getAD_Window_ID(), gridTab.getAD_Tab_ID(),
+                            String.format("Column [%s] not found in GridTab [%s]", columnName, gridTab.getName()));
                 }
-                columnName = getColumnName(isKeyColumn, isForeign, isDetail, columnName);
 
-                Object setValue = null;
-                GridField field = gridTab.getField(columnName);
                 if (field.isParentValue()) {
                     if (isForeign && masterRecord != null) {
                         Object masterKey = masterRecord.get_Value(foreignColumn);
@@ -390,8 +567,8 @@ public class DocumentInjector {
                     }
 
                     if (masterRecord == null && isDetail) {
-                        MColumn column = MColumn.get(Env.getCtx(), field.getAD_Column_ID());
-                        String foreignTable = column.getReferenceTableName();
+                        MColumn column = entry.getColumn();
+                        String foreignTable = entry.getForeignTable();
 
                         String logMsg = null;
                         if ("AD_Ref_List".equals(foreignTable)) {
@@ -405,7 +582,7 @@ public class DocumentInjector {
 
                             logMsg = gridTab.setValue(field, idS);
                         } else {
-                            int id = resolveForeign(foreignTable, foreignColumn, value, trx);
+                            int id = resolveForeign(foreignTable, foreignColumn, value, resolutionContext, trx);
                             if (id < 0) {
                                 throw new SASApiException(so, gridTab.getAD_Window_ID(), gridTab.getAD_Tab_ID(),
                                         String.format(
@@ -423,7 +600,6 @@ public class DocumentInjector {
                         }
                     }
 
-                    parentColumns.add(columnName);
                     continue;
                 }
 
@@ -432,8 +608,8 @@ public class DocumentInjector {
                 }
 
                 if (isForeign) {
-                    MColumn column = MColumn.get(Env.getCtx(), field.getAD_Column_ID());
-                    String foreignTable = column.getReferenceTableName();
+                    MColumn column = entry.getColumn();
+                    String foreignTable = entry.getForeignTable();
 
                     if ("AD_Ref_List".equals(foreignTable)) {
                         String idS = resolveForeignList(column, foreignColumn, value, trx);
@@ -446,7 +622,7 @@ public class DocumentInjector {
 
                         setValue = idS;
                     } else {
-                        int foreignID = resolveForeign(foreignTable, foreignColumn, value, trx);
+                        int foreignID = resolveForeign(foreignTable, foreignColumn, value, resolutionContext, trx);
 
                         if (foreignID < 0) {
                             throw new SASApiException(so, gridTab.getAD_Window_ID(), gridTab.getAD_Tab_ID(),
@@ -545,14 +721,21 @@ public class DocumentInjector {
         if (isError) {
             gridTab.dataDelete();
             trx.rollback();
+            InjectionMetrics.count(Counter.ROLLBACKS);
             isError = false;
+        } else if (rollbackOnly) {
+            trx.rollback();
         } else {
+            long commitStart = InjectionMetrics.start();
             try {
                 trx.commit(true);
+                InjectionMetrics.record(Stage.COMMIT, windowId, commitStart);
+                InjectionMetrics.count(Counter.DOCUMENTS);
             } catch (SQLException e) {
                 isError = true;
                 gridTab.dataDelete();
                 trx.rollback();
+                InjectionMetrics.count(Counter.ROLLBACKS);
             }
         }
 
@@ -560,40 +743,10 @@ public class DocumentInjector {
         trx = null;
     }
 
-    /**
-     * Helper method ot clean the record name of the extra annotation, returning the
-     * remaining column name.
-     * 
-     * @param isKey     true if the column is a key column
-     * @param isForeign true if the column references a foreign table
-     * @param isDetail  true if the column belongs in a detail record
-     * @param headName  header name
-     * @return column name after cleaning
-     */
-    private String getColumnName(boolean isKey, boolean isForeign, boolean isDetail, String headName) {
-        if (isKey) {
-            if (headName.indexOf("/") > 0 && headName.endsWith("K")) {
-                headName = headName.substring(0, headName.length() - 2);
-            }
-        }
-
-        if (isForeign) {
-            headName = headName.substring(0, headName.indexOf("["));
-        }
-
-        if (isDetail) {
-            headName = headName.substring(headName.indexOf(">") + 1, headName.length());
-            if (headName.indexOf(">") > 0) {
-                headName = headName.substring(headName.indexOf(">") + 1, headName.length());
-            }
-        }
-
-        return headName;
-    }
-
     /**
      * Helper method to resolve the ID of records in the AD_Ref_List table, given
-     * value, the column, and the foreign column.
+     * value, the column, and the foreign column. Results are cached in
+     * {@link ForeignKeyCache}.
      * 
      * @param column        column name of the AD_Reference
      * @param foreignColumn column name of the value specified
@@ -601,19 +754,77 @@ public class DocumentInjector {
      * @param trx           Trx object representing the insertion operation
      * @return ID of the foreign record
      */
-    private String resolveForeignList(MColumn column, String foreignColumn, Object value, Trx trx) {
+    static String resolveForeignList(MColumn column, String foreignColumn, Object value, Trx trx) {
+        Object cachedIdS = ForeignKeyCache.get("AD_Ref_List", foreignColumn, value, column.getAD_Reference_Value_ID());
+        if (cachedIdS != null) {
+            return (String) cachedIdS;
+        }
+
         String idS = null;
         String trxName = (trx != null ? trx.getTrxName() : null);
         StringBuilder select = new StringBuilder("SELECT Value FROM AD_Ref_List WHERE ").append(foreignColumn)
                 .append("=? AND AD_Reference_ID=? AND IsActive='Y'");
         idS = DB.getSQLValueStringEx(trxName, select.toString(), value, column.getAD_Reference_Value_ID());
+
+        ForeignKeyCache.put("AD_Ref_List", foreignColumn, value, column.getAD_Reference_Value_ID(), idS);
         return idS;
     }
 
     /**
      * Helper method to resolve the ID of records in a foreign table. This method
      * searches for the value in the foreign column and foreign table, and returns
-     * the ID of the record.
+     * the ID of the record. A resolver registered through
+     * {@link #registerForeignResolver(String, String, IForeignResolver)} is
+     * consulted first, then the specified {@link ResolutionContext}, then
+     * {@link ForeignKeyCache}. String values missing from all of them are
+     * resolved through {@link ForeignKeyLoader}, sharing the query with other
+     * injectors running concurrently.
+     * 
+     * @param foreignTable      table where the record resides
+     * @param foreignColumn     column name of the value specified
+     * @param value             value to be searched in the foreign table.
+     * @param resolutionContext foreign keys already resolved for the document,
+     *                          can be null
+     * @param trx               Trx object representing the insertion operation
+     * @return ID of the foreign record
+     */
+    static int resolveForeign(String foreignTable, String foreignColumn, Object value,
+            ResolutionContext resolutionContext, Trx trx) {
+        int clientId = Env.getAD_Client_ID(Env.getCtx());
+
+        IForeignResolver resolver = foreignResolvers.get(foreignTable + "." + foreignColumn);
+        if (resolver != null) {
+            int resolvedId = resolver.resolveForeign(value, clientId);
+            if (resolvedId >= 0) {
+                return resolvedId;
+            }
+        }
+
+        if (resolutionContext != null) {
+            int contextId = resolutionContext.getId(foreignTable, foreignColumn, value);
+            if (contextId >= 0) {
+                return contextId;
+            }
+        }
+
+        Object cachedId = ForeignKeyCache.get(foreignTable, foreignColumn, value, clientId);
+        if (cachedId != null) {
+            return (Integer) cachedId;
+        }
+
+        int id = value instanceof String
+                ? ForeignKeyLoader.resolve(foreignTable, foreignColumn, (String) value, clientId)
+                : queryForeign(foreignTable, foreignColumn, value, trx);
+        if (id >= 0) {
+            ForeignKeyCache.put(foreignTable, foreignColumn, value, clientId, id);
+        }
+        return id;
+    }
+
+    /**
+     * Helper method to query the ID of records in a foreign table, bypassing any
+     * cache. Falls back to the System client if the record is not found in the
+     * login client and the table has System access.
      * 
      * @param foreignTable  table where the record resides
      * @param foreignColumn column name of the value specified
@@ -621,7 +832,7 @@ public class DocumentInjector {
      * @param trx           Trx object representing the insertion operation
      * @return ID of the foreign record
      */
-    private int resolveForeign(String foreignTable, String foreignColumn, Object value, Trx trx) {
+    static int queryForeign(String foreignTable, String foreignColumn, Object value, Trx trx) {
         int id = -1;
         String trxName = (trx != null ? trx.getTrxName() : null);
         StringBuilder select = new StringBuilder("SELECT ").append(foreignTable).append("_ID FROM ")
@@ -641,12 +852,9 @@ public class DocumentInjector {
     }
 
     /**
-     * Inserts an entry to the error log table capturing the entire content of the
-     * SO upon insertion failure.
-     * 
-     * <p> 
-     * Should this method encounter another exception, the SO content will be
-     * printed to the console instead.
+     * Queues entries for the error log table capturing the entire content of the
+     * SO upon insertion failure. The entries are written by
+     * {@link ErrorLogWriter} once the document's transaction is closed.
      * 
      * @param apiException Exception object containing information about the failed
      *                     SO
@@ -656,175 +864,43 @@ public class DocumentInjector {
         int windowId = apiException.getWindowId();
         int tabId = apiException.getTabId();
         String errorLog = apiException.getMessage();
+        InjectionMetrics.count(Counter.ERRORS);
 
         if (log.isLoggable(Level.WARNING))
             log.warning(String.format(
                     "Failed to insert document %s in table %s. Error message: %s. Document content: %s",
                      so.getDocumentNo(), so.getTableName(), errorLog, so.toString()));
 
-        try {
-            if (so instanceof DocHeader) {
-                insertErrorLogHelper(so, windowId, tabId, false, errorLog);
-
-                DocHeader header = (DocHeader) so;
-                ApiInjectable[] lines = header.getLines();
-                GridTab childCache = null;
-                for (ApiInjectable line : lines) {
-                    if (childCache == null || !line.getTableName().equals(childCache)) {
-                        for (GridTab child : childs) {
-                            if (line.getTableName().equals(child.getTableName())) {
-                                childCache = child;
-                                break;
-                            }
+        if (so instanceof DocHeader) {
+            errorLogEntries.add(new ErrorLogWriter.Entry(so, windowId, tabId, false, errorLog));
+
+            DocHeader header = (DocHeader) so;
+            ApiInjectable[] lines = header.getLines();
+            GridTab childCache = null;
+            for (ApiInjectable line : lines) {
+                if (childCache == null || !line.getTableName().equals(childCache.getTableName())) {
+                    for (GridTab child : childs) {
+                        if (line.getTableName().equals(child.getTableName())) {
+                            childCache = child;
+                            break;
                         }
                     }
-
-                    insertErrorLogHelper(line, childCache.getAD_Window_ID(), childCache.getAD_Tab_ID(), true,
-                            "Caused by error in header record.");
                 }
-            } else if (so instanceof DocLine) {
-                if (!errorHeaderCreated) {
-                    DocLine line = (DocLine) so;
-                    insertErrorLogHelper(line.getHeader(), headerTab.getAD_Window_ID(), headerTab.getAD_Tab_ID(), false,
-                            "Caused by error in line/detail record.");
-                    errorHeaderCreated = true;
-                }
-
-                insertErrorLogHelper(so, windowId, tabId, true, errorLog);
-            } else {
-                insertErrorLogHelper(so, windowId, tabId, false, errorLog);
-            }
-        } catch (Exception e) {
-            StringBuilder sb = new StringBuilder("Exception when inserting into error log! " + e.getMessage() + " ");
-
-            if (so != null) {
-                sb.append("Offending document is " + so.toString() + ". ");
-            }
-
-            if (errorLog != null) {
-                sb.append("Error log is " + errorLog + ". ");
-            }
-
-            if (log.isLoggable(Level.SEVERE))
-                log.severe(sb.toString());
-        }
-    }
-
-    /**
-     * Helper method to insert a failed injectable object into the error log.
-     *
-     * @param so       Failed injectable object to be inserted to the error log
-     *                 table.
-     * @param windowId Window ID of the Tab associated with the failed injectable
-     *                 objcet
-     * @param tabId    Tab ID of the Tab associated with the failed injectable
-     *                 object
-     * @param isDetail true if the failed injectable object is a detail record
-     * @param errorLog optional error message to be inserted along with the record
-     *                 content
-     * @throws Exception
-     */
-    private void insertErrorLogHelper(ApiInjectable so, int windowId, int tabId, boolean isDetail, String errorLog) throws Exception {
-        String documentNo = so.getDocumentNo();
-
-        String errorLogMenuQuery = new StringBuilder("SELECT AD_Menu_ID, AD_Window_ID ")
-                .append("FROM AD_Menu ")
-                .append("WHERE IsActive='Y' AND name LIKE ")
-                .append("'").append(API_ERROR_LOG_MENU_NAME).append("'")
-                .toString();
-
-        int errorLogMenuId = -1; // value should be 2200138
-        int errorLogWindowId = -1; // value should be 2200001
-
-        PreparedStatement pstmt = null;
-        ResultSet rs = null;
-        try {
-            pstmt = DB.prepareStatement(errorLogMenuQuery, null);
-            rs = pstmt.executeQuery();
-            if (rs.next())
-                errorLogMenuId = rs.getInt(1);
-                errorLogWindowId = rs.getInt(2);
-        } catch (Exception e) {
-            log.log(Level.SEVERE, errorLogMenuQuery, e);
-        } finally {
-            DB.close(rs, pstmt);
-            rs = null;
-            pstmt = null;
-        }
-
-        if (errorLogMenuId == -1 || errorLogWindowId == -1) {
-            throw new Exception("Could not find menu ID and/or window ID for error log window!");
-        }
-
-        final int windowNo = getNextWindowNo();
-        GridWindowVO errorLogWindowVO = GridWindowVO.create(Env.getCtx(), windowNo, errorLogWindowId,
-                errorLogMenuId);
-        GridWindow errorLogWindow = new GridWindow(errorLogWindowVO, true);
-        Env.setContext(Env.getCtx(), windowNo, "IsSOTrx", errorLogWindow.isSOTrx());
-
-        GridTab errorTab = null;
-        for (int i = 0; i < errorLogWindow.getTabCount(); i++) {
-            errorLogWindow.initTab(i);
-            GridTab gTab = errorLogWindow.getTab(i);
-            
-            boolean headerFound = !isDetail && "Header".equalsIgnoreCase(gTab.getName());
-            boolean lineFound = isDetail && "Line".equalsIgnoreCase(gTab.getName());
-            if (headerFound || lineFound) {
-                new GridTabHolder(gTab);
-                errorTab = gTab;
-                break;
-            } 
-        }
-
-        if (errorTab == null) {
-            throw new Exception("Could not find Error Log tab!");
-        }
-
-        if (!errorTab.getTableModel().isOpen()) {
-            errorTab.getTableModel().open(0);
-        }
-
-        if (!errorTab.dataNew(false)) {
-            throw new Exception("Failed to create new Error Log record");
-        }
-
-        errorTab.navigateCurrent();
 
-        if (!"".equals(errorTab.setValue(errorTab.getField("Document_No"), documentNo))) {
-            throw new Exception("Unable to set Document No in Error Log record");
-        }
-        
-        if (!"".equals(errorTab.setValue(errorTab.getField("AD_Window_ID"), windowId))) {
-            throw new Exception("Unable to set window ID in Error Log record");
-        }
-        
-        if (!"".equals(errorTab.setValue(errorTab.getField("AD_Tab_ID"), tabId))) {
-            throw new Exception("Unable to set tab ID in Error Log record");
-        }
-
-        if (!"".equals(errorTab.setValue(errorTab.getField("Error_Msg"), errorLog))) {
-            throw new Exception("Unable to set error message in Error Log record");
-        }
-
-        if (!"".equals(errorTab.setValue(errorTab.getField("Raw_Content"), so.toString()))) {
-            throw new Exception("Unable to set raw document content in Error Log record");
-        }
-
-        if (isDetail) {
-            GridField errorHeaderIdField = errorTab.getField("SAS_API_ErrorLog_Header_ID");
-            String errorHeaderTableName = MColumn.get(Env.getCtx(), errorHeaderIdField.getAD_Column_ID()).getReferenceTableName();
-            int errorHeaderId = resolveForeign(errorHeaderTableName, "Document_No", documentNo, null);
-            if (errorHeaderId < 0) {
-                throw new Exception("Unable to resolve Table in Error Log record");
+                errorLogEntries.add(new ErrorLogWriter.Entry(line, childCache.getAD_Window_ID(),
+                        childCache.getAD_Tab_ID(), true, "Caused by error in header record."));
             }
-
-            if (!"".equals(errorTab.setValue(errorHeaderIdField, errorHeaderId))) {
-                throw new Exception("Unable to set Table in Error Log record");
+        } else if (so instanceof DocLine) {
+            if (!errorHeaderCreated) {
+                DocLine line = (DocLine) so;
+                errorLogEntries.add(new ErrorLogWriter.Entry(line.getHeader(), headerTab.getAD_Window_ID(),
+                        headerTab.getAD_Tab_ID(), false, "Caused by error in line/detail record."));
+                errorHeaderCreated = true;
             }
-        }
 
-        if (!errorTab.dataSave(false)) {
-            throw new Exception("Failed to save new Error Log record");
+            errorLogEntries.add(new ErrorLogWriter.Entry(so, windowId, tabId, true, errorLog));
+        } else {
+            errorLogEntries.add(new ErrorLogWriter.Entry(so, windowId, tabId, false, errorLog));
         }
     }
 
@@ -832,7 +908,9 @@ public class DocumentInjector {
      * Helper class to trigger callouts when data in the associated GridTab's
      * field changes.
      */
-    class GridTabHolder implements DataStatusListener {
+    static class GridTabHolder implements DataStatusListener {
+        private static CLogger log = CLogger.getCLogger(GridTabHolder.class);
+
         private GridTab gridTab;
 
         /**
@@ -858,6 +936,7 @@ public class DocumentInjector {
             if (mField != null && (mField.getCallout().length() > 0
                     || (Core.findCallout(gridTab.getTableName(), mField.getColumnName())).size() > 0
                     || gridTab.hasDependants(mField.getColumnName()))) {
+                long calloutStart = InjectionMetrics.start();
                 String msg = gridTab.processFieldChange(mField); // Dependencies & Callout
                 if (msg.length() > 0) {
                     if (log.isLoggable(Level.WARNING))
@@ -875,6 +954,7 @@ public class DocumentInjector {
                         }
                     }
                 } // for all dependent fields
+                InjectionMetrics.record(Stage.CALLOUT, gridTab.getAD_Window_ID(), calloutStart);
             }
         }
     }
@@ -0,0 +1,426 @@
+package com.sahabatabadi.api;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.DecimalFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.compiere.model.PO;
+import org.compiere.util.CLogger;
+import org.compiere.util.DB;
+import org.compiere.util.Env;
+import org.compiere.util.Trx;
+
+/**
+ * Hands out document numbers from blocks reserved in advance, instead of
+ * locking the document type's AD_Sequence row for every document like
+ * {@link DB#getDocumentNo(int, String, boolean, PO)} does. A block of
+ * {@value #BLOCK_SIZE_PROPERTY} numbers is reserved from the sequence in its
+ * own short transaction, and the numbers of the block are then given out from
+ * memory, so concurrent injections only meet on the sequence row once per
+ * block.
+ *
+ * <p>
+ * Numbers are formatted like
+ * {@link org.compiere.model.MSequence#getDocumentNo(int, String, boolean, PO)}:
+ * prefix and suffix are parsed against the document's PO, so context variables
+ * such as the document's organization resolve per document, and the number is
+ * formatted with the sequence's decimal pattern. Sequences restarting every
+ * year or numbered per organization are kept in AD_Sequence_No and are left to
+ * iDempiere, as are document types not controlled by a sequence.
+ *
+ * <p>
+ * Numbers of a block are only unique, not contiguous with documents numbered
+ * elsewhere in iDempiere at the same time. Numbers left in a block when the
+ * allocator stops are given back to the sequence if nobody reserved after
+ * them, and are counted as gaps otherwise.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class DocumentNoAllocator {
+    /**
+     * System property holding the number of document numbers reserved at once.
+     * A value of 1 or less disables the allocator.
+     */
+    public static final String BLOCK_SIZE_PROPERTY = "sas.api.docNoBlockSize";
+
+    /**
+     * Block size used if {@value #BLOCK_SIZE_PROPERTY} is not set
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 20;
+
+    private static CLogger log = CLogger.getCLogger(DocumentNoAllocator.class);
+
+    private static final String SEQUENCE_SQL = "SELECT DocNoSequence_ID FROM C_DocType "
+            + "WHERE C_DocType_ID=? AND IsDocNoControlled='Y'";
+
+    private static final String RESERVE_SQL = "SELECT CurrentNext, IncrementNo, Prefix, Suffix, DecimalPattern, "
+            + "IsAutoSequence, StartNewYear, IsOrgLevelSequence FROM AD_Sequence "
+            + "WHERE AD_Sequence_ID=? AND IsActive='Y' FOR UPDATE";
+
+    private static final String ADVANCE_SQL = "UPDATE AD_Sequence SET CurrentNext=CurrentNext+? "
+            + "WHERE AD_Sequence_ID=?";
+
+    private static final String GIVE_BACK_SQL = "UPDATE AD_Sequence SET CurrentNext=? "
+            + "WHERE AD_Sequence_ID=? AND CurrentNext=?";
+
+    /**
+     * Number of document numbers reserved at once
+     */
+    private static volatile int blockSize = readBlockSize();
+
+    /**
+     * Whether numbers are handed out from blocks, false once stopped
+     */
+    private static volatile boolean enabled = blockSize > 1;
+
+    /**
+     * AD_Sequence_ID of each C_DocType_ID, 0 if the document type is not
+     * controlled by a sequence
+     */
+    private static final ConcurrentHashMap<Integer, Integer> sequenceIds = new ConcurrentHashMap<>();
+
+    /**
+     * Current block of each AD_Sequence_ID. Document types sharing a sequence
+     * share its blocks.
+     */
+    private static final ConcurrentHashMap<Integer, Sequence> sequences = new ConcurrentHashMap<>();
+
+    private static final AtomicLong blocksReserved = new AtomicLong();
+    private static final AtomicLong numbersReserved = new AtomicLong();
+    private static final AtomicLong numbersIssued = new AtomicLong();
+    private static final AtomicLong numbersGivenBack = new AtomicLong();
+    private static final AtomicLong gaps = new AtomicLong();
+    private static final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private DocumentNoAllocator() {
+    }
+
+    /**
+     * Gives back the unused numbers of the current blocks, then starts handing
+     * out numbers again following the current value of
+     * {@value #BLOCK_SIZE_PROPERTY}. Changes to document types and sequences are
+     * picked up from here on.
+     */
+    public static void reinitialize() {
+        enabled = false;
+        releaseAll();
+        sequenceIds.clear();
+
+        blockSize = readBlockSize();
+        enabled = blockSize > 1;
+    }
+
+    /**
+     * Gives back the unused numbers of the current blocks. Numbers requested
+     * afterwards are taken from the sequence one by one.
+     */
+    public static void stop() {
+        enabled = false;
+        releaseAll();
+        if (log.isLoggable(Level.INFO))
+            log.info(getStatistics());
+    }
+
+    /**
+     * @return value of {@value #BLOCK_SIZE_PROPERTY}
+     */
+    private static int readBlockSize() {
+        return Integer.getInteger(BLOCK_SIZE_PROPERTY, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Gets the next document number of a document type.
+     *
+     * @param docTypeId C_DocType_ID of the document
+     * @param po        document to be numbered, for the context variables of the
+     *                  prefix and suffix
+     * @return document number, or null if the document type is not controlled
+     *         by a sequence
+     * @see DB#getDocumentNo(int, String, boolean, PO)
+     */
+    public static String getDocumentNo(int docTypeId, PO po) {
+        if (!enabled) {
+            return fallback(docTypeId, po);
+        }
+
+        int sequenceId = getSequenceId(docTypeId);
+        if (sequenceId <= 0) {
+            return fallback(docTypeId, po);
+        }
+
+        Sequence sequence = sequences.get(sequenceId);
+        if (sequence == null) {
+            Sequence newSequence = new Sequence(sequenceId);
+            sequence = sequences.putIfAbsent(sequenceId, newSequence);
+            if (sequence == null) {
+                sequence = newSequence;
+            }
+        }
+
+        Issued issued = sequence.next();
+        if (issued == null) {
+            return fallback(docTypeId, po);
+        }
+
+        numbersIssued.incrementAndGet();
+        Block block = issued.block;
+        StringBuilder documentNo = new StringBuilder();
+        appendParsed(documentNo, block.prefix, po);
+        if (block.decimalPattern != null && block.decimalPattern.length() > 0) {
+            documentNo.append(new DecimalFormat(block.decimalPattern).format(issued.number));
+        } else {
+            documentNo.append(issued.number);
+        }
+        appendParsed(documentNo, block.suffix, po);
+        return documentNo.toString();
+    }
+
+    /**
+     * Helper method to append a prefix or suffix, parsing its context variables
+     * against the document like iDempiere does.
+     *
+     * @param documentNo document number being built
+     * @param affix      prefix or suffix of the sequence, may be null
+     * @param po         document to be numbered
+     */
+    private static void appendParsed(StringBuilder documentNo, String affix, PO po) {
+        if (affix == null || affix.length() == 0) {
+            return;
+        }
+
+        String value = affix.indexOf('@') >= 0 ? Env.parseVariable(affix, po, null, false) : affix;
+        if (value != null) {
+            documentNo.append(value);
+        }
+    }
+
+    /**
+     * Helper method to number a document through iDempiere.
+     *
+     * @param docTypeId C_DocType_ID of the document
+     * @param po        document to be numbered
+     * @return document number, or null if the document type is not controlled
+     *         by a sequence
+     */
+    private static String fallback(int docTypeId, PO po) {
+        fallbacks.incrementAndGet();
+        return DB.getDocumentNo(docTypeId, null, false, po);
+    }
+
+    /**
+     * Helper method to look up, and cache, the sequence numbering a document
+     * type.
+     *
+     * @param docTypeId C_DocType_ID to look up
+     * @return AD_Sequence_ID numbering the document type, 0 if none
+     */
+    private static int getSequenceId(int docTypeId) {
+        Integer sequenceId = sequenceIds.get(docTypeId);
+        if (sequenceId == null) {
+            sequenceId = DB.getSQLValue(null, SEQUENCE_SQL, docTypeId);
+            sequenceIds.put(docTypeId, Math.max(0, sequenceId));
+        }
+        return sequenceId;
+    }
+
+    /**
+     * Helper method to give back the unused numbers of every current block.
+     */
+    private static void releaseAll() {
+        for (Sequence sequence : sequences.values()) {
+            sequence.release();
+        }
+        sequences.clear();
+    }
+
+    /**
+     * @return reserved, issued, and lost document numbers, for logging
+     */
+    public static String getStatistics() {
+        long reserved = numbersReserved.get();
+        long issued = numbersIssued.get();
+        return String.format(
+                "Document numbers: block size=%d, enabled=%b, sequences=%d, blocks reserved=%d, "
+                        + "numbers reserved=%d, issued from blocks=%d, given back=%d, gaps=%d, block usage=%.1f%%, "
+                        + "numbered by iDempiere=%d",
+                blockSize, enabled, sequences.size(), blocksReserved.get(), reserved, issued,
+                numbersGivenBack.get(), gaps.get(), reserved == 0 ? 0 : issued * 100.0 / reserved, fallbacks.get());
+    }
+
+    /**
+     * Current block of one AD_Sequence. The block is replaced under the lock of
+     * this object, so one thread per sequence reserves while the others wait for
+     * the new block.
+     */
+    private static class Sequence {
+        private final int sequenceId;
+        private Block block;
+
+        /**
+         * Whether the sequence can be numbered from blocks. Set to false when the
+         * sequence turns out to be kept in AD_Sequence_No.
+         */
+        private boolean supported = true;
+
+        Sequence(int sequenceId) {
+            this.sequenceId = sequenceId;
+        }
+
+        /**
+         * @return next number of the sequence, or null if it has to be taken
+         *         from iDempiere
+         */
+        synchronized Issued next() {
+            if (!supported) {
+                return null;
+            }
+
+            if (block == null || block.next >= block.end) {
+                if (!enabled) {
+                    return null;
+                }
+                block = reserve();
+                if (block == null) {
+                    return null;
+                }
+            }
+
+            Issued issued = new Issued(block, block.next);
+            block.next += block.increment;
+            return issued;
+        }
+
+        /**
+         * Reserves a block of numbers in a transaction of its own.
+         *
+         * @return reserved block, or null if the sequence can not be numbered
+         *         from blocks or the reservation failed
+         */
+        private Block reserve() {
+            int size = blockSize;
+            Trx trx = Trx.get(Trx.createTrxName("DocNoBlock"), true);
+            PreparedStatement pstmt = null;
+            ResultSet rs = null;
+            try {
+                pstmt = DB.prepareStatement(RESERVE_SQL, trx.getTrxName());
+                pstmt.setInt(1, sequenceId);
+                rs = pstmt.executeQuery();
+                if (!rs.next()) {
+                    supported = false;
+                    return null;
+                }
+
+                if (!"Y".equals(rs.getString("IsAutoSequence")) || "Y".equals(rs.getString("StartNewYear"))
+                        || "Y".equals(rs.getString("IsOrgLevelSequence"))) {
+                    if (log.isLoggable(Level.INFO))
+                        log.info("AD_Sequence_ID=" + sequenceId + " is not numbered from blocks");
+                    supported = false;
+                    return null;
+                }
+
+                long next = rs.getLong("CurrentNext");
+                int increment = Math.max(1, rs.getInt("IncrementNo"));
+                Block reserved = new Block(next, next + (long) increment * size, increment, rs.getString("Prefix"),
+                        rs.getString("Suffix"), rs.getString("DecimalPattern"));
+                DB.close(rs, pstmt);
+                rs = null;
+                pstmt = null;
+
+                DB.executeUpdateEx(ADVANCE_SQL, new Object[] { (long) increment * size, sequenceId },
+                        trx.getTrxName());
+                trx.commit(true);
+
+                blocksReserved.incrementAndGet();
+                numbersReserved.addAndGet(size);
+                if (log.isLoggable(Level.FINE))
+                    log.fine(String.format("Reserved AD_Sequence_ID=%d numbers %d to %d", sequenceId, reserved.next,
+                            reserved.end - increment));
+                return reserved;
+            } catch (SQLException | RuntimeException e) {
+                log.log(Level.SEVERE, RESERVE_SQL, e);
+                return null;
+            } finally {
+                DB.close(rs, pstmt);
+                rs = null;
+                pstmt = null;
+                trx.close();
+            }
+        }
+
+        /**
+         * Gives the unused numbers of the current block back to the sequence,
+         * which only works if no other block or document was numbered after it.
+         */
+        synchronized void release() {
+            if (block == null) {
+                return;
+            }
+
+            long unused = (block.end - block.next) / block.increment;
+            if (unused > 0) {
+                int updated = 0;
+                try {
+                    updated = DB.executeUpdateEx(GIVE_BACK_SQL, new Object[] { block.next, sequenceId, block.end },
+                            null);
+                } catch (RuntimeException e) {
+                    log.log(Level.WARNING, GIVE_BACK_SQL, e);
+                }
+
+                if (updated == 1) {
+                    numbersGivenBack.addAndGet(unused);
+                } else {
+                    gaps.addAndGet(unused);
+                    if (log.isLoggable(Level.INFO))
+                        log.info(String.format("AD_Sequence_ID=%d numbers %d to %d left unused", sequenceId,
+                                block.next, block.end - block.increment));
+                }
+            }
+
+            block = null;
+            supported = false;
+        }
+    }
+
+    /**
+     * Numbers reserved from a sequence, with the formatting the sequence had
+     * when they were reserved
+     */
+    private static class Block {
+        private long next;
+        private final long end;
+        private final int increment;
+        private final String prefix;
+        private final String suffix;
+        private final String decimalPattern;
+
+        Block(long next, long end, int increment, String prefix, String suffix, String decimalPattern) {
+            this.next = next;
+            this.end = end;
+            this.increment = increment;
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.decimalPattern = decimalPattern;
+        }
+    }
+
+    /**
+     * Number handed out from a block
+     */
+    private static class Issued {
+        private final Block block;
+        private final long number;
+
+        Issued(Block block, long number) {
+            this.block = block;
+            this.number = number;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.sahabatabadi.api;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+import org.compiere.model.GridField;
+import org.compiere.model.GridTab;
+import org.compiere.model.GridWindow;
+import org.compiere.model.GridWindowVO;
+import org.compiere.model.MColumn;
+import org.compiere.util.CLogger;
+import org.compiere.util.DB;
+import org.compiere.util.Env;
+
+/**
+ * Writes records which failed to be injected into the API Error Log window of
+ * iDempiere. Writing runs on its own {@link PipelineStage}, after the failed
+ * document's transaction is closed, so the injecting workers are not held up by
+ * the error log window.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class ErrorLogWriter {
+    /**
+     * iDempiere Menu name for the API Error Log window
+     */
+    public static final String API_ERROR_LOG_MENU_NAME = "API Error Log";
+
+    private static CLogger log = CLogger.getCLogger(ErrorLogWriter.class);
+
+    /**
+     * Stage writing the error logs. One worker by default, which keeps the
+     * header entry of a document ahead of its line entries.
+     */
+    private static volatile PipelineStage stage = new PipelineStage("errorLog", 1, 1000);
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private ErrorLogWriter() {
+    }
+
+    /**
+     * Stops the running stage and creates a new one, following the current
+     * values of the stage's system properties.
+     */
+    public static void reinitialize() {
+        PipelineStage oldStage = stage;
+        stage = new PipelineStage("errorLog", 1, 1000);
+        oldStage.shutdown();
+    }
+
+    /**
+     * Stops the running stage. Entries already submitted are still written.
+     */
+    public static void stop() {
+        stage.shutdown();
+    }
+
+    /**
+     * @return number of workers of the error log stage
+     */
+    public static int getWorkerCount() {
+        return stage.getWorkerCount();
+    }
+
+    /**
+     * @return throughput and latency of the error log stage, for logging
+     */
+    public static String getStatistics() {
+        return stage.getStatistics();
+    }
+
+    /**
+     * Writes the error log entries of one document, in order, on the error log
+     * stage. Entries are written by the calling thread instead if the stage
+     * does not accept them.
+     *
+     * @param entries entries of one document, header entry first
+     */
+    public static void submit(final List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        try {
+            stage.submit(new Callable<Void>() {
+                public Void call() {
+                    writeAll(entries);
+                    return null;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            writeAll(entries);
+        }
+    }
+
+    /**
+     * Writes the error log entries of one document, holding a
+     * {@link DatabaseThrottle} permit. Should writing fail, the content of the
+     * failed record is printed to the log instead.
+     *
+     * @param entries entries of one document, header entry first
+     */
+    private static void writeAll(List<Entry> entries) {
+        Entry current = entries.get(0);
+        try {
+            DatabaseThrottle.enter();
+            try {
+                for (Entry entry : entries) {
+                    current = entry;
+                    write(entry);
+                }
+            } finally {
+                DatabaseThrottle.exit();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (log.isLoggable(Level.SEVERE))
+                log.log(Level.SEVERE, "Interrupted before writing the error log of " + current.so, e);
+        } catch (Exception e) {
+            StringBuilder sb = new StringBuilder("Exception when inserting into error log! " + e.getMessage() + " ");
+
+            if (current.so != null) {
+                sb.append("Offending document is " + current.so.toString() + ". ");
+            }
+
+            if (current.errorLog != null) {
+                sb.append("Error log is " + current.errorLog + ". ");
+            }
+
+            if (log.isLoggable(Level.SEVERE))
+                log.severe(sb.toString());
+        }
+    }
+
+    /**
+     * Helper method to insert a failed injectable object into the error log.
+     *
+     * @param entry failed injectable object to be inserted to the error log
+     *              table, along with its error message
+     * @throws Exception
+     */
+    private static void write(Entry entry) throws Exception {
+        ApiInjectable so = entry.so;
+        int windowId = entry.windowId;
+        int tabId = entry.tabId;
+        boolean isDetail = entry.isDetail;
+        String errorLog = entry.errorLog;
+
+        String documentNo = so.getDocumentNo();
+
+        String errorLogMenuQuery = new StringBuilder("SELECT AD_Menu_ID, AD_Window_ID ")
+                .append("FROM AD_Menu ")
+                .append("WHERE IsActive='Y' AND name LIKE ")
+                .append("'").append(API_ERROR_LOG_MENU_NAME).append("'")
+                .toString();
+
+        int errorLogMenuId = -1; // value should be 2200138
+        int errorLogWindowId = -1; // value should be 2200001
+
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            pstmt = DB.prepareStatement(errorLogMenuQuery, null);
+            rs = pstmt.executeQuery();
+            if (rs.next())
+                errorLogMenuId = rs.getInt(1);
+                errorLogWindowId = rs.getInt(2);
+        } catch (Exception e) {
+            log.log(Level.SEVERE, errorLogMenuQuery, e);
+        } finally {
+            DB.close(rs, pstmt);
+            rs = null;
+            pstmt = null;
+        }
+
+        if (errorLogMenuId == -1 || errorLogWindowId == -1) {
+            throw new Exception("Could not find menu ID and/or window ID for error log window!");
+        }
+
+        final int windowNo = DocumentInjector.getNextWindowNo();
+        GridWindowVO errorLogWindowVO = GridWindowVO.create(Env.getCtx(), windowNo, errorLogWindowId,
+                errorLogMenuId);
+        GridWindow errorLogWindow = new GridWindow(errorLogWindowVO, true);
+        Env.setContext(Env.getCtx(), windowNo, "IsSOTrx", errorLogWindow.isSOTrx());
+
+        GridTab errorTab = null;
+        for (int i = 0; i < errorLogWindow.getTabCount(); i++) {
+            errorLogWindow.initTab(i);
+            GridTab gTab = errorLogWindow.getTab(i);
+            
+            boolean headerFound = !isDetail && "Header".equalsIgnoreCase(gTab.getName());
+            boolean lineFound = isDetail && "Line".equalsIgnoreCase(gTab.getName());
+            if (headerFound || lineFound) {
+                new DocumentInjector.GridTabHolder(gTab);
+                errorTab = gTab;
+                break;
+            } 
+        }
+
+        if (errorTab == null) {
+            throw new Exception("Could not find Error Log tab!");
+        }
+
+        if (!errorTab.getTableModel().isOpen()) {
+            errorTab.getTableModel().open(0);
+        }
+
+        if (!errorTab.dataNew(false)) {
+            throw new Exception("Failed to create new Error Log record");
+        }
+
+        errorTab.navigateCurrent();
+
+        if (!"".equals(errorTab.setValue(errorTab.getField("Document_No"), documentNo))) {
+            throw new Exception("Unable to set Document No in Error Log record");
+        }
+        
+        if (!"".equals(errorTab.setValue(errorTab.getField("AD_Window_ID"), windowId))) {
+            throw new Exception("Unable to set window ID in Error Log record");
+        }
+        
+        if (!"".equals(errorTab.setValue(errorTab.getField("AD_Tab_ID"), tabId))) {
+            throw new Exception("Unable to set tab ID in Error Log record");
+        }
+
+        if (!"".equals(errorTab.setValue(errorTab.getField("Error_Msg"), errorLog))) {
+            throw new Exception("Unable to set error message in Error Log record");
+        }
+
+        if (!"".equals(errorTab.setValue(errorTab.getField("Raw_Content"), so.toString()))) {
+            throw new Exception("Unable to set raw document content in Error Log record");
+        }
+
+        if (isDetail) {
+            GridField errorHeaderIdField = errorTab.getField("SAS_API_ErrorLog_Header_ID");
+            String errorHeaderTableName = MColumn.get(Env.getCtx(), errorHeaderIdField.getAD_Column_ID()).getReferenceTableName();
+            int errorHeaderId = DocumentInjector.queryForeign(errorHeaderTableName, "Document_No", documentNo, null);
+            if (errorHeaderId < 0) {
+                throw new Exception("Unable to resolve Table in Error Log record");
+            }
+
+            if (!"".equals(errorTab.setValue(errorHeaderIdField, errorHeaderId))) {
+                throw new Exception("Unable to set Table in Error Log record");
+            }
+        }
+
+        if (!errorTab.dataSave(false)) {
+            throw new Exception("Failed to save new Error Log record");
+        }
+    }
+
+    /**
+     * A record to be written into the error log.
+     */
+    public static class Entry {
+        private final ApiInjectable so;
+        private final int windowId;
+        private final int tabId;
+        private final boolean isDetail;
+        private final String errorLog;
+
+        /**
+         * Default constructor
+         *
+         * @param so       Failed injectable object to be inserted to the error log
+         *                 table.
+         * @param windowId Window ID of the Tab associated with the failed
+         *                 injectable object
+         * @param tabId    Tab ID of the Tab associated with the failed injectable
+         *                 object
+         * @param isDetail true if the failed injectable object is a detail record
+         * @param errorLog optional error message to be inserted along with the
+         *                 record content
+         */
+        public Entry(ApiInjectable so, int windowId, int tabId, boolean isDetail, String errorLog) {
+            this.so = so;
+            this.windowId = windowId;
+            this.tabId = tabId;
+            this.isDetail = isDetail;
+            this.errorLog = errorLog;
+        }
+    }
+}
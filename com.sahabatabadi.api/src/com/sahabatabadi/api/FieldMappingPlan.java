@@ -0,0 +1,267 @@
+package com.sahabatabadi.api;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.compiere.model.GridField;
+import org.compiere.model.GridTab;
+import org.compiere.model.MColumn;
+import org.compiere.util.Env;
+
+/**
+ * Mapping between the public fields of an {@link ApiInjectable} class and the
+ * fields of an iDempiere tab, compiled once per {@code (class, AD_Tab_ID)} and
+ * shared by every {@link DocumentInjector}. Compiling the plan does the
+ * reflection, the parsing of the column names in iDempiere Template format, and
+ * the lookup of the {@link MColumn} and foreign table of each field, so that
+ * injecting a record only reads field values and sets them in the tab.
+ *
+ * <p>
+ * {@link GridField} objects belong to one {@link GridTab} instance, so the plan
+ * holds the index of each field in the tab, which is the same for every
+ * instance of the tab. {@link POInjector} maps classes directly to the columns
+ * of their table instead, see {@link #get(ApiInjectable)}. Plans are dropped
+ * through {@link #clear()} when the AD metadata of a window changes.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class FieldMappingPlan {
+    /**
+     * Compiled plans, keyed by {@code (class, AD_Tab_ID)}. Plans mapping a class
+     * directly to its table use an AD_Tab_ID of 0.
+     */
+    private static final ConcurrentHashMap<PlanKey, FieldMappingPlan> plans = new ConcurrentHashMap<>();
+
+    /**
+     * Mapped fields, in declaration order
+     */
+    private final List<Entry> entries;
+
+    /**
+     * Compiles the plan of a class and tab.
+     *
+     * @param so      record whose class is mapped. Used to get the column names of
+     *                the class' fields.
+     * @param gridTab tab the class is mapped to, or null to map the class
+     *                directly to the columns of its table
+     */
+    private FieldMappingPlan(ApiInjectable so, GridTab gridTab) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType getterType = MethodType.methodType(Object.class, Object.class);
+
+        List<Entry> entryList = new ArrayList<>();
+        for (Field soField : so.getClass().getDeclaredFields()) {
+            if (!Modifier.isPublic(soField.getModifiers()) || Modifier.isStatic(soField.getModifiers())) {
+                continue; // non-public fields and constants
+            }
+
+            String columnSpec = so.getColumnName(soField.getName());
+            if (columnSpec == null) {
+                continue; // non-SO fields, e.g. constants, logger, etc.
+            }
+
+            MethodHandle getter;
+            try {
+                soField.setAccessible(true);
+                getter = lookup.unreflectGetter(soField).asType(getterType);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(String.format("Unable to access field [%s] in class [%s]",
+                        soField.getName(), so.getClass()), e);
+            }
+
+            ColumnSpec spec = new ColumnSpec(columnSpec);
+
+            int fieldIndex = -1;
+            MColumn column = null;
+            if (gridTab != null) {
+                fieldIndex = findFieldIndex(gridTab, spec.getColumnName());
+                if (fieldIndex >= 0) {
+                    column = MColumn.get(Env.getCtx(), gridTab.getField(fieldIndex).getAD_Column_ID());
+                }
+            } else {
+                column = MColumn.get(Env.getCtx(), so.getTableName(), spec.getColumnName());
+            }
+
+            String foreignTable = null;
+            if (column != null && spec.isForeign()) {
+                foreignTable = column.getReferenceTableName();
+            }
+
+            entryList.add(new Entry(soField.getName(), getter, spec, fieldIndex, column, foreignTable));
+        }
+        this.entries = Collections.unmodifiableList(entryList);
+    }
+
+    /**
+     * Gets the plan of the record's class and tab, compiling it on first use.
+     *
+     * @param so      record to be injected
+     * @param gridTab tab the record is injected into
+     * @return the plan
+     */
+    public static FieldMappingPlan get(ApiInjectable so, GridTab gridTab) {
+        PlanKey key = new PlanKey(so.getClass(), gridTab.getAD_Tab_ID());
+        FieldMappingPlan plan = plans.get(key);
+        if (plan == null) {
+            plan = new FieldMappingPlan(so, gridTab);
+            FieldMappingPlan existing = plans.putIfAbsent(key, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Gets the plan mapping the record's class directly to the columns of its
+     * table, compiling it on first use. Used to fill POs without a tab.
+     *
+     * @param so record to be injected
+     * @return the plan
+     */
+    public static FieldMappingPlan get(ApiInjectable so) {
+        PlanKey key = new PlanKey(so.getClass(), 0);
+        FieldMappingPlan plan = plans.get(key);
+        if (plan == null) {
+            plan = new FieldMappingPlan(so, null);
+            FieldMappingPlan existing = plans.putIfAbsent(key, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Drops every compiled plan.
+     */
+    public static void clear() {
+        plans.clear();
+    }
+
+    /**
+     * @return mapped fields, in declaration order
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Helper method to find the index of a column's field in a tab.
+     *
+     * @param gridTab    tab to be searched
+     * @param columnName column name of the field
+     * @return index of the field, or -1 if the tab has no field for the column
+     */
+    private static int findFieldIndex(GridTab gridTab, String columnName) {
+        for (int i = 0; i < gridTab.getFieldCount(); i++) {
+            if (columnName.equals(gridTab.getField(i).getColumnName())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Mapping of one public field to one tab field.
+     */
+    public static class Entry {
+        private final String fieldName;
+        private final MethodHandle getter;
+        private final ColumnSpec spec;
+        private final int fieldIndex;
+        private final MColumn column;
+        private final String foreignTable;
+
+        @VisibleForBenchmark
+        public Entry(String fieldName, MethodHandle getter, ColumnSpec spec, int fieldIndex, MColumn column,
+                String foreignTable) {
+            this.fieldName = fieldName;
+            this.getter = getter;
+            this.spec = spec;
+            this.fieldIndex = fieldIndex;
+            this.column = column;
+            this.foreignTable = foreignTable;
+        }
+
+        /**
+         * Reads the value of the field from a record.
+         *
+         * @param so record of the mapped class
+         * @return value of the field
+         * @throws Throwable if the field cannot be read
+         */
+        public Object getValue(ApiInjectable so) throws Throwable {
+            return (Object) getter.invokeExact((Object) so);
+        }
+
+        /**
+         * Gets the tab field of the column in a tab instance.
+         *
+         * @param gridTab instance of the mapped tab
+         * @return the tab field, or null if the tab has no field for the column
+         */
+        public GridField getField(GridTab gridTab) {
+            return fieldIndex >= 0 ? gridTab.getField(fieldIndex) : null;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public ColumnSpec getSpec() {
+            return spec;
+        }
+
+        /**
+         * @return column of the field, or null if the column was not found
+         */
+        public MColumn getColumn() {
+            return column;
+        }
+
+        /**
+         * @return table referenced by the field, or null if it does not reference
+         *         a foreign table
+         */
+        public String getForeignTable() {
+            return foreignTable;
+        }
+    }
+
+    /**
+     * Key of a compiled plan.
+     */
+    static class PlanKey {
+        private final Class<?> cls;
+        private final int tabId;
+
+        PlanKey(Class<?> cls, int tabId) {
+            this.cls = cls;
+            this.tabId = tabId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PlanKey)) {
+                return false;
+            }
+
+            PlanKey other = (PlanKey) obj;
+            return cls.equals(other.cls) && tabId == other.tabId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * cls.hashCode() + tabId;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.sahabatabadi.api;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache in front of {@link DocumentInjector}'s foreign key resolution,
+ * shared by every injector and every request. Entries are keyed by
+ * {@code (table, column, value, AD_Client_ID)} and hold the resolved record ID,
+ * including IDs found through the System client fallback.
+ * 
+ * <p>
+ * Lookups and inserts go to a {@link ConcurrentHashMap} without any shared
+ * lock, so injectors never wait for each other here. Once more than
+ * {@link #getMaxSize()} entries are cached, entries are evicted following the
+ * CLOCK approximation of least recently used: a hit marks its entry as
+ * referenced, and the eviction sweep spares a referenced entry once, clearing
+ * its mark, before evicting it on the next pass. Only the sweep is serialized.
+ *
+ * <p>
+ * Entries expire after the TTL of their table, which defaults to
+ * {@value #DEFAULT_TTL_MS} ms and can be changed per table with
+ * {@link #setTableTtl(String, long)}; a TTL of 0 disables caching for the
+ * table. The cache does not listen to changes of the cached tables: a business
+ * partner, warehouse, or organization deactivated in iDempiere keeps resolving
+ * until its entry expires. Entries of a table can be dropped explicitly with
+ * {@link #invalidate(String)} after its records change, also through JMX, and
+ * tables whose records are deactivated often should get a shorter TTL.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class ForeignKeyCache {
+    /**
+     * Default maximum number of cached entries
+     */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /**
+     * Default time-to-live of cached entries, in milliseconds
+     */
+    public static final long DEFAULT_TTL_MS = 10 * 60 * 1000L;
+
+    /**
+     * Cached entries
+     */
+    private static final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>(1024);
+
+    /**
+     * Serializes the eviction sweeps, and guards {@link #clockHand}
+     */
+    private static final Object evictionLock = new Object();
+
+    /**
+     * Position of the eviction sweep in {@link #entries}, carried over from one
+     * sweep to the next. Guarded by {@link #evictionLock}.
+     */
+    private static Iterator<Map.Entry<Key, Entry>> clockHand;
+
+    /**
+     * Mapping between table name and the TTL of its entries, in milliseconds
+     */
+    private static final Map<String, Long> tableTtls = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum number of cached entries
+     */
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * TTL of entries of tables without a specific TTL, in milliseconds
+     */
+    private static volatile long defaultTtl = DEFAULT_TTL_MS;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Gets a cached record ID.
+     * 
+     * @param table    table where the record resides
+     * @param column   column name of the value specified
+     * @param value    value searched in the column
+     * @param clientId AD_Client_ID of the lookup. For {@code AD_Ref_List}
+     *                 lookups, the AD_Reference_ID instead.
+     * @return the cached ID, or null if absent or expired
+     */
+    public static Object get(String table, String column, Object value, int clientId) {
+        Key key = new Key(table, column, value, clientId);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        hits.incrementAndGet();
+        return entry.id;
+    }
+
+    /**
+     * Caches a resolved record ID, evicting entries if the cache is full.
+     * 
+     * @param table    table where the record resides
+     * @param column   column name of the value specified
+     * @param value    value searched in the column
+     * @param clientId AD_Client_ID of the lookup. For {@code AD_Ref_List}
+     *                 lookups, the AD_Reference_ID instead.
+     * @param id       resolved ID, either an Integer record ID or a String
+     *                 reference list value
+     */
+    public static void put(String table, String column, Object value, int clientId, Object id) {
+        long ttl = getTableTtl(table);
+        if (ttl <= 0 || value == null || id == null) {
+            return;
+        }
+
+        entries.put(new Key(table, column, value, clientId), new Entry(id, System.currentTimeMillis() + ttl));
+        if (entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Helper method to sweep {@link #entries} until the cache is back within
+     * {@link #maxSize}. Expired entries are dropped on sight; other entries are
+     * spared once if referenced since the hand last passed them. After two full
+     * rounds without reaching the size, entries are evicted regardless of
+     * their mark, so hits racing the sweep cannot keep it going.
+     */
+    private static void evict() {
+        synchronized (evictionLock) {
+            long now = System.currentTimeMillis();
+            int scanned = 0;
+            int maxScanned = 2 * Math.max(entries.size(), 1);
+            while (entries.size() > maxSize) {
+                if (clockHand == null || !clockHand.hasNext()) {
+                    clockHand = entries.entrySet().iterator();
+                    if (!clockHand.hasNext()) {
+                        return;
+                    }
+                }
+
+                Map.Entry<Key, Entry> candidate = clockHand.next();
+                Entry entry = candidate.getValue();
+                boolean expired = entry.expiresAt < now;
+                if (!expired && entry.referenced && scanned++ < maxScanned) {
+                    entry.referenced = false; // second chance
+                    continue;
+                }
+
+                if (entries.remove(candidate.getKey(), entry) && !expired) {
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every cached entry of the specified table.
+     * 
+     * @param table table whose entries are to be dropped
+     */
+    public static void invalidate(String table) {
+        Iterator<Key> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().table.equals(table)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the cached entry of a single value.
+     * 
+     * @param table    table where the record resides
+     * @param column   column name of the value
+     * @param value    value searched in the column
+     * @param clientId AD_Client_ID of the lookup
+     */
+    public static void invalidate(String table, String column, Object value, int clientId) {
+        entries.remove(new Key(table, column, value, clientId));
+    }
+
+    /**
+     * Drops every cached entry.
+     */
+    public static void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Sets the TTL of the entries of a table. Entries already cached keep their
+     * original expiry.
+     * 
+     * @param table table name
+     * @param ttl   TTL in milliseconds, or 0 to stop caching the table
+     */
+    public static void setTableTtl(String table, long ttl) {
+        tableTtls.put(table, ttl);
+        if (ttl <= 0) {
+            invalidate(table);
+        }
+    }
+
+    /**
+     * @param table table name
+     * @return TTL of the entries of the table, in milliseconds
+     */
+    public static long getTableTtl(String table) {
+        Long ttl = tableTtls.get(table);
+        return ttl != null ? ttl : defaultTtl;
+    }
+
+    /**
+     * @param ttl TTL of entries of tables without a specific TTL, in
+     *            milliseconds
+     */
+    public static void setDefaultTtl(long ttl) {
+        defaultTtl = ttl;
+    }
+
+    /**
+     * @return maximum number of cached entries
+     */
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of cached entries, evicting entries if the cache
+     * is now over the limit.
+     * 
+     * @param newMaxSize maximum number of cached entries
+     */
+    public static void setMaxSize(int newMaxSize) {
+        maxSize = newMaxSize;
+        evict();
+    }
+
+    /**
+     * @return number of cached entries
+     */
+    public static int size() {
+        return entries.size();
+    }
+
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    public static long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Gets a summary of the cache's state and statistics, for logging.
+     * 
+     * @return human readable statistics
+     */
+    public static String getStatistics() {
+        return String.format("ForeignKeyCache[size=%d, maxSize=%d, hits=%d, misses=%d, evictions=%d]", size(),
+                maxSize, hits.get(), misses.get(), evictions.get());
+    }
+
+    /**
+     * Cache key of a single foreign key lookup.
+     */
+    static class Key {
+        final String table;
+        final String column;
+        final Object value;
+        final int clientId;
+
+        Key(String table, String column, Object value, int clientId) {
+            this.table = table;
+            this.column = column;
+            this.value = value;
+            this.clientId = clientId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return clientId == other.clientId && table.equals(other.table) && column.equals(other.column)
+                    && (value == null ? other.value == null : value.equals(other.value));
+        }
+
+        @Override
+        public int hashCode() {
+            int h = table.hashCode();
+            h = h * 31 + column.hashCode();
+            h = h * 31 + (value != null ? value.hashCode() : 0);
+            return h * 31 + clientId;
+        }
+    }
+
+    /**
+     * Cached ID with its expiry time.
+     */
+    static class Entry {
+        final Object id;
+        final long expiresAt;
+
+        /**
+         * Whether the entry was hit since the eviction sweep last passed it.
+         * Only written when it changes, so hits do not keep dirtying the
+         * entry's cache line.
+         */
+        volatile boolean referenced;
+
+        Entry(Object id, long expiresAt) {
+            this.id = id;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
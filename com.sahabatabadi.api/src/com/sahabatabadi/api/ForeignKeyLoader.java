@@ -0,0 +1,166 @@
+package com.sahabatabadi.api;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import org.compiere.util.CLogger;
+import org.compiere.util.DB;
+
+/**
+ * Resolves foreign keys missed by {@link ForeignKeyCache} through one
+ * {@link CoalescingLoader} per {@code (table, column, client)}, so injectors
+ * running concurrently on different threads share one {@code IN (...)} query
+ * instead of each querying the foreign table for its own value.
+ * 
+ * <p>
+ * Resolution follows {@link DocumentInjector}: records of the login client are
+ * preferred, and records of the System client are used only if the table has
+ * System access. Lookups run outside of the injecting transaction, as the
+ * foreign records are master data committed beforehand.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class ForeignKeyLoader {
+    protected static CLogger log = CLogger.getCLogger(ForeignKeyLoader.class);
+
+    /**
+     * Mapping between {@code "<table>.<column>.<client ID>"} and its loader
+     */
+    private static final ConcurrentHashMap<String, CoalescingLoader<String, Integer>> loaders = new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor, all methods are static.
+     */
+    private ForeignKeyLoader() {
+    }
+
+    /**
+     * Resolves the ID of a record in a foreign table, merging the query with
+     * lookups of the same table and column issued by other threads.
+     * 
+     * @param foreignTable  table where the record resides
+     * @param foreignColumn column name of the value specified
+     * @param value         value to be searched in the foreign table
+     * @param clientId      client ID of the injecting context
+     * @return ID of the foreign record, or -1 if not found
+     */
+    public static int resolve(String foreignTable, String foreignColumn, String value, int clientId) {
+        Integer id = getLoader(foreignTable, foreignColumn, clientId).load(value);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @return number of lookups and batched queries served, for logging
+     */
+    public static String getStatistics() {
+        long requests = 0;
+        long batches = 0;
+        long keys = 0;
+        for (CoalescingLoader<String, Integer> loader : loaders.values()) {
+            requests += loader.getRequestCount();
+            batches += loader.getBatchCount();
+            keys += loader.getBatchedKeyCount();
+        }
+
+        return String.format("ForeignKeyLoader[loaders=%d, requests=%d, batches=%d, keys=%d]", loaders.size(),
+                requests, batches, keys);
+    }
+
+    /**
+     * Helper method to get or create the loader of a table, column, and client.
+     * 
+     * @param foreignTable  table where the record resides
+     * @param foreignColumn column name of the value specified
+     * @param clientId      client ID of the injecting context
+     * @return the loader
+     */
+    private static CoalescingLoader<String, Integer> getLoader(final String foreignTable,
+            final String foreignColumn, final int clientId) {
+        String key = foreignTable + "." + foreignColumn + "." + clientId;
+        CoalescingLoader<String, Integer> loader = loaders.get(key);
+        if (loader == null) {
+            loader = new CoalescingLoader<>(new IBatchLoader<String, Integer>() {
+                @Override
+                public Map<String, Integer> loadAll(Set<String> values) {
+                    return query(foreignTable, foreignColumn, values, clientId);
+                }
+            }, CoalescingLoader.DEFAULT_WINDOW_MS, CoalescingLoader.DEFAULT_MAX_BATCH_SIZE);
+
+            CoalescingLoader<String, Integer> existing = loaders.putIfAbsent(key, loader);
+            if (existing != null) {
+                loader = existing;
+            }
+        }
+        return loader;
+    }
+
+    /**
+     * Helper method to resolve a batch of values of one foreign table and column
+     * with one query.
+     * 
+     * @param foreignTable  table where the records reside
+     * @param foreignColumn column name of the values specified
+     * @param values        values to be searched in the foreign table
+     * @param clientId      client ID of the injecting context
+     * @return mapping between value and record ID
+     */
+    private static Map<String, Integer> query(String foreignTable, String foreignColumn, Set<String> values,
+            int clientId) {
+        StringBuilder sql = new StringBuilder("SELECT CAST(").append(foreignColumn).append(" AS VARCHAR(255)), ")
+                .append(foreignTable).append("_ID, AD_Client_ID FROM ").append(foreignTable).append(" WHERE ")
+                .append(foreignColumn).append(" IN (");
+        for (int i = 0; i < values.size(); i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(") AND IsActive='Y' AND AD_Client_ID IN (?,0)");
+
+        boolean useSystem = !"AD_Client".equals(foreignTable) && ResolutionContext.hasSystemAccess(foreignTable);
+
+        Map<String, Integer> ids = new HashMap<>();
+        Map<String, Integer> systemIds = new HashMap<>();
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            pstmt = DB.prepareStatement(sql.toString(), null);
+            int index = 1;
+            for (String value : values) {
+                pstmt.setString(index++, value);
+            }
+            pstmt.setInt(index, clientId);
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                Map<String, Integer> target = rs.getInt(3) == clientId ? ids : systemIds;
+                String value = rs.getString(1);
+                if (!target.containsKey(value)) {
+                    target.put(value, rs.getInt(2));
+                }
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, sql.toString(), e);
+        } finally {
+            DB.close(rs, pstmt);
+            rs = null;
+            pstmt = null;
+        }
+
+        if (useSystem) {
+            for (Map.Entry<String, Integer> systemId : systemIds.entrySet()) {
+                if (!ids.containsKey(systemId.getKey())) {
+                    ids.put(systemId.getKey(), systemId.getValue());
+                }
+            }
+        }
+
+        if (log.isLoggable(Level.FINE))
+            log.fine(String.format("Resolved %d of %d values of %s.%s with one query", ids.size(), values.size(),
+                    foreignTable, foreignColumn));
+
+        return ids;
+    }
+}
@@ -0,0 +1,515 @@
+package com.sahabatabadi.api;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.compiere.model.GridTab;
+import org.compiere.model.GridWindow;
+import org.compiere.model.GridWindowVO;
+import org.compiere.util.CLogger;
+import org.compiere.util.DB;
+import org.compiere.util.Env;
+import org.compiere.util.ServerContext;
+
+/**
+ * Pool of initialized iDempiere windows shared by every
+ * {@link DocumentInjector}. Building a window model ({@link GridWindowVO},
+ * {@link GridWindow}, and its tabs) is one of the most expensive steps of an
+ * injection, so each injector checks out an already initialized window for the
+ * duration of one document and returns it afterwards.
+ *
+ * <p>
+ * A window keeps its own context, which every GridField, GridTab, and lookup of
+ * the window holds on to. While a window is checked out, that context carries
+ * the session values of the checking out task's context and is bound as the
+ * task's {@code Env.getCtx()}, so callouts see the same context whether they
+ * take it from the window or from {@code Env}, and never see the context of
+ * the task the window was built by. The task's own context is bound again on
+ * check-in.
+ *
+ * <p>
+ * Returned windows are reset: their tables are closed, leaving no rows or
+ * pending changes behind, and their window context is cleared and seeded again
+ * with the values of a freshly built window, such as {@code IsSOTrx}, so no
+ * BP, price list, or document type of one document leaks into the next. Windows are rebuilt only when the AD metadata of the
+ * window changes, which is checked at most once every
+ * {@value #METADATA_CHECK_INTERVAL_MS} ms; outdated windows are discarded on
+ * their next checkout or check-in.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class GridWindowPool {
+    /**
+     * Default maximum number of idle windows kept per window and menu
+     */
+    public static final int DEFAULT_MAX_IDLE = Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * Minimum time between two checks of a window's AD metadata, in milliseconds
+     */
+    public static final long METADATA_CHECK_INTERVAL_MS = 60 * 1000L;
+
+    protected static CLogger log = CLogger.getCLogger(GridWindowPool.class);
+
+    /**
+     * Mapping between {@code "<window ID>.<menu ID>"} and its idle windows
+     */
+    private static final Map<String, WindowSlot> slots = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum number of idle windows kept per window and menu
+     */
+    private static volatile int maxIdle = DEFAULT_MAX_IDLE;
+
+    private static final AtomicLong created = new AtomicLong();
+    private static final AtomicLong reused = new AtomicLong();
+    private static final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * Private constructor, all methods are static.
+     */
+    private GridWindowPool() {
+    }
+
+    /**
+     * Checks out an initialized window, creating one if no idle window is
+     * available. The window has to be returned through
+     * {@link #release(PooledWindow)} once the document has been injected.
+     *
+     * @param windowId window ID associated with the injecting iDempiere Window
+     * @param menuId   menu ID associated with the injecting iDempiere Window
+     * @return the checked out window
+     */
+    public static PooledWindow checkout(int windowId, int menuId) {
+        WindowSlot slot = getSlot(windowId, menuId);
+        slot.checkMetadata();
+
+        PooledWindow window;
+        while ((window = slot.idle.poll()) != null) {
+            if (window.generation == slot.generation.get()) {
+                reused.incrementAndGet();
+                window.attach();
+                return window;
+            }
+            dispose(window);
+        }
+
+        created.incrementAndGet();
+        return new PooledWindow(slot, slot.generation.get());
+    }
+
+    /**
+     * Resets a checked out window and returns it to the pool. Windows built from
+     * outdated metadata, or exceeding {@link #getMaxIdle()}, are disposed
+     * instead.
+     *
+     * @param window window checked out through {@link #checkout(int, int)}
+     */
+    public static void release(PooledWindow window) {
+        if (window == null) {
+            return;
+        }
+
+        try {
+            try {
+                window.reset();
+            } finally {
+                window.detach();
+            }
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Failed to reset window " + window.windowNo + ", disposing it", e);
+            dispose(window);
+            return;
+        }
+
+        WindowSlot slot = window.slot;
+        if (window.generation != slot.generation.get() || slot.idle.size() >= maxIdle) {
+            dispose(window);
+            return;
+        }
+
+        slot.idle.offer(window);
+    }
+
+    /**
+     * Disposes every idle window, along with the compiled
+     * {@link FieldMappingPlan}s. Windows currently checked out are disposed on
+     * check-in.
+     */
+    public static void clear() {
+        FieldMappingPlan.clear();
+        for (WindowSlot slot : slots.values()) {
+            slot.generation.incrementAndGet();
+            PooledWindow window;
+            while ((window = slot.idle.poll()) != null) {
+                dispose(window);
+            }
+        }
+    }
+
+    public static int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public static void setMaxIdle(int maxIdle) {
+        GridWindowPool.maxIdle = maxIdle;
+    }
+
+    /**
+     * @return number of windows created, reused, and discarded, for logging
+     */
+    public static String getStatistics() {
+        int idle = 0;
+        for (WindowSlot slot : slots.values()) {
+            idle += slot.idle.size();
+        }
+
+        return String.format("GridWindowPool[idle=%d, created=%d, reused=%d, discarded=%d]", idle,
+                created.get(), reused.get(), discarded.get());
+    }
+
+    /**
+     * Helper method to get or create the slot of a window and menu.
+     *
+     * @param windowId window ID
+     * @param menuId   menu ID
+     * @return the slot
+     */
+    private static WindowSlot getSlot(int windowId, int menuId) {
+        String key = windowId + "." + menuId;
+        WindowSlot slot = slots.get(key);
+        if (slot == null) {
+            synchronized (slots) {
+                slot = slots.get(key);
+                if (slot == null) {
+                    slot = new WindowSlot(windowId, menuId);
+                    slots.put(key, slot);
+                }
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Helper method to dispose a window and clear its context.
+     *
+     * @param window window to be disposed
+     */
+    private static void dispose(PooledWindow window) {
+        discarded.incrementAndGet();
+        try {
+            window.gridWindow.dispose();
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Failed to dispose window " + window.windowNo, e);
+        }
+        Env.clearWinContext(window.ctx, window.windowNo);
+    }
+
+    /**
+     * Idle windows of one window and menu, along with the state of their AD
+     * metadata.
+     */
+    static class WindowSlot {
+        final int windowId;
+        final int menuId;
+
+        /**
+         * Idle windows ready to be checked out
+         */
+        final ConcurrentLinkedQueue<PooledWindow> idle = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Incremented every time the AD metadata of the window changes. Windows
+         * built under an older generation are discarded.
+         */
+        final AtomicInteger generation = new AtomicInteger();
+
+        /**
+         * Latest {@code Updated} timestamp of the window's AD metadata
+         */
+        private Timestamp metadataUpdated;
+
+        /**
+         * Time of the last metadata check, in milliseconds
+         */
+        private long lastCheck;
+
+        WindowSlot(int windowId, int menuId) {
+            this.windowId = windowId;
+            this.menuId = menuId;
+        }
+
+        /**
+         * Increments {@link #generation} if the AD metadata of the window changed
+         * since the last check. Checks at most once every
+         * {@value GridWindowPool#METADATA_CHECK_INTERVAL_MS} ms.
+         */
+        synchronized void checkMetadata() {
+            long now = System.currentTimeMillis();
+            if (now - lastCheck < METADATA_CHECK_INTERVAL_MS) {
+                return;
+            }
+            lastCheck = now;
+
+            String sql = "SELECT MAX(Updated) FROM ("
+                    + "SELECT Updated FROM AD_Window WHERE AD_Window_ID=? "
+                    + "UNION ALL SELECT Updated FROM AD_Tab WHERE AD_Window_ID=? "
+                    + "UNION ALL SELECT f.Updated FROM AD_Field f INNER JOIN AD_Tab t ON (f.AD_Tab_ID=t.AD_Tab_ID) "
+                    + "WHERE t.AD_Window_ID=? "
+                    + "UNION ALL SELECT c.Updated FROM AD_Column c INNER JOIN AD_Tab t ON (c.AD_Table_ID=t.AD_Table_ID) "
+                    + "WHERE t.AD_Window_ID=?) metadata";
+            Timestamp updated;
+            try {
+                updated = DB.getSQLValueTSEx(null, sql, windowId, windowId, windowId, windowId);
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, sql, e);
+                return;
+            }
+
+            if (metadataUpdated != null && updated != null && !updated.equals(metadataUpdated)) {
+                generation.incrementAndGet();
+                FieldMappingPlan.clear();
+                if (log.isLoggable(Level.INFO))
+                    log.info("Metadata of window " + windowId + " changed, rebuilding pooled windows");
+            }
+            metadataUpdated = updated;
+        }
+    }
+
+    /**
+     * An initialized iDempiere window. The header tab is initialized when the
+     * window is built; child tabs are initialized the first time a document
+     * needs them, along with their parent tabs, so tabs of tables no document
+     * writes to are never initialized.
+     */
+    public static class PooledWindow {
+        private final WindowSlot slot;
+        private final int generation;
+        private final int windowNo;
+
+        /**
+         * Context of the window, held by its fields, tabs, and lookups. Window
+         * values live in this context under the window's unique number; session
+         * values are those of the task which checked the window out.
+         */
+        private final Properties ctx;
+
+        /**
+         * Context of the task the window is checked out by, bound again on
+         * check-in, or null while the window is idle
+         */
+        private Properties taskCtx;
+        private final GridWindow gridWindow;
+        private final GridTab headerTab;
+
+        /**
+         * Whether each tab of {@link #gridWindow} has been initialized
+         */
+        private final boolean[] initialized;
+
+        /**
+         * Mapping between table name and the first child tab of the table
+         */
+        private final Map<String, GridTab> childsByTable = new HashMap<>();
+
+        /**
+         * Window context values set while building the window and initializing
+         * its tabs, restored by {@link #reset()}
+         */
+        private final Map<String, String> seedContext = new HashMap<>();
+
+        /**
+         * Builds the window of the specified slot and initializes its header tab.
+         *
+         * @param slot       slot of the window and menu to be built
+         * @param generation metadata generation the window is built under
+         */
+        PooledWindow(WindowSlot slot, int generation) {
+            this.slot = slot;
+            this.generation = generation;
+
+            // org.adempiere.webui.panel.action.FileImportAction::importFile()
+            this.windowNo = DocumentInjector.getNextWindowNo();
+            this.ctx = new Properties();
+            attach();
+
+            try {
+                // org.adempiere.webui.apps.AEnv::getMWindowVO(int, int, int)
+                GridWindowVO gWindowVO = GridWindowVO.create(ctx, windowNo, slot.windowId, slot.menuId);
+
+                // org.adempiere.webui.adwindow.AbstractADWindowContent::initComponents()
+                this.gridWindow = new GridWindow(gWindowVO, true);
+                this.initialized = new boolean[gridWindow.getTabCount()];
+
+                // org.adempiere.webui.adwindow.AbstractADWindowContent::initPanel(MQuery query)
+                Env.setContext(ctx, windowNo, "IsSOTrx", gridWindow.isSOTrx());
+
+                initTab(0);
+                this.headerTab = gridWindow.getTab(0);
+            } catch (RuntimeException e) {
+                detach();
+                throw e;
+            }
+        }
+
+        public int getWindowNo() {
+            return windowNo;
+        }
+
+        public GridTab getHeaderTab() {
+            return headerTab;
+        }
+
+        /**
+         * Gets the child tabs of the specified tables, initializing them and their
+         * parent tabs if needed. Tables without a child tab in the window are
+         * ignored.
+         *
+         * @param tableNames names of the tables written to by a document's lines
+         * @return the first child tab of each table, in tab order
+         */
+        public List<GridTab> getChilds(Set<String> tableNames) {
+            List<GridTab> childs = new ArrayList<GridTab>();
+            for (int i = 1; i < gridWindow.getTabCount(); i++) {
+                GridTab gTab = gridWindow.getTab(i);
+                String tableName = gTab.getTableName();
+                if (!tableNames.contains(tableName)) {
+                    continue;
+                }
+
+                GridTab child = childsByTable.get(tableName);
+                if (child == null) {
+                    initTabWithParents(i);
+                    child = gTab;
+                    childsByTable.put(tableName, child);
+                }
+
+                if (!childs.contains(child)) {
+                    childs.add(child);
+                }
+            }
+            return childs;
+        }
+
+        /**
+         * Helper method to initialize a tab after every tab of its parent chain.
+         *
+         * @param tabIndex index of the tab in {@link #gridWindow}
+         */
+        private void initTabWithParents(int tabIndex) {
+            LinkedList<Integer> chain = new LinkedList<>();
+            chain.add(tabIndex);
+
+            int level = gridWindow.getTab(tabIndex).getTabLevel();
+            for (int i = tabIndex - 1; i > 0 && level > 1; i--) {
+                int parentLevel = gridWindow.getTab(i).getTabLevel();
+                if (parentLevel < level) {
+                    chain.addFirst(i);
+                    level = parentLevel;
+                }
+            }
+
+            for (int i : chain) {
+                initTab(i);
+            }
+        }
+
+        /**
+         * Helper method to initialize a tab, if not yet initialized, and attach a
+         * {@link DocumentInjector.GridTabHolder} to it.
+         *
+         * @param tabIndex index of the tab in {@link #gridWindow}
+         */
+        private void initTab(int tabIndex) {
+            if (initialized[tabIndex]) {
+                return;
+            }
+
+            // org.adempiere.webui.adwindow.AbstractADWindowContent::initTab(MQuery, int)
+            gridWindow.initTab(tabIndex);
+            new DocumentInjector.GridTabHolder(gridWindow.getTab(tabIndex));
+            initialized[tabIndex] = true;
+
+            // tabs are only initialized before a document writes to the window
+            String prefix = windowNo + "|";
+            for (String key : ctx.stringPropertyNames()) {
+                if (key.startsWith(prefix)) {
+                    seedContext.put(key, ctx.getProperty(key));
+                }
+            }
+        }
+
+        /**
+         * Replaces the session values of the window's context with those of the
+         * calling task's context, and binds the window's context to the calling
+         * thread until {@link #detach()}.
+         */
+        void attach() {
+            taskCtx = ServerContext.getCurrentInstance();
+            Properties sessionCtx = Env.getCtx();
+
+            String prefix = windowNo + "|";
+            for (Object key : new ArrayList<Object>(ctx.keySet())) {
+                if (!isWindowKey(key, prefix)) {
+                    ctx.remove(key);
+                }
+            }
+            for (Map.Entry<Object, Object> entry : sessionCtx.entrySet()) {
+                if (!isWindowKey(entry.getKey(), prefix)) {
+                    ctx.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            ServerContext.setCurrentInstance(ctx);
+        }
+
+        /**
+         * Binds the context of the task which checked the window out to the
+         * calling thread again.
+         */
+        void detach() {
+            ServerContext.setCurrentInstance(taskCtx);
+            taskCtx = null;
+        }
+
+        /**
+         * @param key    context key
+         * @param prefix window prefix, {@code "<windowNo>|"}
+         * @return true if the key is a window or tab value of this window
+         */
+        private static boolean isWindowKey(Object key, String prefix) {
+            return key instanceof String && ((String) key).startsWith(prefix);
+        }
+
+        /**
+         * Discards the rows, pending changes, and window context values left by
+         * the previous document, so the window behaves like a freshly built one.
+         */
+        void reset() {
+            for (int i = 0; i < initialized.length; i++) {
+                if (initialized[i]) {
+                    GridTab gTab = gridWindow.getTab(i);
+                    gTab.getTableModel().setImportingMode(false, null);
+                    gTab.getTableModel().close(false);
+                }
+            }
+
+            Env.clearWinContext(ctx, windowNo);
+            for (Map.Entry<String, String> entry : seedContext.entrySet()) {
+                ctx.setProperty(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
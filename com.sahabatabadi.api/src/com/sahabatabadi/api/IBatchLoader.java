@@ -0,0 +1,27 @@
+package com.sahabatabadi.api;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Interface for lookups able to resolve many keys with one database round
+ * trip, typically through an {@code IN (...)} query. Used by
+ * {@link CoalescingLoader}.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ * 
+ * @param <K> key type
+ * @param <V> value type
+ */
+public interface IBatchLoader<K, V> {
+    /**
+     * Resolves the specified keys. Failures are expected to be logged by the
+     * implementation, which then returns whatever it could resolve.
+     * 
+     * @param keys keys to be resolved
+     * @return mapping between key and resolved value. Keys which could not be
+     *         resolved are absent from the mapping.
+     */
+    public Map<K, V> loadAll(Set<K> keys);
+}
@@ -0,0 +1,38 @@
+package com.sahabatabadi.api;
+
+import org.compiere.model.PO;
+import org.compiere.util.Trx;
+
+/**
+ * Interface for loaders writing all lines of a large document at once, in place
+ * of injecting them one by one. Registered per line table through
+ * {@link DocumentInjector#registerBulkLineLoader(String, IBulkLineLoader)}.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public interface IBulkLineLoader {
+    /**
+     * Checks whether writing lines in bulk would bypass business logic run when
+     * lines are saved one by one, such as model validators or callouts. Lines
+     * are only loaded in bulk while this method returns null.
+     * 
+     * @return description of the logic which would be bypassed, or null if
+     *         lines can be written in bulk
+     */
+    public String getBypassedLogic();
+
+    /**
+     * Writes every line of a document, and updates its header accordingly,
+     * within the document's transaction. If this method fails, whether with a
+     * {@link SASApiException} or a runtime exception, the whole document is
+     * rolled back, including the lines already written.
+     * 
+     * @param headerPO saved header record of the document
+     * @param lines    lines of the document, all of the table the loader is
+     *                 registered for
+     * @param trx      Trx object representing the insertion operation
+     * @throws SASApiException if any line cannot be written
+     */
+    public void loadLines(PO headerPO, DocLine[] lines, Trx trx) throws SASApiException;
+}
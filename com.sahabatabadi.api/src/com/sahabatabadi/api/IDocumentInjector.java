@@ -0,0 +1,28 @@
+package com.sahabatabadi.api;
+
+/**
+ * Interface for engines injecting {@link DocHeader} and its {@link DocLine}s
+ * into iDempiere.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ * 
+ * @see InjectionEngine
+ */
+public interface IDocumentInjector {
+    /**
+     * Injects a document into iDempiere.
+     * 
+     * @param headerObj header of the document to be injected
+     * @return true if document is successfully injected, false otherwise
+     */
+    public boolean injectDocument(DocHeader headerObj);
+
+    /**
+     * Sets whether injected documents are rolled back instead of committed, e.g.
+     * to compare engines on the same documents without persisting them.
+     * 
+     * @param rollbackOnly true to roll back every injected document
+     */
+    public void setRollbackOnly(boolean rollbackOnly);
+}
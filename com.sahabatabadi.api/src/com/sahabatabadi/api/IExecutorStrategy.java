@@ -0,0 +1,62 @@
+package com.sahabatabadi.api;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Strategy running the tasks of {@link ThreadPoolManager}. Admission, context
+ * isolation, and metrics are handled by {@link ThreadPoolManager}; the strategy
+ * only decides which threads run the tasks.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public interface IExecutorStrategy {
+    /**
+     * @return name of the strategy, for logging
+     */
+    public String getName();
+
+    /**
+     * Runs a task asynchronously.
+     * 
+     * @param task task to be run
+     * @throws RejectedExecutionException if the strategy has been shut down
+     */
+    public void execute(Runnable task);
+
+    /**
+     * @return true if the current thread is running a task of this strategy
+     */
+    public boolean isWorkerThread();
+
+    /**
+     * @return maximum number of tasks running at once
+     */
+    public int getParallelism();
+
+    /**
+     * @return maximum number of tasks which may be queued or running at once on
+     *         behalf of callers outside the strategy's threads
+     */
+    public int getAdmissionCapacity();
+
+    /**
+     * @return number of tasks waiting for a thread
+     */
+    public int getQueueDepth();
+
+    /**
+     * @return number of tasks being run
+     */
+    public int getActiveCount();
+
+    /**
+     * @return statistics specific to the strategy, for logging
+     */
+    public String getStatistics();
+
+    /**
+     * Stops accepting tasks. Tasks already submitted still run.
+     */
+    public void shutdown();
+}
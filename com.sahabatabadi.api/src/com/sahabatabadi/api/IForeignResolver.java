@@ -0,0 +1,22 @@
+package com.sahabatabadi.api;
+
+/**
+ * Interface for objects able to resolve the ID of a foreign record without
+ * querying the database. Registered in {@link DocumentInjector} for a specific
+ * foreign table and column, and consulted before the database is queried.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public interface IForeignResolver {
+    /**
+     * Resolves the ID of the active record whose foreign column matches the
+     * specified value.
+     * 
+     * @param value      value to be searched in the foreign column
+     * @param clientId   AD_Client_ID the record has to belong to
+     * @return ID of the foreign record, or -1 if the resolver cannot answer and
+     *         the database has to be queried instead
+     */
+    public int resolveForeign(Object value, int clientId);
+}
@@ -0,0 +1,23 @@
+package com.sahabatabadi.api;
+
+import org.compiere.model.PO;
+
+/**
+ * Interface for the business logic {@link POInjector} runs on a record of a
+ * table, in place of the callouts run by the GridTab model of the window.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public interface IPOInjectionRule {
+    /**
+     * Applies business logic to a record, after the values of the document have
+     * been set and before the record is saved.
+     * 
+     * @param po       record to be saved
+     * @param parentPO saved header record if the record is a line, null otherwise
+     * @return empty string if the logic was applied successfully, the error
+     *         message otherwise
+     */
+    public String apply(PO po, PO parentPO);
+}
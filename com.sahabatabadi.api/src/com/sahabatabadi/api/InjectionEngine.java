@@ -0,0 +1,62 @@
+package com.sahabatabadi.api;
+
+/**
+ * Engines able to inject documents into iDempiere. The default engine is read
+ * from the {@value #ENGINE_PROPERTY} system property, either {@code gridtab} or
+ * {@code po}, and falls back to {@link #GRID_TAB}.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public enum InjectionEngine {
+    /**
+     * Injects through the GridTab model of the window, see
+     * {@link DocumentInjector}
+     */
+    GRID_TAB {
+        @Override
+        public IDocumentInjector create(int windowId, int menuId, ResolutionContext resolutionContext) {
+            return new DocumentInjector(windowId, menuId, resolutionContext);
+        }
+    },
+
+    /**
+     * Injects by saving POs directly, see {@link POInjector}
+     */
+    PO {
+        @Override
+        public IDocumentInjector create(int windowId, int menuId, ResolutionContext resolutionContext) {
+            return new POInjector(windowId, resolutionContext);
+        }
+    };
+
+    /**
+     * System property selecting the default engine
+     */
+    public static final String ENGINE_PROPERTY = "sas.api.engine";
+
+    /**
+     * Creates an injector of this engine.
+     * 
+     * @param windowId          window ID associated with the injecting iDempiere
+     *                          Window
+     * @param menuId            menu ID associated with the injecting iDempiere
+     *                          Window
+     * @param resolutionContext foreign keys already resolved for the documents to
+     *                          be injected, can be null
+     * @return the injector
+     */
+    public abstract IDocumentInjector create(int windowId, int menuId, ResolutionContext resolutionContext);
+
+    /**
+     * @return the engine selected by the {@value #ENGINE_PROPERTY} system
+     *         property, or {@link #GRID_TAB} if unset or unknown
+     */
+    public static InjectionEngine getDefault() {
+        String engine = System.getProperty(ENGINE_PROPERTY);
+        if ("po".equalsIgnoreCase(engine)) {
+            return PO;
+        }
+        return GRID_TAB;
+    }
+}
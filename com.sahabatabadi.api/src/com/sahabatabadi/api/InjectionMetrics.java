@@ -0,0 +1,262 @@
+package com.sahabatabadi.api;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms and counters of the injection path, so the time of an
+ * order can be broken down into its lookups, numbering, window work, and
+ * commit. Every {@link Stage} keeps one {@link LatencyHistogram} over all
+ * windows, and one per iDempiere window for stages run against a window.
+ *
+ * <p>
+ * Measuring costs two {@link System#nanoTime()} calls and a few atomic
+ * increments per stage. Setting {@value #ENABLED_PROPERTY} to {@code false}
+ * leaves only the clock reads.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class InjectionMetrics {
+    /**
+     * System property enabling the metrics, {@code true} by default
+     */
+    public static final String ENABLED_PROPERTY = "sas.api.metrics";
+
+    /**
+     * Measured stages of the injection path
+     */
+    public enum Stage {
+        /**
+         * Principal lookup of the products of a batch, see
+         * {@link com.sahabatabadi.api.salesorder.SalesOrderUtils#getProductPrincipals(java.util.Collection)}
+         */
+        PRINCIPAL_LOOKUP,
+
+        /**
+         * Discount lookup of the products of one BP
+         */
+        DISCOUNT_LOOKUP,
+
+        /**
+         * Document number assignment of one document
+         */
+        DOCUMENT_NO,
+
+        /**
+         * Checkout and set up of the window injecting one document, see
+         * {@link GridWindowPool}
+         */
+        INIT_GRID_TAB,
+
+        /**
+         * Callouts and dependent fields triggered by one field change
+         */
+        CALLOUT,
+
+        /**
+         * {@link org.compiere.model.GridTab#dataSave(boolean)} of one record
+         */
+        DATA_SAVE,
+
+        /**
+         * Commit of the transaction of one document
+         */
+        COMMIT,
+
+        /**
+         * Whole injection of one document, from checks to closing its
+         * transaction
+         */
+        DOCUMENT;
+
+        /**
+         * Latencies of the stage over all windows
+         */
+        private final LatencyHistogram all = new LatencyHistogram();
+
+        /**
+         * Latencies of the stage by AD_Window_ID
+         */
+        private final ConcurrentHashMap<Integer, LatencyHistogram> byWindow = new ConcurrentHashMap<>();
+
+        /**
+         * Helper method to get the histogram of a window, creating it on first
+         * use.
+         *
+         * @param windowId AD_Window_ID
+         * @return histogram of the stage in the window
+         */
+        private LatencyHistogram forWindow(int windowId) {
+            LatencyHistogram histogram = byWindow.get(windowId);
+            if (histogram == null) {
+                LatencyHistogram newHistogram = new LatencyHistogram();
+                histogram = byWindow.putIfAbsent(windowId, newHistogram);
+                if (histogram == null) {
+                    histogram = newHistogram;
+                }
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * Counted events of the injection path
+     */
+    public enum Counter {
+        /**
+         * Documents committed
+         */
+        DOCUMENTS,
+
+        /**
+         * Records saved, headers and lines
+         */
+        RECORDS,
+
+        /**
+         * Line records saved, one by one or in bulk
+         */
+        LINES,
+
+        /**
+         * Records which failed to be injected
+         */
+        ERRORS,
+
+        /**
+         * Document transactions rolled back because of a failure
+         */
+        ROLLBACKS;
+
+        private final AtomicLong value = new AtomicLong();
+    }
+
+    private static volatile boolean enabled = Boolean
+            .parseBoolean(System.getProperty(ENABLED_PROPERTY, Boolean.TRUE.toString()));
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private InjectionMetrics() {
+    }
+
+    /**
+     * Rereads {@value #ENABLED_PROPERTY}. Recorded values are kept.
+     */
+    public static void reinitialize() {
+        enabled = Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, Boolean.TRUE.toString()));
+    }
+
+    /**
+     * @return start of a measurement, to be passed to
+     *         {@link #record(Stage, long)}
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since the specified start for a stage not tied to
+     * a window.
+     *
+     * @param stage      measured stage
+     * @param startNanos value of {@link #start()} before the stage ran
+     */
+    public static void record(Stage stage, long startNanos) {
+        if (enabled) {
+            stage.all.recordSince(startNanos);
+        }
+    }
+
+    /**
+     * Records the time elapsed since the specified start for a stage run against
+     * a window.
+     *
+     * @param stage      measured stage
+     * @param windowId   AD_Window_ID the stage ran against
+     * @param startNanos value of {@link #start()} before the stage ran
+     */
+    public static void record(Stage stage, int windowId, long startNanos) {
+        if (enabled) {
+            long elapsed = System.nanoTime() - startNanos;
+            stage.all.record(elapsed);
+            stage.forWindow(windowId).record(elapsed);
+        }
+    }
+
+    /**
+     * Adds one to a counter.
+     *
+     * @param counter counter to increment
+     */
+    public static void count(Counter counter) {
+        count(counter, 1);
+    }
+
+    /**
+     * Adds to a counter.
+     *
+     * @param counter counter to increment
+     * @param delta   amount to add
+     */
+    public static void count(Counter counter, long delta) {
+        if (enabled) {
+            counter.value.addAndGet(delta);
+        }
+    }
+
+    /**
+     * @param stage measured stage
+     * @return latencies of the stage over all windows
+     */
+    public static LatencyHistogram getHistogram(Stage stage) {
+        return stage.all;
+    }
+
+    /**
+     * @param stage    measured stage
+     * @param windowId AD_Window_ID
+     * @return latencies of the stage in the window, or null if it never ran
+     *         against the window
+     */
+    public static LatencyHistogram getHistogram(Stage stage, int windowId) {
+        return stage.byWindow.get(windowId);
+    }
+
+    /**
+     * @param counter counted event
+     * @return number of events counted
+     */
+    public static long getCount(Counter counter) {
+        return counter.value.get();
+    }
+
+    /**
+     * @return counters and per stage latencies, for logging
+     */
+    public static String getStatistics() {
+        StringBuilder sb = new StringBuilder("Injection metrics: ");
+        for (Counter counter : Counter.values()) {
+            if (counter.ordinal() > 0) {
+                sb.append(", ");
+            }
+            sb.append(counter.name().toLowerCase()).append("=").append(counter.value.get());
+        }
+
+        for (Stage stage : Stage.values()) {
+            if (stage.all.getCount() == 0) {
+                continue;
+            }
+
+            sb.append("\n  ").append(stage).append(": ").append(stage.all);
+            Map<Integer, LatencyHistogram> windows = new TreeMap<>(stage.byWindow);
+            for (Map.Entry<Integer, LatencyHistogram> window : windows.entrySet()) {
+                sb.append("\n    window ").append(window.getKey()).append(": ").append(window.getValue());
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,38 @@
+package com.sahabatabadi.api;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Exception thrown when tasks are not admitted into the injector pool because
+ * the pool is full, see {@link ThreadPoolManager}.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class InjectionRejectedException extends RejectedExecutionException {
+    private static final long serialVersionUID = -4370282736498310952L;
+
+    /**
+     * Suggested delay before the caller retries, in milliseconds
+     */
+    private final long retryAfterMillis;
+
+    /**
+     * Constructs a new exception with the specified detail message.
+     * 
+     * @param message          the detail message
+     * @param retryAfterMillis suggested delay before the caller retries, in
+     *                         milliseconds
+     */
+    public InjectionRejectedException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return suggested delay before the caller retries, in milliseconds
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
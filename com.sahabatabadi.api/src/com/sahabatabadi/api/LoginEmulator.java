@@ -28,6 +28,12 @@ public class LoginEmulator {
     public static final String USER_ID = "Api-01";
     public static final String USER_PASSWORD = "12345";
 
+    /**
+     * Copy of the context populated by the last successful
+     * {@link #emulateLogin()}, or null if the API has not logged in.
+     */
+    private static volatile Properties loginContext;
+
     /**
      * Emulates login to iDempiere with username {@value #USER_ID} and password
      * {@value #USER_PASSWORD}. Client, role, org, and warehouse follows the value
@@ -104,12 +110,40 @@ public class LoginEmulator {
 
         if (!Util.isEmpty(msg)) {
             Env.getCtx().clear();
+            loginContext = null;
             return false;
         }
 
+        loginContext = copyContext(Env.getCtx());
         return true;
     }
 
+    /**
+     * Creates a new context holding the login values of the last successful
+     * {@link #emulateLogin()}. Each injection runs against its own context
+     * created by this method, so window values written by one injection, e.g.
+     * {@code IsSOTrx}, are never seen by another. Falls back to a copy of the
+     * current context if the API has not logged in.
+     * 
+     * @return a new context, independent of every other context
+     */
+    public static Properties createContext() {
+        Properties snapshot = loginContext;
+        return copyContext(snapshot != null ? snapshot : Env.getCtx());
+    }
+
+    /**
+     * Helper method to copy a context.
+     * 
+     * @param ctx context to be copied
+     * @return new context with the same values as the specified context
+     */
+    private static Properties copyContext(Properties ctx) {
+        Properties copy = new Properties();
+        copy.putAll(ctx);
+        return copy;
+    }
+
     /**
      * Loads the login preferences from the User Preference window in iDempiere
      * 
@@ -0,0 +1,459 @@
+package com.sahabatabadi.api;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import org.compiere.model.MColumn;
+import org.compiere.model.MTable;
+import org.compiere.model.PO;
+import org.compiere.util.CLogger;
+import org.compiere.util.DB;
+import org.compiere.util.Env;
+import org.compiere.util.Trx;
+import org.compiere.util.ValueNamePair;
+
+import com.sahabatabadi.api.InjectionMetrics.Counter;
+import com.sahabatabadi.api.InjectionMetrics.Stage;
+
+/**
+ * A class to inject {@link DocHeader} into iDempiere by filling and saving POs
+ * directly, without the GridTab model of a window. Callouts are not run;
+ * instead, the business logic required by each table is declared as an
+ * {@link IPOInjectionRule} through {@link #registerRule(String, IPOInjectionRule)}
+ * and run right before the record is saved. Values are mapped and foreign keys
+ * are resolved the same way as {@link DocumentInjector}, and failures reach the
+ * API Error Log and {@link InjectionMetrics} the same way too.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class POInjector implements IDocumentInjector {
+    /**
+     * Prefix for logger messages
+     */
+    private final String PLUGIN_PREFIX = "[SAS iDempiere API] ";
+
+    protected CLogger log = CLogger.getCLogger(getClass());
+
+    /**
+     * Mapping between table name and the business logic run before saving its
+     * records
+     */
+    private static final Map<String, IPOInjectionRule> rules = new ConcurrentHashMap<>();
+
+    private static final String TAB_SQL = "SELECT t.AD_Tab_ID FROM AD_Tab t "
+            + "INNER JOIN AD_Table tb ON (tb.AD_Table_ID=t.AD_Table_ID) "
+            + "WHERE t.AD_Window_ID=? AND tb.TableName=? AND t.IsActive='Y' ORDER BY t.SeqNo";
+
+    /**
+     * Mapping between window ID and table name, and the AD_Tab_ID of the first
+     * tab of the table in the window, for the error log
+     */
+    private static final Map<String, Integer> tabIds = new ConcurrentHashMap<>();
+
+    /**
+     * iDempiere window the injected documents belong to, for the error log and
+     * the metrics
+     */
+    private final int windowId;
+
+    /**
+     * Foreign keys already resolved for the document being injected and its
+     * sibling documents, can be null
+     */
+    private final ResolutionContext resolutionContext;
+
+    /**
+     * Whether the injector failed to inject the document
+     */
+    private boolean isError;
+
+    /**
+     * Whether injected documents are rolled back instead of committed
+     */
+    private boolean rollbackOnly;
+
+    /**
+     * Error log entries of the document being injected, submitted to
+     * {@link ErrorLogWriter} once its transaction is closed
+     */
+    private List<ErrorLogWriter.Entry> errorLogEntries = new ArrayList<>();
+
+    /**
+     * Creates a POInjector instance.
+     *
+     * @param windowId          ID of the iDempiere window the documents belong
+     *                          to, under which failures are logged and measured
+     * @param resolutionContext foreign keys already resolved for the documents to
+     *                          be injected, can be null
+     */
+    public POInjector(int windowId, ResolutionContext resolutionContext) {
+        this.windowId = windowId;
+        this.resolutionContext = resolutionContext;
+    }
+
+    /**
+     * Registers the business logic run before saving records of the specified
+     * table. Replaces any rule previously registered for the table.
+     *
+     * @param tableName table name, e.g. {@code "C_Order"}
+     * @param rule      rule to be registered
+     */
+    public static void registerRule(String tableName, IPOInjectionRule rule) {
+        rules.put(tableName, rule);
+    }
+
+    /**
+     * Removes the rule registered for the specified table, if any.
+     *
+     * @param tableName table name
+     */
+    public static void unregisterRule(String tableName) {
+        rules.remove(tableName);
+    }
+
+    @Override
+    public void setRollbackOnly(boolean rollbackOnly) {
+        this.rollbackOnly = rollbackOnly;
+    }
+
+    /**
+     * Injects a document by saving its header and lines as POs in one
+     * transaction, while holding a {@link DatabaseThrottle} permit. The first
+     * record which fails to be saved, whether with a {@link SASApiException} or
+     * a runtime exception thrown by a rule, is logged, and the whole document
+     * is rolled back. The permit is returned before the document's error log
+     * entries are submitted to {@link ErrorLogWriter}.
+     *
+     * @param headerObj header of the document to be injected
+     * @return true if document is successfully injected, false otherwise
+     */
+    @Override
+    public boolean injectDocument(DocHeader headerObj) {
+        isError = false;
+
+        if (!DocumentInjector.checkDocumentValid(headerObj)) {
+            return false;
+        }
+
+        long documentStart = InjectionMetrics.start();
+        try {
+            DatabaseThrottle.enter();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.log(Level.WARNING, "Interrupted while waiting to inject " + headerObj, e);
+            return false;
+        }
+
+        try {
+            return injectDocumentThrottled(headerObj);
+        } finally {
+            // returned before the error log stage is fed, which may block on its queue
+            DatabaseThrottle.exit();
+
+            ErrorLogWriter.submit(errorLogEntries);
+            errorLogEntries = new ArrayList<>();
+
+            InjectionMetrics.record(Stage.DOCUMENT, windowId, documentStart);
+        }
+    }
+
+    /**
+     * Injects a document while holding a {@link DatabaseThrottle} permit. Error
+     * log entries are collected in {@link #errorLogEntries} for the caller to
+     * submit.
+     *
+     * @param headerObj header of the document to be injected
+     * @return true if document is successfully injected, false otherwise
+     */
+    private boolean injectDocumentThrottled(DocHeader headerObj) {
+        String trxName = "Import_" + headerObj.getTableName() + "_" + UUID.randomUUID();
+        Trx trx = Trx.get(trxName, true);
+        try {
+            PO headerPO = saveRecord(headerObj, null, trx); // throws SASApiException upon failure
+
+            IBulkLineLoader bulkLineLoader = DocumentInjector.getBulkLineLoader(headerObj);
+            if (bulkLineLoader != null) {
+                try {
+                    bulkLineLoader.loadLines(headerPO, headerObj.getLines(), trx);
+                    InjectionMetrics.count(Counter.RECORDS, headerObj.getLines().length);
+                    InjectionMetrics.count(Counter.LINES, headerObj.getLines().length);
+                } catch (SASApiException e) {
+                    isError = true;
+                    insertErrorLog(e);
+                    return false;
+                } catch (RuntimeException e) {
+                    // e.g. no tax for a product; lines already batched must not commit with the header
+                    isError = true;
+                    insertErrorLog(new SASApiException(headerObj, 0, 0,
+                            "Failed to load lines in bulk: " + e.toString(), e));
+                    return false;
+                }
+                return true;
+            }
+
+            for (DocLine lineRecord : headerObj.getLines()) {
+                try {
+                    saveRecord(lineRecord, headerPO, trx);
+                } catch (SASApiException e) {
+                    isError = true;
+                    insertErrorLog(e);
+                    return false; // the document is rolled back, remaining lines would be discarded too
+                } catch (RuntimeException e) {
+                    // e.g. a rule failing on an unexpected value; the saved lines must not commit
+                    isError = true;
+                    insertErrorLog(new SASApiException(lineRecord, 0, 0, "Failed to save record: " + e.toString(), e));
+                    return false;
+                }
+            }
+        } catch (SASApiException e) {
+            isError = true;
+            insertErrorLog(e);
+            return false;
+        } catch (RuntimeException e) {
+            isError = true;
+            insertErrorLog(new SASApiException(headerObj, 0, 0, "Failed to save record: " + e.toString(), e));
+            return false;
+        } finally {
+            closeTrx(trx);
+        }
+
+        return true;
+    }
+
+    /**
+     * Fills a new PO with the values of the specified record, applies the rule
+     * of its table, and saves it.
+     *
+     * @param so       the {@link ApiInjectable} being injected
+     * @param parentPO saved header PO if the record is a line, null otherwise
+     * @param trx      Trx object representing the insertion operation
+     * @return the saved PO
+     * @throws SASApiException if the record cannot be filled or saved
+     */
+    private PO saveRecord(ApiInjectable so, PO parentPO, Trx trx) throws SASApiException {
+        PO po = MTable.get(Env.getCtx(), so.getTableName()).getPO(0, trx.getTrxName());
+        if (po == null) {
+            throw new SASApiException(so, 0, 0,
+                    String.format("Failed to create a new record in table [%s]", so.getTableName()));
+        }
+
+        processRow(po, parentPO, so, trx); // throws SASApiException upon failure
+
+        IPOInjectionRule rule = rules.get(so.getTableName());
+        if (rule != null) {
+            String errMsg = rule.apply(po, parentPO);
+            if (errMsg == null || !errMsg.equals("")) {
+                throw new SASApiException(so, 0, 0, String.format("Failed to apply rule of table [%s]. Error message: %s",
+                        so.getTableName(), errMsg));
+            }
+        }
+
+        long saveStart = InjectionMetrics.start();
+        boolean saved = po.save();
+        InjectionMetrics.record(Stage.DATA_SAVE, windowId, saveStart);
+        if (!saved) {
+            ValueNamePair ppE = CLogger.retrieveWarning();
+            if (ppE == null) {
+                ppE = CLogger.retrieveError();
+            }
+
+            String info = (ppE != null) ? ppE.getName() : "";
+
+            throw new SASApiException(so, 0, 0,
+                    String.format("Failed to save record in table [%s]\n%s", so.getTableName(), info));
+        }
+
+        if (parentPO != null) {
+            InjectionMetrics.count(Counter.LINES);
+        }
+        InjectionMetrics.count(Counter.RECORDS);
+
+        if (log.isLoggable(Level.INFO))
+            log.info(PLUGIN_PREFIX + "Inserted " + po.toString());
+
+        return po;
+    }
+
+    /**
+     * Sets the values of the specified record in the PO, resolving foreign keys.
+     * The link of a line to its header is set from the saved header PO.
+     *
+     * @param po       PO to be filled
+     * @param parentPO saved header PO if the record is a line, null otherwise
+     * @param so       the {@link ApiInjectable} being injected
+     * @param trx      Trx object representing the insertion operation
+     * @throws SASApiException if a value cannot be resolved or set
+     */
+    private void processRow(PO po, PO parentPO, ApiInjectable so, Trx trx) throws SASApiException {
+        for (FieldMappingPlan.Entry entry : FieldMappingPlan.get(so).getEntries()) {
+            Object value = null;
+            try {
+                value = entry.getValue(so);
+            } catch (Throwable e) {
+                throw new SASApiException(so, 0, 0,
+                        String.format("Java Reflection error when accessing field [%s] in class [%s]!\n%s",
+                                entry.getFieldName(), so.getClass(), e.getMessage()));
+            }
+
+            if (value == null) {
+                continue;
+            }
+
+            ColumnSpec spec = entry.getSpec();
+            String columnName = spec.getColumnName();
+            String foreignColumn = spec.getForeignColumn();
+            MColumn column = entry.getColumn();
+            if (column == null) {
+                throw new SASApiException(so, 0, 0,
+                        String.format("Column [%s] not found in table [%s]", columnName, so.getTableName()));
+            }
+
+            Object setValue = null;
+            if (spec.isForeign()) {
+                String foreignTable = entry.getForeignTable();
+
+                if (parentPO != null && spec.isKey() && parentPO.get_TableName().equals(foreignTable)) {
+                    Object masterKey = parentPO.get_Value(foreignColumn);
+                    if (masterKey == null || !masterKey.toString().equals(value)) {
+                        throw new SASApiException(so, 0, 0, String.format(
+                                "Header and detail have different key values! Header value: [%s], detail value: [%s]",
+                                masterKey, value));
+                    }
+
+                    setValue = parentPO.get_ID();
+                } else if ("AD_Ref_List".equals(foreignTable)) {
+                    String idS = DocumentInjector.resolveForeignList(column, foreignColumn, value, trx);
+                    if (idS == null) {
+                        throw new SASApiException(so, 0, 0,
+                                String.format("Failed to resolve record ID for value [%s] in column [%s] of table [%s]",
+                                        value, foreignColumn, foreignTable));
+                    }
+
+                    setValue = idS;
+                } else {
+                    int foreignID = DocumentInjector.resolveForeign(foreignTable, foreignColumn, value,
+                            resolutionContext, trx);
+                    if (foreignID < 0) {
+                        throw new SASApiException(so, 0, 0,
+                                String.format("Failed to resolve record ID for value [%s] in column [%s] of table [%s]",
+                                        value, foreignColumn, foreignTable));
+                    }
+
+                    setValue = foreignID;
+                }
+            } else if (value instanceof java.util.Date) {
+                setValue = new Timestamp(((java.util.Date) value).getTime());
+            } else {
+                setValue = value;
+            }
+
+            if (!po.set_ValueOfColumnReturningBoolean(columnName, setValue)) {
+                throw new SASApiException(so, 0, 0,
+                        String.format("Error setting value [%s] in column [%s]", setValue, columnName));
+            }
+        }
+    }
+
+    /**
+     * Commits or rolls back the transaction of the document, then closes it.
+     *
+     * @param trx Trx object representing the insertion operation
+     */
+    private void closeTrx(Trx trx) {
+        if (isError) {
+            trx.rollback();
+            InjectionMetrics.count(Counter.ROLLBACKS);
+        } else if (rollbackOnly) {
+            trx.rollback();
+        } else {
+            long commitStart = InjectionMetrics.start();
+            try {
+                trx.commit(true);
+                InjectionMetrics.record(Stage.COMMIT, windowId, commitStart);
+                InjectionMetrics.count(Counter.DOCUMENTS);
+            } catch (SQLException e) {
+                isError = true;
+                trx.rollback();
+                InjectionMetrics.count(Counter.ROLLBACKS);
+            }
+        }
+
+        trx.close();
+    }
+
+    /**
+     * Queues entries for the error log table capturing the entire content of the
+     * document upon insertion failure, like
+     * {@link DocumentInjector}. As the whole document is rolled back, every line
+     * is logged, not only the failed one. The entries are written by
+     * {@link ErrorLogWriter} once the document's transaction is closed.
+     *
+     * @param apiException Exception object containing information about the
+     *                     failed record
+     */
+    private void insertErrorLog(SASApiException apiException) {
+        ApiInjectable so = apiException.getBadDocument();
+        String errorLog = apiException.getMessage();
+        InjectionMetrics.count(Counter.ERRORS);
+
+        if (log.isLoggable(Level.WARNING))
+            log.warning(String.format(
+                    "Failed to insert document %s in table %s. Error message: %s. Document content: %s",
+                    so.getDocumentNo(), so.getTableName(), errorLog, so.toString()));
+
+        DocHeader header;
+        if (so instanceof DocHeader) {
+            header = (DocHeader) so;
+            errorLogEntries.add(new ErrorLogWriter.Entry(header, windowId, getTabId(header.getTableName()), false,
+                    errorLog));
+        } else if (so instanceof DocLine) {
+            header = ((DocLine) so).getHeader();
+            errorLogEntries.add(new ErrorLogWriter.Entry(header, windowId, getTabId(header.getTableName()), false,
+                    "Caused by error in line/detail record."));
+        } else {
+            errorLogEntries.add(new ErrorLogWriter.Entry(so, windowId, getTabId(so.getTableName()), false, errorLog));
+            return;
+        }
+
+        for (DocLine line : header.getLines()) {
+            String lineErrorLog;
+            if (line == so) {
+                lineErrorLog = errorLog;
+            } else if (so == header) {
+                lineErrorLog = "Caused by error in header record.";
+            } else {
+                lineErrorLog = "Rolled back with the failed line/detail record.";
+            }
+            errorLogEntries.add(new ErrorLogWriter.Entry(line, windowId, getTabId(line.getTableName()), true,
+                    lineErrorLog));
+        }
+    }
+
+    /**
+     * Helper method to get the tab of {@link #windowId} showing the specified
+     * table, for the error log. Tab IDs are cached in {@link #tabIds}.
+     *
+     * @param tableName table name, e.g. {@code "C_Order"}
+     * @return AD_Tab_ID of the first tab of the table, or 0 if the window has no
+     *         tab of the table
+     */
+    private int getTabId(String tableName) {
+        String key = windowId + "." + tableName;
+        Integer tabId = tabIds.get(key);
+        if (tabId == null) {
+            tabId = DB.getSQLValue(null, TAB_SQL, windowId, tableName);
+            if (tabId < 0) {
+                return 0;
+            }
+            tabIds.put(key, tabId);
+        }
+        return tabId;
+    }
+}
@@ -0,0 +1,284 @@
+package com.sahabatabadi.api;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.compiere.util.CLogger;
+
+/**
+ * One stage of an injection pipeline, with its own bounded queue, its own
+ * workers, and its own throughput and latency statistics. Stages are sized to
+ * their own bottleneck through the system properties
+ * {@code sas.api.stage.<name>.workers} and
+ * {@code sas.api.stage.<name>.queueCapacity}.
+ *
+ * <p>
+ * Tasks run like tasks of {@link ThreadPoolManager}, against their own copy of
+ * the login context. A task takes a {@link DatabaseThrottle} permit around its
+ * database work only, and returns it before submitting to the next stage. Tasks
+ * submitted from outside any stage or pool, i.e. by RMI callers, are admitted
+ * following {@link ThreadPoolManager#getAdmissionPolicy()} and may be rejected
+ * with an {@link InjectionRejectedException}. Tasks submitted by another stage
+ * or by a pool worker block until the queue has room, so a slow stage slows
+ * down the stages feeding it instead of letting its queue grow. Stages must
+ * therefore feed each other without cycles, and a task must never wait for the
+ * result of a task of a later stage.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class PipelineStage {
+    /**
+     * Prefix of the system properties sizing a stage
+     */
+    public static final String PROPERTY_PREFIX = "sas.api.stage.";
+
+    private static CLogger log = CLogger.getCLogger(PipelineStage.class);
+
+    /**
+     * Stage whose task the current thread is running, if any
+     */
+    private static final ThreadLocal<PipelineStage> currentStage = new ThreadLocal<>();
+
+    /**
+     * Name of the stage, for properties and logging
+     */
+    private final String name;
+
+    /**
+     * Workers of the stage. All workers are started upfront and take their tasks
+     * from {@link #queue}.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Tasks waiting for a worker
+     */
+    private final BlockingQueue<Runnable> queue;
+
+    /**
+     * Time the stage was created, from {@link System#nanoTime()}
+     */
+    private final long createdAt = System.nanoTime();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong runNanos = new AtomicLong();
+    private final AtomicLong maxRunNanos = new AtomicLong();
+
+    /**
+     * Creates and starts a stage.
+     *
+     * @param name                 name of the stage, e.g. {@code "enrich"}
+     * @param defaultWorkers       number of workers if
+     *                             {@code sas.api.stage.<name>.workers} is not set
+     * @param defaultQueueCapacity capacity of the queue if
+     *                             {@code sas.api.stage.<name>.queueCapacity} is
+     *                             not set
+     */
+    public PipelineStage(final String name, int defaultWorkers, int defaultQueueCapacity) {
+        this.name = name;
+
+        int workers = Math.max(1, Integer.getInteger(PROPERTY_PREFIX + name + ".workers", defaultWorkers));
+        int queueCapacity = Math.max(1,
+                Integer.getInteger(PROPERTY_PREFIX + name + ".queueCapacity", defaultQueueCapacity));
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, queue,
+                new ThreadFactory() {
+                    private final AtomicInteger threadNo = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "SAS-API-" + name + "-" + threadNo.incrementAndGet());
+                    }
+                });
+
+        // tasks are put in the queue directly, so every worker has to be running
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * @return true if the current thread is running a task of any stage
+     */
+    public static boolean isStageThread() {
+        return currentStage.get() != null;
+    }
+
+    /**
+     * @return name of the stage
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Submits a value-returning task to the stage.
+     *
+     * @param <T>  return type of the task's result
+     * @param task task to be run by a worker of the stage
+     * @return a Future object representing pending completion of the task
+     * @throws InjectionRejectedException if the task is submitted from outside
+     *                                    any stage or pool and is not admitted
+     * @throws RejectedExecutionException if the stage is shut down
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Stage " + name + " is shut down");
+        }
+
+        StageTask<T> future = new StageTask<>(task);
+        boolean queued;
+        try {
+            if (isStageThread() || ThreadPoolManager.isWorkerThread()) {
+                queue.put(future);
+                queued = true;
+            } else if (ThreadPoolManager.getAdmissionPolicy() == ThreadPoolManager.AdmissionPolicy.REJECT) {
+                queued = queue.offer(future);
+            } else {
+                queued = queue.offer(future, ThreadPoolManager.getAdmissionTimeoutMillis(), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for room in stage " + name, e);
+        }
+
+        if (!queued) {
+            rejected.incrementAndGet();
+            long retryAfter = getRetryAfterMillis();
+            if (log.isLoggable(Level.WARNING))
+                log.warning(String.format("Rejected task, stage %s is full. Queued: %d, retry after %d ms", name,
+                        queue.size(), retryAfter));
+            throw new InjectionRejectedException(
+                    String.format("Stage %s is full, task rejected. Retry after %d ms", name, retryAfter), retryAfter);
+        }
+
+        submitted.incrementAndGet();
+        return future;
+    }
+
+    /**
+     * Estimates how long the queued tasks take to drain, from the average run
+     * time of completed tasks.
+     *
+     * @return suggested delay before a rejected caller retries, in milliseconds
+     */
+    public long getRetryAfterMillis() {
+        long done = completed.get() + failed.get();
+        if (done == 0) {
+            return ThreadPoolManager.MIN_RETRY_AFTER_MS;
+        }
+
+        long avgRunMillis = TimeUnit.NANOSECONDS.toMillis(runNanos.get() / done);
+        return Math.max(ThreadPoolManager.MIN_RETRY_AFTER_MS,
+                avgRunMillis * queue.size() / executor.getMaximumPoolSize());
+    }
+
+    /**
+     * Stops accepting tasks. Tasks already submitted still run.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return number of workers of the stage
+     */
+    public int getWorkerCount() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return number of tasks waiting for a worker
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return throughput, latency, and queue of the stage, for logging
+     */
+    public String getStatistics() {
+        long done = completed.get() + failed.get();
+        return String.format(
+                "Stage %s: workers=%d, active=%d, queued=%d/%d, submitted=%d, completed=%d, failed=%d, rejected=%d, "
+                        + "throughput=%.1f/s, avg queue wait=%d ms, avg latency=%d ms, max latency=%d ms",
+                name, executor.getMaximumPoolSize(), executor.getActiveCount(), queue.size(),
+                queue.size() + queue.remainingCapacity(), submitted.get(), completed.get(), failed.get(),
+                rejected.get(), perSecond(done, createdAt),
+                done == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(queueWaitNanos.get() / done),
+                done == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(runNanos.get() / done),
+                TimeUnit.NANOSECONDS.toMillis(maxRunNanos.get()));
+    }
+
+    /**
+     * Helper method to compute a rate.
+     *
+     * @param count     number of events
+     * @param sinceNano start of the period, from {@link System#nanoTime()}
+     * @return events per second since the start of the period
+     */
+    static double perSecond(long count, long sinceNano) {
+        long elapsed = System.nanoTime() - sinceNano;
+        return elapsed <= 0 ? 0 : count * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    /**
+     * Task of the stage, run through {@link ThreadPoolManager#isolate(Callable)}.
+     *
+     * @param <T> return type of the wrapped task's result
+     */
+    private class StageTask<T> extends FutureTask<T> {
+        private final long queuedAt = System.nanoTime();
+
+        StageTask(Callable<T> task) {
+            super(ThreadPoolManager.isolate(task));
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            queueWaitNanos.addAndGet(start - queuedAt);
+
+            currentStage.set(PipelineStage.this);
+            try {
+                super.run();
+            } finally {
+                currentStage.remove();
+
+                long ran = System.nanoTime() - start;
+                runNanos.addAndGet(ran);
+                long max = maxRunNanos.get();
+                while (ran > max && !maxRunNanos.compareAndSet(max, ran)) {
+                    max = maxRunNanos.get();
+                }
+            }
+        }
+
+        @Override
+        protected void set(T v) {
+            completed.incrementAndGet();
+            super.set(v);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            failed.incrementAndGet();
+            if (log.isLoggable(Level.WARNING))
+                log.log(Level.WARNING, "Task of stage " + name + " failed", t);
+            super.setException(t);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.sahabatabadi.api;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on a fixed pool of platform threads, one per logical CPU core
+ * unless set otherwise through {@value ThreadPoolManager#WORKERS_PROPERTY}, fed
+ * by a bounded queue. Tasks submitted by a worker run in that worker if the
+ * queue is full, as blocking a worker on its own pool's queue may deadlock the
+ * pool. Tasks of other threads wait for room in the queue, which workers keep
+ * draining, up to {@link ThreadPoolManager#getAdmissionTimeoutMillis()}, and
+ * are rejected with an {@link InjectionRejectedException} past it;
+ * {@link ThreadPoolManager} admits no more tasks than
+ * {@link #getAdmissionCapacity()}, so the queue rarely fills up.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class PlatformExecutorStrategy implements IExecutorStrategy {
+    /**
+     * Executor as the adaptee object responsible for the thread pool
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Number of tasks run by the submitting worker as the queue was full
+     */
+    private final AtomicLong callerRuns = new AtomicLong();
+
+    /**
+     * Creates a pool with the specified thread count.
+     * 
+     * @param threads       number of worker threads
+     * @param queueCapacity capacity of the pool's queue
+     */
+    public PlatformExecutorStrategy(int threads, int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new WorkerThreadFactory(), new QueueFullHandler());
+    }
+
+    @Override
+    public String getName() {
+        return "platform";
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    @Override
+    public boolean isWorkerThread() {
+        return Thread.currentThread() instanceof WorkerThread;
+    }
+
+    @Override
+    public int getParallelism() {
+        return executor.getMaximumPoolSize();
+    }
+
+    @Override
+    public int getAdmissionCapacity() {
+        return executor.getQueue().size() + executor.getQueue().remainingCapacity() + executor.getMaximumPoolSize();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public String getStatistics() {
+        return String.format("threads=%d, queue capacity=%d, run in caller=%d", executor.getMaximumPoolSize(),
+                executor.getQueue().size() + executor.getQueue().remainingCapacity(), callerRuns.get());
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Handles tasks which do not fit in the queue.
+     */
+    private class QueueFullHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Injector pool is shut down");
+            }
+
+            if (Thread.currentThread() instanceof WorkerThread) {
+                callerRuns.incrementAndGet();
+                r.run();
+                return;
+            }
+
+            boolean queued;
+            try {
+                queued = executor.getQueue().offer(r, ThreadPoolManager.getAdmissionTimeoutMillis(),
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for room in the injector queue", e);
+            }
+
+            if (!queued) {
+                long retryAfter = ThreadPoolManager.getRetryAfterMillis();
+                throw new InjectionRejectedException(
+                        String.format("Injector queue is full, task rejected. Retry after %d ms", retryAfter),
+                        retryAfter);
+            }
+        }
+    }
+
+    /**
+     * Creates the worker threads of the pool.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNo = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new WorkerThread(r, "SAS-API-Injector-" + threadNo.incrementAndGet());
+        }
+    }
+
+    /**
+     * Worker thread of the pool, used to tell tasks submitted by workers apart
+     * from tasks submitted by callers outside the pool.
+     */
+    private static class WorkerThread extends Thread {
+        WorkerThread(Runnable r, String name) {
+            super(r, name);
+        }
+    }
+}
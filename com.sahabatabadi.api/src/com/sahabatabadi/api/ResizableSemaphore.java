@@ -0,0 +1,55 @@
+package com.sahabatabadi.api;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Fair semaphore whose number of permits can be changed while permits are
+ * taken. Permits held while the semaphore shrinks are returned as usual; new
+ * permits are only handed out once the holders brought the count back under
+ * the new size, so the semaphore never lets more holders through than its
+ * current size.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+class ResizableSemaphore extends Semaphore {
+    private static final long serialVersionUID = 2651094386913520937L;
+
+    /**
+     * Current number of permits, taken or not
+     */
+    private int size;
+
+    /**
+     * Creates a fair semaphore.
+     *
+     * @param size number of permits
+     */
+    ResizableSemaphore(int size) {
+        super(size, true);
+        this.size = size;
+    }
+
+    /**
+     * Changes the number of permits, taken or not, by adding or removing the
+     * difference.
+     *
+     * @param newSize new number of permits
+     */
+    synchronized void resize(int newSize) {
+        int delta = newSize - size;
+        if (delta > 0) {
+            release(delta);
+        } else if (delta < 0) {
+            reducePermits(-delta);
+        }
+        size = newSize;
+    }
+
+    /**
+     * @return current number of permits, taken or not
+     */
+    synchronized int getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,270 @@
+package com.sahabatabadi.api;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.compiere.model.MColumn;
+import org.compiere.model.MTable;
+import org.compiere.util.CLogger;
+import org.compiere.util.DB;
+import org.compiere.util.Env;
+
+/**
+ * Foreign keys of the header fields of a group of sibling documents, resolved
+ * together before the documents are injected. Sibling documents, such as the
+ * split documents of one incoming order, share most of their header values
+ * (org, warehouse, BP, BP location), so every distinct
+ * {@code (table, column, value)} is resolved only once, with a single
+ * multi-table query, instead of once per field per document.
+ * 
+ * <p>
+ * Resolution follows {@link DocumentInjector}: records of the login client are
+ * preferred, and records of the System client are used only if the table has
+ * System access. Reference list columns are left to {@link DocumentInjector}.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class ResolutionContext {
+    protected static CLogger log = CLogger.getCLogger(ResolutionContext.class);
+
+    /**
+     * Mapping between {@code "<table>.<column>"}, then value, and the resolved
+     * record ID
+     */
+    private final Map<String, Map<String, Integer>> resolvedIds = new HashMap<>();
+
+    /**
+     * Creates an empty context.
+     */
+    private ResolutionContext() {
+    }
+
+    /**
+     * Collects the foreign key values of the header fields of the specified
+     * documents and resolves them all with one query.
+     * 
+     * @param headers sibling documents whose header foreign keys are to be
+     *                resolved
+     * @return the resolved context. If resolution fails, the context is empty and
+     *         the injector resolves each field on its own.
+     */
+    public static ResolutionContext create(DocHeader[] headers) {
+        ResolutionContext context = new ResolutionContext();
+
+        Map<String, Set<String>> valuesByTableColumn = new LinkedHashMap<>();
+        for (DocHeader header : headers) {
+            collectForeignValues(header, valuesByTableColumn);
+        }
+
+        if (!valuesByTableColumn.isEmpty()) {
+            context.resolve(valuesByTableColumn);
+        }
+
+        return context;
+    }
+
+    /**
+     * Gets a record ID resolved by this context.
+     * 
+     * @param table  table where the record resides
+     * @param column column name of the value
+     * @param value  value searched in the column
+     * @return the record ID, or -1 if the value was not resolved by this context
+     */
+    public int getId(String table, String column, Object value) {
+        Map<String, Integer> ids = resolvedIds.get(table + "." + column);
+        if (ids == null || value == null) {
+            return -1;
+        }
+
+        Integer id = ids.get(value.toString());
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @return number of distinct values resolved by this context
+     */
+    public int size() {
+        int size = 0;
+        for (Map<String, Integer> ids : resolvedIds.values()) {
+            size += ids.size();
+        }
+        return size;
+    }
+
+    /**
+     * Helper method to collect the non-null foreign key values of a header's
+     * public fields.
+     * 
+     * @param header              document whose header fields are collected
+     * @param valuesByTableColumn mapping between {@code "<table>.<column>"} and
+     *                            the values to resolve, to add to
+     */
+    private static void collectForeignValues(DocHeader header, Map<String, Set<String>> valuesByTableColumn) {
+        for (Field field : header.getClass().getDeclaredFields()) {
+            if (!Modifier.isPublic(field.getModifiers()) || Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+
+            String columnSpec = header.getColumnName(field.getName());
+            if (columnSpec == null) {
+                continue;
+            }
+
+            ColumnSpec spec = new ColumnSpec(columnSpec);
+            if (!spec.isForeign() || spec.isDetail()) {
+                continue;
+            }
+
+            Object value;
+            try {
+                value = field.get(header);
+            } catch (IllegalArgumentException | IllegalAccessException e) {
+                continue;
+            }
+
+            if (value == null) {
+                continue;
+            }
+
+            MColumn column = MColumn.get(Env.getCtx(), header.getTableName(), spec.getColumnName());
+            if (column == null) {
+                continue;
+            }
+
+            String foreignTable = column.getReferenceTableName();
+            if (foreignTable == null || "AD_Ref_List".equals(foreignTable)) {
+                continue;
+            }
+
+            String key = foreignTable + "." + spec.getForeignColumn();
+            Set<String> values = valuesByTableColumn.get(key);
+            if (values == null) {
+                values = new LinkedHashSet<>();
+                valuesByTableColumn.put(key, values);
+            }
+            values.add(value.toString());
+        }
+    }
+
+    /**
+     * Helper method to resolve every collected value with one
+     * {@code UNION ALL} query, one branch per foreign table and column.
+     * 
+     * @param valuesByTableColumn mapping between {@code "<table>.<column>"} and
+     *                            the values to resolve
+     */
+    private void resolve(Map<String, Set<String>> valuesByTableColumn) {
+        int clientId = Env.getAD_Client_ID(Env.getCtx());
+
+        StringBuilder sql = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        Map<String, Boolean> systemAccess = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : valuesByTableColumn.entrySet()) {
+            String key = entry.getKey();
+            String table = key.substring(0, key.indexOf("."));
+            String column = key.substring(key.indexOf(".") + 1);
+            systemAccess.put(key, hasSystemAccess(table));
+
+            if (sql.length() > 0) {
+                sql.append("\nUNION ALL\n");
+            }
+            sql.append("SELECT ").append(DB.TO_STRING(key)).append(", CAST(").append(column)
+                    .append(" AS VARCHAR(255)), ").append(table).append("_ID, AD_Client_ID FROM ").append(table)
+                    .append(" WHERE ").append(column).append(" IN (");
+            int i = 0;
+            for (String value : entry.getValue()) {
+                sql.append(i++ > 0 ? ",?" : "?");
+                params.add(value);
+            }
+            sql.append(") AND IsActive='Y' AND AD_Client_ID IN (?,0)");
+            params.add(clientId);
+        }
+
+        Map<String, Map<String, Integer>> systemIds = new HashMap<>();
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            pstmt = DB.prepareStatement(sql.toString(), null);
+            for (int i = 0; i < params.size(); i++) {
+                pstmt.setObject(i + 1, params.get(i));
+            }
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                String key = rs.getString(1);
+                String value = rs.getString(2);
+                int id = rs.getInt(3);
+                boolean isLoginClient = rs.getInt(4) == clientId;
+
+                Map<String, Map<String, Integer>> target = isLoginClient ? resolvedIds : systemIds;
+                Map<String, Integer> ids = target.get(key);
+                if (ids == null) {
+                    ids = new HashMap<>();
+                    target.put(key, ids);
+                }
+                if (!ids.containsKey(value)) {
+                    ids.put(value, id);
+                }
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, sql.toString(), e);
+            resolvedIds.clear();
+            return;
+        } finally {
+            DB.close(rs, pstmt);
+            rs = null;
+            pstmt = null;
+        }
+
+        // fall back to System client records only where the table allows it
+        for (Map.Entry<String, Map<String, Integer>> entry : systemIds.entrySet()) {
+            String key = entry.getKey();
+            if (!systemAccess.get(key) || key.startsWith("AD_Client.")) {
+                continue;
+            }
+
+            Map<String, Integer> ids = resolvedIds.get(key);
+            if (ids == null) {
+                ids = new HashMap<>();
+                resolvedIds.put(key, ids);
+            }
+            for (Map.Entry<String, Integer> systemId : entry.getValue().entrySet()) {
+                if (!ids.containsKey(systemId.getKey())) {
+                    ids.put(systemId.getKey(), systemId.getValue());
+                }
+            }
+        }
+
+        if (log.isLoggable(Level.FINE))
+            log.fine("Resolved " + size() + " header foreign keys with one query");
+    }
+
+    /**
+     * Helper method to check whether records of the System client may be
+     * referenced from the specified table.
+     * 
+     * @param table table name
+     * @return true if the table has System access, false otherwise
+     */
+    static boolean hasSystemAccess(String table) {
+        MTable ft = MTable.get(Env.getCtx(), table);
+        if (ft == null) {
+            return false;
+        }
+
+        String accessLevel = ft.getAccessLevel();
+        return MTable.ACCESSLEVEL_All.equals(accessLevel) || MTable.ACCESSLEVEL_SystemOnly.equals(accessLevel)
+                || MTable.ACCESSLEVEL_SystemPlusClient.equals(accessLevel);
+    }
+}
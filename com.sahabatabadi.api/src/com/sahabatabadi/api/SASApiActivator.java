@@ -7,7 +7,15 @@ import org.compiere.util.CLogger;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 
+import com.sahabatabadi.api.management.ManagementAgent;
 import com.sahabatabadi.api.rmi.RMIService;
+import com.sahabatabadi.api.salesorder.DiscountEngine;
+import com.sahabatabadi.api.salesorder.IdempotencyIndex;
+import com.sahabatabadi.api.salesorder.OrderLineBulkLoader;
+import com.sahabatabadi.api.salesorder.ProductCatalogIndex;
+import com.sahabatabadi.api.salesorder.SASSalesOrderLine;
+import com.sahabatabadi.api.salesorder.SalesOrderPORules;
+import com.sahabatabadi.api.salesorder.SalesOrderPipeline;
 
 /**
  * Custom Activator class for SAS iDempiere API plugin
@@ -42,7 +50,17 @@ public class SASApiActivator implements BundleActivator {
         rmiServer.start();
         
         LoginEmulator.emulateLogin();
+        InjectionMetrics.reinitialize();
         ThreadPoolManager.reinitialize();
+        SalesOrderPipeline.reinitialize();
+        ErrorLogWriter.reinitialize();
+        DocumentNoAllocator.reinitialize();
+        IdempotencyIndex.start();
+        DiscountEngine.start();
+        ProductCatalogIndex.start();
+        SalesOrderPORules.register();
+        DocumentInjector.registerBulkLineLoader(SASSalesOrderLine.TABLE_NAME, new OrderLineBulkLoader());
+        ManagementAgent.register(rmiServer);
     }
 
     /*
@@ -55,12 +73,21 @@ public class SASApiActivator implements BundleActivator {
         if (log.isLoggable(Level.INFO))
             log.info("SAS iDempiere API is stopping");
         SASApiActivator.context = null;
+        ManagementAgent.unregister();
         
         if (rmiServer != null) {
             rmiServer.stop();
             rmiServer = null;
         }
         
+        SalesOrderPipeline.stop();
         ThreadPoolManager.stop();
+        ErrorLogWriter.stop();
+        DocumentNoAllocator.stop();
+        IdempotencyIndex.stop();
+        DiscountEngine.stop();
+        ProductCatalogIndex.stop();
+        SalesOrderPORules.unregister();
+        DocumentInjector.unregisterBulkLineLoader(SASSalesOrderLine.TABLE_NAME);
     }
 }
@@ -1,59 +1,595 @@
 package com.sahabatabadi.api;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.compiere.util.CLogger;
+import org.compiere.util.ServerContext;
 
 /**
- * Adapter class to manage the injector thread pool
+ * Adapter class to manage the injector thread pool. Tasks are run by the
+ * {@link IExecutorStrategy} chosen through {@value #EXECUTOR_PROPERTY}; the
+ * database work of a task is capped separately by {@link DatabaseThrottle}.
+ * Every task runs against its own copy of the login context, see {@link LoginEmulator#createContext()}, so
+ * tasks running in parallel never share window or session values through
+ * {@code Env.getCtx()}.
+ *
+ * <p>
+ * Every task is admitted before being queued: at most
+ * {@link IExecutorStrategy#getAdmissionCapacity()} tasks can be queued or
+ * running at once, and a task keeps its admission permit until it completes.
+ * When the pool is full, a caller outside the pool, i.e. an RMI caller, is
+ * admitted following the {@link AdmissionPolicy} set through
+ * {@value #ADMISSION_POLICY_PROPERTY}, and gets an
+ * {@link InjectionRejectedException} if it is not admitted. A
+ * {@link PipelineStage} waits for admission, so the pool slows down the stages
+ * feeding it. A worker never waits: a task it submits while the pool is full
+ * runs in the worker itself, as part of the work already admitted.
  */
 public class ThreadPoolManager {
     /**
-     * Executor Service as the adaptee object responsible for the thread pool
+     * System property holding the {@link IExecutorStrategy}, {@code "platform"}
+     * or {@code "virtual"}
+     */
+    public static final String EXECUTOR_PROPERTY = "sas.api.executor";
+
+    /**
+     * System property holding the number of worker threads of the platform
+     * strategy
+     */
+    public static final String WORKERS_PROPERTY = "sas.api.workers";
+
+    /**
+     * Number of workers used if {@value #WORKERS_PROPERTY} is not set, one per
+     * logical CPU core
+     */
+    public static final int DEFAULT_WORKERS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * System property holding the capacity of the pool's queue. Under the
+     * virtual thread strategy, the number of tasks admitted at once.
+     */
+    public static final String QUEUE_CAPACITY_PROPERTY = "sas.api.queueCapacity";
+
+    /**
+     * Queue capacity used if {@value #QUEUE_CAPACITY_PROPERTY} is not set
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    /**
+     * System property holding the {@link AdmissionPolicy}, {@code "block"} or
+     * {@code "reject"}
+     */
+    public static final String ADMISSION_POLICY_PROPERTY = "sas.api.admissionPolicy";
+
+    /**
+     * System property holding how long, in milliseconds, a caller waits for
+     * admission under {@link AdmissionPolicy#BLOCK}
+     */
+    public static final String ADMISSION_TIMEOUT_PROPERTY = "sas.api.admissionTimeoutMs";
+
+    /**
+     * Admission timeout used if {@value #ADMISSION_TIMEOUT_PROPERTY} is not set
      */
-    private static ExecutorService executor = createExecutor();
+    public static final long DEFAULT_ADMISSION_TIMEOUT_MS = 30000;
+
+    /**
+     * Lowest retry-after suggested to a rejected caller
+     */
+    public static final long MIN_RETRY_AFTER_MS = 1000;
+
+    private static CLogger log = CLogger.getCLogger(ThreadPoolManager.class);
+
+    /**
+     * What a caller does when the pool is full
+     */
+    public enum AdmissionPolicy {
+        /**
+         * Wait for room in the pool, up to the admission timeout
+         */
+        BLOCK,
+
+        /**
+         * Fail immediately
+         */
+        REJECT;
+    }
+
+    /**
+     * Strategy as the adaptee object responsible for running the tasks
+     */
+    private static volatile IExecutorStrategy strategy = createStrategy();
+
+    /**
+     * Permits of tasks which may be queued or running on {@link #strategy},
+     * resized by {@link #reinitialize()}
+     */
+    private static final ResizableSemaphore admission = new ResizableSemaphore(strategy.getAdmissionCapacity());
+
+    /**
+     * Whether the current thread is running a task of the pool, whichever
+     * strategy runs it. Kept by the pool rather than asked from
+     * {@link #strategy}, which no longer knows the workers of the strategy it
+     * replaced.
+     */
+    private static final ThreadLocal<Boolean> runningTask = new ThreadLocal<>();
+
+    private static final AtomicLong submitted = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
+    private static final AtomicLong admissionWaitNanos = new AtomicLong();
+    private static final AtomicLong maxAdmissionWaitNanos = new AtomicLong();
+    private static final AtomicLong started = new AtomicLong();
+    private static final AtomicLong queueWaitNanos = new AtomicLong();
+    private static final AtomicLong maxQueueWaitNanos = new AtomicLong();
+    private static final AtomicLong runNanos = new AtomicLong();
+
+    /**
+     * Time the pool's statistics started being collected, from
+     * {@link System#nanoTime()}
+     */
+    private static final long createdAt = System.nanoTime();
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private ThreadPoolManager() {
+    }
 
     /**
      * Stops the running Executor Service.
      */
     public static void stop() {
-        ThreadPoolManager.executor.shutdown();
+        if (log.isLoggable(Level.INFO))
+            log.info(getStatistics());
+        ThreadPoolManager.strategy.shutdown();
     }
 
     /**
-     * Destroys the old Executor Service and creates/reinitializes a new one.
+     * Destroys the old Executor Service and creates/reinitializes a new one,
+     * following the current values of {@value #EXECUTOR_PROPERTY},
+     * {@value #WORKERS_PROPERTY}, and {@value #QUEUE_CAPACITY_PROPERTY}. Tasks
+     * already queued finish on the old executor while new tasks go to the new
+     * one, so the pool can be resized under load: a submission rejected by the
+     * old executor because it was shut down meanwhile is retried on the new
+     * one, and tasks of the old executor still count as pool workers. The admission permits and the
+     * {@link DatabaseThrottle} are resized rather than replaced: tasks of the
+     * old executor keep counting against them until they complete, so the pool
+     * never admits more than the new capacity at once.
      */
-    public static void reinitialize() {
-        ExecutorService oldExecutor = ThreadPoolManager.executor;
+    public static synchronized void reinitialize() {
+        IExecutorStrategy oldStrategy = ThreadPoolManager.strategy;
 
-        ThreadPoolManager.executor = createExecutor();
+        DatabaseThrottle.reinitialize();
+        IExecutorStrategy newStrategy = createStrategy();
+        ThreadPoolManager.admission.resize(newStrategy.getAdmissionCapacity());
+        ThreadPoolManager.strategy = newStrategy;
 
-        if (oldExecutor != null) {
-        	oldExecutor.shutdown();	
+        if (oldStrategy != null) {
+            oldStrategy.shutdown();
         }
+
+        if (log.isLoggable(Level.INFO))
+            log.info("Injector pool runs on the " + newStrategy.getName() + " executor strategy");
+    }
+
+    /**
+     * Helper method to create the strategy set through
+     * {@value #EXECUTOR_PROPERTY}. Falls back to a platform thread pool with
+     * thread count matching available logical CPU cores if virtual threads are
+     * requested but not available on the runtime.
+     *
+     * @return strategy running the pool's tasks
+     */
+    private static IExecutorStrategy createStrategy() {
+        if ("virtual".equalsIgnoreCase(System.getProperty(EXECUTOR_PROPERTY))) {
+            if (VirtualThreadExecutorStrategy.isSupported()) {
+                return new VirtualThreadExecutorStrategy(getQueueCapacity());
+            }
+
+            if (log.isLoggable(Level.WARNING))
+                log.warning("Virtual threads are not available on Java " + System.getProperty("java.version")
+                        + ", falling back to the platform thread pool");
+        }
+        return new PlatformExecutorStrategy(getWorkerCount(), getQueueCapacity());
+    }
+
+    /**
+     * @return number of worker threads of the platform strategy, see
+     *         {@value #WORKERS_PROPERTY}
+     */
+    public static int getWorkerCount() {
+        return Math.max(1, Integer.getInteger(WORKERS_PROPERTY, DEFAULT_WORKERS));
+    }
+
+    /**
+     * Changes the number of worker threads of the platform strategy, then
+     * {@link #reinitialize()}s the pool.
+     *
+     * @param workers number of worker threads, at least 1
+     */
+    public static void setWorkerCount(int workers) {
+        System.setProperty(WORKERS_PROPERTY, Integer.toString(Math.max(1, workers)));
+        reinitialize();
+    }
+
+    /**
+     * @return capacity of the pool's queue, see {@value #QUEUE_CAPACITY_PROPERTY}
+     */
+    public static int getQueueCapacity() {
+        return Math.max(1, Integer.getInteger(QUEUE_CAPACITY_PROPERTY, DEFAULT_QUEUE_CAPACITY));
+    }
+
+    /**
+     * Changes the capacity of the pool's queue, then {@link #reinitialize()}s the
+     * pool.
+     *
+     * @param queueCapacity capacity of the queue, at least 1
+     */
+    public static void setQueueCapacity(int queueCapacity) {
+        System.setProperty(QUEUE_CAPACITY_PROPERTY, Integer.toString(Math.max(1, queueCapacity)));
+        reinitialize();
+    }
+
+    /**
+     * @return admission policy of the pool, see
+     *         {@value #ADMISSION_POLICY_PROPERTY}
+     */
+    public static AdmissionPolicy getAdmissionPolicy() {
+        String policy = System.getProperty(ADMISSION_POLICY_PROPERTY);
+        return "reject".equalsIgnoreCase(policy) ? AdmissionPolicy.REJECT : AdmissionPolicy.BLOCK;
     }
 
     /**
-     * Helper method to create a new executor service with thread count matching
-     * available logical CPU cores.
-     * 
-     * @return Executor Service with thread count matching available logical cores
+     * @return how long a caller waits for admission, see
+     *         {@value #ADMISSION_TIMEOUT_PROPERTY}
      */
-    private static ExecutorService createExecutor() {
-        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    public static long getAdmissionTimeoutMillis() {
+        return Math.max(0L, Long.getLong(ADMISSION_TIMEOUT_PROPERTY, DEFAULT_ADMISSION_TIMEOUT_MS));
     }
 
     /**
      * Submits a value-returning task for execution and returns a Future
      * representing the pending results of the task. The Future's get method will
-     * return the task's result upon successful completion.
-     * 
+     * return the task's result upon successful completion. The task runs
+     * against a new copy of the login context, which is discarded once the task
+     * completes.
+     *
      * @param <T>  return type of the task's result
      * @param task task to be run in a worker thread
      * @return a Future object representing pending completion of the task
+     * @throws InjectionRejectedException if the task is not admitted into the
+     *                                    pool
      */
     public static <T> Future<T> submitTask(Callable<T> task) {
-        return executor.submit(task);
+        return submitTasks(Collections.singletonList(task)).get(0);
+    }
+
+    /**
+     * Submits several value-returning tasks for execution. Tasks of a caller
+     * outside the pool are admitted together: either all of them are
+     * submitted, or none is. A {@link PipelineStage} waits for the admission of
+     * each task in turn, and a worker runs the tasks it cannot get admitted
+     * itself, before this method returns.
+     *
+     * @param <T>   return type of the tasks' results
+     * @param tasks tasks to be run in worker threads
+     * @return Future objects representing pending completion of the tasks, in
+     *         the same order as the specified tasks
+     * @throws InjectionRejectedException if the tasks are not admitted into the
+     *                                    pool
+     */
+    public static <T> List<Future<T>> submitTasks(List<? extends Callable<T>> tasks) {
+        IExecutorStrategy currentStrategy = strategy;
+        Semaphore currentAdmission = admission;
+        boolean isWorker = isWorkerThread();
+        boolean isStage = !isWorker && PipelineStage.isStageThread();
+        if (!isWorker && !isStage && !tasks.isEmpty()) {
+            admit(currentAdmission, tasks.size());
+        }
+
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            if (isWorker && !currentAdmission.tryAcquire()) {
+                // a worker waiting for admission may wait for its own pool, run it here
+                PoolTask<T> future = new PoolTask<>(tasks.get(i), null);
+                future.run();
+                futures.add(future);
+                continue;
+            }
+
+            if (isStage) {
+                awaitAdmission(currentAdmission);
+            }
+
+            PoolTask<T> future = new PoolTask<>(tasks.get(i), currentAdmission);
+            while (true) {
+                try {
+                    currentStrategy.execute(future);
+                    break;
+                } catch (RejectedExecutionException e) {
+                    IExecutorStrategy newStrategy = strategy;
+                    if (newStrategy != currentStrategy) {
+                        // replaced by reinitialize() since this submission started, use the new one
+                        currentStrategy = newStrategy;
+                        continue;
+                    }
+
+                    // release the permit of this task, and of the remaining tasks if admitted together
+                    currentAdmission.release(isWorker || isStage ? 1 : tasks.size() - i);
+                    throw e;
+                }
+            }
+            futures.add(future);
+        }
+        submitted.addAndGet(tasks.size());
+        return futures;
+    }
+
+    /**
+     * Helper method to wait, without timeout, for the admission permit of one
+     * task submitted by a {@link PipelineStage}.
+     *
+     * @param permits admission permits of the executor
+     * @throws RejectedExecutionException if interrupted while waiting
+     */
+    private static void awaitAdmission(Semaphore permits) {
+        long start = System.nanoTime();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for admission into the injector pool", e);
+        } finally {
+            long waited = System.nanoTime() - start;
+            admissionWaitNanos.addAndGet(waited);
+            updateMax(maxAdmissionWaitNanos, waited);
+        }
+    }
+
+    /**
+     * Helper method to acquire admission permits following the admission
+     * policy.
+     *
+     * @param permits admission permits of the executor
+     * @param count   number of tasks to be admitted
+     * @throws InjectionRejectedException if the permits cannot be acquired
+     */
+    private static void admit(Semaphore permits, int count) {
+        long start = System.nanoTime();
+        boolean admitted;
+        if (getAdmissionPolicy() == AdmissionPolicy.REJECT) {
+            admitted = permits.tryAcquire(count);
+        } else {
+            try {
+                admitted = permits.tryAcquire(count, getAdmissionTimeoutMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                admitted = false;
+            }
+        }
+
+        long waited = System.nanoTime() - start;
+        admissionWaitNanos.addAndGet(waited);
+        updateMax(maxAdmissionWaitNanos, waited);
+
+        if (!admitted) {
+            rejected.incrementAndGet();
+            long retryAfter = getRetryAfterMillis();
+            if (log.isLoggable(Level.WARNING))
+                log.warning(String.format("Rejected %d task(s), injector pool is full. Queued: %d, retry after %d ms",
+                        count, getQueueDepth(), retryAfter));
+            throw new InjectionRejectedException(String.format(
+                    "Injector pool is full, %d task(s) rejected. Retry after %d ms", count, retryAfter), retryAfter);
+        }
+    }
+
+    /**
+     * Estimates how long the queued tasks take to drain, from the average run
+     * time of completed tasks. Tasks waiting for a thread and tasks waiting for
+     * a {@link DatabaseThrottle} permit are both counted as queued.
+     *
+     * @return suggested delay before a rejected caller retries, in milliseconds
+     */
+    public static long getRetryAfterMillis() {
+        long completed = started.get();
+        if (completed == 0) {
+            return MIN_RETRY_AFTER_MS;
+        }
+
+        int parallelism = Math.min(strategy.getParallelism(), DatabaseThrottle.getMaxConcurrency());
+        long avgRunMillis = TimeUnit.NANOSECONDS.toMillis(runNanos.get() / completed);
+        long drainMillis = avgRunMillis * getQueueDepth() / parallelism;
+        return Math.max(MIN_RETRY_AFTER_MS, drainMillis);
+    }
+
+    /**
+     * Helper method to raise a maximum.
+     *
+     * @param max   maximum to be raised
+     * @param value new value
+     */
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return true if the current thread is a worker of the pool
+     */
+    public static boolean isWorkerThread() {
+        return Boolean.TRUE.equals(runningTask.get());
+    }
+
+    /**
+     * @return number of tasks waiting for a thread or for a
+     *         {@link DatabaseThrottle} permit
+     */
+    public static int getQueueDepth() {
+        return strategy.getQueueDepth() + DatabaseThrottle.getWaitingCount();
+    }
+
+    /**
+     * @return number of callers rejected since the plugin started
+     */
+    public static long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return number of tasks submitted since the plugin started
+     */
+    public static long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * @return number of tasks started since the plugin started
+     */
+    public static long getStartedCount() {
+        return started.get();
+    }
+
+    /**
+     * @return number of tasks being run
+     */
+    public static int getActiveCount() {
+        return strategy.getActiveCount();
+    }
+
+    /**
+     * @return maximum number of tasks running at once
+     */
+    public static int getParallelism() {
+        return strategy.getParallelism();
+    }
+
+    /**
+     * @return name of the current {@link IExecutorStrategy}
+     */
+    public static String getStrategyName() {
+        return strategy.getName();
+    }
+
+    /**
+     * @return number of tasks callers outside the pool may still submit before
+     *         waiting for admission
+     */
+    public static int getAvailableAdmissions() {
+        return admission.availablePermits();
+    }
+
+    /**
+     * @return statistics of the pool, for logging
+     */
+    public static String getStatistics() {
+        IExecutorStrategy currentStrategy = strategy;
+        long startedCount = started.get();
+        long submittedCount = submitted.get();
+        return String.format(
+                "Injector pool: strategy=%s (%s), active=%d, queued=%d, available permits=%d, policy=%s, "
+                        + "submitted=%d, started=%d, rejected=%d, throughput=%.1f/s, "
+                        + "avg admission wait=%d ms, max admission wait=%d ms, "
+                        + "avg queue wait=%d ms, max queue wait=%d ms, avg run=%d ms. %s",
+                currentStrategy.getName(), currentStrategy.getStatistics(), currentStrategy.getActiveCount(),
+                getQueueDepth(), admission.availablePermits(), getAdmissionPolicy(), submittedCount, startedCount,
+                rejected.get(), PipelineStage.perSecond(startedCount, createdAt), toMillis(admissionWaitNanos.get(), submittedCount + rejected.get()),
+                TimeUnit.NANOSECONDS.toMillis(maxAdmissionWaitNanos.get()),
+                toMillis(queueWaitNanos.get(), startedCount), TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos.get()),
+                toMillis(runNanos.get(), startedCount), DatabaseThrottle.getStatistics());
+    }
+
+    /**
+     * Helper method to average a total duration.
+     *
+     * @param totalNanos total duration in nanoseconds
+     * @param count      number of samples
+     * @return average duration in milliseconds, or 0 if there are no samples
+     */
+    private static long toMillis(long totalNanos, long count) {
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / count);
+    }
+
+    /**
+     * Wraps a task so that it binds a new copy of the login context to the
+     * thread running it; worker threads otherwise inherit the context of the
+     * thread which created them, which is shared by every worker. The wrapped
+     * task takes no {@link DatabaseThrottle} permit: the task takes one around
+     * its own database work, so that it never holds one while waiting for room
+     * in the queue of another stage. Used by every pool and
+     * {@link PipelineStage} running injection work.
+     *
+     * @param <T>  return type of the task's result
+     * @param task task to be wrapped
+     * @return the wrapped task
+     */
+    static <T> Callable<T> isolate(final Callable<T> task) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                Properties ctx = LoginEmulator.createContext();
+                Properties previousCtx = ServerContext.getCurrentInstance();
+                ServerContext.setCurrentInstance(ctx);
+                try {
+                    return task.call();
+                } finally {
+                    ServerContext.setCurrentInstance(previousCtx);
+                }
+            }
+        };
+    }
+
+    /**
+     * Task of the pool, run through {@link #isolate(Callable)}. Returns its
+     * admission permit once it completes or is cancelled.
+     *
+     * @param <T> return type of the wrapped task's result
+     */
+    private static class PoolTask<T> extends FutureTask<T> {
+        private final Semaphore admission;
+        private final long queuedAt = System.nanoTime();
+
+        PoolTask(Callable<T> task, Semaphore admission) {
+            super(isolate(task));
+            this.admission = admission;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            long waited = start - queuedAt;
+            started.incrementAndGet();
+            queueWaitNanos.addAndGet(waited);
+            updateMax(maxQueueWaitNanos, waited);
+
+            Boolean wasRunningTask = runningTask.get();
+            runningTask.set(Boolean.TRUE);
+            try {
+                super.run();
+            } finally {
+                if (wasRunningTask == null) {
+                    runningTask.remove();
+                }
+                runNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (admission != null) {
+                admission.release();
+            }
+        }
     }
 }
@@ -0,0 +1,162 @@
+package com.sahabatabadi.api;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs every task on its own virtual thread, on runtimes which have them (Java
+ * 21 and later). Injection tasks spend most of their time blocked on JDBC, so a
+ * thread per task keeps every admitted task progressing instead of queueing
+ * them behind a pool sized to the CPU count; concurrent database work is capped
+ * by {@link DatabaseThrottle} instead of by the thread count.
+ *
+ * <p>
+ * The plugin is compiled for Java 7, so virtual threads are created through
+ * reflection; see {@link #isSupported()}.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class VirtualThreadExecutorStrategy implements IExecutorStrategy {
+    /**
+     * Whether the current thread is running a task of this strategy
+     */
+    private static final ThreadLocal<Boolean> inTask = new ThreadLocal<>();
+
+    /**
+     * Executor starting a new virtual thread per task
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Maximum number of tasks which may be in flight on behalf of callers
+     * outside the strategy's threads
+     */
+    private final int admissionCapacity;
+
+    /**
+     * Number of tasks being run
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Number of threads started
+     */
+    private final AtomicLong threadsStarted = new AtomicLong();
+
+    /**
+     * Creates the strategy.
+     * 
+     * @param admissionCapacity maximum number of tasks which may be in flight on
+     *                          behalf of callers outside the strategy's threads
+     * @throws UnsupportedOperationException if the runtime has no virtual threads
+     */
+    public VirtualThreadExecutorStrategy(int admissionCapacity) {
+        this.executor = createExecutor();
+        this.admissionCapacity = admissionCapacity;
+    }
+
+    /**
+     * @return true if the runtime has virtual threads
+     */
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Helper method to create, through reflection, the equivalent of
+     * {@code Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("SAS-API-Injector-V", 0).factory())}.
+     * 
+     * @return executor starting a new virtual thread per task
+     * @throws UnsupportedOperationException if the runtime has no virtual threads
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder,
+                    "SAS-API-Injector-V", 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (NoSuchMethodException | ClassNotFoundException | IllegalAccessException
+                | InvocationTargetException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available on this runtime", e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "virtual";
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                inTask.set(Boolean.TRUE);
+                active.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    active.decrementAndGet();
+                    inTask.remove();
+                }
+            }
+        });
+        threadsStarted.incrementAndGet();
+    }
+
+    @Override
+    public boolean isWorkerThread() {
+        return Boolean.TRUE.equals(inTask.get());
+    }
+
+    /**
+     * @return {@link Integer#MAX_VALUE}, every task gets its own thread
+     */
+    @Override
+    public int getParallelism() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getAdmissionCapacity() {
+        return admissionCapacity;
+    }
+
+    /**
+     * @return 0, tasks never wait for a thread. Tasks waiting for database
+     *         capacity are reported by {@link DatabaseThrottle}.
+     */
+    @Override
+    public int getQueueDepth() {
+        return 0;
+    }
+
+    @Override
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    @Override
+    public String getStatistics() {
+        return String.format("virtual threads started=%d, admission capacity=%d", threadsStarted.get(),
+                admissionCapacity);
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
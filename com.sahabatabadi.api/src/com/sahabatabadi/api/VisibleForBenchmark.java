@@ -0,0 +1,21 @@
+package com.sahabatabadi.api;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a member which is public only so that the benchmarks of
+ * {@code com.sahabatabadi.api.benchmark} can reach it. The member is not part
+ * of the API of the plugin and may change without notice.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target({ ElementType.TYPE, ElementType.CONSTRUCTOR, ElementType.METHOD })
+public @interface VisibleForBenchmark {
+}
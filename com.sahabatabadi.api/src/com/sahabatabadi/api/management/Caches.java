@@ -0,0 +1,92 @@
+package com.sahabatabadi.api.management;
+
+import com.sahabatabadi.api.DocumentNoAllocator;
+import com.sahabatabadi.api.ForeignKeyCache;
+import com.sahabatabadi.api.ForeignKeyLoader;
+import com.sahabatabadi.api.GridWindowPool;
+import com.sahabatabadi.api.salesorder.DiscountEngine;
+import com.sahabatabadi.api.salesorder.IdempotencyIndex;
+import com.sahabatabadi.api.salesorder.ProductCatalogIndex;
+
+/**
+ * Exposes {@link ForeignKeyCache}, {@link GridWindowPool},
+ * {@link ProductCatalogIndex}, {@link DiscountEngine},
+ * {@link IdempotencyIndex}, and {@link DocumentNoAllocator} through JMX.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class Caches implements CachesMBean {
+    @Override
+    public int getForeignKeyCacheSize() {
+        return ForeignKeyCache.size();
+    }
+
+    @Override
+    public int getForeignKeyCacheMaxSize() {
+        return ForeignKeyCache.getMaxSize();
+    }
+
+    @Override
+    public void setForeignKeyCacheMaxSize(int maxSize) {
+        ForeignKeyCache.setMaxSize(maxSize);
+    }
+
+    @Override
+    public long getForeignKeyCacheHits() {
+        return ForeignKeyCache.getHitCount();
+    }
+
+    @Override
+    public long getForeignKeyCacheMisses() {
+        return ForeignKeyCache.getMissCount();
+    }
+
+    @Override
+    public void invalidateForeignKeyCache() {
+        ForeignKeyCache.invalidateAll();
+    }
+
+    @Override
+    public void invalidateForeignKeyCache(String table) {
+        ForeignKeyCache.invalidate(table);
+    }
+
+    @Override
+    public int getWindowPoolMaxIdle() {
+        return GridWindowPool.getMaxIdle();
+    }
+
+    @Override
+    public void setWindowPoolMaxIdle(int maxIdle) {
+        GridWindowPool.setMaxIdle(maxIdle);
+    }
+
+    @Override
+    public void clearWindowPool() {
+        GridWindowPool.clear();
+    }
+
+    @Override
+    public void reloadProductCatalog() {
+        ProductCatalogIndex.reload();
+    }
+
+    @Override
+    public void reloadDiscounts() {
+        DiscountEngine.reload();
+    }
+
+    @Override
+    public String getStatistics() {
+        return new StringBuilder()
+                .append(ForeignKeyCache.getStatistics()).append("\n")
+                .append(ForeignKeyLoader.getStatistics()).append("\n")
+                .append(GridWindowPool.getStatistics()).append("\n")
+                .append(ProductCatalogIndex.getStatistics()).append("\n")
+                .append(DiscountEngine.getStatistics()).append("\n")
+                .append(IdempotencyIndex.getStatistics()).append("\n")
+                .append(DocumentNoAllocator.getStatistics())
+                .toString();
+    }
+}
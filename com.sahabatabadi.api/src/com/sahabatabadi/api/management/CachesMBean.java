@@ -0,0 +1,56 @@
+package com.sahabatabadi.api.management;
+
+/**
+ * Management interface of the caches and indexes of the injection path.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public interface CachesMBean {
+    public int getForeignKeyCacheSize();
+
+    public int getForeignKeyCacheMaxSize();
+
+    public void setForeignKeyCacheMaxSize(int maxSize);
+
+    public long getForeignKeyCacheHits();
+
+    public long getForeignKeyCacheMisses();
+
+    /**
+     * Drops every cached foreign key.
+     */
+    public void invalidateForeignKeyCache();
+
+    /**
+     * Drops the cached foreign keys of one table, e.g. after business partners
+     * were deactivated.
+     *
+     * @param table table name, e.g. {@code "C_BPartner"}
+     */
+    public void invalidateForeignKeyCache(String table);
+
+    public int getWindowPoolMaxIdle();
+
+    public void setWindowPoolMaxIdle(int maxIdle);
+
+    /**
+     * Disposes every idle pooled window and compiled field mapping.
+     */
+    public void clearWindowPool();
+
+    /**
+     * Reloads the product catalog index from the database.
+     */
+    public void reloadProductCatalog();
+
+    /**
+     * Reloads the discount engine from the database.
+     */
+    public void reloadDiscounts();
+
+    /**
+     * @return statistics of every cache and index, one per line
+     */
+    public String getStatistics();
+}
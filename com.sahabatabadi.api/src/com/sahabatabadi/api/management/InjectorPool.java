@@ -0,0 +1,124 @@
+package com.sahabatabadi.api.management;
+
+import com.sahabatabadi.api.DatabaseThrottle;
+import com.sahabatabadi.api.InjectionMetrics;
+import com.sahabatabadi.api.InjectionMetrics.Counter;
+import com.sahabatabadi.api.ThreadPoolManager;
+import com.sahabatabadi.api.salesorder.SalesOrderPipeline;
+
+/**
+ * Exposes {@link ThreadPoolManager} and {@link DatabaseThrottle} through JMX.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class InjectorPool implements InjectorPoolMBean {
+    @Override
+    public String getExecutorStrategy() {
+        return ThreadPoolManager.getStrategyName();
+    }
+
+    @Override
+    public int getWorkerCount() {
+        return ThreadPoolManager.getWorkerCount();
+    }
+
+    @Override
+    public void setWorkerCount(int workers) {
+        ThreadPoolManager.setWorkerCount(workers);
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return ThreadPoolManager.getQueueCapacity();
+    }
+
+    @Override
+    public void setQueueCapacity(int queueCapacity) {
+        ThreadPoolManager.setQueueCapacity(queueCapacity);
+    }
+
+    @Override
+    public int getMaxDbConcurrency() {
+        return DatabaseThrottle.getMaxConcurrency();
+    }
+
+    @Override
+    public void setMaxDbConcurrency(int maxDbConcurrency) {
+        int stageWorkers = SalesOrderPipeline.getStageWorkerCount();
+        if (maxDbConcurrency < stageWorkers) {
+            // below it, the stages alone keep every permit busy and starve the persist tasks
+            throw new IllegalArgumentException(String.format(
+                    "Max DB concurrency %d is below the %d workers of the pipeline stages", maxDbConcurrency,
+                    stageWorkers));
+        }
+        DatabaseThrottle.setMaxConcurrency(maxDbConcurrency);
+    }
+
+    @Override
+    public String getAdmissionPolicy() {
+        return ThreadPoolManager.getAdmissionPolicy().name();
+    }
+
+    @Override
+    public void setAdmissionPolicy(String admissionPolicy) {
+        ThreadPoolManager.AdmissionPolicy policy = ThreadPoolManager.AdmissionPolicy
+                .valueOf(admissionPolicy.trim().toUpperCase());
+        System.setProperty(ThreadPoolManager.ADMISSION_POLICY_PROPERTY, policy.name().toLowerCase());
+    }
+
+    @Override
+    public int getParallelism() {
+        return ThreadPoolManager.getParallelism();
+    }
+
+    @Override
+    public int getActiveTasks() {
+        return ThreadPoolManager.getActiveCount();
+    }
+
+    @Override
+    public int getQueuedTasks() {
+        return ThreadPoolManager.getQueueDepth();
+    }
+
+    @Override
+    public int getAvailableAdmissions() {
+        return ThreadPoolManager.getAvailableAdmissions();
+    }
+
+    @Override
+    public long getSubmittedTasks() {
+        return ThreadPoolManager.getSubmittedCount();
+    }
+
+    @Override
+    public long getStartedTasks() {
+        return ThreadPoolManager.getStartedCount();
+    }
+
+    @Override
+    public long getRejectedCalls() {
+        return ThreadPoolManager.getRejectedCount();
+    }
+
+    @Override
+    public long getCompletedDocuments() {
+        return InjectionMetrics.getCount(Counter.DOCUMENTS);
+    }
+
+    @Override
+    public long getFailedDocuments() {
+        return InjectionMetrics.getCount(Counter.ROLLBACKS);
+    }
+
+    @Override
+    public String getStatistics() {
+        return SalesOrderPipeline.getStatistics();
+    }
+
+    @Override
+    public void reinitialize() {
+        ThreadPoolManager.reinitialize();
+    }
+}
@@ -0,0 +1,110 @@
+package com.sahabatabadi.api.management;
+
+/**
+ * Management interface of the injector pool, see
+ * {@link com.sahabatabadi.api.ThreadPoolManager}. Changing the worker count or
+ * the queue capacity swaps the pool's executor without restarting the bundle;
+ * tasks already queued finish on the old executor.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public interface InjectorPoolMBean {
+    /**
+     * @return name of the executor strategy, {@code "platform"} or
+     *         {@code "virtual"}
+     */
+    public String getExecutorStrategy();
+
+    /**
+     * @return number of worker threads of the platform strategy
+     */
+    public int getWorkerCount();
+
+    /**
+     * @param workers number of worker threads of the platform strategy
+     */
+    public void setWorkerCount(int workers);
+
+    /**
+     * @return capacity of the pool's queue
+     */
+    public int getQueueCapacity();
+
+    /**
+     * @param queueCapacity capacity of the pool's queue
+     */
+    public void setQueueCapacity(int queueCapacity);
+
+    /**
+     * @return maximum number of tasks doing database work at once
+     */
+    public int getMaxDbConcurrency();
+
+    /**
+     * @param maxDbConcurrency maximum number of tasks doing database work at
+     *                         once, at least the number of pipeline stage
+     *                         workers
+     * @throws IllegalArgumentException if below the number of pipeline stage
+     *                                  workers
+     */
+    public void setMaxDbConcurrency(int maxDbConcurrency);
+
+    /**
+     * @return {@code "BLOCK"} or {@code "REJECT"}
+     */
+    public String getAdmissionPolicy();
+
+    /**
+     * @param admissionPolicy {@code "block"} or {@code "reject"}
+     */
+    public void setAdmissionPolicy(String admissionPolicy);
+
+    /**
+     * @return maximum number of tasks running at once
+     */
+    public int getParallelism();
+
+    /**
+     * @return number of tasks being run
+     */
+    public int getActiveTasks();
+
+    /**
+     * @return number of tasks waiting for a thread or a database permit
+     */
+    public int getQueuedTasks();
+
+    /**
+     * @return number of tasks RMI callers may still submit before waiting for
+     *         admission
+     */
+    public int getAvailableAdmissions();
+
+    public long getSubmittedTasks();
+
+    public long getStartedTasks();
+
+    public long getRejectedCalls();
+
+    /**
+     * @return number of documents committed
+     */
+    public long getCompletedDocuments();
+
+    /**
+     * @return number of documents rolled back because of a failure
+     */
+    public long getFailedDocuments();
+
+    /**
+     * @return statistics of the pool, the pipeline stages, and the injection
+     *         metrics
+     */
+    public String getStatistics();
+
+    /**
+     * Recreates the pool from the current system properties.
+     */
+    public void reinitialize();
+}
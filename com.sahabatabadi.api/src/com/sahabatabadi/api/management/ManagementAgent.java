@@ -0,0 +1,93 @@
+package com.sahabatabadi.api.management;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.compiere.util.CLogger;
+
+import com.sahabatabadi.api.rmi.RMIService;
+
+/**
+ * Registers the plugin's MBeans in the platform MBean server, under the
+ * {@value #DOMAIN} domain. A failed registration is logged and does not stop
+ * the plugin.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class ManagementAgent {
+    /**
+     * JMX domain of the plugin's MBeans
+     */
+    public static final String DOMAIN = "com.sahabatabadi.api";
+
+    private static CLogger log = CLogger.getCLogger(ManagementAgent.class);
+
+    /**
+     * Names of the MBeans registered by {@link #register(RMIService)}
+     */
+    private static final List<ObjectName> registered = new ArrayList<>();
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private ManagementAgent() {
+    }
+
+    /**
+     * Registers the injector pool, RMI service, and caches MBeans, replacing
+     * MBeans left registered by an earlier start of the plugin.
+     *
+     * @param rmiService RMI service of the plugin
+     */
+    public static synchronized void register(RMIService rmiService) {
+        unregister();
+
+        register("InjectorPool", new InjectorPool());
+        register("RemoteService", new RemoteService(rmiService));
+        register("Caches", new Caches());
+    }
+
+    /**
+     * Helper method to register one MBean.
+     *
+     * @param type  value of the {@code type} key of the MBean's name
+     * @param mbean MBean to be registered
+     */
+    private static void register(String type, Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":type=" + type);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+            registered.add(name);
+        } catch (JMException e) {
+            log.log(Level.WARNING, "Failed to register MBean " + type, e);
+        }
+    }
+
+    /**
+     * Unregisters the MBeans registered by {@link #register(RMIService)}.
+     */
+    public static synchronized void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                log.log(Level.WARNING, "Failed to unregister MBean " + name, e);
+            }
+        }
+        registered.clear();
+    }
+}
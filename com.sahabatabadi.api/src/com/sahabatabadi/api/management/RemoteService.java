@@ -0,0 +1,65 @@
+package com.sahabatabadi.api.management;
+
+import com.sahabatabadi.api.rmi.IRemoteApi;
+import com.sahabatabadi.api.rmi.RMIService;
+import com.sahabatabadi.api.rmi.RemoteApi;
+
+/**
+ * Exposes an {@link RMIService} and the call counts of its
+ * {@link RemoteApi} through JMX.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class RemoteService implements RemoteServiceMBean {
+    private final RMIService service;
+
+    /**
+     * Default constructor
+     *
+     * @param service RMI service to be exposed
+     */
+    public RemoteService(RMIService service) {
+        this.service = service;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return service.isRunning();
+    }
+
+    @Override
+    public int getRegistryPort() {
+        return IRemoteApi.RMI_REGISTRY_PORT;
+    }
+
+    @Override
+    public long getInjectSoCalls() {
+        RemoteApi api = service.getRemoteApi();
+        return api != null ? api.getInjectSoCalls() : 0;
+    }
+
+    @Override
+    public long getInjectSoBatchCalls() {
+        RemoteApi api = service.getRemoteApi();
+        return api != null ? api.getInjectSoBatchCalls() : 0;
+    }
+
+    @Override
+    public long getSubmitSoCalls() {
+        RemoteApi api = service.getRemoteApi();
+        return api != null ? api.getSubmitSoCalls() : 0;
+    }
+
+    @Override
+    public long getPollSoCalls() {
+        RemoteApi api = service.getRemoteApi();
+        return api != null ? api.getPollSoCalls() : 0;
+    }
+
+    @Override
+    public long getBusyResponses() {
+        RemoteApi api = service.getRemoteApi();
+        return api != null ? api.getBusyResponses() : 0;
+    }
+}
@@ -0,0 +1,34 @@
+package com.sahabatabadi.api.management;
+
+/**
+ * Management interface of the RMI service, see
+ * {@link com.sahabatabadi.api.rmi.RMIService}.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public interface RemoteServiceMBean {
+    /**
+     * @return true if the remote API is bound in the RMI registry
+     */
+    public boolean isRunning();
+
+    /**
+     * @return port of the RMI registry
+     */
+    public int getRegistryPort();
+
+    public long getInjectSoCalls();
+
+    public long getInjectSoBatchCalls();
+
+    public long getSubmitSoCalls();
+
+    public long getPollSoCalls();
+
+    /**
+     * @return number of calls answered with
+     *         {@link com.sahabatabadi.api.rmi.ServerBusyException}
+     */
+    public long getBusyResponses();
+}
@@ -8,12 +8,19 @@ import com.sahabatabadi.api.rmi.IRemoteApi;
 import com.sahabatabadi.api.salesorder.BizzySalesOrder;
 import com.sahabatabadi.api.salesorder.BizzySalesOrderLine;
 
+/**
+ * Sends one test Bizzy SO to the server. See {@link LoadGenerator} to put the
+ * server under load.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
 public class Client {
     private Client() {}
 
     public static void main(String[] args) {
         String host = (args.length < 1) ? null : args[0]; 
-        int port = (args.length < 1) ? null : Integer.parseInt(args[1]); 
+        int port = (args.length < 2) ? IRemoteApi.RMI_REGISTRY_PORT : Integer.parseInt(args[1]); 
 
         try {
             Registry registry = LocateRegistry.getRegistry(host, port);
@@ -0,0 +1,13 @@
+package com.sahabatabadi.api.rmi;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Callback exported by RMI clients to be notified when an order submitted
+ * through {@link IRemoteApi#submitSo(com.sahabatabadi.api.salesorder.BizzySalesOrder, IInjectionCallback)}
+ * finishes processing.
+ */
+public interface IInjectionCallback extends Remote {
+    public void soProcessed(InjectionStatus status) throws RemoteException;
+}
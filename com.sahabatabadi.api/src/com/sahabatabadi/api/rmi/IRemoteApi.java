@@ -4,10 +4,21 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 
 import com.sahabatabadi.api.salesorder.BizzySalesOrder;
+import com.sahabatabadi.api.salesorder.BizzySalesOrderBatch;
 
 public interface IRemoteApi extends Remote {
     public static final String BINDING_NAME = "SASiDempiereRemoteApi";
 	public static final int RMI_REGISTRY_PORT = 11579;
     
 	public String injectSo(BizzySalesOrder bizzySo) throws RemoteException;  
+
+	public String[] injectSoBatch(BizzySalesOrder[] bizzySos) throws RemoteException;
+
+	public String[] injectSoBatch(BizzySalesOrderBatch batch) throws RemoteException;
+
+	public long submitSo(BizzySalesOrder bizzySo) throws RemoteException;
+
+	public long submitSo(BizzySalesOrder bizzySo, IInjectionCallback callback) throws RemoteException;
+
+	public InjectionStatus[] pollSo(long[] ticketIds) throws RemoteException;
 }
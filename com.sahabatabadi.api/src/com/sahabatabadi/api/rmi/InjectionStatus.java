@@ -0,0 +1,55 @@
+package com.sahabatabadi.api.rmi;
+
+import java.io.Serializable;
+
+/**
+ * POJO class to represent the processing status of an order submitted through
+ * {@link IRemoteApi#submitSo(com.sahabatabadi.api.salesorder.BizzySalesOrder)}.
+ */
+public class InjectionStatus implements Serializable {
+    private static final long serialVersionUID = 20261018L;
+
+    /**
+     * Processing states of a submitted order
+     */
+    public enum State {
+        /** Order is still being enriched, split, or injected */
+        PENDING,
+        /** Every split document has been processed; see {@link InjectionStatus#result} */
+        COMPLETED,
+        /** Order could not be processed; see {@link InjectionStatus#result} */
+        FAILED,
+        /** Ticket is unknown, or its result has already been retrieved */
+        UNKNOWN
+    }
+
+    /**
+     * Ticket ID returned on submission
+     */
+    public long ticketId;
+
+    /**
+     * Current processing state of the order
+     */
+    public State state;
+
+    /**
+     * Document numbers of the documents successfully inserted when
+     * {@link State#COMPLETED}, or the error message when {@link State#FAILED}.
+     * Null otherwise.
+     */
+    public String result;
+
+    /**
+     * Default constructor
+     * 
+     * @param ticketId ticket ID returned on submission
+     * @param state    current processing state of the order
+     * @param result   document numbers or error message, can be null
+     */
+    public InjectionStatus(long ticketId, State state, String result) {
+        this.ticketId = ticketId;
+        this.state = state;
+        this.result = result;
+    }
+}
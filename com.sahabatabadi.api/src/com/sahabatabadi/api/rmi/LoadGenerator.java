@@ -0,0 +1,565 @@
+package com.sahabatabadi.api.rmi;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sahabatabadi.api.LatencyHistogram;
+import com.sahabatabadi.api.salesorder.BizzySalesOrder;
+import com.sahabatabadi.api.salesorder.BizzySalesOrderBatch;
+import com.sahabatabadi.api.salesorder.BizzySalesOrderLine;
+
+/**
+ * Load generator for {@link IRemoteApi}, for capacity planning of a server.
+ * Runs a number of client threads sending generated Bizzy SOs for a warm-up
+ * phase, whose results are discarded, then for a measurement phase, and
+ * reports throughput and latency percentiles of the measurement phase.
+ *
+ * <p>
+ * With a target rate, orders are sent on a fixed schedule regardless of how
+ * fast the server answers, and the latency of an order is measured from when
+ * it was scheduled to be sent, not from when a free thread sent it. A server
+ * stalling for a second therefore shows up as a second of latency on every
+ * order scheduled during the stall, instead of as one slow order, which is
+ * the coordinated omission a closed-loop client makes. Calls still waiting
+ * for a free thread when the measurement phase ends are never sent; they are
+ * recorded with their wait until the end, a lower bound of their latency, so
+ * the slowest samples are not left out. Service time, measured from the actual
+ * send, is reported alongside. Without a target rate, every
+ * thread sends its next order as soon as the previous one is answered, and
+ * only service time is meaningful.
+ *
+ * <p>
+ * Usage: {@code LoadGenerator [key=value]...}, with the following keys:
+ * <ul>
+ * <li>{@code host}, {@code port}: RMI registry of the server, by default
+ * localhost and {@value IRemoteApi#RMI_REGISTRY_PORT}</li>
+ * <li>{@code threads}: number of client threads, 4 by default</li>
+ * <li>{@code rate}: target orders per second over all threads, 0 (as fast as
+ * possible) by default</li>
+ * <li>{@code warmup}, {@code duration}: length of the warm-up and measurement
+ * phases in seconds, 10 and 60 by default</li>
+ * <li>{@code lines}, {@code principals}: distributions of the number of lines
+ * and of principals per order, see {@link Distribution#parse(String)}</li>
+ * <li>{@code batch}: number of orders per call; 1 (the default) sends orders
+ * through {@link IRemoteApi#injectSo(BizzySalesOrder)}, more through
+ * {@link IRemoteApi#injectSoBatch(BizzySalesOrder[])}</li>
+ * <li>{@code wire}: {@code compact} to send orders as a
+ * {@link BizzySalesOrderBatch} through
+ * {@link IRemoteApi#injectSoBatch(BizzySalesOrderBatch)}, {@code default} (the
+ * default) to send them with default serialization</li>
+ * <li>{@code products}: CSV file of {@code productId,principal} lines to draw
+ * order lines from, by default the products of
+ * {@link Client#createTestBizzySo()}</li>
+ * <li>{@code bp}, {@code bpLocation}, {@code org}: customer and org of the
+ * orders, by default those of {@link Client#createTestBizzySo()}</li>
+ * </ul>
+ * Every order carries a unique {@link BizzySalesOrder#orderKey}, so orders are
+ * never deduplicated by the server. Orders are committed, not rolled back.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class LoadGenerator {
+    /**
+     * Server under load
+     */
+    private final IRemoteApi stub;
+
+    private final int threads;
+    private final double rate;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final int batch;
+    private final boolean compact;
+    private final Distribution lines;
+    private final Distribution principals;
+    private final char org;
+    private final int bpHoldingNo;
+    private final String bpLocationName;
+
+    /**
+     * Products to draw order lines from, by principal
+     */
+    private final Map<String, List<String>> productsByPrincipal;
+
+    /**
+     * Prefix of the order keys of this run
+     */
+    private final String runId = "LG" + Long.toString(System.currentTimeMillis(), 36);
+
+    /**
+     * Index of the next call to be sent, which fixes its place in the schedule
+     */
+    private final AtomicLong nextCall = new AtomicLong();
+
+    /**
+     * Latencies from the scheduled send time, corrected for coordinated
+     * omission
+     */
+    private final LatencyHistogram responseTimes = new LatencyHistogram();
+
+    /**
+     * Latencies from the actual send time
+     */
+    private final LatencyHistogram serviceTimes = new LatencyHistogram();
+
+    private final AtomicLong ordersSent = new AtomicLong();
+    private final AtomicLong ordersFailed = new AtomicLong();
+    private final AtomicLong busyResponses = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Calls of the measurement phase which were never sent, the threads being
+     * behind the schedule when it ended
+     */
+    private final AtomicLong unsentCalls = new AtomicLong();
+
+    /**
+     * Default constructor
+     *
+     * @param stub    server under load
+     * @param options options of the run, see the class documentation
+     * @throws IOException if the products file cannot be read
+     */
+    public LoadGenerator(IRemoteApi stub, Map<String, String> options) throws IOException {
+        this.stub = stub;
+        this.threads = Integer.parseInt(option(options, "threads", "4"));
+        this.rate = Double.parseDouble(option(options, "rate", "0"));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option(options, "warmup", "10")));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option(options, "duration", "60")));
+        this.batch = Math.max(1, Integer.parseInt(option(options, "batch", "1")));
+        this.compact = "compact".equalsIgnoreCase(option(options, "wire", "default"));
+        this.lines = Distribution.parse(option(options, "lines", "1-20"));
+        this.principals = Distribution.parse(option(options, "principals", "1:60,2:30,4:10"));
+
+        BizzySalesOrder testSo = Client.createTestBizzySo();
+        this.org = option(options, "org", String.valueOf(testSo.soff_code)).charAt(0);
+        this.bpHoldingNo = Integer.parseInt(option(options, "bp", String.valueOf(testSo.bpHoldingNo)));
+        this.bpLocationName = option(options, "bpLocation", testSo.bpLocationName);
+
+        String productsFile = options.get("products");
+        this.productsByPrincipal = productsFile != null ? readProducts(productsFile) : getTestProducts();
+        if (productsByPrincipal.isEmpty()) {
+            throw new IllegalArgumentException("No products to generate orders from");
+        }
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                System.err.println("Ignoring argument [" + arg + "], expected key=value");
+                continue;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        try {
+            String host = options.get("host");
+            int port = Integer.parseInt(option(options, "port", String.valueOf(IRemoteApi.RMI_REGISTRY_PORT)));
+            Registry registry = LocateRegistry.getRegistry(host, port);
+            IRemoteApi stub = (IRemoteApi) registry.lookup(IRemoteApi.BINDING_NAME);
+
+            System.out.println(new LoadGenerator(stub, options).run());
+        } catch (Exception e) {
+            System.err.println("Load generator exception: " + e.toString());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs the warm-up and measurement phases.
+     *
+     * @return report of the measurement phase
+     * @throws InterruptedException if interrupted while waiting for the client
+     *                              threads
+     */
+    public String run() throws InterruptedException {
+        long startNanos = System.nanoTime();
+        final long measureStartNanos = startNanos + warmupNanos;
+        final long endNanos = measureStartNanos + durationNanos;
+        final long intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(batch) / rate) : 0;
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Worker(startNanos, measureStartNanos, endNanos, intervalNanos),
+                    "LoadGenerator-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        if (intervalNanos > 0) {
+            // slots no thread got to before the end
+            for (long call = nextCall.get(); startNanos + call * intervalNanos - endNanos < 0; call++) {
+                recordUnsent(startNanos + call * intervalNanos, measureStartNanos, endNanos);
+            }
+        }
+
+        long measuredNanos = Math.max(System.nanoTime(), endNanos) - measureStartNanos;
+        long scheduledCalls = intervalNanos > 0 ? durationNanos / intervalNanos : 0;
+        return report(measuredNanos, scheduledCalls);
+    }
+
+    /**
+     * Helper method to record a call of the schedule which was never sent, with
+     * its wait from the scheduled time until the end of the run as latency.
+     *
+     * @param scheduledNanos    time the call was scheduled to be sent
+     * @param measureStartNanos start of the measurement phase
+     * @param endNanos          end of the measurement phase
+     */
+    private void recordUnsent(long scheduledNanos, long measureStartNanos, long endNanos) {
+        if (scheduledNanos - measureStartNanos >= 0) {
+            responseTimes.record(endNanos - scheduledNanos);
+            unsentCalls.incrementAndGet();
+        }
+    }
+
+    /**
+     * Client thread. With a target rate, takes the next slot of the schedule,
+     * waits for its time, and sends; a thread falling behind the schedule sends
+     * at once, keeping the original scheduled time as the start of the
+     * latency. A slot taken after the end is recorded as never sent.
+     */
+    private class Worker implements Runnable {
+        private final long startNanos;
+        private final long measureStartNanos;
+        private final long endNanos;
+        private final long intervalNanos;
+
+        Worker(long startNanos, long measureStartNanos, long endNanos, long intervalNanos) {
+            this.startNanos = startNanos;
+            this.measureStartNanos = measureStartNanos;
+            this.endNanos = endNanos;
+            this.intervalNanos = intervalNanos;
+        }
+
+        @Override
+        public void run() {
+            Random random = ThreadLocalRandom.current();
+            while (true) {
+                long call = nextCall.getAndIncrement();
+                long now = System.nanoTime();
+                long scheduledNanos = intervalNanos > 0 ? startNanos + call * intervalNanos : now;
+                if (scheduledNanos - endNanos >= 0) {
+                    return;
+                }
+                if (now - endNanos >= 0) {
+                    recordUnsent(scheduledNanos, measureStartNanos, endNanos);
+                    return;
+                }
+
+                while (scheduledNanos - now > 0) {
+                    LockSupport.parkNanos(scheduledNanos - now);
+                    now = System.nanoTime();
+                }
+
+                BizzySalesOrder[] bizzySos = new BizzySalesOrder[batch];
+                for (int i = 0; i < batch; i++) {
+                    bizzySos[i] = generateOrder(random, call * batch + i);
+                }
+
+                long sentNanos = System.nanoTime();
+                int failed = 0;
+                boolean answered = true;
+                try {
+                    if (compact) {
+                        for (String docNums : stub.injectSoBatch(new BizzySalesOrderBatch(bizzySos))) {
+                            failed += isInjected(docNums) ? 0 : 1;
+                        }
+                    } else if (batch == 1) {
+                        failed = isInjected(stub.injectSo(bizzySos[0])) ? 0 : 1;
+                    } else {
+                        for (String docNums : stub.injectSoBatch(bizzySos)) {
+                            failed += isInjected(docNums) ? 0 : 1;
+                        }
+                    }
+                } catch (ServerBusyException e) {
+                    answered = false;
+                    if (scheduledNanos - measureStartNanos >= 0) {
+                        busyResponses.incrementAndGet();
+                    }
+                } catch (RemoteException e) {
+                    answered = false;
+                    if (scheduledNanos - measureStartNanos >= 0) {
+                        errors.incrementAndGet();
+                    }
+                }
+                long doneNanos = System.nanoTime();
+
+                if (scheduledNanos - measureStartNanos < 0) {
+                    continue; // warm-up
+                }
+
+                if (answered) {
+                    responseTimes.record(doneNanos - scheduledNanos);
+                    serviceTimes.record(doneNanos - sentNanos);
+                    ordersSent.addAndGet(batch);
+                    ordersFailed.addAndGet(failed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to generate one order. The order's principals are drawn
+     * first, then its lines are spread over the products of those principals.
+     *
+     * @param random   random source of the calling thread
+     * @param sequence index of the order in the run
+     * @return the generated order
+     */
+    private BizzySalesOrder generateOrder(Random random, long sequence) {
+        List<String> orderPrincipals = new ArrayList<>(productsByPrincipal.keySet());
+        Collections.shuffle(orderPrincipals, random);
+        int principalCount = Math.max(1, Math.min(principals.sample(random), orderPrincipals.size()));
+        int lineCount = Math.max(1, lines.sample(random));
+
+        BizzySalesOrder bizzySo = new BizzySalesOrder();
+        bizzySo.soff_code = org;
+        bizzySo.description = "Load test " + runId;
+        bizzySo.dateOrdered = new Date(System.currentTimeMillis());
+        bizzySo.bpHoldingNo = bpHoldingNo;
+        bizzySo.bpLocationName = bpLocationName;
+        bizzySo.orderSource = 'B';
+        bizzySo.orderKey = runId + "-" + Long.toString(sequence, 36);
+
+        bizzySo.orderLines = new BizzySalesOrderLine[lineCount];
+        for (int i = 0; i < lineCount; i++) {
+            List<String> products = productsByPrincipal.get(orderPrincipals.get(i % principalCount));
+            bizzySo.orderLines[i] = new BizzySalesOrderLine();
+            bizzySo.orderLines[i].productId = products.get(random.nextInt(products.size()));
+            bizzySo.orderLines[i].quantity = 1 + random.nextInt(20);
+        }
+        return bizzySo;
+    }
+
+    /**
+     * Helper method to check the response of an injected order.
+     *
+     * @param docNums document numbers of the order, e.g. {@code "[A, B]"}
+     * @return true if at least one document was injected
+     */
+    private static boolean isInjected(String docNums) {
+        return docNums != null && docNums.length() > 2;
+    }
+
+    /**
+     * Helper method to format the report of the measurement phase.
+     *
+     * @param measuredNanos  length of the measurement phase, including calls
+     *                       finishing after its end
+     * @param scheduledCalls number of calls scheduled in the measurement phase,
+     *                       0 without a target rate
+     * @return the report
+     */
+    private String report(long measuredNanos, long scheduledCalls) {
+        double seconds = measuredNanos / 1e9;
+        long answeredCalls = serviceTimes.getCount();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("threads=%d, target=%s, batch=%d, wire=%s, lines=%s, principals=%s%n", threads,
+                rate > 0 ? String.format("%.1f orders/s", rate) : "unbounded", batch,
+                compact ? "compact" : "default", lines, principals));
+        sb.append(String.format("measured %.1f s: %d orders in %d calls, %.2f orders/s, %.2f calls/s%n", seconds,
+                ordersSent.get(), answeredCalls, ordersSent.get() / seconds, answeredCalls / seconds));
+        sb.append(String.format("failed orders=%d, busy responses=%d, errors=%d%n", ordersFailed.get(),
+                busyResponses.get(), errors.get()));
+        if (scheduledCalls > 0) {
+            sb.append(String.format("scheduled calls=%d, not sent before the end=%d (included in response time)%n",
+                    scheduledCalls, unsentCalls.get()));
+            sb.append("response time (corrected): ").append(percentiles(responseTimes)).append("\n");
+        }
+        sb.append("service time:              ").append(percentiles(serviceTimes));
+        return sb.toString();
+    }
+
+    /**
+     * Helper method to format the percentiles of a histogram.
+     *
+     * @param histogram latencies
+     * @return percentiles in milliseconds
+     */
+    private static String percentiles(LatencyHistogram histogram) {
+        return String.format("p50=%.1f ms, p90=%.1f ms, p99=%.1f ms, p99.9=%.1f ms, max=%.1f ms",
+                histogram.getPercentileMicros(50) / 1000.0, histogram.getPercentileMicros(90) / 1000.0,
+                histogram.getPercentileMicros(99) / 1000.0, histogram.getPercentileMicros(99.9) / 1000.0,
+                histogram.getMaxMicros() / 1000.0);
+    }
+
+    /**
+     * Helper method to read an option.
+     *
+     * @param options      options of the run
+     * @param key          key of the option
+     * @param defaultValue value if the option is not set
+     * @return value of the option
+     */
+    private static String option(Map<String, String> options, String key, String defaultValue) {
+        String value = options.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Helper method to read the products file.
+     *
+     * @param path path of a CSV file of {@code productId,principal} lines
+     * @return product IDs by principal
+     * @throws IOException if the file cannot be read
+     */
+    private static Map<String, List<String>> readProducts(String path) throws IOException {
+        Map<String, List<String>> products = new LinkedHashMap<>();
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split(",");
+                if (columns.length < 2 || columns[0].trim().isEmpty()) {
+                    continue;
+                }
+                addProduct(products, columns[1].trim(), columns[0].trim());
+            }
+        } finally {
+            reader.close();
+        }
+        return products;
+    }
+
+    /**
+     * @return products of {@link Client#createTestBizzySo()}, by principal
+     */
+    private static Map<String, List<String>> getTestProducts() {
+        Map<String, List<String>> products = new LinkedHashMap<>();
+        addProduct(products, "Philips", "AB0301485");
+        addProduct(products, "Philips", "AB0301440");
+        addProduct(products, "Philips", "AB0301430");
+        addProduct(products, "Panasonic", "BA0600010");
+        addProduct(products, "Panasonic", "BA0100116");
+        addProduct(products, "Schneider", "FA0600085");
+        addProduct(products, "Schneider", "FA0100080");
+        addProduct(products, "Supreme", "GA0100000");
+        addProduct(products, "Supreme", "GA0500010");
+        return products;
+    }
+
+    /**
+     * Helper method to add a product to its principal's products.
+     *
+     * @param products  product IDs by principal
+     * @param principal principal of the product
+     * @param productId product ID
+     */
+    private static void addProduct(Map<String, List<String>> products, String principal, String productId) {
+        List<String> principalProducts = products.get(principal);
+        if (principalProducts == null) {
+            principalProducts = new ArrayList<>();
+            products.put(principal, principalProducts);
+        }
+        principalProducts.add(productId);
+    }
+
+    /**
+     * Distribution of a positive integer, such as the number of lines of an
+     * order.
+     */
+    public static class Distribution {
+        private final String spec;
+        private final int[] values;
+        private final long[] cumulativeWeights;
+
+        private Distribution(String spec, int[] values, long[] cumulativeWeights) {
+            this.spec = spec;
+            this.values = values;
+            this.cumulativeWeights = cumulativeWeights;
+        }
+
+        /**
+         * Parses a distribution, one of:
+         * <ul>
+         * <li>{@code "9"}: always 9</li>
+         * <li>{@code "1-50"}: uniform from 1 to 50, inclusive</li>
+         * <li>{@code "1:60,10:30,100:10"}: 1 with weight 60, 10 with weight 30,
+         * and 100 with weight 10</li>
+         * </ul>
+         *
+         * @param spec distribution as above
+         * @return the distribution
+         */
+        public static Distribution parse(String spec) {
+            String trimmed = spec.trim();
+            int dash = trimmed.indexOf('-');
+            if (trimmed.indexOf(':') < 0 && dash > 0) {
+                int min = Integer.parseInt(trimmed.substring(0, dash).trim());
+                int max = Integer.parseInt(trimmed.substring(dash + 1).trim());
+                if (max < min) {
+                    throw new IllegalArgumentException("Invalid range [" + spec + "]");
+                }
+
+                int[] values = new int[max - min + 1];
+                long[] cumulativeWeights = new long[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = min + i;
+                    cumulativeWeights[i] = i + 1;
+                }
+                return new Distribution(trimmed, values, cumulativeWeights);
+            }
+
+            String[] entries = trimmed.split(",");
+            int[] values = new int[entries.length];
+            long[] cumulativeWeights = new long[entries.length];
+            long total = 0;
+            for (int i = 0; i < entries.length; i++) {
+                String[] entry = entries[i].split(":");
+                values[i] = Integer.parseInt(entry[0].trim());
+                long weight = entry.length > 1 ? Long.parseLong(entry[1].trim()) : 1;
+                if (weight <= 0) {
+                    throw new IllegalArgumentException("Invalid weight in [" + spec + "]");
+                }
+                total += weight;
+                cumulativeWeights[i] = total;
+            }
+            return new Distribution(trimmed, values, cumulativeWeights);
+        }
+
+        /**
+         * @param random random source
+         * @return a value drawn from the distribution
+         */
+        public int sample(Random random) {
+            long total = cumulativeWeights[cumulativeWeights.length - 1];
+            long point = (long) (random.nextDouble() * total);
+            for (int i = 0; i < values.length; i++) {
+                if (point < cumulativeWeights[i]) {
+                    return values[i];
+                }
+            }
+            return values[values.length - 1];
+        }
+
+        @Override
+        public String toString() {
+            return spec;
+        }
+    }
+}
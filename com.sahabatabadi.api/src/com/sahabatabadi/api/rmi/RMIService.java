@@ -14,6 +14,7 @@ public class RMIService {
     private RemoteApi server;
     private Remote stub;
     private Registry registry;
+    private volatile boolean running;
 
     protected static CLogger log = CLogger.getCLogger(RMIService.class);
 
@@ -28,6 +29,7 @@ public class RMIService {
             // Bind the remote object's stub in the registry
             registry = LocateRegistry.createRegistry(IRemoteApi.RMI_REGISTRY_PORT);
             registry.rebind(IRemoteApi.BINDING_NAME, stub);
+            running = true;
 
             if (log.isLoggable(Level.INFO))
                 log.info("Registry ready");
@@ -39,17 +41,40 @@ public class RMIService {
         }
     }
 
+    /**
+     * @return true if the remote API is bound in the registry
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return remote API being served, or null if the service failed to start
+     */
+    public RemoteApi getRemoteApi() {
+        return server;
+    }
+
     public void stop() {
         if (log.isLoggable(Level.INFO))
             log.info("Stopping RMI registry service");
+        running = false;
         try {
-            registry.unbind(IRemoteApi.BINDING_NAME);
-            UnicastRemoteObject.unexportObject(registry, true);
+            if (registry != null) {
+                registry.unbind(IRemoteApi.BINDING_NAME);
+                UnicastRemoteObject.unexportObject(registry, true);
+            }
         } catch (RemoteException | NotBoundException e) {
             if (log.isLoggable(Level.WARNING)) {
                 log.warning("RMI server exception: " + e.toString());
                 e.printStackTrace();
             }
+        } finally {
+            // stopped even if the registry could not be cleaned up, e.g. after a failed start
+            if (server != null) {
+                server.stop();
+            }
+            registry = null;
         }
     }
 }
\ No newline at end of file
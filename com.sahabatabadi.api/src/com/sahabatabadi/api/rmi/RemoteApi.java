@@ -1,11 +1,99 @@
 package com.sahabatabadi.api.rmi;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sahabatabadi.api.InjectionRejectedException;
 import com.sahabatabadi.api.salesorder.BizzySalesOrder;
+import com.sahabatabadi.api.salesorder.BizzySalesOrderBatch;
 import com.sahabatabadi.api.salesorder.SalesOrderInjector;
 
 public class RemoteApi implements IRemoteApi {
-	public String injectSo(BizzySalesOrder bizzySo) {
+    private final TicketRegistry ticketRegistry = new TicketRegistry();
+
+    private final AtomicLong injectSoCalls = new AtomicLong();
+    private final AtomicLong injectSoBatchCalls = new AtomicLong();
+    private final AtomicLong submitSoCalls = new AtomicLong();
+    private final AtomicLong pollSoCalls = new AtomicLong();
+    private final AtomicLong busyResponses = new AtomicLong();
+
+	public String injectSo(BizzySalesOrder bizzySo) throws ServerBusyException {
+        injectSoCalls.incrementAndGet();
         SalesOrderInjector inj = new SalesOrderInjector();
-        return inj.injectSalesOrder(bizzySo);
+        try {
+            return inj.injectSalesOrder(bizzySo);
+        } catch (InjectionRejectedException e) {
+            throw toServerBusy(e);
+        }
+    }
+
+	public String[] injectSoBatch(BizzySalesOrder[] bizzySos) throws ServerBusyException {
+        injectSoBatchCalls.incrementAndGet();
+        SalesOrderInjector inj = new SalesOrderInjector();
+        try {
+            return inj.injectSalesOrders(bizzySos);
+        } catch (InjectionRejectedException e) {
+            throw toServerBusy(e);
+        }
+    }
+
+	public String[] injectSoBatch(BizzySalesOrderBatch batch) throws ServerBusyException {
+        return injectSoBatch(batch.getSalesOrders());
+    }
+
+	public long submitSo(BizzySalesOrder bizzySo) throws ServerBusyException {
+        return submitSo(bizzySo, null);
+    }
+
+	public long submitSo(BizzySalesOrder bizzySo, IInjectionCallback callback) throws ServerBusyException {
+        submitSoCalls.incrementAndGet();
+        try {
+            return ticketRegistry.submit(bizzySo, callback);
+        } catch (InjectionRejectedException e) {
+            throw toServerBusy(e);
+        }
+    }
+
+	public InjectionStatus[] pollSo(long[] ticketIds) {
+        pollSoCalls.incrementAndGet();
+        return ticketRegistry.poll(ticketIds);
+    }
+
+    /**
+     * Helper method to report a rejection of the injector pool to the RMI
+     * caller.
+     * 
+     * @param e rejection of the injector pool
+     * @return exception to be thrown to the caller
+     */
+    private ServerBusyException toServerBusy(InjectionRejectedException e) {
+        busyResponses.incrementAndGet();
+        return new ServerBusyException(e.getMessage(), e.getRetryAfterMillis());
+    }
+
+    public void stop() {
+        ticketRegistry.stop();
+    }
+
+    public long getInjectSoCalls() {
+        return injectSoCalls.get();
+    }
+
+    public long getInjectSoBatchCalls() {
+        return injectSoBatchCalls.get();
+    }
+
+    public long getSubmitSoCalls() {
+        return submitSoCalls.get();
+    }
+
+    public long getPollSoCalls() {
+        return pollSoCalls.get();
+    }
+
+    /**
+     * @return number of calls answered with a {@link ServerBusyException}
+     */
+    public long getBusyResponses() {
+        return busyResponses.get();
     }
 }
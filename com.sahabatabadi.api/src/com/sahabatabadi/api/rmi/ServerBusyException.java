@@ -0,0 +1,39 @@
+package com.sahabatabadi.api.rmi;
+
+import java.rmi.RemoteException;
+
+/**
+ * Exception thrown to RMI callers when the server is too busy to accept their
+ * orders. Nothing of the rejected call has been injected, so the call can be
+ * retried as is after {@link #getRetryAfterMillis()}.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class ServerBusyException extends RemoteException {
+    private static final long serialVersionUID = 2915774034610213557L;
+
+    /**
+     * Suggested delay before the caller retries, in milliseconds
+     */
+    private final long retryAfterMillis;
+
+    /**
+     * Constructs a new exception with the specified detail message.
+     * 
+     * @param message          the detail message
+     * @param retryAfterMillis suggested delay before the caller retries, in
+     *                         milliseconds
+     */
+    public ServerBusyException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return suggested delay before the caller retries, in milliseconds
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
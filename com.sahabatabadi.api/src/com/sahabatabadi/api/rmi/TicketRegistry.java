@@ -0,0 +1,227 @@
+package com.sahabatabadi.api.rmi;
+
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.compiere.util.CLogger;
+
+import com.sahabatabadi.api.InjectionRejectedException;
+import com.sahabatabadi.api.salesorder.BizzySalesOrder;
+import com.sahabatabadi.api.salesorder.IInjectionListener;
+import com.sahabatabadi.api.salesorder.SalesOrderInjector;
+
+/**
+ * Class to keep track of orders submitted asynchronously through
+ * {@link IRemoteApi}. Each submission gets a ticket ID whose status can be
+ * polled in bulk, and optionally a client callback to be notified on
+ * completion.
+ */
+public class TicketRegistry {
+    /**
+     * How long a finished ticket is kept when its result is never retrieved, in
+     * milliseconds
+     */
+    public static final long FINISHED_TICKET_RETENTION_MS = 60 * 60 * 1000L;
+
+    /**
+     * Minimum interval between two purges of expired tickets, in milliseconds
+     */
+    private static final long PURGE_INTERVAL_MS = 60 * 1000L;
+
+    protected static CLogger log = CLogger.getCLogger(TicketRegistry.class);
+
+    /**
+     * Ticket ID last handed out. Seeded with the current time so that ticket IDs
+     * are not reused after a restart.
+     */
+    private final AtomicLong lastTicketId = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    /**
+     * Mapping between ticket ID and the ticket's current state
+     */
+    private final Map<Long, Ticket> tickets = new ConcurrentHashMap<>();
+
+    /**
+     * Executor invoking client callbacks, so a slow client never holds an
+     * injector worker thread
+     */
+    private final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Time of the last purge of expired tickets
+     */
+    private volatile long lastPurge = System.currentTimeMillis();
+
+    /**
+     * Submits the Bizzy SO for asynchronous injection.
+     * 
+     * @param bizzySo  Bizzy SO object to be injected
+     * @param callback client callback to be notified on completion, can be null
+     * @return ticket ID to poll the order's status with
+     * @throws InjectionRejectedException if the injector pool is too busy to
+     *                                    accept the order
+     */
+    public long submit(BizzySalesOrder bizzySo, IInjectionCallback callback) {
+        purgeExpired();
+
+        final Ticket ticket = new Ticket(lastTicketId.incrementAndGet(), callback);
+        tickets.put(ticket.ticketId, ticket);
+
+        try {
+            new SalesOrderInjector().submitSalesOrder(bizzySo, ticket);
+        } catch (InjectionRejectedException e) {
+            tickets.remove(ticket.ticketId);
+            throw e;
+        } catch (RuntimeException e) {
+            ticket.injectionFailed(e);
+        }
+
+        return ticket.ticketId;
+    }
+
+    /**
+     * Gets the status of the specified tickets. Tickets which are no longer
+     * pending are forgotten after being returned.
+     * 
+     * @param ticketIds ticket IDs to poll
+     * @return status of each ticket, in the same order as the specified array
+     */
+    public InjectionStatus[] poll(long[] ticketIds) {
+        purgeExpired();
+
+        InjectionStatus[] statuses = new InjectionStatus[ticketIds.length];
+        for (int i = 0; i < ticketIds.length; i++) {
+            Ticket ticket = tickets.get(ticketIds[i]);
+            if (ticket == null) {
+                statuses[i] = new InjectionStatus(ticketIds[i], InjectionStatus.State.UNKNOWN, null);
+                continue;
+            }
+
+            statuses[i] = ticket.getStatus();
+            if (statuses[i].state != InjectionStatus.State.PENDING) {
+                tickets.remove(ticketIds[i]);
+            }
+        }
+
+        return statuses;
+    }
+
+    /**
+     * Stops the callback executor. Pending callbacks are dropped.
+     */
+    public void stop() {
+        callbackExecutor.shutdownNow();
+    }
+
+    /**
+     * Helper method to forget finished tickets whose result was never
+     * retrieved.
+     */
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        if (now - lastPurge < PURGE_INTERVAL_MS) {
+            return;
+        }
+        lastPurge = now;
+
+        Iterator<Ticket> it = tickets.values().iterator();
+        while (it.hasNext()) {
+            Ticket ticket = it.next();
+            if (ticket.finishedAt > 0 && now - ticket.finishedAt > FINISHED_TICKET_RETENTION_MS) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Helper class to represent a single submitted order.
+     */
+    class Ticket implements IInjectionListener {
+        /**
+         * ID of this ticket
+         */
+        private final long ticketId;
+
+        /**
+         * Client callback to be notified on completion, can be null
+         */
+        private final IInjectionCallback callback;
+
+        /**
+         * Current status of this ticket
+         */
+        private volatile InjectionStatus status;
+
+        /**
+         * Time this ticket finished processing, or 0 if still pending
+         */
+        private volatile long finishedAt = 0;
+
+        /**
+         * Default constructor
+         * 
+         * @param ticketId ID of this ticket
+         * @param callback client callback to be notified on completion, can be
+         *                 null
+         */
+        public Ticket(long ticketId, IInjectionCallback callback) {
+            this.ticketId = ticketId;
+            this.callback = callback;
+            this.status = new InjectionStatus(ticketId, InjectionStatus.State.PENDING, null);
+        }
+
+        /**
+         * @return current status of this ticket
+         */
+        public InjectionStatus getStatus() {
+            return status;
+        }
+
+        @Override
+        public void injectionCompleted(String result) {
+            finish(new InjectionStatus(ticketId, InjectionStatus.State.COMPLETED, result));
+        }
+
+        @Override
+        public void injectionFailed(Throwable cause) {
+            if (log.isLoggable(Level.WARNING))
+                log.warning("Failed to process ticket " + ticketId + ": " + cause.toString());
+
+            finish(new InjectionStatus(ticketId, InjectionStatus.State.FAILED, cause.toString()));
+        }
+
+        /**
+         * Helper method to record the final status and notify the client
+         * callback, if any. Tickets with a callback are forgotten once the
+         * callback has been delivered.
+         * 
+         * @param finalStatus final status of this ticket
+         */
+        private void finish(final InjectionStatus finalStatus) {
+            status = finalStatus;
+            finishedAt = System.currentTimeMillis();
+
+            if (callback == null) {
+                return;
+            }
+
+            callbackExecutor.submit(new Runnable() {
+                public void run() {
+                    try {
+                        callback.soProcessed(finalStatus);
+                        tickets.remove(ticketId);
+                    } catch (RemoteException e) {
+                        if (log.isLoggable(Level.WARNING))
+                            log.warning("Failed to deliver callback for ticket " + ticketId + ": " + e.toString());
+                    }
+                }
+            });
+        }
+    }
+}
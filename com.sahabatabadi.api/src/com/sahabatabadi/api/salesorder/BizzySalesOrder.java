@@ -53,6 +53,16 @@ public class BizzySalesOrder implements Serializable {
      */
     public BizzySalesOrderLine[] orderLines;
 
+    /**
+     * Bizzy's own identifier of the sales order, identical across retries of the
+     * same order. Can be left empty, in which case retries are not recognized
+     * and are injected again, unless {@link IdempotencyIndex.Mode#HASH} is
+     * chosen to recognize them by the content of the order. Stored in
+     * iDempiere's {@code C_Order.POReference}, see
+     * {@link IdempotencyIndex#getKey(BizzySalesOrder)}.
+     */
+    public String orderKey;
+
     /**
      * Empty constructor
      */
@@ -73,5 +83,6 @@ public class BizzySalesOrder implements Serializable {
         this.bpLocationName = bizzySo.bpLocationName;
         this.orderSource = bizzySo.orderSource;
         this.orderLines = bizzySo.orderLines;
+        this.orderKey = bizzySo.orderKey;
     }
 }
@@ -0,0 +1,58 @@
+package com.sahabatabadi.api.salesorder;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Bizzy SOs sent over RMI in the compact encoding of
+ * {@link BizzySalesOrderCodec}, instead of the default serialization of
+ * {@link BizzySalesOrder}. {@link BizzySalesOrder} itself stays
+ * {@link java.io.Serializable} with its {@code serialVersionUID}, so clients
+ * sending it directly keep working while they migrate to this class.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class BizzySalesOrderBatch implements Externalizable {
+    private static final long serialVersionUID = 20201018L;
+
+    /**
+     * Bizzy SOs of the batch
+     */
+    private BizzySalesOrder[] bizzySos;
+
+    /**
+     * Empty constructor, required by {@link Externalizable}
+     */
+    public BizzySalesOrderBatch() {
+        this.bizzySos = new BizzySalesOrder[0];
+    }
+
+    /**
+     * Default constructor
+     *
+     * @param bizzySos Bizzy SO objects to be sent
+     */
+    public BizzySalesOrderBatch(BizzySalesOrder... bizzySos) {
+        this.bizzySos = bizzySos;
+    }
+
+    /**
+     * @return Bizzy SO objects of the batch
+     */
+    public BizzySalesOrder[] getSalesOrders() {
+        return bizzySos;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        BizzySalesOrderCodec.write(bizzySos, out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        this.bizzySos = BizzySalesOrderCodec.read(in);
+    }
+}
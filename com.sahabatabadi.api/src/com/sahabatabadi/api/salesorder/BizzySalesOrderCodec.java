@@ -0,0 +1,435 @@
+package com.sahabatabadi.api.salesorder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact binary encoding of {@link BizzySalesOrder} arrays, used on the wire
+ * by {@link BizzySalesOrderBatch}. Default serialization sends class
+ * descriptors and field names, and repeats every product and principal code
+ * in full; this encoding sends a version byte, one dictionary of the codes and
+ * BP locations of the whole array, and the orders with varint numbers and
+ * dictionary references.
+ *
+ * <p>
+ * Version 1 layout, where {@code varint} is an unsigned LEB128 number,
+ * {@code zigzag} a signed one, and {@code ref} a varint dictionary index plus
+ * one, 0 being null:
+ *
+ * <pre>
+ * byte    version
+ * varint  dictionary size, then per entry: varint UTF-8 length, bytes
+ * varint  order count, then per order:
+ *   varint  flags: 1 description, 2 dateOrdered, 4 orderKey, 8 orderLines,
+ *           64 null order, in which case nothing else of the order follows
+ *   varint  soff_code, varint orderSource
+ *   zigzag  bpHoldingNo
+ *   ref     bpLocationName
+ *   [string description] [zigzag dateOrdered millis] [string orderKey]
+ *   [varint line count, then per line:
+ *     varint flags: 1 discount, 64 null line, in which case nothing else of
+ *            the line follows
+ *     ref productId, ref principalId, zigzag quantity
+ *     [double discount]]
+ * </pre>
+ *
+ * Discounts of -1, the value of lines not yet enriched, are omitted. Counts are
+ * capped at {@value #MAX_ORDERS} orders per batch, {@value #MAX_LINES} lines
+ * per order, {@value #MAX_DICTIONARY_SIZE} dictionary entries, and strings at
+ * {@value #MAX_STRING_LENGTH} bytes; larger counts are refused on both sides,
+ * so corrupt input is rejected before anything is allocated for it.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class BizzySalesOrderCodec {
+    /**
+     * Version of the encoding written by {@link #write(BizzySalesOrder[], DataOutput)}
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Largest number of orders in one batch
+     */
+    public static final int MAX_ORDERS = 10000;
+
+    /**
+     * Largest number of lines in one order
+     */
+    public static final int MAX_LINES = 10000;
+
+    /**
+     * Largest number of dictionary entries in one batch
+     */
+    public static final int MAX_DICTIONARY_SIZE = 1 << 20;
+
+    /**
+     * Largest length of a string, in UTF-8 bytes
+     */
+    public static final int MAX_STRING_LENGTH = 1 << 16;
+
+    private static final int ORDER_DESCRIPTION = 1;
+    private static final int ORDER_DATE = 2;
+    private static final int ORDER_KEY = 4;
+    private static final int ORDER_LINES = 8;
+    private static final int ORDER_NULL = 64;
+    private static final int LINE_DISCOUNT = 1;
+    private static final int LINE_NULL = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private BizzySalesOrderCodec() {
+    }
+
+    /**
+     * Encodes Bizzy SOs into a byte array.
+     *
+     * @param bizzySos Bizzy SO objects to be encoded
+     * @return the encoded Bizzy SOs
+     */
+    public static byte[] encode(BizzySalesOrder[] bizzySos) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            write(bizzySos, new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // not thrown by ByteArrayOutputStream
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes Bizzy SOs from a byte array.
+     *
+     * @param encoded Bizzy SOs encoded by {@link #encode(BizzySalesOrder[])}
+     * @return the decoded Bizzy SOs
+     * @throws IOException if the bytes are not a supported encoding
+     */
+    public static BizzySalesOrder[] decode(byte[] encoded) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(encoded)));
+    }
+
+    /**
+     * Writes Bizzy SOs.
+     *
+     * @param bizzySos Bizzy SO objects to be written, can contain null, as can
+     *                 their lines
+     * @param out      output to be written to
+     * @throws IOException              if the output fails
+     * @throws IllegalArgumentException if a count or string exceeds the caps of
+     *                                  the encoding
+     */
+    public static void write(BizzySalesOrder[] bizzySos, DataOutput out) throws IOException {
+        checkCount(bizzySos.length, MAX_ORDERS, "Order count");
+
+        HashMap<String, Integer> dictionary = new HashMap<>();
+        List<String> entries = new ArrayList<>();
+        for (BizzySalesOrder bizzySo : bizzySos) {
+            if (bizzySo == null) {
+                continue;
+            }
+
+            addEntry(bizzySo.bpLocationName, dictionary, entries);
+            if (bizzySo.orderLines != null) {
+                checkCount(bizzySo.orderLines.length, MAX_LINES, "Line count");
+                for (BizzySalesOrderLine soLine : bizzySo.orderLines) {
+                    if (soLine != null) {
+                        addEntry(soLine.productId, dictionary, entries);
+                        addEntry(soLine.principalId, dictionary, entries);
+                    }
+                }
+            }
+        }
+        checkCount(entries.size(), MAX_DICTIONARY_SIZE, "Dictionary size");
+
+        out.writeByte(VERSION);
+        writeVarint(out, entries.size());
+        for (String entry : entries) {
+            writeString(out, entry);
+        }
+
+        writeVarint(out, bizzySos.length);
+        for (BizzySalesOrder bizzySo : bizzySos) {
+            if (bizzySo == null) {
+                writeVarint(out, ORDER_NULL);
+                continue;
+            }
+
+            int flags = (bizzySo.description != null ? ORDER_DESCRIPTION : 0)
+                    | (bizzySo.dateOrdered != null ? ORDER_DATE : 0)
+                    | (bizzySo.orderKey != null ? ORDER_KEY : 0)
+                    | (bizzySo.orderLines != null ? ORDER_LINES : 0);
+            writeVarint(out, flags);
+            writeVarint(out, bizzySo.soff_code);
+            writeVarint(out, bizzySo.orderSource);
+            writeZigzag(out, bizzySo.bpHoldingNo);
+            writeRef(out, bizzySo.bpLocationName, dictionary);
+            if (bizzySo.description != null) {
+                writeString(out, bizzySo.description);
+            }
+            if (bizzySo.dateOrdered != null) {
+                writeZigzag(out, bizzySo.dateOrdered.getTime());
+            }
+            if (bizzySo.orderKey != null) {
+                writeString(out, bizzySo.orderKey);
+            }
+
+            if (bizzySo.orderLines != null) {
+                writeVarint(out, bizzySo.orderLines.length);
+                for (BizzySalesOrderLine soLine : bizzySo.orderLines) {
+                    if (soLine == null) {
+                        writeVarint(out, LINE_NULL);
+                        continue;
+                    }
+
+                    boolean hasDiscount = soLine.discount != -1;
+                    writeVarint(out, hasDiscount ? LINE_DISCOUNT : 0);
+                    writeRef(out, soLine.productId, dictionary);
+                    writeRef(out, soLine.principalId, dictionary);
+                    writeZigzag(out, soLine.quantity);
+                    if (hasDiscount) {
+                        out.writeDouble(soLine.discount);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads Bizzy SOs written by {@link #write(BizzySalesOrder[], DataOutput)}.
+     *
+     * @param in input to be read from
+     * @return the Bizzy SOs read
+     * @throws IOException if the input fails, or is not a supported encoding
+     */
+    public static BizzySalesOrder[] read(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported Bizzy SO encoding version " + version);
+        }
+
+        String[] dictionary = new String[readCount(in, MAX_DICTIONARY_SIZE)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = readString(in);
+        }
+
+        BizzySalesOrder[] bizzySos = new BizzySalesOrder[readCount(in, MAX_ORDERS)];
+        for (int i = 0; i < bizzySos.length; i++) {
+            int flags = (int) readVarint(in);
+            if ((flags & ORDER_NULL) != 0) {
+                continue;
+            }
+
+            BizzySalesOrder bizzySo = new BizzySalesOrder();
+            bizzySo.soff_code = (char) readVarint(in);
+            bizzySo.orderSource = (char) readVarint(in);
+            bizzySo.bpHoldingNo = (int) readZigzag(in);
+            bizzySo.bpLocationName = readRef(in, dictionary);
+            if ((flags & ORDER_DESCRIPTION) != 0) {
+                bizzySo.description = readString(in);
+            }
+            if ((flags & ORDER_DATE) != 0) {
+                bizzySo.dateOrdered = new Date(readZigzag(in));
+            }
+            if ((flags & ORDER_KEY) != 0) {
+                bizzySo.orderKey = readString(in);
+            }
+
+            if ((flags & ORDER_LINES) != 0) {
+                bizzySo.orderLines = new BizzySalesOrderLine[readCount(in, MAX_LINES)];
+                for (int j = 0; j < bizzySo.orderLines.length; j++) {
+                    int lineFlags = (int) readVarint(in);
+                    if ((lineFlags & LINE_NULL) != 0) {
+                        continue;
+                    }
+
+                    BizzySalesOrderLine soLine = new BizzySalesOrderLine();
+                    soLine.productId = readRef(in, dictionary);
+                    soLine.principalId = readRef(in, dictionary);
+                    soLine.quantity = (int) readZigzag(in);
+                    if ((lineFlags & LINE_DISCOUNT) != 0) {
+                        soLine.discount = in.readDouble();
+                    }
+                    bizzySo.orderLines[j] = soLine;
+                }
+            }
+            bizzySos[i] = bizzySo;
+        }
+        return bizzySos;
+    }
+
+    /**
+     * Helper method to add a string to the dictionary.
+     *
+     * @param value      string to be added, can be null
+     * @param dictionary mapping between string and index
+     * @param entries    strings in index order
+     */
+    private static void addEntry(String value, HashMap<String, Integer> dictionary, List<String> entries) {
+        if (value != null && !dictionary.containsKey(value)) {
+            dictionary.put(value, entries.size());
+            entries.add(value);
+        }
+    }
+
+    /**
+     * Helper method to write a dictionary reference.
+     *
+     * @param out        output to be written to
+     * @param value      string in the dictionary, can be null
+     * @param dictionary mapping between string and index
+     * @throws IOException if the output fails
+     */
+    private static void writeRef(DataOutput out, String value, HashMap<String, Integer> dictionary)
+            throws IOException {
+        writeVarint(out, value == null ? 0 : dictionary.get(value) + 1);
+    }
+
+    /**
+     * Helper method to read a dictionary reference.
+     *
+     * @param in         input to be read from
+     * @param dictionary strings in index order
+     * @return the referenced string, can be null
+     * @throws IOException if the input fails or the reference is out of range
+     */
+    private static String readRef(DataInput in, String[] dictionary) throws IOException {
+        long ref = readVarint(in);
+        if (ref == 0) {
+            return null;
+        }
+        if (ref > dictionary.length) {
+            throw new StreamCorruptedException("Dictionary reference " + ref + " out of range");
+        }
+        return dictionary[(int) ref - 1];
+    }
+
+    /**
+     * Helper method to write a length-prefixed UTF-8 string.
+     *
+     * @param out   output to be written to
+     * @param value string to be written
+     * @throws IOException if the output fails
+     */
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        checkCount(bytes.length, MAX_STRING_LENGTH, "String length");
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Helper method to read a length-prefixed UTF-8 string.
+     *
+     * @param in input to be read from
+     * @return the string read
+     * @throws IOException if the input fails or the length is out of range
+     */
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[readCount(in, MAX_STRING_LENGTH)];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Helper method to write an unsigned LEB128 number, 7 bits per byte.
+     *
+     * @param out   output to be written to
+     * @param value number to be written, treated as unsigned
+     * @throws IOException if the output fails
+     */
+    private static void writeVarint(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Helper method to read an unsigned LEB128 number.
+     *
+     * @param in input to be read from
+     * @return the number read
+     * @throws IOException if the input fails or the number is malformed
+     */
+    private static long readVarint(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    /**
+     * Helper method to write a signed number, zigzag encoded so that small
+     * negative numbers stay short.
+     *
+     * @param out   output to be written to
+     * @param value number to be written
+     * @throws IOException if the output fails
+     */
+    private static void writeZigzag(DataOutput out, long value) throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Helper method to read a zigzag encoded signed number.
+     *
+     * @param in input to be read from
+     * @return the number read
+     * @throws IOException if the input fails or the number is malformed
+     */
+    private static long readZigzag(DataInput in) throws IOException {
+        long value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Helper method to check a count or length against its cap before writing.
+     *
+     * @param count count to be written
+     * @param max   largest count accepted
+     * @param name  name of the count, for the exception message
+     * @throws IllegalArgumentException if the count exceeds the cap
+     */
+    private static void checkCount(int count, int max, String name) {
+        if (count > max) {
+            throw new IllegalArgumentException(String.format("%s %d exceeds the maximum of %d", name, count, max));
+        }
+    }
+
+    /**
+     * Helper method to read a count or length, rejecting values too large to
+     * come from a valid encoding.
+     *
+     * @param in  input to be read from
+     * @param max largest count accepted
+     * @return the count
+     * @throws IOException if the input fails or the count is out of range
+     */
+    private static int readCount(DataInput in, int max) throws IOException {
+        long count = readVarint(in);
+        if (count > max) {
+            throw new StreamCorruptedException("Count " + count + " out of range, maximum is " + max);
+        }
+        return (int) count;
+    }
+}
@@ -0,0 +1,526 @@
+package com.sahabatabadi.api.salesorder;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.compiere.util.CLogger;
+import org.compiere.util.DB;
+
+/**
+ * In-memory replacement for the discount join in
+ * {@link SalesOrderUtils#getProductDiscount(String, int, String)}. Loads the
+ * BP rule to discount schema mapping ({@code SAS_BPRule}) and the discount
+ * schema to group1 break mapping ({@code M_DiscountSchemaBreak}) once, then
+ * answers {@code (group1, bpCode, orgTrx)} lookups without touching the
+ * database.
+ * 
+ * <p>
+ * Changed rows are picked up incrementally through their {@code Updated}
+ * timestamp every {@value #REFRESH_INTERVAL_SECONDS} seconds. Deleted rows and
+ * renamed BPs / Orgs are picked up by a full reload every
+ * {@value #FULL_RELOAD_INTERVAL_MINUTES} minutes.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class DiscountEngine {
+    /**
+     * Interval between two incremental refreshes, in seconds
+     */
+    public static final int REFRESH_INTERVAL_SECONDS = 30;
+
+    /**
+     * Interval between two full reloads, in minutes
+     */
+    public static final int FULL_RELOAD_INTERVAL_MINUTES = 60;
+
+    /**
+     * How far back before the latest known {@code Updated} timestamp an
+     * incremental refresh looks, in milliseconds, so that rows committed late by
+     * long-running transactions are not missed
+     */
+    private static final long UPDATED_OVERLAP_MS = 60 * 1000L;
+
+    protected static CLogger log = CLogger.getCLogger(DiscountEngine.class);
+
+    /**
+     * Mapping between {@code sas_bprule_id} and the BP rule row
+     */
+    private static final Map<Integer, BPRule> bpRules = new HashMap<>();
+
+    /**
+     * Mapping between {@code m_discountschemabreak_id} and the discount schema
+     * break row
+     */
+    private static final Map<Integer, SchemaBreak> schemaBreaks = new HashMap<>();
+
+    /**
+     * Latest {@code Updated} timestamp seen in {@code SAS_BPRule}
+     */
+    private static Timestamp bpRulesUpdated;
+
+    /**
+     * Latest {@code Updated} timestamp seen in {@code M_DiscountSchemaBreak}
+     */
+    private static Timestamp schemaBreaksUpdated;
+
+    /**
+     * Lookup index built from {@link #bpRules} and {@link #schemaBreaks}. Replaced
+     * as a whole on every change, so readers never need a lock. Null until the
+     * first load completes.
+     */
+    private static volatile DiscountIndex index;
+
+    /**
+     * Executor running the periodic refreshes
+     */
+    private static ScheduledExecutorService refresher;
+
+    /**
+     * Number of lookups answered with a discount
+     */
+    private static final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Number of lookups for which no discount is defined
+     */
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Number of incremental refreshes which found changed rows
+     */
+    private static final AtomicLong refreshes = new AtomicLong();
+
+    /**
+     * Number of full reloads
+     */
+    private static final AtomicLong reloads = new AtomicLong();
+
+    /**
+     * Loads the discount mappings and starts the periodic refresh.
+     */
+    public static synchronized void start() {
+        stop();
+
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SAS-DiscountEngine-Refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                reload();
+            }
+        }, 0, FULL_RELOAD_INTERVAL_MINUTES, TimeUnit.MINUTES);
+
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        }, REFRESH_INTERVAL_SECONDS, REFRESH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic refresh. Lookups keep being answered from the last
+     * loaded mappings.
+     */
+    public static synchronized void stop() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /**
+     * @return true if the discount mappings have been loaded and lookups can be
+     *         answered in memory, false otherwise
+     */
+    public static boolean isLoaded() {
+        return index != null;
+    }
+
+    /**
+     * Gets the discount list of a product group for a BP and Org Trx. Equivalent
+     * to {@link SalesOrderUtils#getProductDiscount(String, int, String)} with the
+     * product already resolved to its group1.
+     * 
+     * @param group1 Product group, from the {@code group1} field in iDempiere's
+     *               {@code M_Product} table.
+     * @param bpCode Five-digit BP code. Example: {@code "03806"}.
+     * @param orgTrx Full Org Trx name, as returned by
+     *               {@link SalesOrderUtils#getOrgTrx(String, String)}.
+     * @return The discount list ID, from the {@code sas_discountlist_id} field in
+     *         the {@code M_DiscountSchemaBreak} table, or -1 if there is none or
+     *         the mappings have not been loaded yet.
+     */
+    public static int getDiscount(String group1, String bpCode, String orgTrx) {
+        DiscountIndex currentIndex = index;
+        if (currentIndex == null || group1 == null || bpCode == null || orgTrx == null) {
+            return -1;
+        }
+
+        Integer discount = null;
+        Map<String, Integer> orgTrxSchemas = currentIndex.bpSchemas.get(bpCode);
+        Integer schemaId = orgTrxSchemas != null ? orgTrxSchemas.get(orgTrx) : null;
+        if (schemaId != null) {
+            Map<String, Integer> groupDiscounts = currentIndex.schemaDiscounts.get(schemaId);
+            discount = groupDiscounts != null ? groupDiscounts.get(group1) : null;
+        }
+
+        if (discount == null) {
+            misses.incrementAndGet();
+            return -1;
+        }
+
+        hits.incrementAndGet();
+        return discount;
+    }
+
+    /**
+     * @return number of lookups answered with a discount
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of lookups for which no discount is defined
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Gets a summary of the engine's state and statistics, for logging.
+     * 
+     * @return human readable statistics
+     */
+    public static String getStatistics() {
+        DiscountIndex currentIndex = index;
+        return String.format("DiscountEngine[loaded=%s, bpRules=%d, schemaBreaks=%d, hits=%d, misses=%d, "
+                + "refreshes=%d, reloads=%d]", currentIndex != null, currentIndex != null ? currentIndex.bpRuleCount : 0,
+                currentIndex != null ? currentIndex.schemaBreakCount : 0, hits.get(), misses.get(), refreshes.get(),
+                reloads.get());
+    }
+
+    /**
+     * Discards all loaded mappings and loads them again from the database.
+     */
+    public static synchronized void reload() {
+        try {
+            HashMap<Integer, BPRule> newBpRules = new HashMap<>();
+            HashMap<Integer, SchemaBreak> newSchemaBreaks = new HashMap<>();
+            Timestamp newBpRulesUpdated = loadBPRules(null, newBpRules);
+            Timestamp newSchemaBreaksUpdated = loadSchemaBreaks(null, newSchemaBreaks);
+
+            bpRules.clear();
+            bpRules.putAll(newBpRules);
+            schemaBreaks.clear();
+            schemaBreaks.putAll(newSchemaBreaks);
+            bpRulesUpdated = newBpRulesUpdated;
+            schemaBreaksUpdated = newSchemaBreaksUpdated;
+
+            rebuildIndex();
+            reloads.incrementAndGet();
+
+            if (log.isLoggable(Level.INFO))
+                log.info(getStatistics());
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Failed to load discount mappings", e);
+        }
+    }
+
+    /**
+     * Loads the rows changed since the last load or refresh, and rebuilds the
+     * lookup index if any were found.
+     */
+    public static synchronized void refresh() {
+        if (index == null) {
+            reload();
+            return;
+        }
+
+        try {
+            HashMap<Integer, BPRule> changedBpRules = new HashMap<>();
+            HashMap<Integer, SchemaBreak> changedSchemaBreaks = new HashMap<>();
+            Timestamp newBpRulesUpdated = loadBPRules(bpRulesUpdated, changedBpRules);
+            Timestamp newSchemaBreaksUpdated = loadSchemaBreaks(schemaBreaksUpdated, changedSchemaBreaks);
+
+            boolean changed = applyChanges(bpRules, changedBpRules);
+            changed = applyChanges(schemaBreaks, changedSchemaBreaks) || changed;
+            bpRulesUpdated = newBpRulesUpdated;
+            schemaBreaksUpdated = newSchemaBreaksUpdated;
+
+            if (changed) {
+                rebuildIndex();
+                refreshes.incrementAndGet();
+
+                if (log.isLoggable(Level.FINE))
+                    log.fine(getStatistics());
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Failed to refresh discount mappings", e);
+        }
+    }
+
+    /**
+     * Helper method to merge changed rows into the loaded rows.
+     * 
+     * @param <T>     row type
+     * @param rows    loaded rows, keyed by record ID
+     * @param changed changed rows, keyed by record ID. A null value means the row
+     *                no longer takes part in the discount join.
+     * @return true if any loaded row was added, changed, or removed
+     */
+    private static <T> boolean applyChanges(Map<Integer, T> rows, Map<Integer, T> changed) {
+        boolean isChanged = false;
+        for (Map.Entry<Integer, T> entry : changed.entrySet()) {
+            T newRow = entry.getValue();
+            T oldRow = newRow == null ? rows.remove(entry.getKey()) : rows.put(entry.getKey(), newRow);
+            if (oldRow == null ? newRow != null : !oldRow.equals(newRow)) {
+                isChanged = true;
+            }
+        }
+        return isChanged;
+    }
+
+    /**
+     * Helper method to build a new {@link DiscountIndex} from the loaded rows and
+     * publish it. When several rows map the same key, the row with the lowest
+     * record ID wins.
+     */
+    private static void rebuildIndex() {
+        DiscountIndex newIndex = new DiscountIndex();
+
+        for (BPRule rule : new TreeMap<>(bpRules).values()) {
+            Map<String, Integer> orgTrxSchemas = newIndex.bpSchemas.get(rule.bpCode);
+            if (orgTrxSchemas == null) {
+                orgTrxSchemas = new HashMap<>();
+                newIndex.bpSchemas.put(rule.bpCode, orgTrxSchemas);
+            }
+            if (!orgTrxSchemas.containsKey(rule.orgTrx)) {
+                orgTrxSchemas.put(rule.orgTrx, rule.discountSchemaId);
+            }
+        }
+
+        for (SchemaBreak schemaBreak : new TreeMap<>(schemaBreaks).values()) {
+            Map<String, Integer> groupDiscounts = newIndex.schemaDiscounts.get(schemaBreak.discountSchemaId);
+            if (groupDiscounts == null) {
+                groupDiscounts = new HashMap<>();
+                newIndex.schemaDiscounts.put(schemaBreak.discountSchemaId, groupDiscounts);
+            }
+            if (!groupDiscounts.containsKey(schemaBreak.group1)) {
+                groupDiscounts.put(schemaBreak.group1, schemaBreak.discountListId);
+            }
+        }
+
+        newIndex.bpRuleCount = bpRules.size();
+        newIndex.schemaBreakCount = schemaBreaks.size();
+        index = newIndex;
+    }
+
+    /**
+     * Helper method to load BP rules from the database.
+     * 
+     * @param updatedSince only load rows updated since this timestamp, or null to
+     *                     load all rows
+     * @param rows         map to put the loaded rows in, keyed by
+     *                     {@code sas_bprule_id}
+     * @return latest {@code Updated} timestamp seen, or updatedSince if no rows
+     *         were loaded
+     * @throws Exception if the query fails
+     */
+    private static Timestamp loadBPRules(Timestamp updatedSince, Map<Integer, BPRule> rows) throws Exception {
+        StringBuilder sb = new StringBuilder()
+            .append("SELECT r.sas_bprule_id, bp.value, o.name, r.m_discountschema_id, r.updated\n")
+            .append("FROM SAS_BPRule r\n")
+            .append("    LEFT JOIN C_BPartner bp ON bp.c_bpartner_id = r.c_bpartner_id\n")
+            .append("    LEFT JOIN AD_Org o ON o.ad_org_id = r.ad_orgtrx_id\n");
+        if (updatedSince != null) {
+            sb.append("WHERE r.updated >= ?");
+        }
+        String bpRuleQuery = sb.toString();
+
+        Timestamp latestUpdated = updatedSince;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            pstmt = DB.prepareStatement(bpRuleQuery, null);
+            if (updatedSince != null) {
+                pstmt.setTimestamp(1, new Timestamp(updatedSince.getTime() - UPDATED_OVERLAP_MS));
+            }
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                int ruleId = rs.getInt(1);
+                String bpCode = rs.getString(2);
+                String orgTrx = rs.getString(3);
+                int discountSchemaId = rs.getInt(4);
+                boolean isJoined = bpCode != null && orgTrx != null && !rs.wasNull();
+                rows.put(ruleId, isJoined ? new BPRule(bpCode, orgTrx, discountSchemaId) : null);
+
+                Timestamp updated = rs.getTimestamp(5);
+                if (latestUpdated == null || (updated != null && updated.after(latestUpdated))) {
+                    latestUpdated = updated;
+                }
+            }
+        } finally {
+            DB.close(rs, pstmt);
+            rs = null;
+            pstmt = null;
+        }
+        return latestUpdated;
+    }
+
+    /**
+     * Helper method to load discount schema breaks from the database.
+     * 
+     * @param updatedSince only load rows updated since this timestamp, or null to
+     *                     load all rows
+     * @param rows         map to put the loaded rows in, keyed by
+     *                     {@code m_discountschemabreak_id}
+     * @return latest {@code Updated} timestamp seen, or updatedSince if no rows
+     *         were loaded
+     * @throws Exception if the query fails
+     */
+    private static Timestamp loadSchemaBreaks(Timestamp updatedSince, Map<Integer, SchemaBreak> rows)
+            throws Exception {
+        StringBuilder sb = new StringBuilder()
+            .append("SELECT brk.m_discountschemabreak_id, brk.m_discountschema_id, brk.group1, ")
+            .append("brk.sas_discountlist_id, brk.updated\n")
+            .append("FROM M_DiscountSchemaBreak brk\n");
+        if (updatedSince != null) {
+            sb.append("WHERE brk.updated >= ?");
+        }
+        String schemaBreakQuery = sb.toString();
+
+        Timestamp latestUpdated = updatedSince;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            pstmt = DB.prepareStatement(schemaBreakQuery, null);
+            if (updatedSince != null) {
+                pstmt.setTimestamp(1, new Timestamp(updatedSince.getTime() - UPDATED_OVERLAP_MS));
+            }
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                int breakId = rs.getInt(1);
+                int discountSchemaId = rs.getInt(2);
+                String group1 = rs.getString(3);
+                int discountListId = rs.getInt(4);
+                rows.put(breakId, group1 != null ? new SchemaBreak(discountSchemaId, group1, discountListId) : null);
+
+                Timestamp updated = rs.getTimestamp(5);
+                if (latestUpdated == null || (updated != null && updated.after(latestUpdated))) {
+                    latestUpdated = updated;
+                }
+            }
+        } finally {
+            DB.close(rs, pstmt);
+            rs = null;
+            pstmt = null;
+        }
+        return latestUpdated;
+    }
+
+    /**
+     * Lookup structures answering {@code (group1, bpCode, orgTrx)} in two map
+     * lookups: BP code and Org Trx to discount schema, then discount schema and
+     * group1 to discount list.
+     */
+    static class DiscountIndex {
+        /**
+         * Mapping between BP code, then Org Trx name, and
+         * {@code m_discountschema_id}
+         */
+        final HashMap<String, Map<String, Integer>> bpSchemas = new HashMap<>();
+
+        /**
+         * Mapping between {@code m_discountschema_id}, then group1, and
+         * {@code sas_discountlist_id}
+         */
+        final HashMap<Integer, Map<String, Integer>> schemaDiscounts = new HashMap<>();
+
+        /**
+         * Number of BP rules the index was built from
+         */
+        int bpRuleCount;
+
+        /**
+         * Number of discount schema breaks the index was built from
+         */
+        int schemaBreakCount;
+    }
+
+    /**
+     * Row of {@code SAS_BPRule} joined with its BP code and Org Trx name.
+     */
+    static class BPRule {
+        final String bpCode;
+        final String orgTrx;
+        final int discountSchemaId;
+
+        BPRule(String bpCode, String orgTrx, int discountSchemaId) {
+            this.bpCode = bpCode;
+            this.orgTrx = orgTrx;
+            this.discountSchemaId = discountSchemaId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof BPRule)) {
+                return false;
+            }
+            BPRule other = (BPRule) obj;
+            return bpCode.equals(other.bpCode) && orgTrx.equals(other.orgTrx)
+                    && discountSchemaId == other.discountSchemaId;
+        }
+
+        @Override
+        public int hashCode() {
+            return (bpCode.hashCode() * 31 + orgTrx.hashCode()) * 31 + discountSchemaId;
+        }
+    }
+
+    /**
+     * Row of {@code M_DiscountSchemaBreak}.
+     */
+    static class SchemaBreak {
+        final int discountSchemaId;
+        final String group1;
+        final int discountListId;
+
+        SchemaBreak(int discountSchemaId, String group1, int discountListId) {
+            this.discountSchemaId = discountSchemaId;
+            this.group1 = group1;
+            this.discountListId = discountListId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SchemaBreak)) {
+                return false;
+            }
+            SchemaBreak other = (SchemaBreak) obj;
+            return discountSchemaId == other.discountSchemaId && group1.equals(other.group1)
+                    && discountListId == other.discountListId;
+        }
+
+        @Override
+        public int hashCode() {
+            return (discountSchemaId * 31 + group1.hashCode()) * 31 + discountListId;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.sahabatabadi.api.salesorder;
+
+/**
+ * Interface to receive the outcome of a Bizzy SO submitted through
+ * {@link SalesOrderInjector#submitSalesOrder(BizzySalesOrder, IInjectionListener)}.
+ * 
+ * <p>
+ * Exactly one of the methods is called per submitted Bizzy SO, from an injector
+ * worker thread. Implementations should return quickly.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public interface IInjectionListener {
+    /**
+     * Called once every split document of the Bizzy SO has been processed.
+     * 
+     * @param result document numbers of the documents successfully inserted, in
+     *               the same format as
+     *               {@link SalesOrderInjector#injectSalesOrder(BizzySalesOrder)}
+     */
+    public void injectionCompleted(String result);
+
+    /**
+     * Called when the Bizzy SO could not be enriched or split, so no document
+     * was injected, or when the Bizzy SO duplicates an order whose injection
+     * failed, see {@link IdempotencyIndex}.
+     * 
+     * @param cause exception that stopped the injection
+     */
+    public void injectionFailed(Throwable cause);
+}
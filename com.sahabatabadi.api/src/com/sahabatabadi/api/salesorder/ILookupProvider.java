@@ -0,0 +1,86 @@
+package com.sahabatabadi.api.salesorder;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Source of the lookups enriching Bizzy SOs: principals and discounts of
+ * products, tax status of BP locations, and Org Trxs of BPs. The provider in
+ * use is chosen by {@link SalesOrderUtils#getLookupProvider()}.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ * 
+ * @see JdbcLookupProvider
+ * @see InMemoryLookupProvider
+ */
+public interface ILookupProvider {
+    /**
+     * @return name of the provider, for logging
+     */
+    public String getName();
+
+    /**
+     * Resolves the principal/brand of several products at once.
+     * 
+     * @param productIds product IDs, e.g. {@code "AB0301485"}
+     * @return mapping between product ID and full principal name. Products not
+     *         found are absent from the mapping.
+     */
+    public Map<String, String> getProductPrincipals(Collection<String> productIds);
+
+    /**
+     * Resolves the discount of several products for one BP at once.
+     * 
+     * @param productIds        product IDs
+     * @param bpHoldingNo       BP number
+     * @param productPrincipals mapping between product ID and full principal
+     *                          name, as returned by
+     *                          {@link #getProductPrincipals(Collection)}.
+     *                          Products without a principal are skipped.
+     * @return mapping between product ID and discount list ID. Products without
+     *         a discount are absent from the mapping.
+     */
+    public Map<String, Integer> getProductDiscounts(Collection<String> productIds, int bpHoldingNo,
+            Map<String, String> productPrincipals);
+
+    /**
+     * Resolves the tax status of one BP location.
+     * 
+     * @param bpLocation exact name of the BP location
+     * @return true if the BP location is a tax location
+     * @throws NullPointerException if the BP location is not found
+     */
+    public boolean getBPLocationIsTax(String bpLocation);
+
+    /**
+     * Resolves the tax status of several BP locations at once.
+     * 
+     * @param bpLocations exact names of the BP locations
+     * @return mapping between BP location name and whether it is a tax location.
+     *         BP locations not found are absent from the mapping.
+     */
+    public Map<String, Boolean> getBPLocationIsTax(Collection<String> bpLocations);
+
+    /**
+     * Resolves the Org Trx of one BP and principal.
+     * 
+     * @param bpHoldingId five-digit BP number, e.g. {@code "03806"}
+     * @param principal   full principal name, e.g. {@code "Philips"}
+     * @return full Org Trx name, or null if not found
+     */
+    public String getOrgTrx(String bpHoldingId, String principal);
+
+    /**
+     * Resolves the Org Trx of several BP and principal pairs at once.
+     * 
+     * @param principalsByBp mapping between five-digit BP number and the full
+     *                       principal names of the BP's products. Null
+     *                       principals are skipped.
+     * @return mapping between BP number and the mapping between principal and
+     *         full Org Trx name. Pairs without an Org Trx are absent from the
+     *         mapping.
+     */
+    public Map<String, Map<String, String>> getOrgTrxs(Map<String, Set<String>> principalsByBp);
+}
@@ -0,0 +1,693 @@
+package com.sahabatabadi.api.salesorder;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.compiere.util.CLogger;
+import org.compiere.util.DB;
+import org.compiere.util.Env;
+
+import com.sahabatabadi.api.InjectionRejectedException;
+import com.sahabatabadi.api.ThreadPoolManager;
+
+/**
+ * Remembers which Bizzy SOs have already been injected, so an order retried by
+ * Bizzy after an RMI timeout gets the document numbers of its first injection
+ * back instead of being injected twice.
+ *
+ * <p>
+ * Orders are identified by their {@link BizzySalesOrder#orderKey}; orders
+ * without one are only deduplicated, by a hash of their content, under
+ * {@link Mode#HASH}. The identifier is stored in
+ * {@code C_Order.POReference} of every split document, in the same transaction
+ * as the document itself, so the C_Order table is the persistent side of the
+ * index. The in-memory side holds the identifiers injected during the last
+ * {@value #RETENTION_HOURS_PROPERTY} hours, is loaded from C_Order on
+ * {@link #start()}, and answers duplicates without touching the database.
+ * Orders still being injected are tracked too, so a retry arriving before the
+ * first attempt finishes waits for its result.
+ *
+ * <p>
+ * Orders of which no document was injected are forgotten, so their retries
+ * are injected again. Orders of which only some split documents were injected
+ * are remembered as failed: their retries get the failure, whose message
+ * lists the documents which were injected, both when they wait for the result
+ * and when they are notified of it. The missing splits are left to be resolved
+ * from the API Error Log instead of being injected a second time next to their
+ * siblings. Only the in-memory side knows such an order failed; after a
+ * restart, its injected documents are taken as the whole order.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class IdempotencyIndex {
+    /**
+     * System property selecting which orders are deduplicated, see {@link Mode}
+     */
+    public static final String MODE_PROPERTY = "sas.api.idempotency";
+
+    /**
+     * System property holding how long an injected order is remembered, in hours
+     */
+    public static final String RETENTION_HOURS_PROPERTY = "sas.api.idempotency.retentionHours";
+
+    /**
+     * System property holding the maximum number of injected orders kept in
+     * memory
+     */
+    public static final String CAPACITY_PROPERTY = "sas.api.idempotency.capacity";
+
+    /**
+     * Retention used if {@value #RETENTION_HOURS_PROPERTY} is not set
+     */
+    public static final int DEFAULT_RETENTION_HOURS = 24;
+
+    /**
+     * System property holding how long, in milliseconds, a duplicate waits for
+     * the injection of its order to finish
+     */
+    public static final String AWAIT_TIMEOUT_PROPERTY = "sas.api.idempotency.awaitTimeoutMs";
+
+    /**
+     * Capacity used if {@value #CAPACITY_PROPERTY} is not set
+     */
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    /**
+     * Timeout used if {@value #AWAIT_TIMEOUT_PROPERTY} is not set
+     */
+    public static final long DEFAULT_AWAIT_TIMEOUT_MS = 120000;
+
+    /**
+     * Length of {@code C_Order.POReference}. Longer order keys are hashed.
+     */
+    public static final int MAX_KEY_LENGTH = 20;
+
+    /**
+     * Which orders are deduplicated
+     */
+    public enum Mode {
+        /**
+         * Orders with an order key by their key, other orders by a hash of their
+         * content. Two identical orders with the same date ordered are then
+         * injected once, so this mode has to be chosen explicitly.
+         */
+        HASH,
+
+        /**
+         * Only orders with an order key, the default
+         */
+        KEY,
+
+        /**
+         * No order
+         */
+        OFF
+    }
+
+    protected static CLogger log = CLogger.getCLogger(IdempotencyIndex.class);
+
+    private static final String LOAD_SQL = "SELECT POReference, DocumentNo, Created FROM C_Order "
+            + "WHERE AD_Client_ID=? AND CreatedBy=? AND IsSOTrx='Y' AND POReference IS NOT NULL AND Created>=? "
+            + "ORDER BY Created, C_Order_ID";
+
+    private static final String LOOKUP_SQL = "SELECT DocumentNo FROM C_Order "
+            + "WHERE AD_Client_ID=? AND CreatedBy=? AND IsSOTrx='Y' AND POReference=? AND Created>=? "
+            + "ORDER BY C_Order_ID";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static volatile Mode mode = readMode();
+    private static volatile long retentionMillis = readRetentionMillis();
+    private static volatile int capacity = readCapacity();
+
+    /**
+     * Guards {@link #inFlight}, {@link #completed}, {@link #loaded}, and
+     * {@link #lastCapacityEviction}
+     */
+    private static final Object lock = new Object();
+
+    /**
+     * Orders being injected, by key
+     */
+    private static final HashMap<String, Entry> inFlight = new HashMap<>();
+
+    /**
+     * Injected orders, by key, oldest first
+     */
+    private static final LinkedHashMap<String, Entry> completed = new LinkedHashMap<>();
+
+    /**
+     * Whether {@link #completed} holds every order injected within the
+     * retention, so a key absent from memory is absent from C_Order too
+     */
+    private static boolean loaded = false;
+
+    /**
+     * Time an order younger than the retention was last dropped because of the
+     * capacity, after which a miss in memory has to be checked against C_Order
+     */
+    private static long lastCapacityEviction = 0;
+
+    private static final AtomicLong claims = new AtomicLong();
+    private static final AtomicLong memoryHits = new AtomicLong();
+    private static final AtomicLong inFlightHits = new AtomicLong();
+    private static final AtomicLong databaseHits = new AtomicLong();
+    private static final AtomicLong databaseLookups = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private IdempotencyIndex() {
+    }
+
+    /**
+     * Reads the system properties and loads the orders injected within the
+     * retention from C_Order. Has to run after the login context is set up.
+     */
+    public static void start() {
+        mode = readMode();
+        retentionMillis = readRetentionMillis();
+        capacity = readCapacity();
+
+        synchronized (lock) {
+            completed.clear();
+            loaded = false;
+        }
+
+        if (mode == Mode.OFF) {
+            return;
+        }
+
+        long since = System.currentTimeMillis() - retentionMillis;
+        LinkedHashMap<String, Entry> stored = new LinkedHashMap<>();
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            pstmt = DB.prepareStatement(LOAD_SQL, null);
+            pstmt.setInt(1, Env.getAD_Client_ID(Env.getCtx()));
+            pstmt.setInt(2, Env.getAD_User_ID(Env.getCtx()));
+            pstmt.setTimestamp(3, new Timestamp(since));
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                String key = rs.getString(1);
+                Entry entry = stored.get(key);
+                if (entry == null) {
+                    entry = new Entry(key);
+                    entry.docNums = new ArrayList<>();
+                    entry.completedAt = rs.getTimestamp(3).getTime();
+                    stored.put(key, entry);
+                }
+                entry.docNums.add(rs.getString(2));
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Failed to load injected orders, duplicates are looked up in C_Order", e);
+            return;
+        } finally {
+            DB.close(rs, pstmt);
+            rs = null;
+            pstmt = null;
+        }
+
+        synchronized (lock) {
+            for (Entry entry : stored.values()) {
+                entry.done = true;
+                completed.put(entry.key, entry);
+            }
+            loaded = true;
+            evict(System.currentTimeMillis());
+        }
+
+        if (log.isLoggable(Level.INFO))
+            log.info(getStatistics());
+    }
+
+    /**
+     * Forgets the injected orders kept in memory. Orders still being injected
+     * complete normally.
+     */
+    public static void stop() {
+        if (log.isLoggable(Level.INFO))
+            log.info(getStatistics());
+
+        synchronized (lock) {
+            completed.clear();
+            loaded = false;
+        }
+    }
+
+    private static Mode readMode() {
+        String value = System.getProperty(MODE_PROPERTY, Mode.KEY.name());
+        try {
+            return Mode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warning("Unknown value [" + value + "] for " + MODE_PROPERTY + ", using " + Mode.KEY);
+            return Mode.KEY;
+        }
+    }
+
+    private static long readRetentionMillis() {
+        return Math.max(1, Integer.getInteger(RETENTION_HOURS_PROPERTY, DEFAULT_RETENTION_HOURS)) * 60 * 60 * 1000L;
+    }
+
+    private static int readCapacity() {
+        return Math.max(1, Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+    }
+
+    private static long getAwaitTimeoutMillis() {
+        return Math.max(0L, Long.getLong(AWAIT_TIMEOUT_PROPERTY, DEFAULT_AWAIT_TIMEOUT_MS));
+    }
+
+    /**
+     * Computes the key identifying a Bizzy SO, as stored in
+     * {@code C_Order.POReference}. The key has to be computed before the SO is
+     * enriched, as enrichment changes its lines.
+     *
+     * @param bizzySo Bizzy SO to be injected
+     * @return key of the SO, or null if the SO is not deduplicated
+     */
+    public static String getKey(BizzySalesOrder bizzySo) {
+        Mode currentMode = mode;
+        if (currentMode == Mode.OFF) {
+            return null;
+        }
+
+        String orderKey = bizzySo.orderKey;
+        if (orderKey != null && orderKey.trim().length() > 0) {
+            orderKey = orderKey.trim();
+            if (orderKey.length() <= MAX_KEY_LENGTH && orderKey.charAt(0) != '#' && orderKey.charAt(0) != '~') {
+                return orderKey;
+            }
+
+            MessageDigest digest = newDigest();
+            update(digest, orderKey);
+            return toKey('~', digest);
+        }
+
+        if (currentMode != Mode.HASH) {
+            return null;
+        }
+
+        MessageDigest digest = newDigest();
+        update(digest, String.valueOf(bizzySo.soff_code));
+        update(digest, String.valueOf(bizzySo.orderSource));
+        update(digest, String.valueOf(bizzySo.bpHoldingNo));
+        update(digest, bizzySo.bpLocationName);
+        update(digest, bizzySo.dateOrdered != null ? String.valueOf(bizzySo.dateOrdered.getTime()) : null);
+        update(digest, bizzySo.description);
+        if (bizzySo.orderLines != null) {
+            for (BizzySalesOrderLine soLine : bizzySo.orderLines) {
+                update(digest, soLine.productId);
+                update(digest, String.valueOf(soLine.quantity));
+            }
+        }
+        return toKey('#', digest);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Helper method to feed a value to a digest, length first so that adjacent
+     * values cannot run into each other.
+     *
+     * @param digest digest to be updated
+     * @param value  value to be fed, can be null
+     */
+    private static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(UTF8);
+        digest.update((byte) 1);
+        digest.update(new byte[] { (byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16),
+                (byte) (bytes.length >>> 8), (byte) bytes.length });
+        digest.update(bytes);
+    }
+
+    /**
+     * Helper method to turn a digest into a key fitting
+     * {@code C_Order.POReference}.
+     *
+     * @param prefix character telling hashed keys apart from order keys
+     * @param digest digest of the key's source
+     * @return prefix followed by the leading hex digits of the digest
+     */
+    private static String toKey(char prefix, MessageDigest digest) {
+        byte[] hash = digest.digest();
+        char[] key = new char[MAX_KEY_LENGTH];
+        key[0] = prefix;
+        for (int i = 1; i < key.length; i++) {
+            int b = hash[(i - 1) / 2];
+            key[i] = HEX_DIGITS[(i - 1) % 2 == 0 ? (b >>> 4) & 0xf : b & 0xf];
+        }
+        return new String(key);
+    }
+
+    /**
+     * Claims a key for injection. The caller injecting the key has to report
+     * the outcome through {@link #complete(String, List)} or
+     * {@link #fail(String, List, Throwable)}.
+     *
+     * @param key key of the Bizzy SO, see {@link #getKey(BizzySalesOrder)}
+     * @return null if the caller has to inject the SO, otherwise the entry of the
+     *         earlier injection of the same SO, which may still be running
+     */
+    static Entry claim(String key) {
+        claims.incrementAndGet();
+
+        Entry entry;
+        boolean lookup;
+        synchronized (lock) {
+            long now = System.currentTimeMillis();
+            evict(now);
+
+            entry = completed.get(key);
+            if (entry != null) {
+                memoryHits.incrementAndGet();
+                return entry;
+            }
+
+            entry = inFlight.get(key);
+            if (entry != null) {
+                inFlightHits.incrementAndGet();
+                return entry;
+            }
+
+            entry = new Entry(key);
+            inFlight.put(key, entry);
+            lookup = !loaded || now - lastCapacityEviction < retentionMillis;
+        }
+
+        if (lookup) {
+            List<String> docNums = lookup(key);
+            if (docNums != null) {
+                databaseHits.incrementAndGet();
+                complete(key, docNums);
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records the documents injected for a claimed key whose every split
+     * document was injected, and hands them to the callers waiting for the
+     * key. Keys of which no document was injected are forgotten.
+     *
+     * @param key             claimed key, or null if the SO is not deduplicated
+     * @param insertedDocNums document numbers of the documents successfully
+     *                        inserted
+     */
+    static void complete(String key, List<String> insertedDocNums) {
+        if (key == null) {
+            return;
+        }
+
+        Entry entry;
+        synchronized (lock) {
+            entry = inFlight.remove(key);
+            if (entry == null) {
+                return;
+            }
+
+            entry.docNums = new ArrayList<>(insertedDocNums);
+            entry.completedAt = System.currentTimeMillis();
+            if (!insertedDocNums.isEmpty()) {
+                completed.put(key, entry);
+                evict(entry.completedAt);
+            }
+        }
+        entry.finish();
+    }
+
+    /**
+     * Forgets a claimed key whose injection failed before any document was
+     * injected, and hands the failure to the callers waiting for the key.
+     *
+     * @param key   claimed key, or null if the SO is not deduplicated
+     * @param cause exception that stopped the injection
+     */
+    static void fail(String key, Throwable cause) {
+        fail(key, new ArrayList<String>(), cause);
+    }
+
+    /**
+     * Records the failure of a claimed key, and hands it to the callers
+     * waiting for the key. A key of which some split documents were injected
+     * is remembered as failed, so its retries get the failure instead of
+     * injecting those documents again; a key of which no document was
+     * injected is forgotten.
+     *
+     * @param key             claimed key, or null if the SO is not deduplicated
+     * @param insertedDocNums document numbers of the split documents which were
+     *                        injected nonetheless
+     * @param cause           exception describing the failure
+     */
+    static void fail(String key, List<String> insertedDocNums, Throwable cause) {
+        if (key == null) {
+            return;
+        }
+
+        Entry entry;
+        synchronized (lock) {
+            entry = inFlight.remove(key);
+            if (entry == null) {
+                return;
+            }
+
+            entry.cause = cause;
+            entry.docNums = new ArrayList<>(insertedDocNums);
+            entry.completedAt = System.currentTimeMillis();
+            if (!insertedDocNums.isEmpty()) {
+                completed.put(key, entry);
+                evict(entry.completedAt);
+            }
+        }
+        entry.finish();
+    }
+
+    /**
+     * Helper method to drop the orders older than the retention, then the
+     * oldest orders above the capacity. Must be called holding {@link #lock}.
+     *
+     * @param now current time
+     */
+    private static void evict(long now) {
+        long expiry = now - retentionMillis;
+        Iterator<Entry> it = completed.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.completedAt >= expiry && completed.size() <= capacity) {
+                break;
+            }
+
+            if (entry.completedAt >= expiry) {
+                lastCapacityEviction = now;
+                evictions.incrementAndGet();
+            }
+            it.remove();
+        }
+    }
+
+    /**
+     * Helper method to look up a key in C_Order.
+     *
+     * @param key key of the Bizzy SO
+     * @return document numbers stored under the key, or null if none
+     */
+    private static List<String> lookup(String key) {
+        databaseLookups.incrementAndGet();
+
+        ArrayList<String> docNums = new ArrayList<>();
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            pstmt = DB.prepareStatement(LOOKUP_SQL, null);
+            pstmt.setInt(1, Env.getAD_Client_ID(Env.getCtx()));
+            pstmt.setInt(2, Env.getAD_User_ID(Env.getCtx()));
+            pstmt.setString(3, key);
+            pstmt.setTimestamp(4, new Timestamp(System.currentTimeMillis() - retentionMillis));
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                docNums.add(rs.getString(1));
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, LOOKUP_SQL, e);
+        } finally {
+            DB.close(rs, pstmt);
+            rs = null;
+            pstmt = null;
+        }
+        return docNums.isEmpty() ? null : docNums;
+    }
+
+    /**
+     * @return size and hit counts of the index, for logging
+     */
+    public static String getStatistics() {
+        int completedSize;
+        int inFlightSize;
+        boolean isLoaded;
+        synchronized (lock) {
+            completedSize = completed.size();
+            inFlightSize = inFlight.size();
+            isLoaded = loaded;
+        }
+
+        return String.format(
+                "IdempotencyIndex[mode=%s, loaded=%s, orders=%d/%d, inFlight=%d, claims=%d, memoryHits=%d, "
+                        + "inFlightHits=%d, databaseLookups=%d, databaseHits=%d, evictions=%d]",
+                mode, isLoaded, completedSize, capacity, inFlightSize, claims.get(), memoryHits.get(),
+                inFlightHits.get(), databaseLookups.get(), databaseHits.get(), evictions.get());
+    }
+
+    /**
+     * Injection of one Bizzy SO, finished or still running
+     */
+    static class Entry {
+        /**
+         * Key of the Bizzy SO
+         */
+        private final String key;
+
+        /**
+         * Document numbers of the documents inserted, set once finished
+         */
+        private List<String> docNums;
+
+        /**
+         * Exception that stopped the injection, if it failed
+         */
+        private Throwable cause;
+
+        /**
+         * Time the injection finished
+         */
+        private long completedAt;
+
+        /**
+         * Whether the injection finished. Guarded by this entry.
+         */
+        private boolean done = false;
+
+        /**
+         * Listeners waiting for the injection to finish. Guarded by this entry.
+         */
+        private List<IInjectionListener> listeners = new ArrayList<>();
+
+        Entry(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Helper method to mark the entry finished and notify its waiting
+         * listeners.
+         */
+        private void finish() {
+            List<IInjectionListener> waiting;
+            synchronized (this) {
+                done = true;
+                waiting = listeners;
+                listeners = null;
+                notifyAll();
+            }
+
+            for (IInjectionListener listener : waiting) {
+                notify(listener);
+            }
+        }
+
+        private void notify(IInjectionListener listener) {
+            if (cause != null) {
+                listener.injectionFailed(cause);
+            } else {
+                listener.injectionCompleted(docNums.toString());
+            }
+        }
+
+        /**
+         * Notifies the listener once the injection finishes, right away if it
+         * already has.
+         *
+         * @param listener listener to be notified
+         */
+        void whenDone(IInjectionListener listener) {
+            synchronized (this) {
+                if (!done) {
+                    listeners.add(listener);
+                    return;
+                }
+            }
+            notify(listener);
+        }
+
+        /**
+         * Waits for the injection to finish, up to
+         * {@value IdempotencyIndex#AWAIT_TIMEOUT_PROPERTY}. A failed injection is
+         * reported the same way {@link #whenDone(IInjectionListener)} reports
+         * it, as a failure, even if some of its documents were injected.
+         *
+         * @return document numbers of the documents inserted, in the same format
+         *         as {@link SalesOrderInjector#injectSalesOrder(BizzySalesOrder)}
+         * @throws InjectionRejectedException if the injection is still running
+         *                                    once the timeout elapses, or failed
+         *                                    because it was rejected itself
+         * @throws IllegalStateException      if the injection failed otherwise
+         */
+        String await() {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getAwaitTimeoutMillis());
+            synchronized (this) {
+                while (!done) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new InjectionRejectedException(String.format(
+                                "Bizzy SO %s is still being injected. Retry after %d ms", key,
+                                ThreadPoolManager.MIN_RETRY_AFTER_MS), ThreadPoolManager.MIN_RETRY_AFTER_MS);
+                    }
+
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return new ArrayList<String>().toString();
+                    }
+                }
+            }
+
+            if (cause instanceof InjectionRejectedException) {
+                long retryAfter = ((InjectionRejectedException) cause).getRetryAfterMillis();
+                throw new InjectionRejectedException(String.format("Injection of Bizzy SO %s was rejected: %s", key,
+                        cause.getMessage()), retryAfter);
+            }
+            if (cause != null) {
+                throw new IllegalStateException(String.format("Injection of Bizzy SO %s failed: %s", key, cause),
+                        cause);
+            }
+            return docNums.toString();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.sahabatabadi.api.salesorder;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link ILookupProvider} answering from memory, so that enrichment, splitting,
+ * and mapping can be run and profiled without an iDempiere database. Filled
+ * from a fixture file, see {@link #load(Reader)}, or through the
+ * {@code add...} methods; it must not be modified once in use.
+ *
+ * <p>
+ * Lookups follow the same rules as {@link JdbcLookupProvider}: the Org Trx of
+ * a principal other than Philips is taken from
+ * {@link SalesOrderUtils#orgTrxMap} unless the fixture overrides it, and a
+ * discount is found by the product's group1, the BP, and the Org Trx of the
+ * product's principal.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class InMemoryLookupProvider implements ILookupProvider {
+    /**
+     * BP code matching every BP in Org Trx and discount records
+     */
+    public static final String ANY_BP = "*";
+
+    /**
+     * Mapping between product ID and full principal name
+     */
+    private final HashMap<String, String> principals = new HashMap<>();
+
+    /**
+     * Mapping between product ID and group1
+     */
+    private final HashMap<String, String> groups = new HashMap<>();
+
+    /**
+     * Mapping between BP location name and tax status
+     */
+    private final HashMap<String, Boolean> isTaxes = new HashMap<>();
+
+    /**
+     * Mapping between {@code principal|bpCode} and Org Trx name
+     */
+    private final HashMap<String, String> orgTrxs = new HashMap<>();
+
+    /**
+     * Mapping between {@code group1|bpCode|orgTrx} and discount list ID
+     */
+    private final HashMap<String, Integer> discounts = new HashMap<>();
+
+    /**
+     * Creates an empty provider.
+     */
+    public InMemoryLookupProvider() {
+    }
+
+    /**
+     * Creates a provider filled from a fixture file.
+     *
+     * @param fixturePath path of the fixture file, in UTF-8
+     * @throws IOException if the file cannot be read or is malformed
+     * @see #load(Reader)
+     */
+    public InMemoryLookupProvider(String fixturePath) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(fixturePath), Charset.forName("UTF-8"));
+        try {
+            load(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Adds the records of a fixture. Every non-blank line not starting with
+     * {@code #} is one comma-separated record:
+     * <ul>
+     * <li>{@code product,<productId>,<principal>[,<group1>]}</li>
+     * <li>{@code bplocation,<Y|N>,<name>}, where the name may contain
+     * commas</li>
+     * <li>{@code orgtrx,<principal>,<bpCode|*>,<orgTrx>}</li>
+     * <li>{@code discount,<group1>,<bpCode|*>,<orgTrx>,<discountListId>}</li>
+     * </ul>
+     * BP codes are five digits, e.g. {@code 03806}, and {@value #ANY_BP}
+     * matches BPs without a record of their own.
+     *
+     * @param reader fixture to be read, not closed by this method
+     * @throws IOException if the fixture cannot be read or a record is
+     *                     malformed
+     */
+    public void load(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNo = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String type = line.substring(0, Math.max(0, line.indexOf(','))).trim();
+            try {
+                if ("product".equals(type)) {
+                    String[] fields = split(line, 4, 3);
+                    addProduct(fields[1], fields[2], fields.length > 3 ? fields[3] : null);
+                } else if ("bplocation".equals(type)) {
+                    String[] fields = split(line, 3, 3);
+                    addBPLocation(fields[2], "Y".equalsIgnoreCase(fields[1]));
+                } else if ("orgtrx".equals(type)) {
+                    String[] fields = split(line, 4, 4);
+                    addOrgTrx(fields[1], fields[2], fields[3]);
+                } else if ("discount".equals(type)) {
+                    String[] fields = split(line, 5, 5);
+                    addDiscount(fields[1], fields[2], fields[3], Integer.parseInt(fields[4]));
+                } else {
+                    throw new IllegalArgumentException("Unknown record type [" + type + "]");
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(String.format("Malformed fixture line %d: %s", lineNo, e.getMessage()), e);
+            }
+        }
+    }
+
+    /**
+     * Helper method to split a fixture record.
+     *
+     * @param line      fixture line
+     * @param limit     maximum number of fields; the last field keeps any
+     *                  further commas
+     * @param minFields minimum number of fields
+     * @return trimmed fields
+     */
+    private static String[] split(String line, int limit, int minFields) {
+        String[] fields = line.split(",", limit);
+        if (fields.length < minFields) {
+            throw new IllegalArgumentException(
+                    String.format("Expected at least %d fields, found %d", minFields, fields.length));
+        }
+
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].trim();
+        }
+        return fields;
+    }
+
+    /**
+     * @param productId product ID
+     * @param principal full principal name
+     * @param group1    group1 of the product, or null if it has no discount
+     */
+    public void addProduct(String productId, String principal, String group1) {
+        principals.put(productId, principal);
+        if (group1 != null && !group1.isEmpty()) {
+            groups.put(productId, group1);
+        }
+    }
+
+    /**
+     * @param bpLocation exact name of the BP location
+     * @param isTax      whether the BP location is a tax location
+     */
+    public void addBPLocation(String bpLocation, boolean isTax) {
+        isTaxes.put(bpLocation, isTax);
+    }
+
+    /**
+     * @param principal full principal name
+     * @param bpCode    five-digit BP code, or {@value #ANY_BP}
+     * @param orgTrx    full Org Trx name
+     */
+    public void addOrgTrx(String principal, String bpCode, String orgTrx) {
+        orgTrxs.put(principal + "|" + bpCode, orgTrx);
+    }
+
+    /**
+     * @param group1     group1 of the products
+     * @param bpCode     five-digit BP code, or {@value #ANY_BP}
+     * @param orgTrx     full Org Trx name
+     * @param discountId discount list ID
+     */
+    public void addDiscount(String group1, String bpCode, String orgTrx, int discountId) {
+        discounts.put(group1 + "|" + bpCode + "|" + orgTrx, discountId);
+    }
+
+    @Override
+    public String getName() {
+        return "in-memory";
+    }
+
+    @Override
+    public Map<String, String> getProductPrincipals(Collection<String> productIds) {
+        HashMap<String, String> found = new HashMap<>();
+        for (String productId : productIds) {
+            String principal = principals.get(productId);
+            if (principal != null) {
+                found.put(productId, principal);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public Map<String, Integer> getProductDiscounts(Collection<String> productIds, int bpHoldingNo,
+            Map<String, String> productPrincipals) {
+        String bpCode = SalesOrderUtils.prependZeros(bpHoldingNo, SASSalesOrder.BP_ID_LENGTH);
+
+        HashMap<String, Integer> found = new HashMap<>();
+        for (String productId : productIds) {
+            String principal = productPrincipals.get(productId);
+            String group1 = groups.get(productId);
+            if (principal == null || group1 == null) {
+                continue;
+            }
+
+            String orgTrx = getOrgTrx(bpCode, principal);
+            if (orgTrx == null) {
+                continue;
+            }
+
+            Integer discount = discounts.get(group1 + "|" + bpCode + "|" + orgTrx);
+            if (discount == null) {
+                discount = discounts.get(group1 + "|" + ANY_BP + "|" + orgTrx);
+            }
+            if (discount != null) {
+                found.put(productId, discount);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public boolean getBPLocationIsTax(String bpLocation) {
+        return isTaxes.get(bpLocation);
+    }
+
+    @Override
+    public Map<String, Boolean> getBPLocationIsTax(Collection<String> bpLocations) {
+        HashMap<String, Boolean> found = new HashMap<>();
+        for (String bpLocation : bpLocations) {
+            Boolean isTax = isTaxes.get(bpLocation);
+            if (isTax != null) {
+                found.put(bpLocation, isTax);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public String getOrgTrx(String bpHoldingId, String principal) {
+        String orgTrx = orgTrxs.get(principal + "|" + bpHoldingId);
+        if (orgTrx == null) {
+            orgTrx = orgTrxs.get(principal + "|" + ANY_BP);
+        }
+        if (orgTrx == null && !principal.equals("Philips")) {
+            orgTrx = SalesOrderUtils.orgTrxMap.get(principal);
+        }
+        return orgTrx;
+    }
+
+    @Override
+    public Map<String, Map<String, String>> getOrgTrxs(Map<String, Set<String>> principalsByBp) {
+        HashMap<String, Map<String, String>> found = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : principalsByBp.entrySet()) {
+            HashMap<String, String> bpOrgTrxs = new HashMap<>();
+            for (String principal : entry.getValue()) {
+                if (principal == null) {
+                    continue;
+                }
+
+                String orgTrx = getOrgTrx(entry.getKey(), principal);
+                if (orgTrx != null) {
+                    bpOrgTrxs.put(principal, orgTrx);
+                }
+            }
+            found.put(entry.getKey(), bpOrgTrxs);
+        }
+        return found;
+    }
+
+    /**
+     * @return number of records of each kind, for logging
+     */
+    @Override
+    public String toString() {
+        return String.format("In-memory lookups: products=%d, bpLocations=%d, orgTrxs=%d, discounts=%d",
+                principals.size(), isTaxes.size(), orgTrxs.size(), discounts.size());
+    }
+}
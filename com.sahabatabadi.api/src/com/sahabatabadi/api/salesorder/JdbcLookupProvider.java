@@ -0,0 +1,51 @@
+package com.sahabatabadi.api.salesorder;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link ILookupProvider} querying the iDempiere database through
+ * {@link SalesOrderUtils}, with its {@link ProductCatalogIndex},
+ * {@link DiscountEngine}, and coalesced lookups.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class JdbcLookupProvider implements ILookupProvider {
+    @Override
+    public String getName() {
+        return "jdbc";
+    }
+
+    @Override
+    public Map<String, String> getProductPrincipals(Collection<String> productIds) {
+        return SalesOrderUtils.getProductPrincipals(productIds);
+    }
+
+    @Override
+    public Map<String, Integer> getProductDiscounts(Collection<String> productIds, int bpHoldingNo,
+            Map<String, String> productPrincipals) {
+        return SalesOrderUtils.getProductDiscounts(productIds, bpHoldingNo, productPrincipals);
+    }
+
+    @Override
+    public boolean getBPLocationIsTax(String bpLocation) {
+        return SalesOrderUtils.getBPLocationIsTax(bpLocation);
+    }
+
+    @Override
+    public Map<String, Boolean> getBPLocationIsTax(Collection<String> bpLocations) {
+        return SalesOrderUtils.getBPLocationIsTax(bpLocations);
+    }
+
+    @Override
+    public String getOrgTrx(String bpHoldingId, String principal) {
+        return SalesOrderUtils.getOrgTrx(bpHoldingId, principal);
+    }
+
+    @Override
+    public Map<String, Map<String, String>> getOrgTrxs(Map<String, Set<String>> principalsByBp) {
+        return SalesOrderUtils.getOrgTrxs(principalsByBp);
+    }
+}
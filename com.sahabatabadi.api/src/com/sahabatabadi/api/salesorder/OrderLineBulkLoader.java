@@ -0,0 +1,466 @@
+package com.sahabatabadi.api.salesorder;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+
+import org.compiere.model.MCurrency;
+import org.compiere.model.MOrder;
+import org.compiere.model.PO;
+import org.compiere.model.Tax;
+import org.compiere.util.CLogger;
+import org.compiere.util.DB;
+import org.compiere.util.Env;
+import org.compiere.util.Trx;
+
+import com.sahabatabadi.api.DocLine;
+import com.sahabatabadi.api.IBulkLineLoader;
+import com.sahabatabadi.api.SASApiException;
+
+/**
+ * Writes the {@link SASSalesOrderLine}s of a large sales order with JDBC
+ * batches, in place of injecting them one by one. Product, UOM, price, and tax
+ * of every line are computed in memory from a few set-based queries, then the
+ * lines are inserted in batches of {@value #BATCH_SIZE} within the order's
+ * transaction, and the order's tax and totals are recalculated.
+ *
+ * <p>
+ * Like the window's callouts, the price comes from the order's price list
+ * version valid on the order date, and the tax from the product's tax
+ * category. Any line failing to be computed, and any failed query, fails the
+ * whole order.
+ *
+ * <p>
+ * Lines are written with a plain {@code INSERT}, so {@code MOrderLine}'s
+ * beforeSave and afterSave, model validators and event handlers of
+ * {@code C_OrderLine}, and window callouts other than those of
+ * {@code CalloutOrder} replicated here, e.g. the SAS discount list callouts, do
+ * not run. Bulk loading is therefore opt-in, see
+ * {@link com.sahabatabadi.api.DocumentInjector#BULK_LOAD_MIN_LINES_PROPERTY},
+ * and {@link #getBypassedLogic()} refuses it while such logic is configured in
+ * the application dictionary.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class OrderLineBulkLoader implements IBulkLineLoader {
+    /**
+     * Number of lines sent to the database in one JDBC batch
+     */
+    public static final int BATCH_SIZE = 500;
+
+    /**
+     * Minimum time between two checks of {@link #getBypassedLogic()}, in
+     * milliseconds
+     */
+    public static final long BYPASS_CHECK_INTERVAL_MS = 60 * 1000L;
+
+    /**
+     * Package of the callouts replicated by this loader
+     */
+    private static final String REPLICATED_CALLOUTS = "org.compiere.model.CalloutOrder.";
+
+    protected CLogger log = CLogger.getCLogger(getClass());
+
+    /**
+     * Result of the last check of {@link #getBypassedLogic()}
+     */
+    private volatile String bypassedLogic;
+
+    /**
+     * Time of the last check of {@link #getBypassedLogic()}, in milliseconds
+     */
+    private volatile long lastBypassCheck;
+
+    /**
+     * Insert statement of one {@code C_OrderLine} record
+     */
+    private static final String INSERT_SQL = "INSERT INTO C_OrderLine ("
+            + "AD_Client_ID, AD_Org_ID, IsActive, Created, CreatedBy, Updated, UpdatedBy, "
+            + "C_OrderLine_ID, C_OrderLine_UU, C_Order_ID, Line, DateOrdered, DatePromised, "
+            + "C_BPartner_ID, C_BPartner_Location_ID, M_Warehouse_ID, AD_OrgTrx_ID, C_Currency_ID, "
+            + "M_Product_ID, M_AttributeSetInstance_ID, C_UOM_ID, C_Tax_ID, "
+            + "QtyEntered, QtyOrdered, QtyReserved, QtyDelivered, QtyInvoiced, QtyLostSales, "
+            + "PriceEntered, PriceActual, PriceList, PriceLimit, Discount, LineNetAmt, FreightAmt, "
+            + "IsDescription, Processed) "
+            + "VALUES (?,?,'Y',?,?,?,?, ?,?,?,?,?,?, ?,?,?,?,?, ?,0,?,?, ?,?,0,0,0,0, ?,?,?,?,?,?,0, 'N','N')";
+
+    /**
+     * Checks, at most once every {@value #BYPASS_CHECK_INTERVAL_MS} ms, for
+     * active model validators in {@code AD_ModelValidator}, and for callouts of
+     * {@code C_OrderLine} columns other than those of {@code CalloutOrder}.
+     * Validators and event handlers registered by other OSGi bundles cannot be
+     * detected; bulk loading must only be enabled where there are none for
+     * {@code C_OrderLine}.
+     */
+    @Override
+    public String getBypassedLogic() {
+        long now = System.currentTimeMillis();
+        if (now - lastBypassCheck < BYPASS_CHECK_INTERVAL_MS) {
+            return bypassedLogic;
+        }
+
+        String found;
+        try {
+            found = findBypassedLogic(Env.getAD_Client_ID(Env.getCtx()));
+        } catch (SQLException e) {
+            log.log(Level.SEVERE, "Failed to check the business logic of C_OrderLine", e);
+            found = "business logic of C_OrderLine could not be checked: " + e.getMessage();
+        }
+
+        if (found != null && !found.equals(bypassedLogic) && log.isLoggable(Level.WARNING))
+            log.warning("Bulk loading of C_OrderLine disabled, it would bypass " + found);
+        bypassedLogic = found;
+        lastBypassCheck = now;
+        return found;
+    }
+
+    /**
+     * Helper method to look up the model validators and callouts a bulk insert
+     * would bypass.
+     *
+     * @param clientId AD_Client_ID the lines are written for
+     * @return description of the first validator or callout found, or null if
+     *         there are none
+     * @throws SQLException if a query fails
+     */
+    private String findBypassedLogic(int clientId) throws SQLException {
+        String validatorSql = "SELECT ModelValidationClass FROM AD_ModelValidator "
+                + "WHERE IsActive='Y' AND AD_Client_ID IN (0,?) ORDER BY SeqNo";
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            pstmt = DB.prepareStatement(validatorSql, null);
+            pstmt.setInt(1, clientId);
+            rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return "model validator " + rs.getString(1);
+            }
+        } finally {
+            DB.close(rs, pstmt);
+            rs = null;
+            pstmt = null;
+        }
+
+        String calloutSql = "SELECT c.ColumnName, c.Callout FROM AD_Column c "
+                + "INNER JOIN AD_Table t ON (c.AD_Table_ID=t.AD_Table_ID) "
+                + "WHERE t.TableName=? AND c.IsActive='Y' AND c.Callout IS NOT NULL";
+        try {
+            pstmt = DB.prepareStatement(calloutSql, null);
+            pstmt.setString(1, SASSalesOrderLine.TABLE_NAME);
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                for (String callout : rs.getString(2).split("[;,]")) {
+                    callout = callout.trim();
+                    if (!callout.isEmpty() && !callout.startsWith(REPLICATED_CALLOUTS)) {
+                        return "callout " + callout + " of column " + rs.getString(1);
+                    }
+                }
+            }
+        } finally {
+            DB.close(rs, pstmt);
+            rs = null;
+            pstmt = null;
+        }
+
+        return null;
+    }
+
+    @Override
+    public void loadLines(PO headerPO, DocLine[] lines, Trx trx) throws SASApiException {
+        if (!(headerPO instanceof MOrder)) {
+            throw new SASApiException(lines[0], 0, 0, "Header of the lines is not a sales order");
+        }
+
+        MOrder order = (MOrder) headerPO;
+        String trxName = trx.getTrxName();
+        int clientId = order.getAD_Client_ID();
+
+        Set<String> productValues = new LinkedHashSet<>();
+        for (DocLine line : lines) {
+            if (!(line instanceof SASSalesOrderLine)) {
+                throw new SASApiException(line, 0, 0, "Line is not a SAS SO line: " + line.getClass());
+            }
+            productValues.add(((SASSalesOrderLine) line).productId);
+        }
+
+        Map<String, ProductInfo> products;
+        Map<Integer, BigDecimal[]> prices;
+        try {
+            products = getProducts(productValues, clientId, trxName);
+            prices = getPrices(order, products.values(), trxName);
+        } catch (SQLException e) {
+            throw new SASApiException(lines[0], 0, 0, "Failed to query products and prices: " + e.getMessage(), e);
+        }
+        int stdPrecision = MCurrency.getStdPrecision(Env.getCtx(), order.getC_Currency_ID());
+        Map<Integer, Integer> taxByCategory = new HashMap<>();
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        int userId = Env.getAD_User_ID(Env.getCtx());
+
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = DB.prepareStatement(INSERT_SQL, trxName);
+            int batched = 0;
+            for (DocLine docLine : lines) {
+                SASSalesOrderLine line = (SASSalesOrderLine) docLine;
+                if (!order.getDocumentNo().equals(line.documentNo)) {
+                    throw new SASApiException(line, 0, 0, String.format(
+                            "Header and detail have different key values! Header value: [%s], detail value: [%s]",
+                            order.getDocumentNo(), line.documentNo));
+                }
+
+                ProductInfo product = products.get(line.productId);
+                if (product == null) {
+                    throw new SASApiException(line, 0, 0, "Product not found: " + line.productId);
+                }
+
+                BigDecimal[] price = prices.get(product.productId);
+                if (price == null) {
+                    throw new SASApiException(line, 0, 0, "Product not on price list: " + line.productId);
+                }
+
+                Integer taxId = taxByCategory.get(product.taxCategoryId);
+                if (taxId == null) {
+                    // org.compiere.model.CalloutOrder#tax
+                    taxId = Tax.get(Env.getCtx(), product.productId, 0, order.getDateOrdered(),
+                            order.getDateOrdered(), order.getAD_Org_ID(), order.getM_Warehouse_ID(),
+                            order.getBill_Location_ID(), order.getC_BPartner_Location_ID(), true);
+                    taxByCategory.put(product.taxCategoryId, taxId);
+                }
+                if (taxId <= 0) {
+                    throw new SASApiException(line, 0, 0, "No tax found for product " + line.productId);
+                }
+
+                int orderLineId = DB.getNextID(clientId, "C_OrderLine", trxName);
+                if (orderLineId <= 0) {
+                    throw new SASApiException(line, 0, 0, "Failed to get the next C_OrderLine_ID");
+                }
+
+                BigDecimal priceList = price[0];
+                BigDecimal priceActual = price[1];
+                BigDecimal discount = Env.ZERO;
+                if (priceList.signum() != 0) {
+                    discount = priceList.subtract(priceActual).multiply(BigDecimal.valueOf(100))
+                            .divide(priceList, 2, RoundingMode.HALF_UP);
+                }
+                BigDecimal lineNetAmt = line.quantity.multiply(priceActual).setScale(stdPrecision,
+                        RoundingMode.HALF_UP);
+                Timestamp datePromised = line.datePromised != null ? new Timestamp(line.datePromised.getTime())
+                        : order.getDatePromised();
+
+                int i = 1;
+                pstmt.setInt(i++, clientId);
+                pstmt.setInt(i++, order.getAD_Org_ID());
+                pstmt.setTimestamp(i++, now);
+                pstmt.setInt(i++, userId);
+                pstmt.setTimestamp(i++, now);
+                pstmt.setInt(i++, userId);
+                pstmt.setInt(i++, orderLineId);
+                pstmt.setString(i++, UUID.randomUUID().toString());
+                pstmt.setInt(i++, order.get_ID());
+                pstmt.setInt(i++, line.lineNo);
+                pstmt.setTimestamp(i++, order.getDateOrdered());
+                pstmt.setTimestamp(i++, datePromised);
+                pstmt.setInt(i++, order.getC_BPartner_ID());
+                pstmt.setInt(i++, order.getC_BPartner_Location_ID());
+                pstmt.setInt(i++, order.getM_Warehouse_ID());
+                pstmt.setInt(i++, order.getAD_OrgTrx_ID());
+                pstmt.setInt(i++, order.getC_Currency_ID());
+                pstmt.setInt(i++, product.productId);
+                pstmt.setInt(i++, product.uomId);
+                pstmt.setInt(i++, taxId);
+                pstmt.setBigDecimal(i++, line.quantity);
+                pstmt.setBigDecimal(i++, line.quantity);
+                pstmt.setBigDecimal(i++, priceActual);
+                pstmt.setBigDecimal(i++, priceActual);
+                pstmt.setBigDecimal(i++, priceList);
+                pstmt.setBigDecimal(i++, price[2]);
+                pstmt.setBigDecimal(i++, discount);
+                pstmt.setBigDecimal(i++, lineNetAmt);
+                pstmt.addBatch();
+
+                if (++batched % BATCH_SIZE == 0) {
+                    pstmt.executeBatch();
+                }
+            }
+
+            if (batched % BATCH_SIZE != 0) {
+                pstmt.executeBatch();
+            }
+        } catch (SQLException e) {
+            log.log(Level.SEVERE, INSERT_SQL, e);
+            throw new SASApiException(lines[0], 0, 0, "Failed to insert lines: " + e.getMessage(), e);
+        } finally {
+            DB.close(pstmt);
+            pstmt = null;
+        }
+
+        // org.compiere.model.MOrderLine#updateHeaderTax
+        order.set_TrxName(trxName);
+        if (!order.calculateTaxTotal() || !order.save()) {
+            throw new SASApiException(lines[0], 0, 0, "Failed to update tax and totals of " + order.getDocumentNo());
+        }
+
+        if (log.isLoggable(Level.INFO))
+            log.info(String.format("Inserted %d lines of %s in bulk", lines.length, order.getDocumentNo()));
+    }
+
+    /**
+     * Helper method to query the ID, UOM, and tax category of the specified
+     * products, in chunks of {@link SalesOrderUtils#MAX_IN_PARAMS}.
+     *
+     * @param productValues product values, e.g. {@code "AB0301485"}
+     * @param clientId      AD_Client_ID of the products
+     * @param trxName       name of the order's transaction
+     * @return mapping between product value and product info. Products not found
+     *         are absent from the mapping.
+     * @throws SQLException if a query fails
+     */
+    private Map<String, ProductInfo> getProducts(Set<String> productValues, int clientId, String trxName)
+            throws SQLException {
+        Map<String, ProductInfo> products = new HashMap<>();
+        List<String> valueList = new ArrayList<>(productValues);
+        for (int from = 0; from < valueList.size(); from += SalesOrderUtils.MAX_IN_PARAMS) {
+            List<String> chunk = valueList.subList(from, Math.min(from + SalesOrderUtils.MAX_IN_PARAMS,
+                    valueList.size()));
+            StringBuilder sql = new StringBuilder(
+                    "SELECT Value, M_Product_ID, C_UOM_ID, C_TaxCategory_ID FROM M_Product WHERE Value IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i > 0 ? ",?" : "?");
+            }
+            sql.append(") AND AD_Client_ID=? AND IsActive='Y'");
+
+            PreparedStatement pstmt = null;
+            ResultSet rs = null;
+            try {
+                pstmt = DB.prepareStatement(sql.toString(), trxName);
+                int i = 1;
+                for (String value : chunk) {
+                    pstmt.setString(i++, value);
+                }
+                pstmt.setInt(i, clientId);
+                rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    products.put(rs.getString(1), new ProductInfo(rs.getInt(2), rs.getInt(3), rs.getInt(4)));
+                }
+            } catch (SQLException e) {
+                log.log(Level.SEVERE, sql.toString(), e);
+                throw e;
+            } finally {
+                DB.close(rs, pstmt);
+                rs = null;
+                pstmt = null;
+            }
+        }
+        return products;
+    }
+
+    /**
+     * Helper method to query the prices of the specified products in the price
+     * list version of the order, valid on the order date.
+     *
+     * @param order    sales order of the lines
+     * @param products products of the lines
+     * @param trxName  name of the order's transaction
+     * @return mapping between M_Product_ID and its list, standard, and limit
+     *         price. Products without a price are absent from the mapping.
+     * @throws SQLException if a query fails
+     */
+    private Map<Integer, BigDecimal[]> getPrices(MOrder order, Iterable<ProductInfo> products, String trxName)
+            throws SQLException {
+        Map<Integer, BigDecimal[]> prices = new HashMap<>();
+
+        // org.compiere.model.MProductPricing#calculatePLV
+        String versionSql = "SELECT M_PriceList_Version_ID FROM M_PriceList_Version "
+                + "WHERE M_PriceList_ID=? AND ValidFrom<=? AND IsActive='Y' ORDER BY ValidFrom DESC";
+        int priceListVersionId = -1;
+        PreparedStatement versionPstmt = null;
+        ResultSet versionRs = null;
+        try {
+            versionPstmt = DB.prepareStatement(versionSql, trxName);
+            versionPstmt.setInt(1, order.getM_PriceList_ID());
+            versionPstmt.setTimestamp(2, order.getDateOrdered());
+            versionRs = versionPstmt.executeQuery();
+            if (versionRs.next()) {
+                priceListVersionId = versionRs.getInt(1);
+            }
+        } catch (SQLException e) {
+            log.log(Level.SEVERE, versionSql, e);
+            throw e;
+        } finally {
+            DB.close(versionRs, versionPstmt);
+            versionRs = null;
+            versionPstmt = null;
+        }
+        if (priceListVersionId <= 0) {
+            return prices;
+        }
+
+        List<Integer> productIds = new ArrayList<>();
+        for (ProductInfo product : products) {
+            productIds.add(product.productId);
+        }
+
+        for (int from = 0; from < productIds.size(); from += SalesOrderUtils.MAX_IN_PARAMS) {
+            List<Integer> chunk = productIds.subList(from, Math.min(from + SalesOrderUtils.MAX_IN_PARAMS,
+                    productIds.size()));
+            StringBuilder sql = new StringBuilder("SELECT M_Product_ID, PriceList, PriceStd, PriceLimit "
+                    + "FROM M_ProductPrice WHERE M_PriceList_Version_ID=? AND IsActive='Y' AND M_Product_ID IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i > 0 ? ",?" : "?");
+            }
+            sql.append(")");
+
+            PreparedStatement pstmt = null;
+            ResultSet rs = null;
+            try {
+                pstmt = DB.prepareStatement(sql.toString(), trxName);
+                int i = 1;
+                pstmt.setInt(i++, priceListVersionId);
+                for (Integer productId : chunk) {
+                    pstmt.setInt(i++, productId);
+                }
+                rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    prices.put(rs.getInt(1),
+                            new BigDecimal[] { rs.getBigDecimal(2), rs.getBigDecimal(3), rs.getBigDecimal(4) });
+                }
+            } catch (SQLException e) {
+                log.log(Level.SEVERE, sql.toString(), e);
+                throw e;
+            } finally {
+                DB.close(rs, pstmt);
+                rs = null;
+                pstmt = null;
+            }
+        }
+        return prices;
+    }
+
+    /**
+     * ID, UOM, and tax category of a product.
+     */
+    static class ProductInfo {
+        final int productId;
+        final int uomId;
+        final int taxCategoryId;
+
+        ProductInfo(int productId, int uomId, int taxCategoryId) {
+            this.productId = productId;
+            this.uomId = uomId;
+            this.taxCategoryId = taxCategoryId;
+        }
+    }
+}
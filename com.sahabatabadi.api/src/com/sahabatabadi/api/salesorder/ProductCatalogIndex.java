@@ -0,0 +1,726 @@
+package com.sahabatabadi.api.salesorder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+
+import org.compiere.util.CLogger;
+import org.compiere.util.DB;
+import org.compiere.util.Env;
+
+import com.sahabatabadi.api.DocumentInjector;
+import com.sahabatabadi.api.IForeignResolver;
+
+/**
+ * Off-heap index of iDempiere's {@code M_Product} table keyed by product value
+ * (e.g. {@code "AB0301485"}), holding the product's {@code m_product_id},
+ * principal (product category name), and {@code group1}. Answers the product
+ * lookups of {@link SalesOrderUtils} and the {@code M_Product_ID[Value]}
+ * resolution of {@link DocumentInjector} without touching the database.
+ * 
+ * <p>
+ * Entries are packed into direct byte buffers instead of one Java object per
+ * product, so hundreds of thousands of SKUs cost a few megabytes outside the
+ * heap. Principal and group1 names repeat heavily, so they are stored once in
+ * an on-heap dictionary and referenced by index.
+ * 
+ * <p>
+ * The index is loaded for the login client in the background when the bundle
+ * starts, picks up changed products through their {@code Updated} timestamp
+ * every {@value #REFRESH_INTERVAL_SECONDS} seconds, and is rebuilt (and
+ * compacted) every {@value #FULL_RELOAD_INTERVAL_MINUTES} minutes. Until the
+ * first load completes, callers fall back to the database.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class ProductCatalogIndex {
+    /**
+     * Interval between two incremental refreshes, in seconds
+     */
+    public static final int REFRESH_INTERVAL_SECONDS = 30;
+
+    /**
+     * Interval between two full reloads, in minutes
+     */
+    public static final int FULL_RELOAD_INTERVAL_MINUTES = 60;
+
+    /**
+     * How far back before the latest known {@code Updated} timestamp an
+     * incremental refresh looks, in milliseconds
+     */
+    private static final long UPDATED_OVERLAP_MS = 60 * 1000L;
+
+    protected static CLogger log = CLogger.getCLogger(ProductCatalogIndex.class);
+
+    /**
+     * Guards {@link #table} and {@link #dictionary}. Lookups take the read lock,
+     * refreshes the write lock.
+     */
+    private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Off-heap product table, or null until the first load completes
+     */
+    private static OffHeapTable table;
+
+    /**
+     * Dictionary of principal and group1 names referenced by the table
+     */
+    private static StringDictionary dictionary;
+
+    /**
+     * AD_Client_ID the index was loaded for
+     */
+    private static int clientId = -1;
+
+    /**
+     * Latest {@code Updated} timestamp seen in {@code M_Product}
+     */
+    private static Timestamp productsUpdated;
+
+    /**
+     * Executor running the initial load and the periodic refreshes
+     */
+    private static ScheduledExecutorService refresher;
+
+    /**
+     * Number of lookups answered from the index
+     */
+    private static final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Number of lookups for products absent from the index
+     */
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Loads the index in the background and starts the periodic refresh. Also
+     * registers the index as resolver of {@code M_Product_ID[Value]} columns in
+     * {@link DocumentInjector}.
+     */
+    public static synchronized void start() {
+        stop();
+
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SAS-ProductCatalogIndex-Refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                reload();
+            }
+        }, 0, FULL_RELOAD_INTERVAL_MINUTES, TimeUnit.MINUTES);
+
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        }, REFRESH_INTERVAL_SECONDS, REFRESH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        DocumentInjector.registerForeignResolver("M_Product", "Value", new IForeignResolver() {
+            public int resolveForeign(Object value, int clientId) {
+                return value instanceof String ? getProductId((String) value, clientId) : -1;
+            }
+        });
+    }
+
+    /**
+     * Stops the periodic refresh and unregisters the {@code M_Product_ID[Value]}
+     * resolver. Lookups keep being answered from the last loaded index.
+     */
+    public static synchronized void stop() {
+        DocumentInjector.unregisterForeignResolver("M_Product", "Value");
+
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /**
+     * @return true if the index has been loaded and lookups can be answered in
+     *         memory, false otherwise
+     */
+    public static boolean isLoaded() {
+        lock.readLock().lock();
+        try {
+            return table != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether the product is present in the index, active or not.
+     * 
+     * @param productValue product value, e.g. {@code "AB0301485"}
+     * @return true if the product is in the index, false otherwise
+     */
+    public static boolean contains(String productValue) {
+        return getEntry(productValue, false) != null;
+    }
+
+    /**
+     * Gets the index entry of a product, active or not, in a single lookup, for
+     * callers needing both presence and a field of the product.
+     * 
+     * @param productValue product value, e.g. {@code "AB0301485"}
+     * @return the product's entry, or null if the product is not in the index
+     */
+    static ProductEntry find(String productValue) {
+        return getEntry(productValue, false);
+    }
+
+    /**
+     * Gets the principal/brand of a product. Equivalent to
+     * {@link SalesOrderUtils#getProductPrincipal(String)}.
+     * 
+     * @param productValue product value, e.g. {@code "AB0301485"}
+     * @return full name of the product's principal, or null if the product is
+     *         not in the index
+     */
+    public static String getPrincipal(String productValue) {
+        ProductEntry entry = getEntry(productValue, false);
+        return entry != null ? entry.principal : null;
+    }
+
+    /**
+     * Gets the product group of a product.
+     * 
+     * @param productValue product value, e.g. {@code "AB0301485"}
+     * @return the product's {@code group1}, or null if the product is not in the
+     *         index or has no group
+     */
+    public static String getGroup1(String productValue) {
+        ProductEntry entry = getEntry(productValue, false);
+        return entry != null ? entry.group1 : null;
+    }
+
+    /**
+     * Gets the {@code m_product_id} of an active product of the specified client.
+     * 
+     * @param productValue product value, e.g. {@code "AB0301485"}
+     * @param adClientId   AD_Client_ID the product has to belong to
+     * @return {@code m_product_id} of the product, or -1 if the product is not
+     *         an active product in the index, or the index was loaded for
+     *         another client
+     */
+    public static int getProductId(String productValue, int adClientId) {
+        if (adClientId != clientId) {
+            return -1;
+        }
+
+        ProductEntry entry = getEntry(productValue, true);
+        return entry != null ? entry.productId : -1;
+    }
+
+    /**
+     * Gets a summary of the index's state and statistics, for logging.
+     * 
+     * @return human readable statistics
+     */
+    public static String getStatistics() {
+        lock.readLock().lock();
+        try {
+            return String.format("ProductCatalogIndex[loaded=%s, client=%d, products=%d, offHeapBytes=%d, "
+                    + "dictionary=%d, hits=%d, misses=%d]", table != null, clientId,
+                    table != null ? table.size : 0, table != null ? table.getOffHeapBytes() : 0,
+                    dictionary != null ? dictionary.size() : 0, hits.get(), misses.get());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Discards the index and loads it again from the database.
+     */
+    public static synchronized void reload() {
+        try {
+            int loginClientId = Env.getAD_Client_ID(Env.getCtx());
+            final StringDictionary newDictionary = new StringDictionary();
+            final OffHeapTable newTable = new OffHeapTable(OffHeapTable.INITIAL_CAPACITY);
+            Timestamp newProductsUpdated = loadProducts(loginClientId, null, new ProductSink() {
+                public void put(String value, int productId, String principal, String group1, boolean isActive) {
+                    newTable.put(value.getBytes(StandardCharsets.UTF_8), productId, newDictionary.add(principal),
+                            newDictionary.add(group1), isActive);
+                }
+            });
+
+            lock.writeLock().lock();
+            try {
+                table = newTable;
+                dictionary = newDictionary;
+                clientId = loginClientId;
+                productsUpdated = newProductsUpdated;
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            if (log.isLoggable(Level.INFO))
+                log.info(getStatistics());
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Failed to load product catalog index", e);
+        }
+    }
+
+    /**
+     * Applies the products changed since the last load or refresh to the index.
+     * The changed products are queried without holding the write lock, so
+     * lookups only wait while they are applied to the table.
+     */
+    public static synchronized void refresh() {
+        if (!isLoaded()) {
+            reload();
+            return;
+        }
+
+        try {
+            // table, dictionary and productsUpdated are only replaced under the class monitor held here
+            final ArrayList<ProductRow> changed = new ArrayList<>();
+            Timestamp newProductsUpdated = loadProducts(clientId, productsUpdated, new ProductSink() {
+                public void put(String value, int productId, String principal, String group1, boolean isActive) {
+                    changed.add(new ProductRow(value, productId, principal, group1, isActive));
+                }
+            });
+
+            lock.writeLock().lock();
+            try {
+                for (ProductRow row : changed) {
+                    table.put(row.value.getBytes(StandardCharsets.UTF_8), row.productId,
+                            dictionary.add(row.principal), dictionary.add(row.group1), row.isActive);
+                }
+                productsUpdated = newProductsUpdated;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Failed to refresh product catalog index", e);
+        }
+    }
+
+    /**
+     * Helper method to read an entry from the index.
+     * 
+     * @param productValue product value to look up
+     * @param activeOnly   true to ignore inactive products
+     * @return the entry, or null if absent
+     */
+    private static ProductEntry getEntry(String productValue, boolean activeOnly) {
+        if (productValue == null) {
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            if (table == null) {
+                return null;
+            }
+
+            int record = table.find(productValue.getBytes(StandardCharsets.UTF_8));
+            if (record < 0 || (activeOnly && !table.isActive(record))) {
+                misses.incrementAndGet();
+                return null;
+            }
+
+            hits.incrementAndGet();
+            return new ProductEntry(table.getProductId(record), dictionary.get(table.getPrincipalIdx(record)),
+                    dictionary.get(table.getGroup1Idx(record)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Helper method to load products from the database.
+     * 
+     * @param adClientId   AD_Client_ID of the products to load
+     * @param updatedSince only load products updated since this timestamp, or
+     *                     null to load all products
+     * @param sink         receiver of every product loaded
+     * @return latest {@code Updated} timestamp seen, or updatedSince if no rows
+     *         were loaded
+     * @throws Exception if the query fails
+     */
+    private static Timestamp loadProducts(int adClientId, Timestamp updatedSince, ProductSink sink)
+            throws Exception {
+        StringBuilder sb = new StringBuilder()
+            .append("SELECT p.m_product_id, p.value, c.name, p.group1, p.isactive, p.updated\n")
+            .append("FROM M_Product p\n")
+            .append("    LEFT JOIN M_Product_Category c ON c.m_product_category_id = p.m_product_category_id\n")
+            .append("WHERE p.ad_client_id = ?");
+        if (updatedSince != null) {
+            sb.append(" AND p.updated >= ?");
+        }
+        String productQuery = sb.toString();
+
+        Timestamp latestUpdated = updatedSince;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            pstmt = DB.prepareStatement(productQuery, null);
+            pstmt.setInt(1, adClientId);
+            if (updatedSince != null) {
+                pstmt.setTimestamp(2, new Timestamp(updatedSince.getTime() - UPDATED_OVERLAP_MS));
+            }
+            pstmt.setFetchSize(10000);
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                String value = rs.getString(2);
+                if (value == null) {
+                    continue;
+                }
+
+                sink.put(value, rs.getInt(1), rs.getString(3), rs.getString(4), "Y".equals(rs.getString(5)));
+
+                Timestamp updated = rs.getTimestamp(6);
+                if (latestUpdated == null || (updated != null && updated.after(latestUpdated))) {
+                    latestUpdated = updated;
+                }
+            }
+        } finally {
+            DB.close(rs, pstmt);
+            rs = null;
+            pstmt = null;
+        }
+        return latestUpdated;
+    }
+
+    /**
+     * Receiver of the products read by
+     * {@link ProductCatalogIndex#loadProducts(int, Timestamp, ProductSink)}.
+     */
+    private interface ProductSink {
+        void put(String value, int productId, String principal, String group1, boolean isActive);
+    }
+
+    /**
+     * Changed product read by an incremental refresh, held until it is applied
+     * to the table.
+     */
+    private static class ProductRow {
+        final String value;
+        final int productId;
+        final String principal;
+        final String group1;
+        final boolean isActive;
+
+        ProductRow(String value, int productId, String principal, String group1, boolean isActive) {
+            this.value = value;
+            this.productId = productId;
+            this.principal = principal;
+            this.group1 = group1;
+            this.isActive = isActive;
+        }
+    }
+
+    /**
+     * Decoded index entry returned to callers.
+     */
+    static class ProductEntry {
+        final int productId;
+        final String principal;
+        final String group1;
+
+        ProductEntry(int productId, String principal, String group1) {
+            this.productId = productId;
+            this.principal = principal;
+            this.group1 = group1;
+        }
+    }
+
+    /**
+     * On-heap dictionary of the few distinct principal and group1 names, so that
+     * off-heap records only store an int index.
+     */
+    static class StringDictionary {
+        private final ArrayList<String> strings = new ArrayList<>();
+        private final HashMap<String, Integer> indices = new HashMap<>();
+
+        /**
+         * @param s string to add, can be null
+         * @return index of the string, or -1 for null
+         */
+        int add(String s) {
+            if (s == null) {
+                return -1;
+            }
+
+            Integer idx = indices.get(s);
+            if (idx == null) {
+                idx = strings.size();
+                strings.add(s);
+                indices.put(s, idx);
+            }
+            return idx;
+        }
+
+        /**
+         * @param idx index returned by {@link #add(String)}
+         * @return the string, or null for -1
+         */
+        String get(int idx) {
+            return idx < 0 ? null : strings.get(idx);
+        }
+
+        int size() {
+            return strings.size();
+        }
+    }
+
+    /**
+     * Open-addressing hash table stored in direct byte buffers.
+     * 
+     * <p>
+     * Records are appended to {@link #data} as
+     * {@code [m_product_id:int][principal:int][group1:int][flags:byte][valueLength:short][value bytes]}.
+     * {@link #valueSlots} maps the hash of the product value to a record offset,
+     * and {@link #idSlots} maps {@code m_product_id} to a record offset so that a
+     * renamed product's old value can be retired. Slots store
+     * {@code offset + 1}, so 0 marks an empty slot. Tables are only ever grown by
+     * copying the live records into a new table.
+     */
+    static class OffHeapTable {
+        static final int INITIAL_CAPACITY = 1 << 16;
+
+        private static final int OFFSET_PRODUCT_ID = 0;
+        private static final int OFFSET_PRINCIPAL = 4;
+        private static final int OFFSET_GROUP1 = 8;
+        private static final int OFFSET_FLAGS = 12;
+        private static final int OFFSET_VALUE_LENGTH = 13;
+        private static final int OFFSET_VALUE = 15;
+
+        private static final byte FLAG_ACTIVE = 1;
+        private static final byte FLAG_RETIRED = 2;
+
+        /**
+         * Number of slots in each slot table, always a power of two
+         */
+        private int capacity;
+
+        /**
+         * Record storage
+         */
+        private ByteBuffer data;
+
+        /**
+         * Product value hash slots, one int per slot
+         */
+        private ByteBuffer valueSlots;
+
+        /**
+         * Product ID hash slots, two ints (product ID, record offset + 1) per
+         * slot
+         */
+        private ByteBuffer idSlots;
+
+        /**
+         * Number of live products
+         */
+        int size;
+
+        /**
+         * Number of occupied value slots, including retired values
+         */
+        private int usedValueSlots;
+
+        OffHeapTable(int capacity) {
+            this.capacity = capacity;
+            this.data = ByteBuffer.allocateDirect(capacity * 32);
+            this.valueSlots = ByteBuffer.allocateDirect(capacity * 4);
+            this.idSlots = ByteBuffer.allocateDirect(capacity * 8);
+        }
+
+        long getOffHeapBytes() {
+            return (long) data.capacity() + valueSlots.capacity() + idSlots.capacity();
+        }
+
+        /**
+         * Inserts or updates a product.
+         */
+        void put(byte[] value, int productId, int principalIdx, int group1Idx, boolean isActive) {
+            if ((usedValueSlots + 1) * 2 > capacity || data.position() + OFFSET_VALUE + value.length > data.capacity()) {
+                grow(value.length);
+            }
+
+            int oldRecord = findById(productId);
+            if (oldRecord >= 0 && data.get(oldRecord + OFFSET_FLAGS) == FLAG_RETIRED) {
+                oldRecord = -1;
+            }
+
+            if (oldRecord >= 0 && valueEquals(oldRecord, value)) {
+                data.putInt(oldRecord + OFFSET_PRINCIPAL, principalIdx);
+                data.putInt(oldRecord + OFFSET_GROUP1, group1Idx);
+                data.put(oldRecord + OFFSET_FLAGS, isActive ? FLAG_ACTIVE : 0);
+                return;
+            }
+
+            if (oldRecord >= 0) {
+                data.put(oldRecord + OFFSET_FLAGS, FLAG_RETIRED);
+                size -= 1;
+            }
+
+            int record = data.position();
+            data.putInt(productId);
+            data.putInt(principalIdx);
+            data.putInt(group1Idx);
+            data.put(isActive ? FLAG_ACTIVE : 0);
+            data.putShort((short) value.length);
+            data.put(value);
+            size += 1;
+
+            int valueSlot = findValueSlot(value);
+            if (valueSlots.getInt(valueSlot * 4) == 0) {
+                usedValueSlots += 1;
+            } else {
+                int displaced = valueSlots.getInt(valueSlot * 4) - 1;
+                if (data.get(displaced + OFFSET_FLAGS) != FLAG_RETIRED) {
+                    data.put(displaced + OFFSET_FLAGS, FLAG_RETIRED);
+                    size -= 1;
+                }
+            }
+            valueSlots.putInt(valueSlot * 4, record + 1);
+
+            int idSlot = findIdSlot(productId);
+            idSlots.putInt(idSlot * 8, productId);
+            idSlots.putInt(idSlot * 8 + 4, record + 1);
+        }
+
+        /**
+         * @return offset of the live record with the specified value, or -1
+         */
+        int find(byte[] value) {
+            int record = valueSlots.getInt(findValueSlot(value) * 4) - 1;
+            if (record < 0 || data.get(record + OFFSET_FLAGS) == FLAG_RETIRED) {
+                return -1;
+            }
+            return record;
+        }
+
+        int getProductId(int record) {
+            return data.getInt(record + OFFSET_PRODUCT_ID);
+        }
+
+        int getPrincipalIdx(int record) {
+            return data.getInt(record + OFFSET_PRINCIPAL);
+        }
+
+        int getGroup1Idx(int record) {
+            return data.getInt(record + OFFSET_GROUP1);
+        }
+
+        boolean isActive(int record) {
+            return data.get(record + OFFSET_FLAGS) == FLAG_ACTIVE;
+        }
+
+        /**
+         * @return offset of the latest record of the product, or -1
+         */
+        private int findById(int productId) {
+            return idSlots.getInt(findIdSlot(productId) * 8 + 4) - 1;
+        }
+
+        /**
+         * @return slot holding the value, or the empty slot where it belongs
+         */
+        private int findValueSlot(byte[] value) {
+            int slot = hash(value) & (capacity - 1);
+            while (true) {
+                int record = valueSlots.getInt(slot * 4) - 1;
+                if (record < 0 || valueEquals(record, value)) {
+                    return slot;
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+        }
+
+        /**
+         * @return slot holding the product ID, or the empty slot where it belongs
+         */
+        private int findIdSlot(int productId) {
+            int slot = mix(productId) & (capacity - 1);
+            while (true) {
+                if (idSlots.getInt(slot * 8 + 4) == 0 || idSlots.getInt(slot * 8) == productId) {
+                    return slot;
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+        }
+
+        private boolean valueEquals(int record, byte[] value) {
+            if (data.getShort(record + OFFSET_VALUE_LENGTH) != value.length) {
+                return false;
+            }
+            for (int i = 0; i < value.length; i++) {
+                if (data.get(record + OFFSET_VALUE + i) != value[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Copies the live records into larger buffers, dropping retired records.
+         */
+        private void grow(int extraBytes) {
+            int newCapacity = size * 4 > capacity ? capacity * 2 : capacity;
+            OffHeapTable grown = new OffHeapTable(newCapacity);
+            if (grown.data.capacity() < data.position() + OFFSET_VALUE + extraBytes) {
+                grown.data = ByteBuffer.allocateDirect((data.position() + OFFSET_VALUE + extraBytes) * 2);
+            }
+
+            int record = 0;
+            while (record < data.position()) {
+                int valueLength = data.getShort(record + OFFSET_VALUE_LENGTH);
+                byte flags = data.get(record + OFFSET_FLAGS);
+                if (flags != FLAG_RETIRED) {
+                    byte[] value = new byte[valueLength];
+                    for (int i = 0; i < valueLength; i++) {
+                        value[i] = data.get(record + OFFSET_VALUE + i);
+                    }
+                    grown.put(value, getProductId(record), getPrincipalIdx(record), getGroup1Idx(record),
+                            flags == FLAG_ACTIVE);
+                }
+                record += OFFSET_VALUE + valueLength;
+            }
+
+            this.data = grown.data;
+            this.valueSlots = grown.valueSlots;
+            this.idSlots = grown.idSlots;
+            this.size = grown.size;
+            this.usedValueSlots = grown.usedValueSlots;
+            this.capacity = newCapacity;
+        }
+
+        private static int hash(byte[] value) {
+            int h = 1;
+            for (byte b : value) {
+                h = 31 * h + b;
+            }
+            return mix(h);
+        }
+
+        private static int mix(int h) {
+            h ^= (h >>> 16);
+            h *= 0x85ebca6b;
+            h ^= (h >>> 13);
+            return h;
+        }
+    }
+}
@@ -9,10 +9,12 @@ import java.util.Map;
 
 import org.compiere.model.PO;
 import org.compiere.util.CLogger;
-import org.compiere.util.DB;
 
 import com.sahabatabadi.api.DocHeader;
 import com.sahabatabadi.api.DocLine;
+import com.sahabatabadi.api.DocumentNoAllocator;
+import com.sahabatabadi.api.InjectionMetrics;
+import com.sahabatabadi.api.InjectionMetrics.Stage;
 
 /**
  * Class to represent required information to inject a sales order header into
@@ -51,11 +53,17 @@ public class SASSalesOrder implements DocHeader {
      * Document number of the SO. Has to exactly match predefined format in
      * iDempiere. 
      * 
-     * @see org.compiere.util.DB#getDocumentNo
+     * @see DocumentNoAllocator#getDocumentNo(int, org.compiere.model.PO)
      */
     public String documentNo;
 
-    // private String poReference;
+    /**
+     * Key identifying the Bizzy SO this SO was split from, shared by its sibling
+     * SOs. Can be left empty.
+     * 
+     * @see IdempotencyIndex#getKey(BizzySalesOrder)
+     */
+    public String poReference;
 
     /**
      * Raw description of the SO header. Can be left empty.
@@ -175,7 +183,7 @@ public class SASSalesOrder implements DocHeader {
         HashMap<String, String> tempFieldColumnMap = new HashMap<>();
         tempFieldColumnMap.put("org", "AD_Org_ID[Name]");
         tempFieldColumnMap.put("documentNo", "DocumentNo/K");
-        // tempFieldColumnMap.put("poReference", "POReference");
+        tempFieldColumnMap.put("poReference", "POReference");
         tempFieldColumnMap.put("description", "Description");
         tempFieldColumnMap.put("docType", "C_DocTypeTarget_ID[Name]");
         tempFieldColumnMap.put("dateOrdered", "DateOrdered");
@@ -222,7 +230,10 @@ public class SASSalesOrder implements DocHeader {
     }
 
     /**
-     * Default constructor.
+     * Default constructor. Looks up the tax status of the BP location and the
+     * Org Trx of the principal through
+     * {@link SalesOrderUtils#getLookupProvider()}, then assigns the document
+     * number.
      * 
      * This class requires the specified bizzySo to have at least one SO line, and
      * also requires all SO lines to have identical product principal and product
@@ -231,9 +242,46 @@ public class SASSalesOrder implements DocHeader {
      * 
      * @param bizzySo Bizzy SO object to convert to SAS SO object.
      * 
-     * @see org.compiere.model.PO#saveNew()
+     * @see #SASSalesOrder(BizzySalesOrder, boolean, String)
+     * @see #assignDocumentNo()
      */
     public SASSalesOrder(BizzySalesOrder bizzySo) {
+        this(bizzySo, SalesOrderUtils.getLookupProvider());
+    }
+
+    /**
+     * Converts a Bizzy SO, looking up the tax status of the BP location and the
+     * Org Trx of the principal through the specified provider, then assigns the
+     * document number.
+     * 
+     * The same requirements on the SO lines as
+     * {@link #SASSalesOrder(BizzySalesOrder)} apply.
+     * 
+     * @param bizzySo Bizzy SO object to convert to SAS SO object.
+     * @param lookups provider of the lookups
+     */
+    public SASSalesOrder(BizzySalesOrder bizzySo, ILookupProvider lookups) {
+        this(bizzySo, lookups.getBPLocationIsTax(bizzySo.bpLocationName),
+                lookups.getOrgTrx(SalesOrderUtils.prependZeros(bizzySo.bpHoldingNo, BP_ID_LENGTH),
+                        bizzySo.orderLines[0].principalId));
+        assignDocumentNo();
+    }
+
+    /**
+     * Converts a Bizzy SO whose lookups have already been done, without querying
+     * the database. The SO has no document number until
+     * {@link #assignDocumentNo()} is called.
+     * 
+     * The same requirements on the SO lines as
+     * {@link #SASSalesOrder(BizzySalesOrder)} apply.
+     * 
+     * @param bizzySo Bizzy SO object to convert to SAS SO object.
+     * @param isTax   whether the BP location of the Bizzy SO is taxed, see
+     *                {@link SalesOrderUtils#getBPLocationIsTax(String)}
+     * @param orgTrx  Org Trx of the principal of the SO lines, see
+     *                {@link SalesOrderUtils#getOrgTrx(String, String)}
+     */
+    public SASSalesOrder(BizzySalesOrder bizzySo, boolean isTax, String orgTrx) {
         this.org = SalesOrderUtils.orgMap.get(bizzySo.soff_code);
         this.description = bizzySo.description;
         this.dateOrdered = bizzySo.dateOrdered;
@@ -246,15 +294,10 @@ public class SASSalesOrder implements DocHeader {
 
         StringBuilder sb = new StringBuilder("O");
         sb.append(bizzySo.orderSource);
-        sb.append(SalesOrderUtils.getBPLocationIsTax(bizzySo.bpLocationName) ? "T" : "N");
+        sb.append(isTax ? "T" : "N");
         this.docType = SalesOrderUtils.docTypeMap.get(sb.toString());
 
-        String principal = bizzySo.orderLines[0].principalId;
-        this.orgTrx = SalesOrderUtils.getOrgTrx(this.bpCode, principal);
-
-        // org.compiere.model.PO#saveNew()
-        PO po = SalesOrderUtils.getMOrderPO(SalesOrderUtils.orgIdMap.get(this.org), SalesOrderUtils.orgTrxIdMap.get(this.orgTrx), bizzySo.dateOrdered);
-        this.documentNo = DB.getDocumentNo(SalesOrderUtils.docTypeIdMap.get(this.docType), null, false, po);
+        this.orgTrx = orgTrx;
 
         this.orderLines = new SASSalesOrderLine[bizzySo.orderLines.length];
         for (int i = 0; i < orderLines.length; i++) {
@@ -262,6 +305,27 @@ public class SASSalesOrder implements DocHeader {
         }
     }
 
+    /**
+     * Assigns the next document number of the SO's document type to the SO and
+     * its lines. Numbers are taken from the blocks of
+     * {@link DocumentNoAllocator}.
+     * 
+     * @see org.compiere.model.PO#saveNew()
+     */
+    public void assignDocumentNo() {
+        long start = InjectionMetrics.start();
+
+        // org.compiere.model.PO#saveNew()
+        PO po = SalesOrderUtils.getMOrderPO(SalesOrderUtils.orgIdMap.get(this.org), SalesOrderUtils.orgTrxIdMap.get(this.orgTrx), this.dateOrdered);
+        this.documentNo = DocumentNoAllocator.getDocumentNo(SalesOrderUtils.docTypeIdMap.get(this.docType), po);
+
+        for (SASSalesOrderLine orderLine : orderLines) {
+            orderLine.documentNo = this.documentNo;
+        }
+
+        InjectionMetrics.record(Stage.DOCUMENT_NO, start);
+    }
+
     /**
      * Calculates the line number for the next SO line to be associated with this
      * header. The line numbers are incremented by {@value #LINE_NUMBER_INCREMENT}.
@@ -1,22 +1,41 @@
 package com.sahabatabadi.api.salesorder;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
 
+import org.compiere.util.CLogger;
+
+import com.sahabatabadi.api.DatabaseThrottle;
+import com.sahabatabadi.api.DocHeader;
 import com.sahabatabadi.api.DocumentInjector;
-import com.sahabatabadi.api.ThreadPoolManager;
+import com.sahabatabadi.api.IDocumentInjector;
+import com.sahabatabadi.api.InjectionEngine;
+import com.sahabatabadi.api.InjectionMetrics;
+import com.sahabatabadi.api.InjectionMetrics.Stage;
+import com.sahabatabadi.api.InjectionRejectedException;
+import com.sahabatabadi.api.ResolutionContext;
+import com.sahabatabadi.api.VisibleForBenchmark;
 
 /**
  * Class to inject {@link BizzySalesOrder} into iDempiere. This class receives a
  * single {@link BizzySalesOrder} with potentially mixed principals and
  * discounts and splits the Bizzy SO into multiple sales orders based on
  * principal and discount. Next, they this class converts them into
- * {@link SASSalesOrder} objects, then inserts the SAS SO objects using
- * {@link DocumentInjector}.
+ * {@link SASSalesOrder} objects, then inserts the SAS SO objects using the
+ * {@link InjectionEngine} of this injector, {@link DocumentInjector} by
+ * default. Each of these steps runs on its own stage of
+ * {@link SalesOrderPipeline}.
  * 
  * @author Nicholas Alexander Limit
  * @version 1.0
@@ -31,7 +50,57 @@ public class SalesOrderInjector {
      * Menu ID for Sales Order menu in iDempiere
      */
     public static final int SALES_ORDER_MENU_ID = 129;
-    
+
+    protected CLogger log = CLogger.getCLogger(getClass());
+
+    /**
+     * Engine injecting the SAS SO objects
+     */
+    private final InjectionEngine engine;
+
+    /**
+     * Whether injected SOs are rolled back instead of committed
+     */
+    private final boolean rollbackOnly;
+
+    /**
+     * Provider of the lookups enriching the Bizzy SOs
+     */
+    private final ILookupProvider lookups;
+
+    /**
+     * Creates an injector using the default {@link InjectionEngine}.
+     */
+    public SalesOrderInjector() {
+        this(InjectionEngine.getDefault(), false);
+    }
+
+    /**
+     * Creates an injector using the specified {@link InjectionEngine}.
+     * 
+     * @param engine       engine injecting the SAS SO objects
+     * @param rollbackOnly true to roll back every injected SO instead of
+     *                     committing it. Document numbers are still consumed.
+     */
+    public SalesOrderInjector(InjectionEngine engine, boolean rollbackOnly) {
+        this(engine, rollbackOnly, SalesOrderUtils.getLookupProvider());
+    }
+
+    /**
+     * Creates an injector using the specified {@link InjectionEngine} and
+     * lookups.
+     * 
+     * @param engine       engine injecting the SAS SO objects
+     * @param rollbackOnly true to roll back every injected SO instead of
+     *                     committing it. Document numbers are still consumed.
+     * @param lookups      provider of the lookups enriching the Bizzy SOs
+     */
+    public SalesOrderInjector(InjectionEngine engine, boolean rollbackOnly, ILookupProvider lookups) {
+        this.engine = engine;
+        this.rollbackOnly = rollbackOnly;
+        this.lookups = lookups;
+    }
+
     /**
      * Injects the specified Bizzy Sales Order into iDempiere
      * 
@@ -39,38 +108,686 @@ public class SalesOrderInjector {
      * @return Document numbers of the documents successfully inserted
      */
     public String injectSalesOrder(BizzySalesOrder bizzySo) {
-        for (BizzySalesOrderLine soLine : bizzySo.orderLines) {
-            String principal = SalesOrderUtils.getProductPrincipal(soLine.productId);
-            soLine.principalId = principal;
-            soLine.discount = SalesOrderUtils.getProductDiscount(soLine.productId, bizzySo.bpHoldingNo, principal);
+        return injectSalesOrders(new BizzySalesOrder[] { bizzySo })[0];
+    }
+
+    /**
+     * Injects the specified Bizzy Sales Orders into iDempiere as one batch,
+     * through the stages of {@link SalesOrderPipeline}. Lookups are shared
+     * between all orders in the batch, and the split documents of every order
+     * are prepared and injected in parallel. The batch enters the pipeline as a
+     * whole, so a rejected batch injects nothing.
+     * 
+     * <p>
+     * Orders already injected, or being injected, are not injected again: see
+     * {@link IdempotencyIndex}. Their result holds the document numbers of the
+     * earlier injection; if the earlier injection failed, the batch fails with
+     * it.
+     * 
+     * @param bizzySos Bizzy Sales Order objects to be injected
+     * @return Document numbers of the documents successfully inserted, one entry
+     *         per Bizzy SO and in the same order as the specified array
+     * @throws InjectionRejectedException if the pipeline is too busy to accept
+     *                                    the batch
+     * @throws IllegalStateException      if the earlier injection of an order of
+     *                                    the batch failed
+     */
+    public String[] injectSalesOrders(BizzySalesOrder[] bizzySos) {
+        String[] results = new String[bizzySos.length];
+        IdempotencyIndex.Entry[] duplicates = new IdempotencyIndex.Entry[bizzySos.length];
+        ArrayList<Integer> freshIndexes = new ArrayList<>();
+        ArrayList<BizzySalesOrder> freshSos = new ArrayList<>();
+        ArrayList<String> freshKeys = new ArrayList<>();
+        for (int i = 0; i < bizzySos.length; i++) {
+            // rolled back documents leave nothing to be deduplicated against
+            String key = rollbackOnly ? null : IdempotencyIndex.getKey(bizzySos[i]);
+            if (key != null) {
+                duplicates[i] = IdempotencyIndex.claim(key);
+            }
+
+            if (duplicates[i] == null) {
+                freshIndexes.add(i);
+                freshSos.add(bizzySos[i]);
+                freshKeys.add(key);
+            }
+        }
+
+        if (!freshSos.isEmpty()) {
+            List<List<String>> freshResults;
+            try {
+                freshResults = injectFreshSalesOrders(freshSos.toArray(new BizzySalesOrder[freshSos.size()]),
+                        freshKeys.toArray(new String[freshKeys.size()]));
+            } catch (RuntimeException e) {
+                for (String key : freshKeys) {
+                    IdempotencyIndex.fail(key, e);
+                }
+                throw e;
+            }
+
+            for (int j = 0; j < freshResults.size(); j++) {
+                results[freshIndexes.get(j)] = freshResults.get(j).toString();
+            }
+        }
+
+        // waited for last, as a duplicate may wait for an order of this very batch
+        for (int i = 0; i < bizzySos.length; i++) {
+            if (duplicates[i] != null) {
+                results[i] = duplicates[i].await();
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Injects Bizzy Sales Orders which have not been injected before, and
+     * records the outcome of each in the {@link IdempotencyIndex}: complete if
+     * every split document was injected, failed otherwise. Orders submitted for
+     * preparation are awaited even if the enrichment task fails afterwards, as
+     * their split documents commit regardless.
+     * 
+     * @param bizzySos Bizzy Sales Order objects to be injected
+     * @param keys     key of each Bizzy SO, null entries for SOs which are not
+     *                 deduplicated
+     * @return Document numbers of the documents successfully inserted, one list
+     *         per Bizzy SO and in the same order as the specified array
+     * @throws InjectionRejectedException if the pipeline is too busy to accept
+     *                                    the batch
+     */
+    private List<List<String>> injectFreshSalesOrders(final BizzySalesOrder[] bizzySos, final String[] keys) {
+        // filled by the enrichment task, so preparations already submitted are awaited even if it fails
+        final AtomicReferenceArray<Future<SubmittedSalesOrder>> pendingPreparations = new AtomicReferenceArray<>(
+                bizzySos.length);
+        Future<Void> pendingEnrichment = SalesOrderPipeline.enrich(new Callable<Void>() {
+            public Void call() {
+                List<EnrichedSalesOrder> enrichedSos = enrichSalesOrdersThrottled(bizzySos, keys);
+                for (int i = 0; i < enrichedSos.size(); i++) {
+                    final EnrichedSalesOrder enrichedSo = enrichedSos.get(i);
+                    pendingPreparations.set(i, SalesOrderPipeline.prepare(new Callable<SubmittedSalesOrder>() {
+                        public SubmittedSalesOrder call() {
+                            PreparedSalesOrder preparedSo = prepareSalesOrder(enrichedSo);
+
+                            ArrayList<SalesOrderInjectorThread> tasks = new ArrayList<>();
+                            for (SASSalesOrder sasSo : preparedSo.sasSos) {
+                                tasks.add(new SalesOrderInjectorThread(sasSo, preparedSo.resolutionContext));
+                            }
+                            List<Future<String>> pendingInjections = persistSplits(enrichedSo.bizzySo, tasks);
+                            return new SubmittedSalesOrder(
+                                    preparedSo.failedSplits + tasks.size() - pendingInjections.size(),
+                                    pendingInjections);
+                        }
+                    }));
+                }
+                return null;
+            }
+        });
+
+        try {
+            getUninterruptibly(pendingEnrichment);
+        } catch (ExecutionException e) {
+            log.log(Level.SEVERE, "Failed to enrich " + bizzySos.length + " Bizzy SO(s)", e.getCause());
         }
 
-        ArrayList<BizzySalesOrderLine[]> groupedSoLines = splitSoLines(bizzySo.orderLines);
+        ArrayList<List<String>> results = new ArrayList<>();
+        for (int i = 0; i < bizzySos.length; i++) {
+            ArrayList<String> insertedDocNums = new ArrayList<>();
+            Future<SubmittedSalesOrder> pendingPreparation = pendingPreparations.get(i);
+            boolean injected = pendingPreparation != null
+                    && collectDocumentNos(bizzySos[i], pendingPreparation, insertedDocNums);
+            if (injected) {
+                IdempotencyIndex.complete(keys[i], insertedDocNums);
+            } else {
+                IdempotencyIndex.fail(keys[i], insertedDocNums, notFullyInjected(keys[i], insertedDocNums));
+            }
+            results.add(insertedDocNums);
+        }
+
+        return results;
+    }
 
-        ArrayList<Future<String>> pendingResults = new ArrayList<>();
-        for (BizzySalesOrderLine[] soLineGroup : groupedSoLines) {
+    /**
+     * Helper method to wait for the split documents of one Bizzy SO and collect
+     * the document numbers of those successfully inserted. Failures are logged.
+     * The wait goes on through interrupts, which are kept on the current
+     * thread: split documents already submitted commit regardless, so their
+     * document numbers have to be recorded.
+     * 
+     * @param bizzySo            Bizzy Sales Order object being injected
+     * @param pendingPreparation pending preparation of the Bizzy SO
+     * @param insertedDocNums    list receiving the document numbers
+     * @return true if every split document of the Bizzy SO was injected
+     */
+    private boolean collectDocumentNos(BizzySalesOrder bizzySo, Future<SubmittedSalesOrder> pendingPreparation,
+            List<String> insertedDocNums) {
+        SubmittedSalesOrder submittedSo;
+        try {
+            submittedSo = getUninterruptibly(pendingPreparation);
+        } catch (ExecutionException e) {
+            log.log(Level.SEVERE, "Failed to prepare Bizzy SO for BP " + bizzySo.bpHoldingNo, e.getCause());
+            return false;
+        }
+
+        boolean injected = submittedSo.failedSplits == 0;
+        for (Future<String> result : submittedSo.pendingInjections) {
+            try {
+                String docNum = getUninterruptibly(result);
+                if (docNum != null) {
+                    insertedDocNums.add(docNum);
+                } else {
+                    injected = false;
+                }
+            } catch (ExecutionException e) {
+                log.log(Level.SEVERE, "Failed to inject split Bizzy SO for BP " + bizzySo.bpHoldingNo,
+                        e.getCause());
+                injected = false;
+            }
+        }
+        return injected;
+    }
+
+    /**
+     * Helper method to wait for a task without giving up on interrupts. An
+     * interrupt received while waiting is restored once the task completes.
+     * 
+     * @param <T>    return type of the task's result
+     * @param future pending completion of the task
+     * @return result of the task
+     * @throws ExecutionException if the task failed
+     */
+    private static <T> T getUninterruptibly(Future<T> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Helper method to submit the split documents of one Bizzy SO for
+     * persistence one at a time, so that the splits submitted before a
+     * rejection are known. A rejection is logged, and the splits it stopped are
+     * left out of the result.
+     * 
+     * @param <T>     return type of the tasks' results
+     * @param bizzySo Bizzy Sales Order object being injected
+     * @param tasks   injection task of every split document
+     * @return pending injection of the split documents submitted, in the same
+     *         order as the specified tasks
+     */
+    private <T> List<Future<T>> persistSplits(BizzySalesOrder bizzySo, List<? extends Callable<T>> tasks) {
+        ArrayList<Future<T>> pendingInjections = new ArrayList<>();
+        try {
+            for (Callable<T> task : tasks) {
+                pendingInjections.addAll(SalesOrderPipeline.persist(Collections.singletonList(task)));
+            }
+        } catch (RejectedExecutionException e) {
+            log.log(Level.SEVERE, String.format("Failed to submit %d of %d split Bizzy SO(s) for BP %d",
+                    tasks.size() - pendingInjections.size(), tasks.size(), bizzySo.bpHoldingNo), e);
+        }
+        return pendingInjections;
+    }
+
+    /**
+     * Helper method to describe a Bizzy SO some split documents of which were
+     * not injected, for {@link IdempotencyIndex#fail(String, List, Throwable)}.
+     * 
+     * @param key             key of the Bizzy SO, can be null
+     * @param insertedDocNums document numbers of the split documents injected
+     * @return exception handed to the duplicates of the Bizzy SO
+     */
+    private static Exception notFullyInjected(String key, List<String> insertedDocNums) {
+        return new IllegalStateException(String.format(
+                "Bizzy SO %s was not fully injected, see the API Error Log. Documents injected: %s", key,
+                insertedDocNums));
+    }
+
+    /**
+     * Submits the specified Bizzy Sales Order for injection without waiting for
+     * the result. The order goes through the stages of
+     * {@link SalesOrderPipeline}; the listener is notified once every split
+     * document has been processed. If the order was already injected, or is
+     * being injected, the listener gets the result of that injection instead,
+     * see {@link IdempotencyIndex}.
+     * 
+     * @param bizzySo  Bizzy Sales Order object to be injected
+     * @param listener listener to be notified of the injection result
+     * @throws InjectionRejectedException if the pipeline is too busy to accept
+     *                                    the order
+     */
+    public void submitSalesOrder(final BizzySalesOrder bizzySo, final IInjectionListener listener) {
+        final String key = rollbackOnly ? null : IdempotencyIndex.getKey(bizzySo);
+        if (key != null) {
+            IdempotencyIndex.Entry duplicate = IdempotencyIndex.claim(key);
+            if (duplicate != null) {
+                duplicate.whenDone(listener);
+                return;
+            }
+        }
+
+        try {
+            submitFreshSalesOrder(bizzySo, key, listener);
+        } catch (RuntimeException e) {
+            IdempotencyIndex.fail(key, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Submits a Bizzy Sales Order which has not been injected before.
+     * 
+     * @param bizzySo  Bizzy Sales Order object to be injected
+     * @param key      key of the Bizzy SO, or null if it is not deduplicated
+     * @param listener listener to be notified of the injection result
+     * @throws InjectionRejectedException if the pipeline is too busy to accept
+     *                                    the order
+     */
+    private void submitFreshSalesOrder(final BizzySalesOrder bizzySo, final String key,
+            final IInjectionListener listener) {
+        SalesOrderPipeline.enrich(new Callable<Void>() {
+            public Void call() {
+                final EnrichedSalesOrder enrichedSo;
+                try {
+                    enrichedSo = enrichSalesOrdersThrottled(new BizzySalesOrder[] { bizzySo }, new String[] { key })
+                            .get(0);
+                } catch (RuntimeException e) {
+                    IdempotencyIndex.fail(key, e);
+                    listener.injectionFailed(e);
+                    return null;
+                }
+
+                try {
+                    submitPreparation(enrichedSo, key, listener);
+                } catch (RejectedExecutionException e) {
+                    log.log(Level.SEVERE, "Failed to submit Bizzy SO for BP " + bizzySo.bpHoldingNo
+                            + " for preparation", e);
+                    IdempotencyIndex.fail(key, e);
+                    listener.injectionFailed(e);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Helper method to submit an enriched Bizzy Sales Order to the preparation
+     * stage, from which its split documents are submitted for persistence.
+     * 
+     * @param enrichedSo enriched Bizzy SO object to be injected
+     * @param key        key of the Bizzy SO, or null if it is not deduplicated
+     * @param listener   listener to be notified of the injection result
+     * @throws RejectedExecutionException if the preparation stage is shut down
+     *                                    or the current thread is interrupted
+     */
+    private void submitPreparation(final EnrichedSalesOrder enrichedSo, final String key,
+            final IInjectionListener listener) {
+        SalesOrderPipeline.prepare(new Callable<Void>() {
+            public Void call() {
+                PreparedSalesOrder preparedSo;
+                try {
+                    preparedSo = prepareSalesOrder(enrichedSo);
+                } catch (RuntimeException e) {
+                    IdempotencyIndex.fail(key, e);
+                    listener.injectionFailed(e);
+                    return null;
+                }
+
+                final PendingSalesOrder pendingSo = new PendingSalesOrder(preparedSo.sasSos.size(),
+                        preparedSo.failedSplits, key, listener);
+                ArrayList<Callable<String>> tasks = new ArrayList<>();
+                for (SASSalesOrder sasSo : preparedSo.sasSos) {
+                    final SalesOrderInjectorThread task = new SalesOrderInjectorThread(sasSo,
+                            preparedSo.resolutionContext);
+                    tasks.add(new Callable<String>() {
+                        public String call() {
+                            String docNum = null;
+                            try {
+                                docNum = task.call();
+                            } finally {
+                                pendingSo.splitCompleted(docNum);
+                            }
+                            return docNum;
+                        }
+                    });
+                }
+                // splits which could not be submitted never complete by themselves
+                int submitted = persistSplits(enrichedSo.bizzySo, tasks).size();
+                for (int i = submitted; i < tasks.size(); i++) {
+                    pendingSo.splitCompleted(null);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Splits an enriched Bizzy SO by principal and discount, converts every
+     * split into a {@link SASSalesOrder} and assigns its document number, and
+     * resolves the header foreign keys shared by the resulting sibling
+     * documents in one go. A split which cannot be converted is logged and
+     * skipped without affecting its siblings. Holds a {@link DatabaseThrottle}
+     * permit, which is returned before the documents are submitted for
+     * persistence.
+     * 
+     * @param enrichedSo enriched Bizzy SO object to be prepared
+     * @return the SAS SO objects to be injected with their resolution context
+     * @throws RejectedExecutionException if interrupted while waiting for the
+     *                                    permit
+     */
+    private PreparedSalesOrder prepareSalesOrder(EnrichedSalesOrder enrichedSo) {
+        enterThrottle();
+        try {
+            return prepareSalesOrderThrottled(enrichedSo);
+        } finally {
+            DatabaseThrottle.exit();
+        }
+    }
+
+    /**
+     * Helper method of {@link #prepareSalesOrder(EnrichedSalesOrder)}, run
+     * while holding a {@link DatabaseThrottle} permit.
+     * 
+     * @param enrichedSo enriched Bizzy SO object to be prepared
+     * @return the SAS SO objects to be injected with their resolution context
+     */
+    private PreparedSalesOrder prepareSalesOrderThrottled(EnrichedSalesOrder enrichedSo) {
+        BizzySalesOrder bizzySo = enrichedSo.bizzySo;
+
+        ArrayList<SASSalesOrder> sasSos = new ArrayList<>();
+        int failedSplits = 0;
+        for (BizzySalesOrderLine[] soLineGroup : splitSoLines(bizzySo.orderLines)) {
             BizzySalesOrder splitBizzySo = new BizzySalesOrder(bizzySo);
             splitBizzySo.orderLines = soLineGroup;
 
-            SASSalesOrder sasSo = new SASSalesOrder(splitBizzySo);
-            SalesOrderInjectorThread task = new SalesOrderInjectorThread(sasSo);
-            Future<String> res = ThreadPoolManager.submitTask(task);
-            pendingResults.add(res);
+            try {
+                SASSalesOrder sasSo;
+                String orgTrx = enrichedSo.orgTrxs.get(soLineGroup[0].principalId);
+                if (enrichedSo.isTax != null && orgTrx != null) {
+                    sasSo = new SASSalesOrder(splitBizzySo, enrichedSo.isTax, orgTrx);
+                    sasSo.assignDocumentNo();
+                } else {
+                    // lookups which enrichment could not resolve fail here, as before enrichment
+                    sasSo = new SASSalesOrder(splitBizzySo, lookups);
+                }
+                sasSo.poReference = enrichedSo.orderKey;
+                sasSos.add(sasSo);
+            } catch (RuntimeException e) {
+                failedSplits++;
+                log.log(Level.SEVERE, "Failed to convert split Bizzy SO for BP " + bizzySo.bpHoldingNo, e);
+            }
+        }
+
+        ResolutionContext resolutionContext = ResolutionContext.create(sasSos.toArray(new DocHeader[sasSos.size()]));
+        return new PreparedSalesOrder(sasSos, failedSplits, resolutionContext);
+    }
+
+    /**
+     * Enriches the specified Bizzy SOs while holding a {@link DatabaseThrottle}
+     * permit, which is returned before the enriched SOs are handed over to the
+     * prepare stage.
+     * 
+     * @param bizzySos Bizzy Sales Order objects to be enriched
+     * @param keys     key of each Bizzy SO
+     * @return the enriched Bizzy SOs, in the same order as the specified array
+     * @throws RejectedExecutionException if interrupted while waiting for the
+     *                                    permit
+     * @see #enrichSalesOrders(BizzySalesOrder[], String[])
+     */
+    private List<EnrichedSalesOrder> enrichSalesOrdersThrottled(BizzySalesOrder[] bizzySos, String[] keys) {
+        enterThrottle();
+        try {
+            return enrichSalesOrders(bizzySos, keys);
+        } finally {
+            DatabaseThrottle.exit();
         }
+    }
 
-        ArrayList<String> insertedDocNums = new ArrayList<>();
-        for (Future<String> result : pendingResults) {
-            try {
-                String docNum = result.get();
+    /**
+     * Helper method to wait for a {@link DatabaseThrottle} permit from a stage
+     * task. Every call must be followed by a call to
+     * {@link DatabaseThrottle#exit()} in a finally block.
+     * 
+     * @throws RejectedExecutionException if interrupted while waiting
+     */
+    private static void enterThrottle() {
+        try {
+            DatabaseThrottle.enter();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for the database throttle", e);
+        }
+    }
+
+    /**
+     * Queries the principal and discount of every SO line in the specified Bizzy
+     * SOs, then the tax status of every BP location and the Org Trx of every BP
+     * and principal. Principals, tax statuses, and Org Trxs are resolved for the
+     * whole array at once, and discounts once per distinct BP, using set-based
+     * queries. Lines whose product is not found are reported individually.
+     * 
+     * @param bizzySos Bizzy Sales Order objects to be enriched
+     * @param keys     key of each Bizzy SO, see
+     *                 {@link IdempotencyIndex#getKey(BizzySalesOrder)}
+     * @return the enriched Bizzy SOs, in the same order as the specified array
+     */
+    @VisibleForBenchmark
+    public List<EnrichedSalesOrder> enrichSalesOrders(BizzySalesOrder[] bizzySos, String[] keys) {
+        HashSet<String> productIds = new HashSet<>();
+        HashMap<Integer, HashSet<String>> bpProductIds = new HashMap<>();
+        for (BizzySalesOrder bizzySo : bizzySos) {
+            if (!bpProductIds.containsKey(bizzySo.bpHoldingNo)) {
+                bpProductIds.put(bizzySo.bpHoldingNo, new HashSet<String>());
+            }
+
+            for (BizzySalesOrderLine soLine : bizzySo.orderLines) {
+                productIds.add(soLine.productId);
+                bpProductIds.get(bizzySo.bpHoldingNo).add(soLine.productId);
+            }
+        }
+
+        long lookupStart = InjectionMetrics.start();
+        Map<String, String> principals = lookups.getProductPrincipals(productIds);
+        InjectionMetrics.record(Stage.PRINCIPAL_LOOKUP, lookupStart);
+
+        HashMap<Integer, Map<String, Integer>> bpDiscounts = new HashMap<>();
+        for (Map.Entry<Integer, HashSet<String>> entry : bpProductIds.entrySet()) {
+            lookupStart = InjectionMetrics.start();
+            bpDiscounts.put(entry.getKey(),
+                    lookups.getProductDiscounts(entry.getValue(), entry.getKey(), principals));
+            InjectionMetrics.record(Stage.DISCOUNT_LOOKUP, lookupStart);
+        }
+
+        for (BizzySalesOrder bizzySo : bizzySos) {
+            Map<String, Integer> discounts = bpDiscounts.get(bizzySo.bpHoldingNo);
+            for (int i = 0; i < bizzySo.orderLines.length; i++) {
+                BizzySalesOrderLine soLine = bizzySo.orderLines[i];
+
+                String principal = principals.get(soLine.productId);
+                if (principal == null && log.isLoggable(Level.WARNING)) {
+                    log.warning(String.format("Product [%s] in line %d of Bizzy SO for BP %d not found in M_Product",
+                            soLine.productId, i + 1, bizzySo.bpHoldingNo));
+                }
+                soLine.principalId = principal;
+
+                Integer discount = discounts.get(soLine.productId);
+                soLine.discount = discount != null ? discount : -1;
+            }
+        }
+
+        HashSet<String> bpLocations = new HashSet<>();
+        HashMap<String, Set<String>> principalsByBp = new HashMap<>();
+        for (BizzySalesOrder bizzySo : bizzySos) {
+            if (bizzySo.bpLocationName != null) {
+                bpLocations.add(bizzySo.bpLocationName);
+            }
+
+            String bpCode = SalesOrderUtils.prependZeros(bizzySo.bpHoldingNo, SASSalesOrder.BP_ID_LENGTH);
+            if (!principalsByBp.containsKey(bpCode)) {
+                principalsByBp.put(bpCode, new HashSet<String>());
+            }
+            for (BizzySalesOrderLine soLine : bizzySo.orderLines) {
+                principalsByBp.get(bpCode).add(soLine.principalId);
+            }
+        }
+
+        Map<String, Boolean> isTaxes = lookups.getBPLocationIsTax(bpLocations);
+        Map<String, Map<String, String>> orgTrxs = lookups.getOrgTrxs(principalsByBp);
+
+        ArrayList<EnrichedSalesOrder> enrichedSos = new ArrayList<>();
+        for (int i = 0; i < bizzySos.length; i++) {
+            BizzySalesOrder bizzySo = bizzySos[i];
+            String bpCode = SalesOrderUtils.prependZeros(bizzySo.bpHoldingNo, SASSalesOrder.BP_ID_LENGTH);
+            enrichedSos.add(new EnrichedSalesOrder(bizzySo, keys[i], isTaxes.get(bizzySo.bpLocationName),
+                    orgTrxs.get(bpCode)));
+        }
+        return enrichedSos;
+    }
+
+    /**
+     * Bizzy SO whose lines have their principal and discount, together with the
+     * lookups shared by its split documents.
+     */
+    @VisibleForBenchmark
+    public class EnrichedSalesOrder {
+        /**
+         * Enriched Bizzy SO object
+         */
+        private final BizzySalesOrder bizzySo;
+
+        /**
+         * Key of {@link #bizzySo}, or null if it is not deduplicated
+         */
+        private final String orderKey;
+
+        /**
+         * Whether the BP location of {@link #bizzySo} is taxed, or null if the BP
+         * location was not found
+         */
+        private final Boolean isTax;
+
+        /**
+         * Mapping between principal and Org Trx of the BP of {@link #bizzySo}
+         */
+        private final Map<String, String> orgTrxs;
+
+        /**
+         * Default constructor
+         * 
+         * @param bizzySo  Bizzy SO object whose lines have been enriched
+         * @param orderKey key of the Bizzy SO, can be null
+         * @param isTax    whether the BP location is taxed, can be null
+         * @param orgTrxs  mapping between principal and Org Trx of the BP
+         */
+        public EnrichedSalesOrder(BizzySalesOrder bizzySo, String orderKey, Boolean isTax,
+                Map<String, String> orgTrxs) {
+            this.bizzySo = bizzySo;
+            this.orderKey = orderKey;
+            this.isTax = isTax;
+            this.orgTrxs = orgTrxs;
+        }
+    }
+
+    /**
+     * Helper class to collect the results of the split documents of one
+     * submitted Bizzy SO, notifying the listener after the last one completes.
+     */
+    class PendingSalesOrder {
+        /**
+         * Number of split documents which have not completed yet. Guarded by
+         * {@link #insertedDocNums}.
+         */
+        private int remaining;
+
+        /**
+         * Number of split documents which failed to be converted or injected.
+         * Guarded by {@link #insertedDocNums}.
+         */
+        private int failed;
+
+        /**
+         * Document numbers of the split documents successfully inserted
+         */
+        private final ArrayList<String> insertedDocNums = new ArrayList<>();
+
+        /**
+         * Key of the Bizzy SO, or null if it is not deduplicated
+         */
+        private final String orderKey;
+
+        /**
+         * Listener to be notified once all split documents complete
+         */
+        private final IInjectionListener listener;
+
+        /**
+         * Default constructor
+         * 
+         * @param splitCount   number of split documents of the Bizzy SO to be
+         *                     injected
+         * @param failedSplits number of split documents of the Bizzy SO which
+         *                     failed to be converted
+         * @param orderKey     key of the Bizzy SO, can be null
+         * @param listener     listener to be notified once all split documents
+         *                     complete
+         */
+        public PendingSalesOrder(int splitCount, int failedSplits, String orderKey, IInjectionListener listener) {
+            this.remaining = splitCount;
+            this.failed = failedSplits;
+            this.orderKey = orderKey;
+            this.listener = listener;
+
+            if (splitCount == 0) {
+                finish(insertedDocNums.toString());
+            }
+        }
+
+        /**
+         * Records the result of one split document.
+         * 
+         * @param docNum document number of the injected split document, or null
+         *               if inject failed
+         */
+        public void splitCompleted(String docNum) {
+            String result;
+            synchronized (insertedDocNums) {
                 if (docNum != null) {
                     insertedDocNums.add(docNum);
+                } else {
+                    failed += 1;
+                }
+
+                remaining -= 1;
+                if (remaining > 0) {
+                    return;
                 }
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
+                result = insertedDocNums.toString();
             }
+
+            finish(result);
         }
 
-        return insertedDocNums.toString();
+        /**
+         * Helper method to record the outcome in the {@link IdempotencyIndex}
+         * and notify the listener, once every split document completed.
+         * 
+         * @param result document numbers of the split documents injected
+         */
+        private void finish(String result) {
+            if (failed == 0) {
+                IdempotencyIndex.complete(orderKey, insertedDocNums);
+            } else {
+                IdempotencyIndex.fail(orderKey, insertedDocNums, notFullyInjected(orderKey, insertedDocNums));
+            }
+            listener.injectionCompleted(result);
+        }
     }
 
     /**
@@ -82,32 +799,105 @@ public class SalesOrderInjector {
          */
         private SASSalesOrder sasSo;
 
+        /**
+         * Foreign keys already resolved for {@link #sasSo} and its siblings
+         */
+        private ResolutionContext resolutionContext;
+
         /**
          * Default constructor
          * 
-         * @param sasSo SAS SO object to be inserted in {@link #call()}
+         * @param sasSo             SAS SO object to be inserted in {@link #call()}
+         * @param resolutionContext foreign keys already resolved for the SAS SO
+         *                          and its siblings, can be null
          */
-        public SalesOrderInjectorThread(SASSalesOrder sasSo) {
+        public SalesOrderInjectorThread(SASSalesOrder sasSo, ResolutionContext resolutionContext) {
             this.sasSo = sasSo;
+            this.resolutionContext = resolutionContext;
         }
 
         /**
          * @return document number of the injected, or null if inject failed
          */
         public String call() {
-            DocumentInjector inj = new DocumentInjector(SALES_ORDER_WINDOW_ID, SALES_ORDER_MENU_ID);
+            IDocumentInjector inj = engine.create(SALES_ORDER_WINDOW_ID, SALES_ORDER_MENU_ID, resolutionContext);
+            inj.setRollbackOnly(rollbackOnly);
             boolean injectSuccess = inj.injectDocument(sasSo);
             return injectSuccess ? sasSo.documentNo : null;
         }
     }
 
     /**
-     * Helper method to split Bizzy SO lines based on principal and discount
+     * SAS SO objects converted from the splits of one Bizzy SO, together with
+     * their shared header foreign keys.
+     */
+    class PreparedSalesOrder {
+        /**
+         * SAS SO objects to be injected
+         */
+        private final List<SASSalesOrder> sasSos;
+
+        /**
+         * Number of splits which failed to be converted into SAS SO objects
+         */
+        private final int failedSplits;
+
+        /**
+         * Foreign keys already resolved for all of {@link #sasSos}
+         */
+        private final ResolutionContext resolutionContext;
+
+        /**
+         * Default constructor
+         * 
+         * @param sasSos            SAS SO objects to be injected
+         * @param failedSplits      number of splits which failed to be converted
+         * @param resolutionContext foreign keys already resolved for the SAS SO
+         *                          objects
+         */
+        public PreparedSalesOrder(List<SASSalesOrder> sasSos, int failedSplits, ResolutionContext resolutionContext) {
+            this.sasSos = sasSos;
+            this.failedSplits = failedSplits;
+            this.resolutionContext = resolutionContext;
+        }
+    }
+
+    /**
+     * Split documents of one Bizzy SO submitted for persistence, together with
+     * the number of splits which never got that far.
+     */
+    class SubmittedSalesOrder {
+        /**
+         * Number of splits which failed to be converted into SAS SO objects
+         */
+        private final int failedSplits;
+
+        /**
+         * Pending injection of every converted split, each resulting in its
+         * document number or null
+         */
+        private final List<Future<String>> pendingInjections;
+
+        /**
+         * Default constructor
+         * 
+         * @param failedSplits      number of splits which failed to be converted
+         * @param pendingInjections pending injection of every converted split
+         */
+        public SubmittedSalesOrder(int failedSplits, List<Future<String>> pendingInjections) {
+            this.failedSplits = failedSplits;
+            this.pendingInjections = pendingInjections;
+        }
+    }
+
+    /**
+     * Helper method to split Bizzy SO lines based on principal and discount.
      * 
      * @param bizzySoLines array of Bizzy SO lines to be split
      * @return ArrayList of SO lines split by principal and discount
      */
-    private ArrayList<BizzySalesOrderLine[]> splitSoLines(BizzySalesOrderLine[] bizzySoLines) {
+    @VisibleForBenchmark
+    public static ArrayList<BizzySalesOrderLine[]> splitSoLines(BizzySalesOrderLine[] bizzySoLines) {
         HashMap<String, HashMap<Double, ArrayList<BizzySalesOrderLine>>> principalGrouping = new HashMap<>();
 
         for (int i = 0; i < bizzySoLines.length; i++) {
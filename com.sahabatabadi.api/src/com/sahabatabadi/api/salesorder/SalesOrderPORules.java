@@ -0,0 +1,121 @@
+package com.sahabatabadi.api.salesorder;
+
+import org.compiere.model.MBPartner;
+import org.compiere.model.MOrder;
+import org.compiere.model.MOrderLine;
+import org.compiere.model.MProduct;
+import org.compiere.model.PO;
+import org.compiere.util.Env;
+
+import com.sahabatabadi.api.IPOInjectionRule;
+import com.sahabatabadi.api.POInjector;
+
+/**
+ * Business logic {@link POInjector} runs on sales orders, in place of the
+ * callouts of the Sales Order window: BP defaults on the header, and product,
+ * quantity, pricing, and tax on the lines.
+ * 
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class SalesOrderPORules {
+    /**
+     * Private constructor, all methods are static.
+     */
+    private SalesOrderPORules() {
+    }
+
+    /**
+     * Registers the sales order rules with {@link POInjector}.
+     */
+    public static void register() {
+        POInjector.registerRule(SASSalesOrder.TABLE_NAME, new IPOInjectionRule() {
+            @Override
+            public String apply(PO po, PO parentPO) {
+                return applyOrderRule((MOrder) po);
+            }
+        });
+
+        POInjector.registerRule(SASSalesOrderLine.TABLE_NAME, new IPOInjectionRule() {
+            @Override
+            public String apply(PO po, PO parentPO) {
+                return applyOrderLineRule((MOrderLine) po, (MOrder) parentPO);
+            }
+        });
+    }
+
+    /**
+     * Removes the sales order rules from {@link POInjector}.
+     */
+    public static void unregister() {
+        POInjector.unregisterRule(SASSalesOrder.TABLE_NAME);
+        POInjector.unregisterRule(SASSalesOrderLine.TABLE_NAME);
+    }
+
+    /**
+     * Sets the defaults of the BP (price list, payment term, sales rep, invoice
+     * and delivery rules) on the order, keeping the BP locations and invoice BP
+     * specified by the document.
+     * 
+     * @param order order to be saved
+     * @return empty string if successful, the error message otherwise
+     */
+    private static String applyOrderRule(MOrder order) {
+        // org.compiere.model.CalloutOrder#bPartner
+        MBPartner bp = MBPartner.get(Env.getCtx(), order.getC_BPartner_ID());
+        if (bp == null) {
+            return "BP not found: " + order.getC_BPartner_ID();
+        }
+
+        int bpLocationId = order.getC_BPartner_Location_ID();
+        int billBpId = order.getBill_BPartner_ID();
+        int billLocationId = order.getBill_Location_ID();
+
+        order.setBPartner(bp);
+
+        if (bpLocationId > 0) {
+            order.setC_BPartner_Location_ID(bpLocationId);
+        }
+        if (billBpId > 0) {
+            order.setBill_BPartner_ID(billBpId);
+        }
+        if (billLocationId > 0) {
+            order.setBill_Location_ID(billLocationId);
+        }
+
+        // org.compiere.model.CalloutOrder#docType
+        order.setIsSOTrx(true);
+        return "";
+    }
+
+    /**
+     * Copies the header info to the line, then sets the UOM, ordered quantity,
+     * price, and tax of the line.
+     * 
+     * @param line  line to be saved
+     * @param order saved header of the line
+     * @return empty string if successful, the error message otherwise
+     */
+    private static String applyOrderLineRule(MOrderLine line, MOrder order) {
+        line.setHeaderInfo(order);
+
+        // org.compiere.model.CalloutOrder#product
+        MProduct product = MProduct.get(Env.getCtx(), line.getM_Product_ID());
+        if (product == null) {
+            return "Product not found: " + line.getM_Product_ID();
+        }
+        line.setProduct(product);
+
+        // org.compiere.model.CalloutOrder#qty
+        line.setQty(line.getQtyEntered());
+
+        // org.compiere.model.CalloutOrder#amt
+        line.setPrice();
+
+        // org.compiere.model.CalloutOrder#tax
+        if (!line.setTax()) {
+            return "No tax found for product " + line.getM_Product_ID();
+        }
+        return "";
+    }
+}
@@ -0,0 +1,164 @@
+package com.sahabatabadi.api.salesorder;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+import org.compiere.util.CLogger;
+
+import com.sahabatabadi.api.ErrorLogWriter;
+import com.sahabatabadi.api.InjectionMetrics;
+import com.sahabatabadi.api.InjectionRejectedException;
+import com.sahabatabadi.api.PipelineStage;
+import com.sahabatabadi.api.ThreadPoolManager;
+
+/**
+ * Stages Bizzy Sales Orders go through when injected by
+ * {@link SalesOrderInjector}, each with its own queue, workers, and statistics:
+ * <ol>
+ * <li>{@code enrich}: principal, discount, BP location tax status, and Org Trx
+ * lookups, shared by all orders of a batch. Entry of the pipeline, where RMI
+ * callers are admitted.</li>
+ * <li>{@code prepare}: splitting by principal and discount, conversion into
+ * {@link SASSalesOrder}, header foreign key resolution, and document
+ * numbering.</li>
+ * <li>persist: injection through the {@link ThreadPoolManager} pool.</li>
+ * <li>{@code errorLog}: writing failed records into the error log, see
+ * {@link ErrorLogWriter}.</li>
+ * </ol>
+ * Each stage feeds the next one and blocks when the next one is full, so RMI
+ * callers are only pushed back at the entry.
+ *
+ * @author Nicholas Alexander Limit
+ * @version 1.0
+ */
+public class SalesOrderPipeline {
+    /**
+     * Number of enrichment workers if {@code sas.api.stage.enrich.workers} is not
+     * set. Enrichment is set-based and batch-wide, so a few workers suffice.
+     */
+    public static final int DEFAULT_ENRICH_WORKERS = 2;
+
+    /**
+     * Capacity of the enrichment queue, in batches, if
+     * {@code sas.api.stage.enrich.queueCapacity} is not set
+     */
+    public static final int DEFAULT_ENRICH_QUEUE_CAPACITY = 100;
+
+    /**
+     * Number of preparation workers if {@code sas.api.stage.prepare.workers} is
+     * not set. Preparation is bound by document numbering, which locks the
+     * document type's sequence.
+     */
+    public static final int DEFAULT_PREPARE_WORKERS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Capacity of the preparation queue, in orders, if
+     * {@code sas.api.stage.prepare.queueCapacity} is not set
+     */
+    public static final int DEFAULT_PREPARE_QUEUE_CAPACITY = 1000;
+
+    private static CLogger log = CLogger.getCLogger(SalesOrderPipeline.class);
+
+    private static volatile PipelineStage enrichStage = createEnrichStage();
+    private static volatile PipelineStage prepareStage = createPrepareStage();
+
+    /**
+     * Private constructor, this class only has static members
+     */
+    private SalesOrderPipeline() {
+    }
+
+    /**
+     * Stops the running stages and creates new ones, following the current
+     * values of the stages' system properties.
+     */
+    public static void reinitialize() {
+        PipelineStage oldEnrichStage = enrichStage;
+        PipelineStage oldPrepareStage = prepareStage;
+
+        enrichStage = createEnrichStage();
+        prepareStage = createPrepareStage();
+
+        oldEnrichStage.shutdown();
+        oldPrepareStage.shutdown();
+    }
+
+    /**
+     * Stops the running stages. Orders already submitted are still processed.
+     */
+    public static void stop() {
+        if (log.isLoggable(Level.INFO))
+            log.info(getStatistics());
+        enrichStage.shutdown();
+        prepareStage.shutdown();
+    }
+
+    /**
+     * @return number of workers of the stages other than persist, which all
+     *         take a {@link com.sahabatabadi.api.DatabaseThrottle} permit for
+     *         their database work
+     */
+    public static int getStageWorkerCount() {
+        return enrichStage.getWorkerCount() + prepareStage.getWorkerCount() + ErrorLogWriter.getWorkerCount();
+    }
+
+    private static PipelineStage createEnrichStage() {
+        return new PipelineStage("enrich", DEFAULT_ENRICH_WORKERS, DEFAULT_ENRICH_QUEUE_CAPACITY);
+    }
+
+    private static PipelineStage createPrepareStage() {
+        return new PipelineStage("prepare", DEFAULT_PREPARE_WORKERS, DEFAULT_PREPARE_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Submits a task to the enrichment stage.
+     *
+     * @param <T>  return type of the task's result
+     * @param task task to be run
+     * @return a Future object representing pending completion of the task
+     * @throws InjectionRejectedException if submitted by an RMI caller and the
+     *                                    stage is full
+     */
+    static <T> Future<T> enrich(Callable<T> task) {
+        return enrichStage.submit(task);
+    }
+
+    /**
+     * Submits a task to the preparation stage.
+     *
+     * @param <T>  return type of the task's result
+     * @param task task to be run
+     * @return a Future object representing pending completion of the task
+     */
+    static <T> Future<T> prepare(Callable<T> task) {
+        return prepareStage.submit(task);
+    }
+
+    /**
+     * Submits tasks to the persistence stage.
+     *
+     * @param <T>   return type of the tasks' results
+     * @param tasks tasks to be run
+     * @return Future objects representing pending completion of the tasks, in
+     *         the same order as the specified tasks
+     */
+    static <T> List<Future<T>> persist(List<? extends Callable<T>> tasks) {
+        return ThreadPoolManager.submitTasks(tasks);
+    }
+
+    /**
+     * @return throughput, latency, and queue of every stage, followed by the
+     *         {@link InjectionMetrics}, for logging
+     */
+    public static String getStatistics() {
+        return new StringBuilder("Sales order pipeline:\n")
+                .append(enrichStage.getStatistics()).append("\n")
+                .append(prepareStage.getStatistics()).append("\n")
+                .append(ThreadPoolManager.getStatistics()).append("\n")
+                .append(ErrorLogWriter.getStatistics()).append("\n")
+                .append(InjectionMetrics.getStatistics())
+                .toString();
+    }
+}
@@ -3,11 +3,15 @@ package com.sahabatabadi.api.salesorder;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 
 import org.adempiere.base.IModelFactory;
@@ -16,6 +20,9 @@ import org.compiere.model.PO;
 import org.compiere.util.CLogger;
 import org.compiere.util.DB;
 
+import com.sahabatabadi.api.CoalescingLoader;
+import com.sahabatabadi.api.IBatchLoader;
+
 /**
  * Utility class to query the iDempiere database and store simple mappings.
  * 
@@ -25,6 +32,17 @@ import org.compiere.util.DB;
 public class SalesOrderUtils {
     protected static CLogger log = CLogger.getCLogger(SalesOrderUtils.class);
 
+    /**
+     * Maximum number of values bound in a single {@code IN (...)} clause. Larger
+     * sets are queried in chunks of this size.
+     */
+    public static final int MAX_IN_PARAMS = 1000;
+
+    /**
+     * Provider of the lookups enriching Bizzy SOs
+     */
+    private static volatile ILookupProvider lookupProvider = new JdbcLookupProvider();
+
     /**
      * Mapping between Org character (A/B/C/D/M) and Org name.
      */
@@ -65,6 +83,52 @@ public class SalesOrderUtils {
      */
     public static final Map<String, Integer> docTypeIdMap;
 
+    /**
+     * Coalesces principal lookups of products missing from
+     * {@link ProductCatalogIndex} across concurrent injections.
+     */
+    private static final CoalescingLoader<String, String> productPrincipalLoader = new CoalescingLoader<>(
+            new IBatchLoader<String, String>() {
+                @Override
+                public Map<String, String> loadAll(Set<String> productIds) {
+                    return queryProductPrincipals(productIds);
+                }
+            }, CoalescingLoader.DEFAULT_WINDOW_MS, MAX_IN_PARAMS);
+
+    /**
+     * Coalesces group lookups of products missing from
+     * {@link ProductCatalogIndex} across concurrent injections.
+     */
+    private static final CoalescingLoader<String, String> productGroupLoader = new CoalescingLoader<>(
+            new IBatchLoader<String, String>() {
+                @Override
+                public Map<String, String> loadAll(Set<String> productIds) {
+                    return queryProductGroups(productIds);
+                }
+            }, CoalescingLoader.DEFAULT_WINDOW_MS, MAX_IN_PARAMS);
+
+    /**
+     * Coalesces BP location tax status lookups across concurrent injections.
+     */
+    private static final CoalescingLoader<String, String> bpLocationIsTaxLoader = new CoalescingLoader<>(
+            new IBatchLoader<String, String>() {
+                @Override
+                public Map<String, String> loadAll(Set<String> bpLocations) {
+                    return queryBPLocationIsTax(bpLocations);
+                }
+            }, CoalescingLoader.DEFAULT_WINDOW_MS, MAX_IN_PARAMS);
+
+    /**
+     * Coalesces Philips Org Trx lookups across concurrent injections.
+     */
+    private static final CoalescingLoader<String, String> philipsOrgTrxLoader = new CoalescingLoader<>(
+            new IBatchLoader<String, String>() {
+                @Override
+                public Map<String, String> loadAll(Set<String> bpHoldingIds) {
+                    return queryPhilipsOrgTrx(bpHoldingIds);
+                }
+            }, CoalescingLoader.DEFAULT_WINDOW_MS, MAX_IN_PARAMS);
+
     /**
      * Initializes the mappings.
      */
@@ -128,6 +192,28 @@ public class SalesOrderUtils {
         docTypeIdMap = Collections.unmodifiableMap(tempDocTypeIdMap);
     }
 
+    /**
+     * @return provider of the lookups enriching Bizzy SOs
+     */
+    public static ILookupProvider getLookupProvider() {
+        return lookupProvider;
+    }
+
+    /**
+     * Replaces the provider of the lookups enriching Bizzy SOs. Injectors
+     * already created keep the provider they were created with. The plugin
+     * always enriches from the database through {@link JdbcLookupProvider}; other
+     * providers, e.g. an {@link InMemoryLookupProvider} loaded from a fixture,
+     * are only set by the benchmarks.
+     * 
+     * @param provider new lookup provider
+     */
+    public static void setLookupProvider(ILookupProvider provider) {
+        lookupProvider = provider;
+        if (log.isLoggable(Level.INFO))
+            log.info("Lookup provider: " + provider.getName());
+    }
+
     /**
      * Queries the database for an Org Trx given a BP number and principal.
      * 
@@ -144,36 +230,97 @@ public class SalesOrderUtils {
      */
     public static String getOrgTrx(String bpHoldingId, String principal) {
         if (principal.equals("Philips")) {
-            String retValue = null;
-            String orgTrxQuery = new StringBuilder()
-                .append("SELECT org.name\n") 
-                .append("FROM C_BPartner bp, SAS_BPRule r, AD_Org org\n") 
-                .append("WHERE bp.value = ? ") 
-                .append("    AND bp.c_bpartner_id = r.c_bpartner_id ") 
-                .append("    AND r.ad_orgtrx_id = org.ad_org_id ") 
-                .append("    AND (org.name LIKE 'TR%' OR org.name LIKE 'TGR');")
-                .toString();
+            return philipsOrgTrxLoader.load(bpHoldingId);
+        } else {
+            return orgTrxMap.get(principal);
+        }
+    }
 
-            PreparedStatement pstmt = null;
-            ResultSet rs = null;
-            try {
-                pstmt = DB.prepareStatement(orgTrxQuery, null);
-                pstmt.setString(1, bpHoldingId);
-                rs = pstmt.executeQuery();
-                if (rs.next())
-                    retValue = rs.getString(1);
-            } catch (Exception e) {
-                log.log(Level.SEVERE, orgTrxQuery, e);
-            } finally {
-                DB.close(rs, pstmt);
-                rs = null;
-                pstmt = null;
+    /**
+     * Resolves the Org Trx of several BP and principal pairs at once. Philips Org
+     * Trxs of all BPs are queried together.
+     * 
+     * @param principalsByBp mapping between five-digit BP number and the full
+     *                       principal names of the BP's products. Null
+     *                       principals are skipped.
+     * @return mapping between BP number and the mapping between principal and
+     *         full Org Trx name. Pairs without an Org Trx are absent from the
+     *         mapping.
+     * @see #getOrgTrx(String, String)
+     */
+    public static Map<String, Map<String, String>> getOrgTrxs(Map<String, Set<String>> principalsByBp) {
+        HashSet<String> philipsBps = new HashSet<>();
+        for (Map.Entry<String, Set<String>> entry : principalsByBp.entrySet()) {
+            if (entry.getValue().contains("Philips")) {
+                philipsBps.add(entry.getKey());
             }
+        }
 
-            return retValue;
-        } else {
-            return orgTrxMap.get(principal);
+        Map<String, String> philipsOrgTrxs = philipsBps.isEmpty() ? Collections.<String, String>emptyMap()
+                : philipsOrgTrxLoader.loadAll(philipsBps);
+
+        HashMap<String, Map<String, String>> orgTrxs = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : principalsByBp.entrySet()) {
+            HashMap<String, String> bpOrgTrxs = new HashMap<>();
+            for (String principal : entry.getValue()) {
+                if (principal == null) {
+                    continue;
+                }
+
+                String orgTrx = principal.equals("Philips") ? philipsOrgTrxs.get(entry.getKey())
+                        : orgTrxMap.get(principal);
+                if (orgTrx != null) {
+                    bpOrgTrxs.put(principal, orgTrx);
+                }
+            }
+            orgTrxs.put(entry.getKey(), bpOrgTrxs);
+        }
+        return orgTrxs;
+    }
+
+    /**
+     * Queries the database for the Philips/Signify Org Trx of every specified BP
+     * with one query.
+     * 
+     * @param bpHoldingIds Five-digit BP numbers
+     * @return Mapping between BP number and full Org Trx name. BPs without a
+     *         Philips Org Trx are absent from the mapping.
+     * @see #getOrgTrx(String, String)
+     */
+    private static Map<String, String> queryPhilipsOrgTrx(Collection<String> bpHoldingIds) {
+        HashMap<String, String> orgTrxs = new HashMap<>();
+        String orgTrxQuery = new StringBuilder()
+            .append("SELECT bp.value, org.name\n") 
+            .append("FROM C_BPartner bp, SAS_BPRule r, AD_Org org\n") 
+            .append("WHERE bp.value IN (").append(getPlaceholders(bpHoldingIds.size())).append(") ") 
+            .append("    AND bp.c_bpartner_id = r.c_bpartner_id ") 
+            .append("    AND r.ad_orgtrx_id = org.ad_org_id ") 
+            .append("    AND (org.name LIKE 'TR%' OR org.name LIKE 'TGR');")
+            .toString();
+
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            pstmt = DB.prepareStatement(orgTrxQuery, null);
+            int paramIndex = 1;
+            for (String bpHoldingId : bpHoldingIds) {
+                pstmt.setString(paramIndex++, bpHoldingId);
+            }
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                if (!orgTrxs.containsKey(rs.getString(1))) {
+                    orgTrxs.put(rs.getString(1), rs.getString(2));
+                }
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, orgTrxQuery, e);
+        } finally {
+            DB.close(rs, pstmt);
+            rs = null;
+            pstmt = null;
         }
+
+        return orgTrxs;
     }
 
     /**
@@ -187,6 +334,59 @@ public class SalesOrderUtils {
      * @return True if the BP location is a tax location, false otherwise.
      */
     public static boolean getBPLocationIsTax(String bpLocation) {
+        String retValue = bpLocationIsTaxLoader.load(bpLocation);
+        if (retValue == null) {
+            // names differing from the exact match, e.g. containing wildcards
+            retValue = queryBPLocationIsTax(bpLocation);
+        }
+
+        if (retValue == null)
+            log.fine("-");
+        else if (log.isLoggable(Level.FINE))
+            log.fine(retValue.toString());
+
+        if (retValue.equals("Y")) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Resolves the tax status of several BP locations at once.
+     * 
+     * @param bpLocations exact names of the BP locations
+     * @return mapping between BP location name and whether it is a tax location.
+     *         BP locations which are not found are absent from the mapping.
+     * @see #getBPLocationIsTax(String)
+     */
+    public static Map<String, Boolean> getBPLocationIsTax(Collection<String> bpLocations) {
+        Map<String, String> found = bpLocationIsTaxLoader.loadAll(bpLocations);
+
+        HashMap<String, Boolean> isTaxes = new HashMap<>();
+        for (String bpLocation : bpLocations) {
+            String retValue = found.get(bpLocation);
+            if (retValue == null) {
+                // names differing from the exact match, e.g. containing wildcards
+                retValue = queryBPLocationIsTax(bpLocation);
+            }
+
+            if (retValue != null) {
+                isTaxes.put(bpLocation, retValue.equals("Y"));
+            }
+        }
+        return isTaxes;
+    }
+
+    /**
+     * Queries the database for the tax status of a BP location matching the
+     * specified name pattern.
+     * 
+     * @param bpLocation name pattern of the BP location, matched with
+     *                   {@code LIKE}
+     * @return {@code "Y"} or {@code "N"}, or null if no BP location matches
+     */
+    private static String queryBPLocationIsTax(String bpLocation) {
         String retValue = null;
         String isTaxQuery = new StringBuilder()
             .append("SELECT istax\n") 
@@ -209,17 +409,47 @@ public class SalesOrderUtils {
             rs = null;
             pstmt = null;
         }
+        return retValue;
+    }
 
-        if (retValue == null)
-            log.fine("-");
-        else if (log.isLoggable(Level.FINE))
-            log.fine(retValue.toString());
+    /**
+     * Queries the database for the tax status of every specified BP location
+     * with one query.
+     * 
+     * @param bpLocations exact names of the BP locations
+     * @return Mapping between BP location name and {@code "Y"} or {@code "N"}.
+     *         BP locations not found are absent from the mapping.
+     */
+    private static Map<String, String> queryBPLocationIsTax(Collection<String> bpLocations) {
+        HashMap<String, String> isTaxs = new HashMap<>();
+        String isTaxQuery = new StringBuilder()
+            .append("SELECT name, istax\n") 
+            .append("FROM C_BPartner_Location\n") 
+            .append("WHERE name IN (").append(getPlaceholders(bpLocations.size())).append(");")
+            .toString();
 
-        if (retValue.equals("Y")) {
-            return true;
-        } else {
-            return false;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            pstmt = DB.prepareStatement(isTaxQuery, null);
+            int paramIndex = 1;
+            for (String bpLocation : bpLocations) {
+                pstmt.setString(paramIndex++, bpLocation);
+            }
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                if (!isTaxs.containsKey(rs.getString(1))) {
+                    isTaxs.put(rs.getString(1), rs.getString(2));
+                }
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, isTaxQuery, e);
+        } finally {
+            DB.close(rs, pstmt);
+            rs = null;
+            pstmt = null;
         }
+        return isTaxs;
     }
 
     /**
@@ -312,6 +542,281 @@ public class SalesOrderUtils {
         return discount;
     }
 
+    /**
+     * Queries the database for the principal/brand of every specified product in
+     * as few queries as possible. Products present in {@link ProductCatalogIndex}
+     * are answered from the index without querying the database.
+     * 
+     * @param productIds Product IDs of the products being queried. Have to match
+     *                   the entries in iDempiere's {@code M_Product} table.
+     *                   Example: {@code "AB0301485"}.
+     * @return Mapping between product ID and the full name of the product's
+     *         principal/brand, from the {@code name} field in the
+     *         {@code M_Product_Category} table. Products not found in the
+     *         database are absent from the mapping.
+     * @see #getProductPrincipal(String)
+     */
+    public static Map<String, String> getProductPrincipals(Collection<String> productIds) {
+        HashMap<String, String> principals = new HashMap<>();
+
+        List<String> productIdList = new ArrayList<>();
+        for (String productId : productIds) {
+            ProductCatalogIndex.ProductEntry entry = ProductCatalogIndex.find(productId);
+            if (entry != null) {
+                principals.put(productId, entry.principal);
+            } else {
+                productIdList.add(productId);
+            }
+        }
+
+        principals.putAll(productPrincipalLoader.loadAll(productIdList));
+
+        return principals;
+    }
+
+    /**
+     * Queries the database for the principal/brand of every specified product, in
+     * chunks of {@link #MAX_IN_PARAMS}.
+     * 
+     * @param productIds Product IDs of the products being queried
+     * @return Mapping between product ID and the product's principal/brand. Products
+     *         not found in the database are absent from the mapping.
+     */
+    private static Map<String, String> queryProductPrincipals(Collection<String> productIds) {
+        HashMap<String, String> principals = new HashMap<>();
+        List<String> productIdList = new ArrayList<>(productIds);
+        for (int from = 0; from < productIdList.size(); from += MAX_IN_PARAMS) {
+            List<String> chunk = productIdList.subList(from, Math.min(from + MAX_IN_PARAMS, productIdList.size()));
+            String principalQuery = new StringBuilder()
+                .append("SELECT p.value, c.name\n") 
+                .append("FROM M_Product p, M_Product_Category c\n") 
+                .append("WHERE p.value IN (").append(getPlaceholders(chunk.size())).append(")\n") 
+                .append("    AND p.m_product_category_id = c.m_product_category_id;")
+                .toString();
+
+            PreparedStatement pstmt = null;
+            ResultSet rs = null;
+            try {
+                pstmt = DB.prepareStatement(principalQuery, null);
+                for (int i = 0; i < chunk.size(); i++) {
+                    pstmt.setString(i + 1, chunk.get(i));
+                }
+                rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    if (!principals.containsKey(rs.getString(1))) {
+                        principals.put(rs.getString(1), rs.getString(2));
+                    }
+                }
+            } catch (Exception e) {
+                log.log(Level.SEVERE, principalQuery, e);
+            } finally {
+                DB.close(rs, pstmt);
+                rs = null;
+                pstmt = null;
+            }
+        }
+
+        return principals;
+    }
+
+    /**
+     * Queries the database for the discount of every specified product for one
+     * BP in as few queries as possible. The Org Trx of each distinct principal is
+     * resolved only once. Once {@link DiscountEngine} has been loaded, discounts
+     * are answered in memory and only the products' group1 is queried.
+     * 
+     * @param productIds         Product IDs of the products being queried. Have
+     *                           to match the entries in iDempiere's
+     *                           {@code M_Product} table. Example:
+     *                           {@code "AB0301485"}.
+     * @param bpHoldingNo        Five-digit BP number. For example, for "PIONEER
+     *                           ELEKTRIC", the value is {@code 03806}.
+     * @param productPrincipals  Mapping between product ID and the full principal
+     *                           name, as returned by
+     *                           {@link #getProductPrincipals(Collection)}.
+     *                           Products without a principal are skipped.
+     * @return Mapping between product ID and the product's discount list ID, from
+     *         the {@code sas_discountlist_id} field in the
+     *         {@code M_DiscountSchemaBreak} table. Products without a discount are
+     *         absent from the mapping.
+     * @see #getProductDiscount(String, int, String)
+     */
+    public static Map<String, Integer> getProductDiscounts(Collection<String> productIds, int bpHoldingNo,
+            Map<String, String> productPrincipals) {
+        HashMap<String, Integer> discounts = new HashMap<>();
+        String bpCode = SalesOrderUtils.prependZeros(bpHoldingNo, SASSalesOrder.BP_ID_LENGTH);
+
+        HashMap<String, String> principalOrgTrxs = new HashMap<>();
+        HashMap<String, String> productOrgTrxs = new HashMap<>();
+        for (String productId : productIds) {
+            String principal = productPrincipals.get(productId);
+            if (principal == null) {
+                continue;
+            }
+
+            if (!principalOrgTrxs.containsKey(principal)) {
+                principalOrgTrxs.put(principal, SalesOrderUtils.getOrgTrx(bpCode, principal));
+            }
+
+            String orgTrx = principalOrgTrxs.get(principal);
+            if (orgTrx != null) {
+                productOrgTrxs.put(productId, orgTrx);
+            }
+        }
+
+        if (DiscountEngine.isLoaded()) {
+            Map<String, String> productGroups = getProductGroups(productOrgTrxs.keySet());
+            for (Map.Entry<String, String> entry : productOrgTrxs.entrySet()) {
+                int discount = DiscountEngine.getDiscount(productGroups.get(entry.getKey()), bpCode, entry.getValue());
+                if (discount != -1) {
+                    discounts.put(entry.getKey(), discount);
+                }
+            }
+            return discounts;
+        }
+
+        List<String> orgTrxList = new ArrayList<>(new HashSet<>(productOrgTrxs.values()));
+        List<String> productIdList = new ArrayList<>(productOrgTrxs.keySet());
+        for (int from = 0; from < productIdList.size(); from += MAX_IN_PARAMS) {
+            List<String> chunk = productIdList.subList(from, Math.min(from + MAX_IN_PARAMS, productIdList.size()));
+            String discountQuery = new StringBuilder()
+                .append("SELECT p.value, o.name, brk.sas_discountlist_id\n") 
+                .append("FROM M_Product p, \n") 
+                .append("    C_BPartner bp, \n") 
+                .append("    SAS_BPRule r, \n") 
+                .append("    AD_Org o, \n") 
+                .append("    M_DiscountSchemaBreak brk\n") 
+                .append("WHERE p.value IN (").append(getPlaceholders(chunk.size())).append(") \n") 
+                .append("    AND bp.value = ? \n") 
+                .append("    AND o.name IN (").append(getPlaceholders(orgTrxList.size())).append(") \n") 
+                .append("    AND bp.c_bpartner_id = r.c_bpartner_id \n") 
+                .append("    AND r.ad_orgtrx_id = o.ad_org_id \n") 
+                .append("    AND brk.group1 = p.group1 \n") 
+                .append("    AND brk.m_discountschema_id = r.m_discountschema_id;")
+                .toString();
+
+            PreparedStatement pstmt = null;
+            ResultSet rs = null;
+            try {
+                pstmt = DB.prepareStatement(discountQuery, null);
+                int paramIndex = 1;
+                for (String productId : chunk) {
+                    pstmt.setString(paramIndex++, productId);
+                }
+                pstmt.setString(paramIndex++, bpCode);
+                for (String orgTrx : orgTrxList) {
+                    pstmt.setString(paramIndex++, orgTrx);
+                }
+                rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    String productId = rs.getString(1);
+                    if (!discounts.containsKey(productId) && rs.getString(2).equals(productOrgTrxs.get(productId))) {
+                        discounts.put(productId, rs.getInt(3));
+                    }
+                }
+            } catch (Exception e) {
+                log.log(Level.SEVERE, discountQuery, e);
+            } finally {
+                DB.close(rs, pstmt);
+                rs = null;
+                pstmt = null;
+            }
+        }
+
+        return discounts;
+    }
+
+    /**
+     * Queries the database for the product group of every specified product in
+     * as few queries as possible. Products present in {@link ProductCatalogIndex}
+     * are answered from the index without querying the database.
+     * 
+     * @param productIds Product IDs of the products being queried. Have to match
+     *                   the entries in iDempiere's {@code M_Product} table.
+     *                   Example: {@code "AB0301485"}.
+     * @return Mapping between product ID and the product's group, from the
+     *         {@code group1} field in the {@code M_Product} table. Products not
+     *         found in the database are absent from the mapping.
+     */
+    public static Map<String, String> getProductGroups(Collection<String> productIds) {
+        HashMap<String, String> groups = new HashMap<>();
+
+        List<String> productIdList = new ArrayList<>();
+        for (String productId : productIds) {
+            ProductCatalogIndex.ProductEntry entry = ProductCatalogIndex.find(productId);
+            if (entry != null) {
+                groups.put(productId, entry.group1);
+            } else {
+                productIdList.add(productId);
+            }
+        }
+
+        groups.putAll(productGroupLoader.loadAll(productIdList));
+
+        return groups;
+    }
+
+    /**
+     * Queries the database for the product group of every specified product, in
+     * chunks of {@link #MAX_IN_PARAMS}.
+     * 
+     * @param productIds Product IDs of the products being queried
+     * @return Mapping between product ID and the product's product group. Products
+     *         not found in the database are absent from the mapping.
+     */
+    private static Map<String, String> queryProductGroups(Collection<String> productIds) {
+        HashMap<String, String> groups = new HashMap<>();
+        List<String> productIdList = new ArrayList<>(productIds);
+        for (int from = 0; from < productIdList.size(); from += MAX_IN_PARAMS) {
+            List<String> chunk = productIdList.subList(from, Math.min(from + MAX_IN_PARAMS, productIdList.size()));
+            String groupQuery = new StringBuilder()
+                .append("SELECT p.value, p.group1\n") 
+                .append("FROM M_Product p\n") 
+                .append("WHERE p.value IN (").append(getPlaceholders(chunk.size())).append(");")
+                .toString();
+
+            PreparedStatement pstmt = null;
+            ResultSet rs = null;
+            try {
+                pstmt = DB.prepareStatement(groupQuery, null);
+                for (int i = 0; i < chunk.size(); i++) {
+                    pstmt.setString(i + 1, chunk.get(i));
+                }
+                rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    if (!groups.containsKey(rs.getString(1))) {
+                        groups.put(rs.getString(1), rs.getString(2));
+                    }
+                }
+            } catch (Exception e) {
+                log.log(Level.SEVERE, groupQuery, e);
+            } finally {
+                DB.close(rs, pstmt);
+                rs = null;
+                pstmt = null;
+            }
+        }
+
+        return groups;
+    }
+
+    /**
+     * Helper method to build a comma-separated list of JDBC placeholders.
+     * 
+     * @param count number of placeholders
+     * @return placeholders, e.g. {@code "?,?,?"} for a count of 3
+     */
+    private static String getPlaceholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append("?");
+        }
+        return sb.toString();
+    }
+
     /**
      * Prepends zeros to the specified integer until the number reaches the
      * specified length.